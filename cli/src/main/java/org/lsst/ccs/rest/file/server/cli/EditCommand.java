@@ -14,10 +14,13 @@ import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedOutputStream;
 import java.util.zip.Checksum;
+import org.lsst.ccs.rest.file.server.client.IfMatchOpenOption;
+import org.lsst.ccs.rest.file.server.client.VersionConflictException;
 import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -55,7 +58,9 @@ public class EditCommand implements Callable<Void> {
     public Void call() throws Exception {
         try (FileSystem restfs = parent.createFileSystem()) {
             Path restPath = restfs.getPath(path);
-            boolean isVersionedFile = (boolean) Files.getAttribute(restPath, "isVersionedFile");
+            // Read once: whether the file is versioned, and the latest version the edit must not overwrite
+            Map<String, Object> attributes = Files.readAttributes(restPath, "*");
+            boolean isVersionedFile = (boolean) attributes.get("isVersionedFile");
             Path tempPath = Files.createTempFile("rest-file-server", "edit");
             OpenOption[] options = isVersionedFile ? new OpenOption[]{VersionOpenOption.of(version)} : new OpenOption[0];
             try (InputStream in = Files.newInputStream(restPath, options)) {
@@ -63,8 +68,12 @@ public class EditCommand implements Callable<Void> {
             }
             if (invokeEditor(tempPath)) {
                 if (isVersionedFile) {
-                    try (OutputStream out = Files.newOutputStream(restPath)) {
+                    int expectedLatest = (int) attributes.get("latestVersion");
+                    try (OutputStream out = Files.newOutputStream(restPath, IfMatchOpenOption.latestVersion(expectedLatest))) {
                         Files.copy(tempPath, out);
+                    } catch (VersionConflictException x) {
+                        throw new IOException(String.format("%s was changed while being edited (latest version is now %d), the edit was not saved but is in %s",
+                                path, x.getLatestVersion(), tempPath), x);
                     }
                     int latestVersion = (int) Files.getAttribute(restPath, "latestVersion");
                     System.out.printf("New version (%d) was created\n", latestVersion);
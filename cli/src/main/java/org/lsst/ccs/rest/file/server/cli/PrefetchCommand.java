@@ -0,0 +1,109 @@
+package org.lsst.ccs.rest.file.server.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.implementation.RestFileSystem;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ * Command that fills the local disk cache with the files a subsystem will
+ * need, so that it can later start without the server.
+ * <p>
+ * Paths are given on the command line or in a manifest file with one entry
+ * per line: a path, optionally followed by a version ({@code default},
+ * {@code latest} or a number). Blank lines and lines starting with {@code #}
+ * are ignored.
+ */
+@Command(name = "prefetch", usageHelpAutoWidth = true, description = "Fetch files into the local cache for offline use")
+public class PrefetchCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private TopLevelCommand parent;
+
+    @Parameters(paramLabel = "<path>", arity = "0..*", description = "Files or directories to prefetch")
+    private List<String> paths = new ArrayList<>();
+
+    @Option(names = {"-f", "--manifest"}, description = "File listing the paths (and optional versions) to prefetch")
+    private File manifest;
+
+    @Option(names = {"-R", "--recursive"}, description = "Include subdirectories")
+    private boolean recursive;
+
+    @Option(names = {"-j", "--jobs"}, description = "Maximum number of requests in flight", defaultValue = "8",
+            showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+    private int jobs;
+
+    @Option(names = {"--fresh"}, description = "List the entries that were already fresh in the cache")
+    private boolean listFresh;
+
+    @Option(names = {"-q", "--quiet"}, description = "Do not report progress")
+    private boolean quiet;
+
+    @Override
+    /**
+     * Executes the prefetch command.
+     *
+     * @return 0 if everything was prefetched, 1 if any path failed
+     * @throws IOException if the manifest cannot be read or the file system
+     * cannot be created
+     */
+    public Integer call() throws IOException {
+        Map<String, Object> options = new HashMap<>();
+        options.put(RestFileSystemOptions.ASYNC_CONCURRENCY, jobs);
+        try (FileSystem restfs = parent.createFileSystem(options, RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)) {
+            List<Path> toFetch = new ArrayList<>();
+            for (String path : paths) {
+                toFetch.add(restfs.getPath(path));
+            }
+            if (manifest != null) {
+                for (String line : Files.readAllLines(manifest.toPath())) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] tokens = line.split("\\s+");
+                    if (tokens.length > 2) {
+                        throw new IOException("Invalid manifest line: " + line);
+                    }
+                    toFetch.add(restfs.getPath(tokens.length == 2 ? Utils.withVersion(tokens[0], tokens[1]) : tokens[0]));
+                }
+            }
+            if (toFetch.isEmpty()) {
+                toFetch.add(restfs.getPath("/"));
+            }
+            PrefetchReport.Listener listener = quiet ? null : (path, outcome, completed, total)
+                    -> System.err.printf("[%d/%d] %-7s %s%n", completed, total, outcome, path);
+            PrefetchReport report;
+            try {
+                report = ((RestFileSystem) restfs).async().prefetchAsync(toFetch, recursive, listener).get();
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException("Interrupted during prefetch");
+            } catch (ExecutionException x) {
+                throw new IOException("Prefetch failed", x.getCause());
+            }
+            if (listFresh) {
+                report.getFreshPaths().forEach(p -> System.out.println("fresh " + p));
+            }
+            report.getFailures().forEach((p, x) -> System.out.println("failed " + p + ": " + x));
+            System.out.printf("%d fetched, %d already fresh, %d failed%n", report.getCount(PrefetchReport.Outcome.FETCHED),
+                    report.getCount(PrefetchReport.Outcome.FRESH), report.getCount(PrefetchReport.Outcome.FAILED));
+            return report.getFailures().isEmpty() ? 0 : 1;
+        }
+    }
+}
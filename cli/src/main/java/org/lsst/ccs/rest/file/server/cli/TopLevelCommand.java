@@ -6,6 +6,7 @@ import java.net.URI;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.util.HashMap;
+import java.util.Map;
 import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -26,6 +27,7 @@ import picocli.CommandLine.Option;
     ListCommand.class, 
     DiffCommand.class,
     MoveCommand.class,
+    PrefetchCommand.class,
     MakeDirectoryCommand.class,
     SetCommand.class,
     HelpCommand.class})
@@ -71,10 +73,25 @@ public class TopLevelCommand {
      * @throws IOException if the file system cannot be created
      */
     FileSystem createFileSystem() throws IOException {
+        return createFileSystem(Map.of(), null);
+    }
+
+    /**
+     * Creates a {@link FileSystem} with additional options for one command.
+     *
+     * @param extraOptions options to add to those from the command line
+     * @param defaultCacheOptions the caching to use when {@code --cacheOptions}
+     * is not given, or {@code null} for the client default
+     * @return a new file system instance
+     * @throws IOException if the file system cannot be created
+     */
+    FileSystem createFileSystem(Map<String, Object> extraOptions, RestFileSystemOptions.CacheOptions defaultCacheOptions) throws IOException {
         URI uri = URI.create(restServer);
-        HashMap<String, Object> options = new HashMap<>();
+        HashMap<String, Object> options = new HashMap<>(extraOptions);
         if (cacheOptions != null) {
             options.put(RestFileSystemOptions.CACHE_OPTIONS, cacheOptions);
+        } else if (defaultCacheOptions != null) {
+            options.put(RestFileSystemOptions.CACHE_OPTIONS, defaultCacheOptions);
         }
         if (cacheFallback != null) {
             options.put(RestFileSystemOptions.CACHE_FALLBACK, cacheFallback);
@@ -33,6 +33,24 @@ class Utils {
         }
     }
 
+    /**
+     * Adds a version to a path using the {@code name(version).ext} form
+     * understood by the client, for example {@code dir/file.txt} and
+     * {@code 3} give {@code dir/file(3).txt}.
+     *
+     * @param path the path of a versioned file
+     * @param version {@code default}, {@code latest} or a version number
+     * @return the path naming that version
+     */
+    static String withVersion(String path, String version) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot > slash + 1 && path.substring(dot + 1).matches("[a-zA-Z]*")) {
+            return path.substring(0, dot) + "(" + version + ")" + path.substring(dot);
+        }
+        return path + "(" + version + ")";
+    }
+
     /**
      * Creates a builder for an array of {@link OpenOption} values.
      *
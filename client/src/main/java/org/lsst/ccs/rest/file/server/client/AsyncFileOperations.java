@@ -0,0 +1,116 @@
+package org.lsst.ccs.rest.file.server.client;
+
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking versions of the common file operations of a {@code ccs://}
+ * file system, obtained from {@code RestFileSystem.async()}. Many requests can
+ * be started at once without a thread per request; each mount limits how many
+ * are sent to the server at the same time (see
+ * {@link RestFileSystemOptions#ASYNC_CONCURRENCY}) and queues the rest.
+ * Reads go through the same cache as the synchronous API.
+ * <p>
+ * When an operation fails, the cause reported by the returned future is the
+ * same {@link java.io.IOException} the synchronous method would throw, for
+ * example {@link java.io.FileNotFoundException}.
+ */
+public interface AsyncFileOperations {
+
+    /**
+     * Reads the content of a file.
+     *
+     * @param path the file to read, a path of this file system
+     * @param options open options, as for {@link java.nio.file.Files#newInputStream}
+     * @return a future completed with the file content
+     */
+    CompletableFuture<byte[]> readAllBytesAsync(Path path, OpenOption... options);
+
+    /**
+     * Reads the basic attributes of a file or directory. For a versioned
+     * file these are the attributes of the default version, or of the version
+     * named in the path.
+     *
+     * @param path the file to read, a path of this file system
+     * @return a future completed with the attributes
+     */
+    CompletableFuture<BasicFileAttributes> readAttributesAsync(Path path);
+
+    /**
+     * Lists the entries of a directory.
+     *
+     * @param dir the directory, a path of this file system
+     * @return a future completed with the paths of the directory entries
+     */
+    CompletableFuture<List<Path>> listAsync(Path dir);
+
+    /**
+     * Writes a file, creating a new version if it is a versioned file.
+     *
+     * @param path the file to write, a path of this file system
+     * @param content the new content
+     * @param options open options, as for {@link java.nio.file.Files#newOutputStream}
+     * @return a future completed once the server has stored the file
+     */
+    CompletableFuture<Void> uploadAsync(Path path, byte[] content, OpenOption... options);
+
+    /**
+     * Writes a file from the content of a local file, creating a new version
+     * if it is a versioned file. This is the fast way to copy a local file to
+     * the server: the file is streamed from disk with its length known in
+     * advance, with no intermediate copies.
+     *
+     * @param path the file to write, a path of this file system
+     * @param localFile the file to upload, a path of the default file system
+     * @param options open options, as for {@link java.nio.file.Files#newOutputStream}
+     * @return a future completed once the server has stored the file
+     */
+    CompletableFuture<Void> uploadAsync(Path path, Path localFile, OpenOption... options);
+
+    /**
+     * Returns the files written behind that have not reached the server yet
+     * (see {@link RestFileSystemOptions#WRITE_BEHIND}). Until a file is
+     * uploaded, reads of it that name no version return the content last
+     * written to it; other operations, such as listing the directory or
+     * reading attributes, see the server as it is.
+     *
+     * @return the files, in the order they will be uploaded; empty if the
+     * mount does not write behind
+     */
+    List<Path> getPendingWrites();
+
+    /**
+     * Uploads the files written behind without waiting for the next retry,
+     * and reports when they have reached the server. Call this before an
+     * operation that must not overtake earlier writes, for example deleting
+     * a file.
+     *
+     * @return a future completed once every file pending when called has been
+     * uploaded, or failed with the exception of a file the server refused;
+     * completed at once if the mount does not write behind
+     */
+    CompletableFuture<Void> flushWritesAsync();
+
+    /**
+     * Fills the cache with everything needed to read the given paths later,
+     * including while offline: attributes, directory listings and the
+     * content of files. For a versioned file the default and latest versions
+     * are fetched, or only the version named in the path (for example
+     * {@code file(3).txt}). A directory brings in the files it contains, and
+     * with {@code recursive} its subdirectories too.
+     * <p>
+     * Requires a mount with caching enabled, normally {@code MEMORY_AND_DISK}.
+     * A path that fails is recorded in the report rather than failing the
+     * whole prefetch.
+     *
+     * @param paths the files and directories to prefetch
+     * @param recursive {@code true} to descend into subdirectories
+     * @param listener notified as each path completes; may be {@code null}
+     * @return a future completed with the report once every path is done
+     */
+    CompletableFuture<PrefetchReport> prefetchAsync(Collection<? extends Path> paths, boolean recursive, PrefetchReport.Listener listener);
+}
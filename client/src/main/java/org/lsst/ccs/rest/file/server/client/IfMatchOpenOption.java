@@ -0,0 +1,66 @@
+package org.lsst.ccs.rest.file.server.client;
+
+import java.nio.file.OpenOption;
+
+/**
+ * Makes a write to a versioned file conditional on nobody else having added a
+ * version since the writer last looked. The new version is only stored if
+ * the file's latest version is still the one given; otherwise the write fails
+ * with a {@link VersionConflictException} and nothing is stored. The check and
+ * the write are made atomically by the server, in the same request as the
+ * upload.
+ * <p>
+ * For example, to write back an edit of the latest version:
+ * <pre>
+ * int latest = (int) Files.getAttribute(path, "latestVersion");
+ * ... read and edit version latest ...
+ * Files.write(path, edited, IfMatchOpenOption.latestVersion(latest));
+ * </pre>
+ */
+public class IfMatchOpenOption implements OpenOption {
+
+    private final String value;
+
+    private IfMatchOpenOption(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Creates an option requiring the given version to be the latest.
+     *
+     * @param version the expected latest version
+     * @return the option
+     */
+    public static IfMatchOpenOption latestVersion(int version) {
+        if (version < 1) {
+            throw new IllegalArgumentException("Invalid version: " + version);
+        }
+        return new IfMatchOpenOption("\"" + version + "\"");
+    }
+
+    /**
+     * Creates an option requiring the latest version to be the content
+     * downloaded with the given entity tag.
+     *
+     * @param eTag the {@code ETag} header of the download, for example
+     * {@code W/"18c2d1f0a3e-1f4"}
+     * @return the option
+     */
+    public static IfMatchOpenOption eTag(String eTag) {
+        return new IfMatchOpenOption(eTag);
+    }
+
+    /**
+     * Returns the value sent in the {@code If-Match} header.
+     *
+     * @return the header value
+     */
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "IfMatch " + value;
+    }
+}
@@ -0,0 +1,104 @@
+package org.lsst.ccs.rest.file.server.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The result of warming the cache with
+ * {@link AsyncFileOperations#prefetchAsync}: for every file and directory
+ * visited, whether anything had to be transferred from the server.
+ */
+public class PrefetchReport {
+
+    /**
+     * What prefetching one path involved.
+     */
+    public enum Outcome {
+        /** At least one response body was transferred from the server. */
+        FETCHED,
+        /** Everything was already cached and current (or, for a mount that does not revalidate, cached). */
+        FRESH,
+        /** A request failed; see {@link #getFailures()}. */
+        FAILED
+    }
+
+    /**
+     * Receives progress while a prefetch runs. Called from the threads
+     * completing the requests, so implementations must be thread safe and
+     * should return quickly.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called as each path completes.
+         *
+         * @param path the path just prefetched
+         * @param outcome what it involved
+         * @param completed the number of paths completed so far
+         * @param total the number of paths found so far; grows as
+         * directories are listed
+         */
+        void prefetched(Path path, Outcome outcome, int completed, int total);
+    }
+
+    private final Map<Path, Outcome> outcomes;
+    private final Map<Path, IOException> failures;
+
+    /**
+     * Creates a report.
+     *
+     * @param outcomes the outcome for every path visited
+     * @param failures the error for every failed path
+     */
+    public PrefetchReport(Map<Path, Outcome> outcomes, Map<Path, IOException> failures) {
+        this.outcomes = Collections.unmodifiableMap(outcomes);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return the outcome for every path visited
+     */
+    public Map<Path, Outcome> getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * @return the error for every path that could not be prefetched
+     */
+    public Map<Path, IOException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the paths that were already fresh in the cache
+     */
+    public List<Path> getFreshPaths() {
+        return getPaths(Outcome.FRESH);
+    }
+
+    /**
+     * @param outcome the outcome to select
+     * @return the paths with that outcome
+     */
+    public List<Path> getPaths(Outcome outcome) {
+        return outcomes.entrySet().stream().filter(e -> e.getValue() == outcome).map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    /**
+     * @param outcome the outcome to count
+     * @return the number of paths with that outcome
+     */
+    public int getCount(Outcome outcome) {
+        return (int) outcomes.values().stream().filter(o -> o == outcome).count();
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchReport{" + "fetched=" + getCount(Outcome.FETCHED) + ", fresh=" + getCount(Outcome.FRESH) + ", failed=" + getCount(Outcome.FAILED) + '}';
+    }
+}
@@ -2,6 +2,7 @@ package org.lsst.ccs.rest.file.server.client;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import org.lsst.ccs.rest.file.server.client.implementation.RestFileSystemProvider;
@@ -19,7 +20,95 @@ public class RestFileSystemOptions {
     public final static String CACHE_LOGGING = "CacheLogging";
     public final static String USE_SSL = "UseSSL";
     public final static String CACHE_LOCATION = "CacheLocation";
+    /**
+     * Spill flag for the global cache location. Ignored since the disk cache
+     * can be shared by several processes (ADR 0004); kept so that existing
+     * {@link #DEFAULT_ENV_PROPERTY} values still parse.
+     */
     public final static String ALLOW_ALTERNATE_CACHE_LOCATION = "CacheFallbackLocation";
+    /**
+     * Total size in bytes of the in-memory cache tier, shared by every mount
+     * in the JVM. Global like {@link #CACHE_LOCATION}: read from
+     * {@link #DEFAULT_ENV_PROPERTY} or {@link #setCacheMemoryBudget(long)}.
+     * Accepts a number or a string with a {@code K}, {@code M} or {@code G}
+     * suffix.
+     */
+    public final static String CACHE_MEMORY_BYTES = "CacheMemoryBytes";
+    /**
+     * Fraction (0 to 1) of the in-memory cache budget a single mount may use.
+     * Per mount; defaults to 1, i.e. no per-mount limit.
+     */
+    public final static String CACHE_MEMORY_SHARE = "CacheMemoryShare";
+    /**
+     * Maximum size in bytes of the on-disk cache. Global, read from
+     * {@link #DEFAULT_ENV_PROPERTY} like {@link #CACHE_MEMORY_BYTES}; least
+     * recently used entries are removed in the background once it is exceeded.
+     */
+    public final static String CACHE_DISK_BYTES = "CacheDiskBytes";
+    /**
+     * How long an entry may be served without waiting for the server under
+     * {@link CacheFallback#STALE_WHILE_REVALIDATE}. Per mount; a
+     * {@link java.time.Duration}, a number of seconds, or a string with an
+     * {@code s}, {@code m}, {@code h} or {@code d} suffix. Defaults to 5 minutes.
+     */
+    public final static String CACHE_MAX_STALENESS = "CacheMaxStaleness";
+    /**
+     * Maximum number of requests a mount sends at once through its
+     * {@link AsyncFileOperations}; further requests are queued. Per mount,
+     * default 8.
+     */
+    public final static String ASYNC_CONCURRENCY = "AsyncConcurrency";
+    /**
+     * How the mount talks to the server, one of {@link Transport}. Per mount,
+     * default {@link Transport#DEFAULT}.
+     */
+    public final static String TRANSPORT = "Transport";
+    /**
+     * Connect timeout, in the same forms as {@link #CACHE_MAX_STALENESS}.
+     * Per mount, default 3 seconds.
+     */
+    public final static String CONNECT_TIMEOUT = "ConnectTimeout";
+    /**
+     * Read timeout for a response of small or unknown size, in the same forms
+     * as {@link #CACHE_MAX_STALENESS}. The timeout for a larger response whose
+     * size can be predicted is extended by the time the transfer should take
+     * at the throughput measured so far. Per mount, default 3 seconds.
+     */
+    public final static String READ_TIMEOUT = "ReadTimeout";
+    /**
+     * Latency percentile, between 0 and 100, after which a GET the server has
+     * not answered is sent again, using whichever response arrives first. At
+     * most one request in ten is hedged. Per mount; default 0, no hedging.
+     */
+    public final static String HEDGE_PERCENTILE = "HedgePercentile";
+    /**
+     * Maximum number of idle connections kept open by the
+     * {@link Transport#HTTP2} transport. JVM-wide, taken from the first
+     * HTTP/2 mount created; default unlimited.
+     */
+    public final static String CONNECTION_POOL_SIZE = "ConnectionPoolSize";
+    /**
+     * How long the {@link Transport#HTTP2} transport keeps an idle connection
+     * open, in the same forms as {@link #CACHE_MAX_STALENESS}. JVM-wide like
+     * {@link #CONNECTION_POOL_SIZE}; default 20 minutes.
+     */
+    public final static String CONNECTION_KEEP_ALIVE = "ConnectionKeepAlive";
+    /**
+     * Size in bytes of the chunks in which an output stream sends a file to
+     * the server. A writer waits only when the network falls a few chunks
+     * behind. Per mount, default 1 MB.
+     */
+    public final static String UPLOAD_BUFFER_SIZE = "UploadBufferSize";
+    /**
+     * {@code true} to write files behind: closing an output stream commits
+     * the file to a journal under the disk cache location and returns, and a
+     * background thread uploads the journal in order, retrying while the
+     * server cannot be reached. Writes still pending when the mount is closed
+     * are uploaded when it is next opened. See
+     * {@link AsyncFileOperations#getPendingWrites()}. Per mount, default
+     * {@code false}.
+     */
+    public final static String WRITE_BEHIND = "WriteBehind";
     public final static String AUTH_TOKEN = "JWTToken";
     public final static String MOUNT_POINT = "MountPoint";
 
@@ -54,7 +143,14 @@ public class RestFileSystemOptions {
         /** Always use the alternate cache if available. */
         ALWAYS,
         /** Use the alternate cache when possible. */
-        WHEN_POSSIBLE;
+        WHEN_POSSIBLE,
+        /**
+         * Serve cached entries immediately and check them with the server in
+         * the background. An entry not confirmed within
+         * {@link #CACHE_MAX_STALENESS} is checked before it is served, as with
+         * {@link #OFFLINE}.
+         */
+        STALE_WHILE_REVALIDATE;
     };
 
     /**
@@ -69,6 +165,20 @@ public class RestFileSystemOptions {
         AUTO
     };
 
+    /**
+     * HTTP client used to talk to the server.
+     */
+    public enum Transport {
+        /** Jersey's default connector, on {@code HttpURLConnection}. */
+        DEFAULT,
+        /**
+         * {@code java.net.http.HttpClient}, negotiating HTTP/2 so that parallel
+         * requests share one multiplexed connection, with pooled HTTP/1.1
+         * connections for servers without HTTP/2.
+         */
+        HTTP2
+    };
+
     /**
      * Creates a builder for assembling an environment map.
      *
@@ -129,6 +239,134 @@ public class RestFileSystemOptions {
             return this;
         }
 
+        /**
+         * Sets the transport used to talk to the server.
+         *
+         * @param transport transport to use
+         * @return this builder for method chaining
+         */
+        public Builder set(Transport transport) {
+            map.put(TRANSPORT, transport);
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout and the read timeout for responses of small
+         * or unknown size.
+         *
+         * @param connect the connect timeout
+         * @param read the base read timeout
+         * @return this builder for method chaining
+         */
+        public Builder timeouts(Duration connect, Duration read) {
+            if (connect.isNegative() || read.isNegative()) {
+                throw new IllegalArgumentException("Invalid timeouts: " + connect + ", " + read);
+            }
+            map.put(CONNECT_TIMEOUT, connect);
+            map.put(READ_TIMEOUT, read);
+            return this;
+        }
+
+        /**
+         * Hedges GETs not answered by the given latency percentile.
+         *
+         * @param percentile between 0 and 100, 0 to disable hedging
+         * @return this builder for method chaining
+         */
+        public Builder hedgeAt(double percentile) {
+            if (percentile < 0 || percentile >= 100) {
+                throw new IllegalArgumentException("Invalid hedge percentile: " + percentile);
+            }
+            map.put(HEDGE_PERCENTILE, percentile);
+            return this;
+        }
+
+        /**
+         * Configures the connection pool of the {@link Transport#HTTP2}
+         * transport. JVM-wide; only the first HTTP/2 mount's settings apply.
+         *
+         * @param poolSize maximum idle connections kept, 0 for no limit
+         * @param keepAlive how long an idle connection is kept
+         * @return this builder for method chaining
+         */
+        public Builder connectionPool(int poolSize, Duration keepAlive) {
+            if (poolSize < 0 || keepAlive.isNegative()) {
+                throw new IllegalArgumentException("Invalid connection pool: " + poolSize + ", " + keepAlive);
+            }
+            map.put(CONNECTION_POOL_SIZE, poolSize);
+            map.put(CONNECTION_KEEP_ALIVE, keepAlive);
+            return this;
+        }
+
+        /**
+         * Sets the size of the chunks in which files are uploaded.
+         *
+         * @param bytes the chunk size, at least 1 KB
+         * @return this builder for method chaining
+         */
+        public Builder uploadBufferSize(int bytes) {
+            if (bytes < 1024) {
+                throw new IllegalArgumentException("Invalid upload buffer size: " + bytes);
+            }
+            map.put(UPLOAD_BUFFER_SIZE, bytes);
+            return this;
+        }
+
+        /**
+         * Enables or disables writing files behind, see {@link #WRITE_BEHIND}.
+         *
+         * @param writeBehind {@code true} to upload files in the background
+         * @return this builder for method chaining
+         */
+        public Builder writeBehind(boolean writeBehind) {
+            map.put(WRITE_BEHIND, writeBehind);
+            return this;
+        }
+
+        /**
+         * Sets the maximum staleness for
+         * {@link CacheFallback#STALE_WHILE_REVALIDATE}.
+         *
+         * @param maxStaleness how long an entry may be served without waiting
+         * for the server
+         * @return this builder for method chaining
+         */
+        public Builder cacheMaxStaleness(Duration maxStaleness) {
+            if (maxStaleness.isNegative()) {
+                throw new IllegalArgumentException("Invalid cache max staleness: " + maxStaleness);
+            }
+            map.put(CACHE_MAX_STALENESS, maxStaleness);
+            return this;
+        }
+
+        /**
+         * Sets how many asynchronous requests this mount may have in flight.
+         *
+         * @param maxConcurrent the maximum, at least 1
+         * @return this builder for method chaining
+         */
+        public Builder asyncConcurrency(int maxConcurrent) {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("Invalid async concurrency: " + maxConcurrent);
+            }
+            map.put(ASYNC_CONCURRENCY, maxConcurrent);
+            return this;
+        }
+
+        /**
+         * Limits this mount to a share of the JVM-wide memory cache budget.
+         *
+         * @param share fraction of the budget, between 0 and 1
+         * @return this builder for method chaining
+         */
+        public Builder cacheMemoryShare(double share) {
+            if (share < 0 || share > 1) {
+                throw new IllegalArgumentException("Invalid cache memory share: " + share);
+            }
+            map.put(CACHE_MEMORY_SHARE, share);
+            return this;
+        }
+
         /**
          * Supplies an authorization token to be used with requests.
          *
@@ -185,4 +423,18 @@ public class RestFileSystemOptions {
     public static void setCacheLocation(Path location) {
         RestFileSystemProvider.setCacheLocation(location);
     }
+
+    /**
+     * Sets the JVM-global memory cache budget in bytes. Like
+     * {@link #setCacheLocation(Path)} this must be called before the first
+     * caching file system is opened, and takes precedence over the
+     * {@link #CACHE_MEMORY_BYTES} value in {@link #DEFAULT_ENV_PROPERTY}.
+     *
+     * @param bytes the maximum number of bytes to keep in memory
+     * @throws IllegalArgumentException if {@code bytes} is not positive
+     * @throws IllegalStateException if the cache is already configured
+     */
+    public static void setCacheMemoryBudget(long bytes) {
+        RestFileSystemProvider.setCacheMemoryBudget(bytes);
+    }
 }
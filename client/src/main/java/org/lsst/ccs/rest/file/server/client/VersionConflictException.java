@@ -0,0 +1,33 @@
+package org.lsst.ccs.rest.file.server.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a write made with an {@link IfMatchOpenOption} is refused,
+ * because another version has been added to the file since the writer last
+ * read it, or because the file is not a versioned file.
+ */
+public class VersionConflictException extends IOException {
+
+    private final int latestVersion;
+
+    /**
+     * @param message the server's explanation
+     * @param latestVersion the file's latest version when the write was
+     * refused, or 0 if it is not a versioned file
+     */
+    public VersionConflictException(String message, int latestVersion) {
+        super(message);
+        this.latestVersion = latestVersion;
+    }
+
+    /**
+     * Returns the latest version of the file when the write was refused, to
+     * read and merge before trying again.
+     *
+     * @return the latest version, or 0 if the file is not a versioned file
+     */
+    public int getLatestVersion() {
+        return latestVersion;
+    }
+}
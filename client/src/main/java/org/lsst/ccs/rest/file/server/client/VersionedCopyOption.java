@@ -0,0 +1,13 @@
+package org.lsst.ccs.rest.file.server.client;
+
+import java.nio.file.CopyOption;
+
+/**
+ * Additional copy options for use with versioned files. By default a copy of
+ * a versioned file has all of its versions, with their comments and the
+ * history of default version changes.
+ */
+public enum VersionedCopyOption implements CopyOption {
+    /** Copy only the default version, which becomes version 1 of the copy. */
+    DEFAULT_VERSION_ONLY
+}
@@ -9,5 +9,11 @@ import java.nio.file.OpenOption;
  */
 public enum VersionedOpenOption implements OpenOption {
    /** Open a version file diff. */
-   DIFF
+   DIFF,
+   /**
+    * Write a new version by sending only its differences from the latest
+    * version, when the mount's cache holds that version. Otherwise, or if
+    * the server cannot use the delta, the whole file is sent.
+    */
+   DELTA
 }
@@ -0,0 +1,206 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import org.glassfish.jersey.client.ClientProperties;
+
+/**
+ * Sets the read timeout of each GET a mount sends to the server from the
+ * size of the response expected and the throughput observed so far, and
+ * keeps the response latencies used to decide when to hedge (see
+ * {@link Hedger}).
+ * <p>
+ * Registered with a priority above the cache filters, so that it sees only
+ * requests which actually go to the server, and reads response bodies before
+ * {@link CacheResponseFilter} buffers them.
+ */
+class AdaptiveTimeouts implements ClientRequestFilter, ClientResponseFilter {
+
+    /**
+     * Request property giving the expected size of the response body in
+     * bytes, when known; set by {@link CacheRequestFilter} from the cached
+     * copy being revalidated.
+     */
+    static final String EXPECTED_SIZE = AdaptiveTimeouts.class.getName() + ".expectedSize";
+    private static final String START_TIME = AdaptiveTimeouts.class.getName() + ".startTime";
+
+    private static final int LATENCY_SAMPLES = 256;
+    // Fewer samples than this give no useful percentile, so no hedging.
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    // Bodies smaller than this measure latency rather than throughput.
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 64 * 1024;
+    private static final double ASSUMED_THROUGHPUT = 1024 * 1024;
+    private static final double MIN_THROUGHPUT = 64 * 1024;
+    private static final double THROUGHPUT_WEIGHT = 0.2;
+    // Allow for the transfer taking this many times longer than expected.
+    private static final int TRANSFER_SAFETY_FACTOR = 3;
+    private static final long MAX_READ_TIMEOUT_MILLIS = Duration.ofMinutes(10).toMillis();
+    // At most one request in this many is hedged.
+    private static final int HEDGE_BUDGET = 10;
+
+    private final long readTimeoutMillis;
+    private final double hedgePercentile;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private double throughput;
+    private long requests;
+    private long hedges;
+
+    /**
+     * @param readTimeout the read timeout for a response of unknown or small
+     * size
+     * @param hedgePercentile the latency percentile (0 to 100) after which an
+     * unanswered GET is hedged, or 0 not to hedge
+     */
+    AdaptiveTimeouts(Duration readTimeout, double hedgePercentile) {
+        this.readTimeoutMillis = readTimeout.toMillis();
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    @Override
+    public void filter(ClientRequestContext ctx) throws IOException {
+        if (!ctx.getMethod().equalsIgnoreCase("GET")) {
+            return;
+        }
+        Object expected = ctx.getProperty(EXPECTED_SIZE);
+        ctx.setProperty(ClientProperties.READ_TIMEOUT, (int) getReadTimeoutMillis(expected instanceof Number ? ((Number) expected).longValue() : 0));
+        ctx.setProperty(START_TIME, System.nanoTime());
+        synchronized (this) {
+            requests++;
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+        Object start = request.getProperty(START_TIME);
+        if (!(start instanceof Long)) {
+            return;
+        }
+        long startTime = (Long) start;
+        recordLatency(System.nanoTime() - startTime);
+        if (response.hasEntity() && response.getLength() != 0) {
+            response.setEntityStream(new CountingInputStream(response.getEntityStream(), startTime));
+        }
+    }
+
+    /**
+     * Computes the read timeout for a response of the given size.
+     *
+     * @param expectedBytes the expected size of the body, 0 if unknown
+     * @return the timeout in milliseconds
+     */
+    synchronized long getReadTimeoutMillis(long expectedBytes) {
+        if (expectedBytes <= 0) {
+            return readTimeoutMillis;
+        }
+        double rate = Math.max(throughput > 0 ? throughput : ASSUMED_THROUGHPUT, MIN_THROUGHPUT);
+        long transferMillis = (long) (TRANSFER_SAFETY_FACTOR * 1000.0 * expectedBytes / rate);
+        return Math.min(readTimeoutMillis + Math.min(transferMillis, MAX_READ_TIMEOUT_MILLIS), Math.max(readTimeoutMillis, MAX_READ_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @return the delay after which an unanswered GET is hedged, in
+     * milliseconds, or -1 if hedging is off or too few requests have been
+     * timed yet
+     */
+    synchronized long getHedgeDelayMillis() {
+        if (hedgePercentile <= 0 || latencyCount < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        int n = Math.min(latencyCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(n - 1, Math.ceil(hedgePercentile / 100 * n) - 1);
+        return Math.max(1, sorted[Math.max(0, index)] / 1_000_000);
+    }
+
+    /**
+     * Takes a hedge from the budget, so that hedging cannot more than
+     * slightly increase the load on the server when it is slow for everyone.
+     *
+     * @return {@code true} if a hedged request may be sent
+     */
+    synchronized boolean tryHedge() {
+        if (hedges * HEDGE_BUDGET > requests) {
+            return false;
+        }
+        hedges++;
+        return true;
+    }
+
+    /**
+     * @return the estimated throughput from the server in bytes per second,
+     * or 0 if no large enough response has been received
+     */
+    synchronized double getThroughput() {
+        return throughput;
+    }
+
+    synchronized void recordLatency(long nanos) {
+        latencies[latencyCount++ % LATENCY_SAMPLES] = nanos;
+        // Keep the count bounded but above the buffer size once it has filled.
+        if (latencyCount == 2 * LATENCY_SAMPLES) {
+            latencyCount = LATENCY_SAMPLES;
+        }
+    }
+
+    synchronized void recordTransfer(long bytes, long nanos) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        double rate = bytes * 1e9 / nanos;
+        throughput = throughput == 0 ? rate : THROUGHPUT_WEIGHT * rate + (1 - THROUGHPUT_WEIGHT) * throughput;
+    }
+
+    /**
+     * Records the throughput of a response body once it has been read to the
+     * end. Bodies closed early are not counted.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private final long startTime;
+        private long count;
+        private boolean recorded;
+
+        CountingInputStream(InputStream in, long startTime) {
+            super(in);
+            this.startTime = startTime;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                finished();
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                finished();
+            } else {
+                count += n;
+            }
+            return n;
+        }
+
+        private void finished() {
+            if (!recorded) {
+                recorded = true;
+                recordTransfer(count, System.nanoTime() - startTime);
+            }
+        }
+    }
+}
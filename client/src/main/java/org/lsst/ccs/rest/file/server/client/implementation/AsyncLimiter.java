@@ -0,0 +1,88 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous requests a mount has outstanding. Tasks
+ * beyond the limit are queued, without blocking the caller, and started as
+ * earlier ones complete.
+ */
+class AsyncLimiter {
+
+    private final int maxConcurrent;
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private int running;
+
+    AsyncLimiter(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Invalid async concurrency: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Starts a task now, or once a slot is free.
+     *
+     * @param <T> the result type
+     * @param task starts the asynchronous work and returns its completion
+     * @return a future completed with the task's result
+     */
+    <T> CompletableFuture<T> submit(Supplier<? extends CompletionStage<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletionStage<T> stage;
+            try {
+                stage = task.get();
+            } catch (RuntimeException x) {
+                stage = CompletableFuture.failedFuture(x);
+            }
+            stage.whenComplete((value, x) -> {
+                release();
+                if (x != null) {
+                    result.completeExceptionally(x);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        boolean runNow;
+        synchronized (this) {
+            runNow = running < maxConcurrent;
+            if (runNow) {
+                running++;
+            } else {
+                queue.add(start);
+            }
+        }
+        if (runNow) {
+            start.run();
+        }
+        return result;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null) {
+                running--;
+            }
+        }
+        // The slot passes directly to the next task.
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+}
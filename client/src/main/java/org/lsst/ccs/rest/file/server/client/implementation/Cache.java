@@ -7,22 +7,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.Date;
-import java.util.Properties;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ws.rs.client.ClientResponseContext;
-import org.apache.commons.jcs3.JCS;
-import org.apache.commons.jcs3.access.CacheAccess;
-import org.apache.commons.jcs3.auxiliary.disk.indexed.IndexedDiskCache;
-import org.apache.commons.jcs3.engine.control.CompositeCacheManager;
-import org.apache.commons.jcs3.log.LogManager;
 import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
 
 /**
@@ -30,16 +20,25 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
  * cache is optional and its behaviour is controlled by
  * {@link RestFileSystemOptions}.
  * <p>
- * There is one cache per JVM (see ADR 0003): a single JCS {@code default}
- * region and, for {@code MEMORY_AND_DISK}, a single disk store at the resolved
- * global cache location, shared by every mount. {@code Cache} is policy-free
- * storage; the freshness/expiry policy lives in the per-mount
+ * There is one cache per JVM (see ADR 0003): a single byte-bounded
+ * {@link MemoryCache} and, for {@code MEMORY_AND_DISK}, a {@link SharedDiskCache}
+ * at the resolved global cache location, shared by every mount. The disk
+ * store can also be shared with other JVMs on the same host (see ADR 0004),
+ * so no lock is taken on the location. Each {@code Cache} instance is the
+ * view of one mount, which may be limited to a share of the memory budget.
+ * {@code Cache} is policy-free storage;
+ * the freshness/expiry policy lives in the per-mount
  * {@link CacheRequestFilter}.
  */
 class Cache implements Closeable {
 
-    private CacheAccess<URI, CacheEntry> map;
-    private FileLock lock;
+    private static final Logger LOG = Logger.getLogger(Cache.class.getName());
+
+    private final MemoryCache memory;
+    private final long memoryLimit;
+    private final Level logLevel;
+    private final String mountKey;
+    private SharedDiskCache disk;
     private Path diskCacheLocation;
 
     /**
@@ -49,83 +48,28 @@ class Cache implements Closeable {
      * @throws IOException if the cache cannot be initialised
      */
     Cache(RestFileSystemOptionsHelper options) throws IOException {
-
-        JCS.setLogSystem(LogManager.LOGSYSTEM_JAVA_UTIL_LOGGING);
-
-        if (!options.isCacheLogging()) {
-            Logger logger = Logger.getLogger("org.apache.commons.jcs3");
-            logger.setLevel(Level.WARNING);
-        }
-
-        Properties props = new Properties();
-        try ( InputStream in = Cache.class.getResourceAsStream("memory.ccf")) {
-            props.load(in);
-        }
-        if (options.getCacheOptions() == RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK) {
-            try ( InputStream in = Cache.class.getResourceAsStream("disk.ccf")) {
-                props.load(in);
-            }
-            Path cacheLocation = lockCacheLocation();
-            this.diskCacheLocation = cacheLocation;
-            props.setProperty("jcs.auxiliary.DC.attributes.DiskPath", cacheLocation.toAbsolutePath().toString());
-        }
-        CompositeCacheManager ccm = CompositeCacheManager.getUnconfiguredInstance();
-        ccm.configure(props);
-        map = JCS.getInstance("default");
+        this(options, null);
     }
 
     /**
-     * Acquires the disk-cache location for this JVM. The lock on
-     * {@code <loc>/lockFile} has three outcomes, distinguished by the fact that
-     * a Java {@link FileLock} is JVM-scoped:
-     * <ul>
-     *   <li>{@code tryLock()} returns a lock &rarr; nobody holds it; this mount
-     *       owns the location and keeps the lock.</li>
-     *   <li>{@link OverlappingFileLockException} &rarr; another mount in
-     *       <em>this</em> JVM already holds it (a foreign process would instead
-     *       yield {@code null}); share the location, taking no lock.</li>
-     *   <li>{@code tryLock()} returns {@code null} &rarr; another <em>process</em>
-     *       holds it; spill to {@code <loc>-N} if allowed, else fail.</li>
-     * </ul>
-     * The lock is only a cross-JVM guard. Note: it is held by whichever mount
-     * acquires it first and released when <em>that</em> mount closes, not when
-     * the last sharer closes.
+     * Creates a new cache instance for a mount.
      *
-     * @return the resolved disk-cache location
-     * @throws IOException if no usable location can be locked
+     * @param options user supplied configuration
+     * @param mountKey a stable identifier of the mount, used to protect its
+     * most recently used disk entries from compaction; may be {@code null}
+     * @throws IOException if the cache cannot be initialised
      */
-    private Path lockCacheLocation() throws IOException {
-        Path base = RestFileSystemOptionsHelper.getGlobalCacheLocation();
-        boolean allowAlternate = RestFileSystemOptionsHelper.allowAlternateCacheLocation();
-        Path cacheLocation = base;
-        for (int n = 1; n < 100; n++) {
-            Files.createDirectories(cacheLocation);
-            if (!(Files.isDirectory(cacheLocation) || Files.isWritable(cacheLocation))) {
-                throw new IOException("Invalid cache location: " + cacheLocation);
-            }
-            Path lockFile = cacheLocation.resolve("lockFile");
-            FileChannel lockFileChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            try {
-                lock = lockFileChannel.tryLock();
-                if (lock != null) {
-                    return cacheLocation;
-                }
-                // Another process holds the lock on this location.
-                lockFileChannel.close();
-                if (!allowAlternate) {
-                    throw new IOException("Cache already in use: " + cacheLocation);
-                }
-                // Spill to a flat sibling of the base (<base>-1, <base>-2, …); suffix
-                // the pristine base, not the already-suffixed candidate, or the names
-                // compound (<base>-1-2-3).
-                cacheLocation = base.resolveSibling(base.getFileName() + "-" + n);
-            } catch (OverlappingFileLockException x) {
-                // Another mount in this JVM already holds the lock; share the location.
-                lockFileChannel.close();
-                return cacheLocation;
-            }
+    Cache(RestFileSystemOptionsHelper options, String mountKey) throws IOException {
+        this.mountKey = mountKey;
+        logLevel = options.isCacheLogging() ? Level.INFO : Level.FINE;
+        memory = MemoryCache.getInstance();
+        SharedCacheMetrics.getInstance().register();
+        memoryLimit = (long) (memory.getMaxBytes() * options.getCacheMemoryShare());
+        if (options.getCacheOptions() == RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK) {
+            Path cacheLocation = RestFileSystemOptionsHelper.getGlobalCacheLocation();
+            disk = SharedDiskCache.getInstance(cacheLocation);
+            this.diskCacheLocation = cacheLocation;
         }
-        throw new IOException("Cache already in use and unable to get alternate cache location");
     }
 
     /**
@@ -138,30 +82,72 @@ class Cache implements Closeable {
         return diskCacheLocation;
     }
 
+    /**
+     * Looks up an entry, first in memory and then on disk. An entry found on
+     * disk (possibly written by another JVM) is promoted into memory.
+     *
+     * @param uri the request URI
+     * @return the cached entry, or {@code null}
+     */
     CacheEntry getEntry(URI uri) {
-        return map.get(uri);
+        CacheEntry entry = memory.get(uri);
+        if (entry == null && disk != null) {
+            entry = disk.get(uri);
+            if (entry != null) {
+                LOG.log(logLevel, "Loaded {0} from disk cache", uri);
+                memory.put(uri, entry, this, memoryLimit);
+            }
+        }
+        if (entry != null) {
+            recordAccess(uri);
+        }
+        return entry;
     }
 
-    void cacheResponse(ClientResponseContext response, URI uri) throws IOException {
-        map.put(uri, new CacheEntry(response));
+    CacheEntry cacheResponse(ClientResponseContext response, URI uri) throws IOException {
+        CacheEntry entry = new CacheEntry(response);
+        putEntry(uri, entry);
+        return entry;
     }
 
-    @Override
-    public void close() throws IOException {
-        // This is super ugly, but otherwise we always get a SEVERE error because
-        // the cache manager appears to shutdown the auxilliary disk cache once when it shuts
-        // down the memory cache, and then again when it shuts down the auxilliary caches. This
-        // looks like a bug, so here we turn off logging to avoid confusing messsages.
+    /**
+     * Stores an entry in memory and, when a disk store is configured, writes it
+     * through to disk so that it survives restarts and is visible to other JVMs.
+     *
+     * @param uri the request URI
+     * @param entry the entry to store
+     * @throws IOException if the entry cannot be written to disk
+     */
+    void putEntry(URI uri, CacheEntry entry) throws IOException {
+        LOG.log(logLevel, "Caching {0} ({1} bytes)", new Object[]{uri, entry.getContent().length});
+        memory.put(uri, entry, this, memoryLimit);
+        if (disk != null) {
+            disk.put(uri, entry);
+            recordAccess(uri);
+        }
+    }
 
-        Logger logger = Logger.getLogger(IndexedDiskCache.class.getName());
-        logger.setLevel(Level.OFF);
+    int getMemoryEntries() {
+        return memory.getEntries(this);
+    }
 
-        if (lock != null) {
-            lock.close();
-            lock.channel().close();
-            lock = null;
+    long getMemoryBytes() {
+        return memory.getBytes(this);
+    }
+
+    private void recordAccess(URI uri) {
+        if (disk != null && mountKey != null) {
+            disk.recordAccess(mountKey, uri);
         }
+    }
 
+    @Override
+    public void close() throws IOException {
+        // Entries are written through as they are cached and there is no lock
+        // on the location (ADR 0004); only the recently used list is saved.
+        if (disk != null) {
+            disk.flushRecent();
+        }
     }
 
     /**
@@ -174,8 +160,13 @@ class Cache implements Closeable {
         private String mediaType;
         private byte[] bytes;
         private volatile int updateCount = 0;
+        // When the server last confirmed this content; 0 for entries written
+        // before this was recorded, which are therefore treated as stale.
+        private volatile long validated;
 
         static final long serialVersionUID = 1521062449875932852L;
+        // Rough allowance for the key, headers and object overhead of an entry.
+        private static final int ENTRY_OVERHEAD = 256;
 
         /**
          * Creates an empty cache entry. Used only for serialization.
@@ -184,6 +175,14 @@ class Cache implements Closeable {
 
         }
 
+        CacheEntry(String tag, Date lastModified, String mediaType, byte[] bytes) {
+            this.tag = tag;
+            this.lastModified = lastModified;
+            this.mediaType = mediaType;
+            this.bytes = bytes;
+            this.validated = System.currentTimeMillis();
+        }
+
         private CacheEntry(ClientResponseContext response) throws IOException {
             tag = response.getEntityTag() == null ? null : response.getEntityTag().toString();
             lastModified = response.getLastModified();
@@ -201,6 +200,7 @@ class Cache implements Closeable {
             out.close();
             bytes = out.toByteArray();
             response.setEntityStream(new ByteArrayInputStream(bytes));
+            validated = System.currentTimeMillis();
         }
 
         byte[] getContent() {
@@ -222,15 +222,41 @@ class Cache implements Closeable {
         /**
          * Called when the cache entry has been checked, and found to be up-to-date.
          * @param response The server response, used to extract the eTag and lastModified date.
+         * @return {@code true} if the validators changed, so the stored copy should be rewritten
          */
-        void updateCacheHeaders(ClientResponseContext response) {
-            tag = response.getEntityTag() == null ? null : response.getEntityTag().toString();
-            lastModified = response.getLastModified();
+        boolean updateCacheHeaders(ClientResponseContext response) {
+            String newTag = response.getEntityTag() == null ? null : response.getEntityTag().toString();
+            Date newLastModified = response.getLastModified();
+            boolean changed = !Objects.equals(tag, newTag) || !Objects.equals(lastModified, newLastModified);
+            tag = newTag;
+            lastModified = newLastModified;
+            validated = System.currentTimeMillis();
             updateCount++;
+            return changed;
         }
 
         int getUpdateCount() {
             return updateCount;
         }
+
+        /**
+         * The time since the server last confirmed this entry, either by
+         * sending it or by answering a conditional request with 304.
+         *
+         * @return the age in milliseconds
+         */
+        long getAgeMillis() {
+            return System.currentTimeMillis() - validated;
+        }
+
+        /**
+         * The approximate number of heap bytes held by this entry, used to
+         * charge it against the memory budget.
+         *
+         * @return the entry weight in bytes
+         */
+        long getWeight() {
+            return (bytes == null ? 0 : bytes.length) + ENTRY_OVERHEAD;
+        }
     }
 }
@@ -2,6 +2,7 @@ package org.lsst.ccs.rest.file.server.client.implementation;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Date;
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
@@ -16,9 +17,43 @@ import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
  */
 class CacheRequestFilter implements ClientRequestFilter {
 
+    /**
+     * Request property set when the response is served from the cache, so
+     * that {@link CacheResponseFilter}, which still sees the aborted response,
+     * leaves it alone.
+     */
+    static final String SERVED_FROM_CACHE = CacheRequestFilter.class.getName() + ".servedFromCache";
+    /**
+     * Request property marking a background revalidation issued by
+     * {@link Revalidator}; such a request always goes to the server.
+     */
+    static final String REVALIDATE = CacheRequestFilter.class.getName() + ".revalidate";
+    /**
+     * Response header added by the cache filters: {@code hit} when the
+     * response was served from the cache without contacting the server,
+     * {@code revalidated} when the server confirmed the cached copy. Absent
+     * when the body came from the server.
+     */
+    static final String CACHE_STATUS_HEADER = "X-Cache";
+    /**
+     * Request property holding the {@link Cache.CacheEntry} a conditional
+     * request revalidates, so that a 304 can be answered from it even if the
+     * cache has evicted it meanwhile.
+     */
+    static final String CACHED_ENTRY = CacheRequestFilter.class.getName() + ".cachedEntry";
+    /** Request property holding the {@link System#nanoTime()} a network request started. */
+    static final String START_TIME = CacheRequestFilter.class.getName() + ".startTime";
+
     private final Cache cache;
+    private final MountMetrics metrics;
+    private final long maxStalenessMillis;
     private boolean cacheOnly;
     private boolean doEntriesExpire;
+    private boolean staleWhileRevalidate;
+
+    // Reads of an entry confirmed this recently do not trigger another
+    // background check, so a burst of reads costs one request.
+    private static final long MIN_REVALIDATION_INTERVAL_MILLIS = 1000;
 
     /**
      * Creates a filter that serves requests from the local cache when
@@ -26,16 +61,25 @@ class CacheRequestFilter implements ClientRequestFilter {
      * live in {@code Cache} (see ADR 0003).
      *
      * @param cache the backing cache
+     * @param metrics the mount's metrics
      * @param cacheOnly {@code true} to avoid contacting the server and rely
      *                  solely on cached data
      * @param doEntriesExpire {@code true} if cached entries must be revalidated
      *                  against the server; {@code false} serves them directly
      *                  (the immutable-URL / {@code WHEN_POSSIBLE} case)
+     * @param staleWhileRevalidate {@code true} to serve expiring entries
+     *                  immediately and revalidate them in the background
+     * @param maxStaleness the age beyond which an entry is revalidated before
+     *                  it is served, in stale-while-revalidate mode
      */
-    CacheRequestFilter(Cache cache, boolean cacheOnly, boolean doEntriesExpire) {
+    CacheRequestFilter(Cache cache, MountMetrics metrics, boolean cacheOnly, boolean doEntriesExpire,
+            boolean staleWhileRevalidate, Duration maxStaleness) {
         this.cache = cache;
+        this.metrics = metrics;
         this.cacheOnly = cacheOnly;
         this.doEntriesExpire = doEntriesExpire;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.maxStalenessMillis = maxStaleness.toMillis();
     }
 
     /**
@@ -43,35 +87,70 @@ class CacheRequestFilter implements ClientRequestFilter {
      *
      * @param cacheOnly {@code true} to rely solely on cached data
      * @param doEntriesExpire {@code true} to revalidate cached entries
+     * @param staleWhileRevalidate {@code true} to revalidate in the background
      */
-    void setPolicy(boolean cacheOnly, boolean doEntriesExpire) {
+    void setPolicy(boolean cacheOnly, boolean doEntriesExpire, boolean staleWhileRevalidate) {
         this.cacheOnly = cacheOnly;
         this.doEntriesExpire = doEntriesExpire;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * @return {@code true} if requests are served only from the cache, and
+     * any other request fails with an {@link OfflineException}
+     */
+    boolean isCacheOnly() {
+        return cacheOnly;
     }
 
     @Override
     public void filter(ClientRequestContext ctx) throws IOException {
         if (!ctx.getMethod().equalsIgnoreCase("GET")) {
             if (cacheOnly) {
+                metrics.offlineException();
                 throw new OfflineException("Illegal method " + ctx.getMethod() + " for offline cache");
             }
             return;
         }
+        // Byte ranges are cached block by block by RestSeekableByteChannel.
+        if (ctx.getHeaders().containsKey(RestSeekableByteChannel.RANGE)) {
+            if (cacheOnly) {
+                metrics.offlineException();
+                throw new OfflineException("Range read in offline mode " + ctx.getUri());
+            }
+            return;
+        }
 
         CacheEntry entry = cache.getEntry(ctx.getUri());
         if (entry == null) {
             if (cacheOnly) {
+                metrics.offlineException();
                 throw new OfflineException("Read of non-cached item in offline mode " + ctx.getUri());
             }
+            metrics.miss();
+            ctx.setProperty(START_TIME, System.nanoTime());
             return;
         }
 
         if (!doEntriesExpire || cacheOnly) {
-            ByteArrayInputStream is = new ByteArrayInputStream(entry.getContent());
-            Response response = Response.ok(is).type(entry.getContentType()).build();
-            ctx.abortWith(response);
+            serveFromCache(ctx, entry);
             return;
         }
+        if (staleWhileRevalidate && ctx.getProperty(REVALIDATE) == null) {
+            long age = entry.getAgeMillis();
+            if (age <= maxStalenessMillis) {
+                if (age > MIN_REVALIDATION_INTERVAL_MILLIS) {
+                    Revalidator.getInstance().submit(ctx.getClient(), ctx.getUri(), ctx.getAcceptableMediaTypes());
+                }
+                serveFromCache(ctx, entry);
+                return;
+            }
+            // Too stale to serve: fall through and revalidate synchronously.
+        }
+        ctx.setProperty(START_TIME, System.nanoTime());
+        ctx.setProperty(CACHED_ENTRY, entry);
+        // A changed file is likely to be about the size of the cached copy.
+        ctx.setProperty(AdaptiveTimeouts.EXPECTED_SIZE, entry.getContent().length);
 
         // If the entry is expired, we go back to the server to request a check on the freshness of the data.
         String etag = entry.getETagHeader();
@@ -86,9 +165,17 @@ class CacheRequestFilter implements ClientRequestFilter {
         }
     }
     
+    private void serveFromCache(ClientRequestContext ctx, CacheEntry entry) {
+        metrics.hit(entry.getContent().length, cacheOnly);
+        ctx.setProperty(SERVED_FROM_CACHE, Boolean.TRUE);
+        ByteArrayInputStream is = new ByteArrayInputStream(entry.getContent());
+        Response response = Response.ok(is).type(entry.getContentType()).header(CACHE_STATUS_HEADER, "hit").build();
+        ctx.abortWith(response);
+    }
+
     static class OfflineException extends IOException {
 
-        private OfflineException(String message) {
+        OfflineException(String message) {
             super(message);
         }
     }
@@ -17,15 +17,18 @@ import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
 class CacheResponseFilter implements ClientResponseFilter {
 
     private final Cache cache;
+    private final MountMetrics metrics;
 
     /**
      * Creates a new response filter that updates the local cache with data
      * returned from the server.
      *
      * @param cache the cache used to store responses
+     * @param metrics the mount's metrics
      */
-    CacheResponseFilter(Cache cache) {
+    CacheResponseFilter(Cache cache, MountMetrics metrics) {
         this.cache = cache;
+        this.metrics = metrics;
     }
 
     @Override
@@ -35,16 +38,50 @@ class CacheResponseFilter implements ClientResponseFilter {
         if (!request.getMethod().equalsIgnoreCase("GET")) {
             return;
         }
+        // Response filters also run on the response a request filter aborted
+        // with; that one came from the cache and must not be stored again.
+        if (request.getProperty(CacheRequestFilter.SERVED_FROM_CACHE) != null
+                || request.getHeaders().containsKey(RestSeekableByteChannel.RANGE)) {
+            return;
+        }
+        Object start = request.getProperty(CacheRequestFilter.START_TIME);
+        long elapsed = start instanceof Long ? System.nanoTime() - (Long) start : 0;
+        // The read that triggered a background revalidation was already
+        // counted as a hit, so these are counted separately.
+        boolean background = request.getProperty(CacheRequestFilter.REVALIDATE) != null;
 
         if (response.getStatus() == Response.Status.OK.getStatusCode()) {
-            cache.cacheResponse(response, request.getUri());
+            CacheEntry entry = cache.cacheResponse(response, request.getUri());
+            boolean wasCached = request.getHeaders().containsKey("If-None-Match") || request.getHeaders().containsKey("If-Modified-Since");
+            if (background) {
+                metrics.revalidatedInBackground(true);
+            } else {
+                metrics.fetched(entry.getContent().length, elapsed, wasCached);
+            }
         } else if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
-            // Use the cache
-            CacheEntry entry = cache.getEntry(request.getUri());
-            entry.updateCacheHeaders(response);
+            // Use the entry that was revalidated; the cache may have evicted
+            // it since the request was sent
+            CacheEntry entry = (CacheEntry) request.getProperty(CacheRequestFilter.CACHED_ENTRY);
+            if (entry == null) {
+                entry = cache.getEntry(request.getUri());
+                if (entry == null) {
+                    throw new IOException("Cached entry for " + request.getUri() + " lost during revalidation");
+                }
+            }
+            if (background) {
+                metrics.revalidatedInBackground(false);
+            } else {
+                metrics.revalidated(entry.getContent().length, elapsed);
+            }
+            // A background check is off the read path, so also store the new
+            // validation time for other processes and later restarts.
+            if (entry.updateCacheHeaders(response) || background) {
+                cache.putEntry(request.getUri(), entry);
+            }
             response.getHeaders().clear();
             response.setStatus(Response.Status.OK.getStatusCode());
             response.getHeaders().putSingle("Content-Type", entry.getContentType());
+            response.getHeaders().putSingle(CacheRequestFilter.CACHE_STATUS_HEADER, "revalidated");
             ByteArrayInputStream is = new ByteArrayInputStream(entry.getContent());
             response.setEntityStream(is);
         }
@@ -0,0 +1,36 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.OpenOption;
+
+/**
+ * The stream returned by {@code Files.newOutputStream} for a file written
+ * with {@link org.lsst.ccs.rest.file.server.client.VersionedOpenOption#DELTA}.
+ * A delta can only be computed from the whole file, so the bytes written are
+ * held in memory until {@link #close()}, which uploads them.
+ */
+class DeltaOutputStream extends ByteArrayOutputStream {
+
+    private final RestClient client;
+    private final RestPath path;
+    private final OpenOption[] options;
+    private final Cache cache;
+    private boolean closed;
+
+    DeltaOutputStream(RestClient client, RestPath path, OpenOption[] options, Cache cache) {
+        this.client = client;
+        this.path = path;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        client.uploadDelta(path, toByteArray(), options, cache);
+    }
+}
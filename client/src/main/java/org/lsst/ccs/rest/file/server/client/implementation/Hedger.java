@@ -0,0 +1,95 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.ws.rs.core.Response;
+
+/**
+ * Sends idempotent GETs with a hedge: if the server has not answered by the
+ * configured latency percentile, the same request is sent again and the
+ * first response to arrive is used. The other is closed when it arrives.
+ * A request only fails once every attempt has failed.
+ */
+class Hedger {
+
+    private final AdaptiveTimeouts timeouts;
+    private final MountMetrics metrics;
+
+    Hedger(AdaptiveTimeouts timeouts, MountMetrics metrics) {
+        this.timeouts = timeouts;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return {@code true} if requests would currently be hedged
+     */
+    boolean isEnabled() {
+        return timeouts.getHedgeDelayMillis() >= 0;
+    }
+
+    /**
+     * Sends a request, hedging it if it is slow.
+     *
+     * @param attempt sends the request once; called once or twice
+     * @return a future completed with the first response received
+     */
+    CompletableFuture<Response> send(Supplier<CompletableFuture<Response>> attempt) {
+        long delay = timeouts.getHedgeDelayMillis();
+        if (delay < 0) {
+            return attempt.get();
+        }
+        Race race = new Race();
+        race.start();
+        run(attempt, race, false);
+        CompletableFuture.runAsync(() -> {
+            if (!race.result.isDone() && timeouts.tryHedge() && race.start()) {
+                metrics.hedged();
+                run(attempt, race, true);
+            }
+        }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        return race.result;
+    }
+
+    private static void run(Supplier<CompletableFuture<Response>> attempt, Race race, boolean hedge) {
+        CompletableFuture<Response> future;
+        try {
+            future = attempt.get();
+        } catch (RuntimeException x) {
+            future = CompletableFuture.failedFuture(x);
+        }
+        future.whenComplete((response, x) -> race.finished(response, x, hedge));
+    }
+
+    private class Race {
+
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private int running;
+
+        synchronized boolean start() {
+            if (result.isDone()) {
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        void finished(Response response, Throwable x, boolean hedge) {
+            boolean last;
+            synchronized (this) {
+                last = --running == 0;
+            }
+            if (x == null) {
+                if (result.complete(response)) {
+                    if (hedge) {
+                        metrics.hedgeWon();
+                    }
+                } else {
+                    response.close();
+                }
+            } else if (last) {
+                result.completeExceptionally(x);
+            }
+        }
+    }
+}
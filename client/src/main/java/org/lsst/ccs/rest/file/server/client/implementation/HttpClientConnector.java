@@ -0,0 +1,173 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Configuration;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.Statuses;
+
+/**
+ * A Jersey connector on {@link HttpClient}. HTTP/2 is negotiated with the
+ * server (ALPN over TLS, upgrade over plain HTTP), so the requests of a mount
+ * share one multiplexed connection where the server supports it, and fall
+ * back to pooled HTTP/1.1 connections where it does not. Asynchronous
+ * requests complete on the client's own threads instead of occupying one per
+ * request.
+ * <p>
+ * Request bodies which are files or input streams, as uploads are, are sent
+ * as they are read. Other entities, such as JSON, are written to a buffer
+ * first, since they are small.
+ */
+class HttpClientConnector implements Connector {
+
+    // Set by HttpClient itself, which refuses them from the caller.
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient httpClient;
+    private final int readTimeout;
+
+    HttpClientConnector(Client client, Configuration config) {
+        int connectTimeout = ClientProperties.getValue(config.getProperties(), ClientProperties.CONNECT_TIMEOUT, 0);
+        readTimeout = ClientProperties.getValue(config.getProperties(), ClientProperties.READ_TIMEOUT, 0);
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        if (client.getSslContext() != null) {
+            builder.sslContext(client.getSslContext());
+        }
+        httpClient = builder.build();
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        HttpRequest httpRequest = toHttpRequest(request);
+        try {
+            return toClientResponse(request, httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(new InterruptedIOException("Interrupted waiting for " + request.getUri()));
+        } catch (IOException x) {
+            throw toProcessingException(x);
+        }
+    }
+
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = toHttpRequest(request);
+        } catch (ProcessingException x) {
+            callback.failure(x);
+            return CompletableFuture.failedFuture(x);
+        }
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream()).whenComplete((response, x) -> {
+            if (x != null) {
+                Throwable cause = x instanceof CompletionException && x.getCause() != null ? x.getCause() : x;
+                callback.failure(toProcessingException(cause));
+            } else {
+                callback.response(toClientResponse(request, response));
+            }
+        });
+    }
+
+    /**
+     * Wraps a failure as the default connector would, so that a read timeout
+     * surfaces as a {@link SocketTimeoutException} whichever transport is used.
+     */
+    private static ProcessingException toProcessingException(Throwable x) {
+        if (x instanceof ProcessingException processingException) {
+            return processingException;
+        }
+        if (x instanceof HttpTimeoutException && !(x instanceof HttpConnectTimeoutException)) {
+            SocketTimeoutException timeout = new SocketTimeoutException(x.getMessage());
+            timeout.initCause(x);
+            x = timeout;
+        }
+        return new ProcessingException(x);
+    }
+
+    private HttpRequest toHttpRequest(ClientRequest request) {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        // Files and streams (uploads) are sent as they are read rather than buffered.
+        if (request.getEntity() instanceof File file) {
+            try {
+                body = HttpRequest.BodyPublishers.ofFile(file.toPath());
+            } catch (FileNotFoundException x) {
+                throw new ProcessingException(x);
+            }
+        } else if (request.getEntity() instanceof InputStream in) {
+            body = HttpRequest.BodyPublishers.ofInputStream(() -> in);
+        } else if (request.hasEntity()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            request.setStreamProvider(contentLength -> buffer);
+            try {
+                request.writeEntity();
+            } catch (IOException x) {
+                throw new ProcessingException(x);
+            }
+            body = HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray());
+        }
+        // Headers are read after the entity is written, since writers may add some.
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri()).method(request.getMethod(), body);
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())) {
+                for (String value : header.getValue()) {
+                    builder.header(header.getKey(), value);
+                }
+            }
+        }
+        int timeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, readTimeout);
+        if (timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+        return builder.build();
+    }
+
+    private static ClientResponse toClientResponse(ClientRequest request, HttpResponse<InputStream> response) {
+        ClientResponse clientResponse = new ClientResponse(Statuses.from(response.statusCode()), request);
+        response.headers().map().forEach((name, values) -> {
+            // Skip HTTP/2 pseudo headers such as :status
+            if (!name.startsWith(":")) {
+                clientResponse.getHeaders().addAll(name, values);
+            }
+        });
+        clientResponse.setEntityStream(response.body());
+        return clientResponse;
+    }
+
+    @Override
+    public String getName() {
+        return "HttpClient " + httpClient.version();
+    }
+
+    @Override
+    public void close() {
+        // HttpClient releases its connections once it is no longer referenced.
+    }
+}
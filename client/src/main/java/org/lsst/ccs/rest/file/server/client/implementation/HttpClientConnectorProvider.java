@@ -0,0 +1,56 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Configuration;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+/**
+ * Supplies {@link HttpClientConnector}s, which send requests with
+ * {@link java.net.http.HttpClient} instead of {@code HttpURLConnection}.
+ * Selected with {@code Transport=HTTP2}.
+ * <p>
+ * The JDK client keeps its connection pool settings in system properties
+ * read once, when the first {@code HttpClient} of the JVM is created. The
+ * pool size and keep-alive given to the first HTTP/2 mount are therefore
+ * applied JVM-wide, and only if the properties were not already set on the
+ * command line.
+ */
+class HttpClientConnectorProvider implements ConnectorProvider {
+
+    private static final Logger LOG = Logger.getLogger(HttpClientConnectorProvider.class.getName());
+    static final String POOL_SIZE_PROPERTY = "jdk.httpclient.connectionPoolSize";
+    static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    static final String KEEP_ALIVE_H2_PROPERTY = "jdk.httpclient.keepalive.timeout.h2";
+
+    HttpClientConnectorProvider(Integer poolSize, Duration keepAlive) {
+        synchronized (HttpClientConnectorProvider.class) {
+            if (poolSize != null) {
+                setIfAbsent(POOL_SIZE_PROPERTY, poolSize.toString());
+            }
+            if (keepAlive != null) {
+                String seconds = String.valueOf(keepAlive.toSeconds());
+                setIfAbsent(KEEP_ALIVE_PROPERTY, seconds);
+                setIfAbsent(KEEP_ALIVE_H2_PROPERTY, seconds);
+            }
+        }
+    }
+
+    private static void setIfAbsent(String property, String value) {
+        String current = System.getProperty(property);
+        if (current == null) {
+            System.setProperty(property, value);
+            LOG.log(Level.CONFIG, "Set {0}={1}", new Object[]{property, value});
+        } else if (!current.equals(value)) {
+            LOG.log(Level.WARNING, "Ignoring {0}={1}, already set to {2}", new Object[]{property, value, current});
+        }
+    }
+
+    @Override
+    public Connector getConnector(Client client, Configuration runtimeConfig) {
+        return new HttpClientConnector(client, runtimeConfig);
+    }
+}
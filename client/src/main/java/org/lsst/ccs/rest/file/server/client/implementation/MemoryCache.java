@@ -0,0 +1,151 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+
+/**
+ * Memory tier of the client cache. A least-recently-used map bounded by the
+ * total size of the cached responses rather than by their number, so a few
+ * large dictionaries cannot blow up the heap and many small {@code info}
+ * entries do not evict each other needlessly.
+ * <p>
+ * There is one instance per JVM, shared by every mount (ADR 0003). Each entry
+ * is charged to the mount that stored it, and a mount may be limited to a share
+ * of the budget so that mounts cannot starve each other. When a mount exceeds
+ * its share its own least recently used entries are evicted first; when the
+ * total exceeds the budget the least recently used entries of any mount go.
+ */
+class MemoryCache {
+
+    private static final Logger LOG = Logger.getLogger(MemoryCache.class.getName());
+
+    private static MemoryCache instance;
+
+    private final long maxBytes;
+    private final LinkedHashMap<URI, Slot> map = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Object, Long> bytesByOwner = new HashMap<>();
+    private final Map<Object, Integer> entriesByOwner = new HashMap<>();
+    private long totalBytes;
+
+    MemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the per-JVM memory cache, creating it with the global budget on
+     * first use.
+     *
+     * @return the shared memory cache
+     */
+    static synchronized MemoryCache getInstance() {
+        if (instance == null) {
+            instance = new MemoryCache(RestFileSystemOptionsHelper.getGlobalCacheMemoryBytes());
+        }
+        return instance;
+    }
+
+    synchronized CacheEntry get(URI uri) {
+        Slot slot = map.get(uri);
+        return slot == null ? null : slot.entry;
+    }
+
+    /**
+     * Stores an entry, evicting older entries as needed. An entry larger than
+     * the owner's limit is not kept in memory at all.
+     *
+     * @param uri the cache key
+     * @param entry the entry to store
+     * @param owner the mount storing the entry
+     * @param ownerLimit the maximum number of bytes the owner may hold
+     */
+    synchronized void put(URI uri, CacheEntry entry, Object owner, long ownerLimit) {
+        remove(uri);
+        long weight = entry.getWeight();
+        long limit = Math.min(ownerLimit, maxBytes);
+        if (weight > limit) {
+            LOG.log(Level.FINE, "Not keeping {0} in memory, {1} bytes exceeds the budget", new Object[]{uri, weight});
+            return;
+        }
+        map.put(uri, new Slot(entry, owner, weight));
+        totalBytes += weight;
+        bytesByOwner.merge(owner, weight, Long::sum);
+        entriesByOwner.merge(owner, 1, Integer::sum);
+
+        if (bytesByOwner.get(owner) > limit) {
+            evict(owner, limit);
+        }
+        if (totalBytes > maxBytes) {
+            evict(null, maxBytes);
+        }
+    }
+
+    synchronized void remove(URI uri) {
+        Slot slot = map.remove(uri);
+        if (slot != null) {
+            release(slot);
+        }
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    synchronized long getBytes(Object owner) {
+        return bytesByOwner.getOrDefault(owner, 0L);
+    }
+
+    synchronized int getEntries(Object owner) {
+        return entriesByOwner.getOrDefault(owner, 0);
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Evicts least recently used entries until the owner (or the whole cache,
+     * if {@code owner} is {@code null}) is within the limit.
+     */
+    private void evict(Object owner, long limit) {
+        Iterator<Map.Entry<URI, Slot>> i = map.entrySet().iterator();
+        while (i.hasNext() && (owner == null ? totalBytes : bytesByOwner.getOrDefault(owner, 0L)) > limit) {
+            Map.Entry<URI, Slot> e = i.next();
+            Slot slot = e.getValue();
+            if (owner == null || slot.owner == owner) {
+                i.remove();
+                release(slot);
+                SharedCacheMetrics.getInstance().memoryEvicted();
+                LOG.log(Level.FINE, "Evicted {0} from memory cache", e.getKey());
+            }
+        }
+    }
+
+    private void release(Slot slot) {
+        totalBytes -= slot.weight;
+        bytesByOwner.computeIfPresent(slot.owner, (k, v) -> v == slot.weight ? null : v - slot.weight);
+        entriesByOwner.computeIfPresent(slot.owner, (k, v) -> v == 1 ? null : v - 1);
+    }
+
+    private static class Slot {
+
+        private final CacheEntry entry;
+        private final Object owner;
+        private final long weight;
+
+        Slot(CacheEntry entry, Object owner, long weight) {
+            this.entry = entry;
+            this.owner = owner;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Cache counters and timers for one mount. Updated by the mount's
+ * {@link CacheRequestFilter} and {@link CacheResponseFilter}, by the
+ * {@link SingleFlight}s of its {@link RestClient}, by its {@link Hedger} and
+ * by uploads, and published over JMX for as long as the mount is open.
+ */
+class MountMetrics implements MountMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(MountMetrics.class.getName());
+    static final String DOMAIN = "org.lsst.ccs.rest.file.client";
+
+    private final Cache cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder refetches = new LongAdder();
+    private final LongAdder offlineServes = new LongAdder();
+    private final LongAdder offlineExceptions = new LongAdder();
+    private final LongAdder bytesFromCache = new LongAdder();
+    private final LongAdder bytesFromNetwork = new LongAdder();
+    private final LongAdder revalidationNanos = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final LongAdder backgroundRevalidations = new LongAdder();
+    private final LongAdder backgroundUpdates = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicInteger peakWaiters = new AtomicInteger();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder uploadNanos = new LongAdder();
+    private final LongAdder uploadBlockedNanos = new LongAdder();
+    private final LongAdder deltaUploads = new LongAdder();
+    private final LongAdder deltaBytesSaved = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private volatile AdaptiveTimeouts timeouts;
+    private volatile WriteBehindJournal writeBehind;
+    private ObjectName name;
+
+    /**
+     * @param cache the mount's view of the cache, used for the entry and byte
+     * counts; may be {@code null} if the mount does not cache
+     */
+    MountMetrics(Cache cache) {
+        this.cache = cache;
+    }
+
+    void hit(int bytes, boolean offline) {
+        hits.increment();
+        bytesFromCache.add(bytes);
+        if (offline) {
+            offlineServes.increment();
+        }
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void offlineException() {
+        offlineExceptions.increment();
+    }
+
+    void revalidated(int bytes, long nanos) {
+        revalidations.increment();
+        revalidationNanos.add(nanos);
+        bytesFromCache.add(bytes);
+    }
+
+    void fetched(int bytes, long nanos, boolean wasCached) {
+        if (wasCached) {
+            refetches.increment();
+        }
+        fetches.increment();
+        fetchNanos.add(nanos);
+        bytesFromNetwork.add(bytes);
+    }
+
+    void revalidatedInBackground(boolean changed) {
+        backgroundRevalidations.increment();
+        if (changed) {
+            backgroundUpdates.increment();
+        }
+    }
+
+    void joinedFlight() {
+        coalesced.increment();
+        peakWaiters.accumulateAndGet(waiters.incrementAndGet(), Math::max);
+    }
+
+    void leftFlight() {
+        waiters.decrementAndGet();
+    }
+
+    void hedged() {
+        hedged.increment();
+    }
+
+    void hedgeWon() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * @param bytes the size of the file uploaded
+     * @param nanos how long the upload took
+     * @param blockedNanos how long the writer waited for the network
+     */
+    void uploaded(long bytes, long nanos, long blockedNanos) {
+        uploads.increment();
+        bytesUploaded.add(bytes);
+        uploadNanos.add(nanos);
+        uploadBlockedNanos.add(blockedNanos);
+    }
+
+    /**
+     * Counts an upload sent as a delta, after {@link #uploaded} for the bytes
+     * actually sent.
+     *
+     * @param size the size of the file
+     * @param deltaSize the size of the delta
+     */
+    void deltaUploaded(long size, long deltaSize) {
+        deltaUploads.increment();
+        deltaBytesSaved.add(size - deltaSize);
+    }
+
+    void writeBehindFailed() {
+        failedWrites.increment();
+    }
+
+    void setTimeouts(AdaptiveTimeouts timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    void setWriteBehind(WriteBehindJournal writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    @Override
+    public long getRefetches() {
+        return refetches.sum();
+    }
+
+    @Override
+    public long getOfflineServes() {
+        return offlineServes.sum();
+    }
+
+    @Override
+    public long getOfflineExceptions() {
+        return offlineExceptions.sum();
+    }
+
+    @Override
+    public long getBytesFromCache() {
+        return bytesFromCache.sum();
+    }
+
+    @Override
+    public long getBytesFromNetwork() {
+        return bytesFromNetwork.sum();
+    }
+
+    @Override
+    public long getBackgroundRevalidations() {
+        return backgroundRevalidations.sum();
+    }
+
+    @Override
+    public long getBackgroundUpdates() {
+        return backgroundUpdates.sum();
+    }
+
+    @Override
+    public long getCoalescedRequests() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public int getCoalescedWaiters() {
+        return waiters.get();
+    }
+
+    @Override
+    public int getPeakCoalescedWaiters() {
+        return peakWaiters.get();
+    }
+
+    @Override
+    public long getHedgedRequests() {
+        return hedged.sum();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public long getHedgeDelayMillis() {
+        AdaptiveTimeouts t = timeouts;
+        return t == null ? -1 : t.getHedgeDelayMillis();
+    }
+
+    @Override
+    public double getEstimatedThroughput() {
+        AdaptiveTimeouts t = timeouts;
+        return t == null ? 0 : t.getThroughput();
+    }
+
+    @Override
+    public long getUploads() {
+        return uploads.sum();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    @Override
+    public double getUploadThroughput() {
+        long nanos = uploadNanos.sum();
+        return nanos == 0 ? 0 : bytesUploaded.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getUploadBlockedMillis() {
+        return uploadBlockedNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getDeltaUploads() {
+        return deltaUploads.sum();
+    }
+
+    @Override
+    public long getDeltaBytesSaved() {
+        return deltaBytesSaved.sum();
+    }
+
+    @Override
+    public int getPendingWrites() {
+        WriteBehindJournal journal = writeBehind;
+        return journal == null ? 0 : journal.getPendingCount();
+    }
+
+    @Override
+    public long getPendingWriteBytes() {
+        WriteBehindJournal journal = writeBehind;
+        return journal == null ? 0 : journal.getPendingBytes();
+    }
+
+    @Override
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    @Override
+    public double getMeanRevalidationMillis() {
+        return mean(revalidationNanos.sum(), revalidations.sum());
+    }
+
+    @Override
+    public double getMeanFetchMillis() {
+        return mean(fetchNanos.sum(), fetches.sum());
+    }
+
+    @Override
+    public double getHitRatio() {
+        long local = hits.sum() + revalidations.sum();
+        long total = local + misses.sum() + refetches.sum();
+        return total == 0 ? 0 : (double) local / total;
+    }
+
+    @Override
+    public int getMemoryEntries() {
+        return cache == null ? 0 : cache.getMemoryEntries();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return cache == null ? 0 : cache.getMemoryBytes();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{hits, misses, revalidations, refetches, offlineServes,
+            offlineExceptions, bytesFromCache, bytesFromNetwork, revalidationNanos, fetches, fetchNanos,
+            backgroundRevalidations, backgroundUpdates, coalesced, hedged, hedgeWins,
+            uploads, bytesUploaded, uploadNanos, uploadBlockedNanos, deltaUploads, deltaBytesSaved, failedWrites}) {
+            adder.reset();
+        }
+        peakWaiters.set(waiters.get());
+    }
+
+    private static double mean(long nanos, long count) {
+        return count == 0 ? 0 : nanos / 1e6 / count;
+    }
+
+    /**
+     * Publishes these metrics under the given mount URI. A stale registration
+     * for the same mount (left by a file system that was not closed) is
+     * replaced.
+     *
+     * @param mount the full URI of the mount
+     */
+    void register(String mount) {
+        try {
+            name = new ObjectName(DOMAIN + ":type=Mount,name=" + ObjectName.quote(mount));
+            register(name, this, MountMetricsMBean.class);
+        } catch (JMException x) {
+            LOG.log(Level.WARNING, "Unable to register metrics for " + mount, x);
+        }
+    }
+
+    void unregister() {
+        if (name != null) {
+            unregister(name);
+            name = null;
+        }
+    }
+
+    static <T> void register(ObjectName name, T bean, Class<T> type) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        StandardMBean mbean = new StandardMBean(bean, type);
+        try {
+            server.registerMBean(mbean, name);
+        } catch (InstanceAlreadyExistsException x) {
+            unregister(name);
+            server.registerMBean(mbean, name);
+        }
+    }
+
+    static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException x) {
+            // Already gone
+        } catch (JMException x) {
+            LOG.log(Level.WARNING, "Unable to unregister " + name, x);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+/**
+ * Management interface for the per-mount client metrics, registered as
+ * {@code org.lsst.ccs.rest.file.client:type=Mount,name=<mount URI>}.
+ */
+public interface MountMetricsMBean {
+
+    /** @return GETs answered from the cache without contacting the server */
+    long getHits();
+
+    /** @return GETs for which nothing was cached */
+    long getMisses();
+
+    /** @return conditional GETs answered by the server with 304 Not Modified */
+    long getRevalidations();
+
+    /** @return conditional GETs for which the server sent new content */
+    long getRefetches();
+
+    /** @return hits served because the mount is offline or cache-only */
+    long getOfflineServes();
+
+    /** @return requests refused because the mount is offline and nothing was cached */
+    long getOfflineExceptions();
+
+    /** @return bytes of response bodies served from the cache, including after a 304 */
+    long getBytesFromCache();
+
+    /** @return bytes of response bodies received from the server */
+    long getBytesFromNetwork();
+
+    /** @return background revalidations completed in stale-while-revalidate mode */
+    long getBackgroundRevalidations();
+
+    /** @return background revalidations that found new content on the server */
+    long getBackgroundUpdates();
+
+    /** @return GETs that joined an identical request already in flight instead of sending their own */
+    long getCoalescedRequests();
+
+    /** @return threads currently waiting on an identical request in flight */
+    int getCoalescedWaiters();
+
+    /** @return the largest number of threads seen waiting on requests in flight at once */
+    int getPeakCoalescedWaiters();
+
+    /** @return GETs sent a second time because the first attempt was slow to answer */
+    long getHedgedRequests();
+
+    /** @return hedged GETs for which the second attempt answered first */
+    long getHedgeWins();
+
+    /** @return the current delay before a GET is hedged, in milliseconds, or -1 if it would not be */
+    long getHedgeDelayMillis();
+
+    /** @return estimated throughput from the server, in bytes per second, or 0 if not yet measured */
+    double getEstimatedThroughput();
+
+    /** @return number of files uploaded */
+    long getUploads();
+
+    /** @return bytes uploaded to the server */
+    long getBytesUploaded();
+
+    /** @return mean upload throughput, in bytes per second, or 0 if nothing has been uploaded */
+    double getUploadThroughput();
+
+    /** @return total time writers spent waiting for uploads to catch up, in milliseconds */
+    double getUploadBlockedMillis();
+
+    /** @return uploads sent as a delta against a cached version */
+    long getDeltaUploads();
+
+    /** @return bytes delta uploads did not have to send */
+    long getDeltaBytesSaved();
+
+    /** @return files written behind that have not been uploaded yet */
+    int getPendingWrites();
+
+    /** @return bytes of the files written behind that have not been uploaded yet */
+    long getPendingWriteBytes();
+
+    /** @return files written behind that the server refused */
+    long getFailedWrites();
+
+    /** @return mean duration of a 304 revalidation, in milliseconds */
+    double getMeanRevalidationMillis();
+
+    /** @return mean duration of a GET answered with content by the server, in milliseconds */
+    double getMeanFetchMillis();
+
+    /** @return fraction of GETs served without transferring the body from the server */
+    double getHitRatio();
+
+    /** @return number of entries this mount holds in the memory cache */
+    int getMemoryEntries();
+
+    /** @return bytes this mount holds in the memory cache */
+    long getMemoryBytes();
+
+    /** Resets all counters and timers to zero. */
+    void reset();
+}
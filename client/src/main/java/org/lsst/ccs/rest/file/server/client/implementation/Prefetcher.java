@@ -0,0 +1,171 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport.Outcome;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.web.rest.file.server.data.RestFileInfo;
+
+/**
+ * Warms the cache of a mount by issuing, for each path, the requests a later
+ * reader would make: the file info, the directory listing, the version info
+ * and the default and latest content of a versioned file (or the version
+ * named in the path), and the content of a plain file. Requests go through
+ * the mount's {@link AsyncLimiter}, so at most {@code AsyncConcurrency} are
+ * in flight.
+ * <p>
+ * Whether a response came from the cache is read from the
+ * {@link CacheRequestFilter#CACHE_STATUS_HEADER} the cache filters add.
+ */
+class Prefetcher {
+
+    private static final Logger LOG = Logger.getLogger(Prefetcher.class.getName());
+    private static final OpenOption[] NO_OPTIONS = new OpenOption[0];
+
+    private final RestClient client;
+    private final boolean recursive;
+    private final PrefetchReport.Listener listener;
+    private final Map<Path, Outcome> outcomes = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<Path, IOException> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+    // Starts at one so the report cannot complete while paths are still being submitted.
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final CompletableFuture<PrefetchReport> result = new CompletableFuture<>();
+
+    Prefetcher(RestClient client, boolean recursive, PrefetchReport.Listener listener) {
+        this.client = client;
+        this.recursive = recursive;
+        this.listener = listener;
+    }
+
+    CompletableFuture<PrefetchReport> start(Collection<RestPath> paths) {
+        paths.forEach(this::submit);
+        finished();
+        return result;
+    }
+
+    private void submit(RestPath path) {
+        pending.incrementAndGet();
+        total.incrementAndGet();
+        CompletableFuture<Boolean> prefetch;
+        try {
+            prefetch = prefetch(path);
+        } catch (RuntimeException x) {
+            prefetch = CompletableFuture.failedFuture(x);
+        }
+        prefetch.whenComplete((fetched, x) -> {
+            Outcome outcome;
+            if (x != null) {
+                Throwable cause = x instanceof CompletionException && x.getCause() != null ? x.getCause() : x;
+                failures.put(path, cause instanceof IOException iOException ? iOException : new IOException("Prefetch failed", cause));
+                outcome = Outcome.FAILED;
+            } else {
+                outcome = fetched ? Outcome.FETCHED : Outcome.FRESH;
+            }
+            outcomes.put(path, outcome);
+            try {
+                if (listener != null) {
+                    listener.prefetched(path, outcome, completed.incrementAndGet(), total.get());
+                }
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "Prefetch listener failed", ex);
+            } finally {
+                finished();
+            }
+        });
+    }
+
+    private void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (outcomes) {
+                result.complete(new PrefetchReport(new LinkedHashMap<>(outcomes), new LinkedHashMap<>(failures)));
+            }
+        }
+    }
+
+    /**
+     * Prefetches one path.
+     *
+     * @return a future completed with {@code true} if anything was
+     * transferred from the server
+     */
+    private CompletableFuture<Boolean> prefetch(RestPath path) {
+        URI infoURI = RestClient.uncheck(() -> client.getRestTarget("rest/info/", path).getUri());
+        return client.getAsync(infoURI, MediaType.APPLICATION_JSON).thenCompose(response -> {
+            boolean fetched = isFetched(response);
+            RestFileInfo info = client.readEntity(response, RestFileInfo.class);
+            CompletableFuture<Boolean> rest;
+            if (info.isDirectory()) {
+                rest = list(path);
+            } else if (info.isVersionedFile()) {
+                rest = versions(path);
+            } else {
+                rest = fetch(RestClient.uncheck(() -> client.getDownloadURI(path, false, NO_OPTIONS)), MediaType.APPLICATION_OCTET_STREAM);
+            }
+            return rest.thenApply(f -> f || fetched);
+        });
+    }
+
+    private CompletableFuture<Boolean> list(RestPath path) {
+        URI listURI = RestClient.uncheck(() -> client.getRestTarget("rest/list/", path).getUri());
+        return client.getAsync(listURI, MediaType.APPLICATION_JSON).thenApply(response -> {
+            boolean fetched = isFetched(response);
+            RestFileInfo dirList = client.readEntity(response, RestFileInfo.class);
+            if (dirList.getChildren() != null) {
+                for (RestFileInfo child : dirList.getChildren()) {
+                    if (recursive || !child.isDirectory()) {
+                        submit((RestPath) path.resolve(child.getName()));
+                    }
+                }
+            }
+            return fetched;
+        });
+    }
+
+    private CompletableFuture<Boolean> versions(RestPath path) {
+        List<CompletableFuture<Boolean>> parts = new ArrayList<>();
+        parts.add(fetch(RestClient.uncheck(() -> client.getRestTarget("rest/version/info/", path).getUri()), MediaType.APPLICATION_JSON));
+        parts.add(fetch(RestClient.uncheck(() -> client.getDownloadURI(path, true, NO_OPTIONS)), MediaType.APPLICATION_OCTET_STREAM));
+        if (path.getVersion() == null) {
+            OpenOption[] latest = {VersionOpenOption.LATEST};
+            parts.add(fetch(RestClient.uncheck(() -> client.getDownloadURI(path, true, latest)), MediaType.APPLICATION_OCTET_STREAM));
+        }
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .thenApply(v -> parts.stream().anyMatch(CompletableFuture::join));
+    }
+
+    /**
+     * Issues a GET only for its effect on the cache.
+     */
+    private CompletableFuture<Boolean> fetch(URI uri, String mediaType) {
+        return client.getAsync(uri, mediaType).thenApply(response -> {
+            try {
+                client.checkResponseAsync(response);
+                return isFetched(response);
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    private static boolean isFetched(Response response) {
+        return response.getHeaderString(CacheRequestFilter.CACHE_STATUS_HEADER) == null;
+    }
+}
@@ -0,0 +1,101 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import org.lsst.ccs.rest.file.server.client.AsyncFileOperations;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport;
+
+/**
+ * The {@link AsyncFileOperations} of one {@link RestFileSystem}, delegating to
+ * its {@link RestClient}.
+ */
+class RestAsyncOperations implements AsyncFileOperations {
+
+    private final RestFileSystem fileSystem;
+
+    RestAsyncOperations(RestFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readAllBytesAsync(Path path, OpenOption... options) {
+        return call(path, restPath -> {
+            WriteBehindJournal writeBehind = fileSystem.getWriteBehind();
+            byte[] pending = writeBehind == null ? null : RestClient.uncheck(() -> writeBehind.readAllBytes(restPath, options));
+            return pending != null ? CompletableFuture.completedFuture(pending) : fileSystem.getClient().readAllBytesAsync(restPath, options);
+        });
+    }
+
+    @Override
+    public CompletableFuture<BasicFileAttributes> readAttributesAsync(Path path) {
+        return call(path, restPath -> fileSystem.getClient().readAttributesAsync(restPath));
+    }
+
+    @Override
+    public CompletableFuture<List<Path>> listAsync(Path dir) {
+        return call(dir, restPath -> fileSystem.getClient().listAsync(restPath));
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadAsync(Path path, byte[] content, OpenOption... options) {
+        return call(path, restPath -> fileSystem.getClient().uploadAsync(restPath, content, options));
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadAsync(Path path, Path localFile, OpenOption... options) {
+        return call(path, restPath -> fileSystem.getClient().uploadAsync(restPath, localFile, options));
+    }
+
+    @Override
+    public List<Path> getPendingWrites() {
+        WriteBehindJournal writeBehind = fileSystem.getWriteBehind();
+        return writeBehind == null ? Collections.emptyList() : writeBehind.getPendingWrites();
+    }
+
+    @Override
+    public CompletableFuture<Void> flushWritesAsync() {
+        WriteBehindJournal writeBehind = fileSystem.getWriteBehind();
+        return writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.flush();
+    }
+
+    @Override
+    public CompletableFuture<PrefetchReport> prefetchAsync(Collection<? extends Path> paths, boolean recursive, PrefetchReport.Listener listener) {
+        if (fileSystem.getCache() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Prefetch requires a caching file system"));
+        }
+        List<RestPath> restPaths = new ArrayList<>();
+        for (Path path : paths) {
+            if (!(path instanceof RestPath) || path.getFileSystem() != fileSystem) {
+                return CompletableFuture.failedFuture(new ProviderMismatchException());
+            }
+            restPaths.add((RestPath) path);
+        }
+        return fileSystem.getClient().prefetchAsync(restPaths, recursive, listener);
+    }
+
+    /**
+     * Starts an operation, reporting any failure through the returned future
+     * rather than by throwing.
+     */
+    private <T> CompletableFuture<T> call(Path path, Function<RestPath, CompletableFuture<T>> operation) {
+        if (!(path instanceof RestPath) || path.getFileSystem() != fileSystem) {
+            return CompletableFuture.failedFuture(new ProviderMismatchException());
+        }
+        try {
+            return operation.apply((RestPath) path);
+        } catch (CompletionException x) {
+            return CompletableFuture.failedFuture(x.getCause());
+        } catch (RuntimeException x) {
+            return CompletableFuture.failedFuture(x);
+        }
+    }
+}
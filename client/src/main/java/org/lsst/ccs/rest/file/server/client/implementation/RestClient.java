@@ -1,51 +1,65 @@
 package org.lsst.ccs.rest.file.server.client.implementation;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.lang.reflect.Constructor;
 import java.net.URI;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.OpenOption;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.SyncInvoker;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
+import org.lsst.ccs.rest.file.server.client.IfMatchOpenOption;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport;
+import org.lsst.ccs.rest.file.server.client.VersionConflictException;
 import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.rest.file.server.client.VersionedCopyOption;
 import org.lsst.ccs.rest.file.server.client.VersionedFileAttributeView;
 import org.lsst.ccs.rest.file.server.client.VersionedFileAttributes;
 import org.lsst.ccs.rest.file.server.client.VersionedOpenOption;
+import org.lsst.ccs.web.rest.file.server.data.Delta;
 import org.lsst.ccs.web.rest.file.server.data.IOExceptionResponse;
 import org.lsst.ccs.web.rest.file.server.data.RestFileInfo;
 import org.lsst.ccs.web.rest.file.server.data.VersionInfoV2;
@@ -59,22 +73,70 @@ import org.lsst.ccs.web.rest.file.server.data.VersionOptions;
 class RestClient implements Closeable {
 
     private static final Logger LOG = Logger.getLogger(RestClient.class.getName());
+    private static final int MAX_KNOWN_VERSION_INFO = 256;
     
     private final Client client;
     private final URI restURI;
     private final URI mountPoint;
+    // Identical GETs in flight at the same time are sent once (see SingleFlight).
+    private final SingleFlight<URI, RestFileInfo> infoFlights;
+    private final SingleFlight<URI, VersionInfoV2> versionInfoFlights;
+    private final SingleFlight<URI, byte[]> downloadFlights;
+    private final AsyncLimiter asyncLimiter;
+    private final Hedger hedger;
+    private final MountMetrics metrics;
+    private final int uploadBufferSize;
+    // The last complete version info of recently used versioned files, which
+    // later requests only ask the server to bring up to date
+    private final Map<URI, VersionInfoV2> knownVersionInfo = Collections.synchronizedMap(new LinkedHashMap<URI, VersionInfoV2>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<URI, VersionInfoV2> eldest) {
+            return size() > MAX_KNOWN_VERSION_INFO;
+        }
+    });
 
-    RestClient(Client client, URI restURI, URI mountPoint) {
+    /**
+     * @param client the JAX-RS client, with the mount's filters registered
+     * @param restURI the root URI of the rest service
+     * @param mountPoint the mount point within the server
+     * @param metrics the mount's metrics, which count coalesced requests and
+     * uploads
+     * @param hedger sends idempotent GETs, hedging slow ones
+     * @param coalesceDownloads {@code true} to also coalesce file downloads.
+     * A coalesced download is held in memory to be shared, which is only done
+     * when the response is buffered for the cache anyway.
+     * @param asyncConcurrency the maximum number of asynchronous requests in
+     * flight at once
+     * @param uploadBufferSize the size of the chunks in which output streams
+     * send files
+     */
+    RestClient(Client client, URI restURI, URI mountPoint, MountMetrics metrics, Hedger hedger, boolean coalesceDownloads,
+            int asyncConcurrency, int uploadBufferSize) {
         this.client = client;
         this.restURI = restURI;
         this.mountPoint = mountPoint;
+        this.infoFlights = new SingleFlight<>(metrics);
+        this.versionInfoFlights = new SingleFlight<>(metrics);
+        this.downloadFlights = coalesceDownloads ? new SingleFlight<>(metrics) : null;
+        this.asyncLimiter = new AsyncLimiter(asyncConcurrency);
+        this.hedger = hedger;
+        this.metrics = metrics;
+        this.uploadBufferSize = uploadBufferSize;
     }
 
     private URI getRestURI(String restPath, RestPath path) throws IOException {
         return restURI.resolve(restPath).resolve(mountPoint.resolve(path.getRestPath()));
     }
 
-    private WebTarget getRestTarget(String restPath, RestPath path) throws IOException {
+    /**
+     * Gets the path of a file relative to the server's base directory, as
+     * sent in a query parameter, such as the target of a move or copy.
+     */
+    private String getServerPath(RestPath path) {
+        return mountPoint.resolve(path.getRestPath()).getPath();
+    }
+
+    WebTarget getRestTarget(String restPath, RestPath path) throws IOException {
         WebTarget target = client.target(getRestURI(restPath, path));
         if ( path.getVersion() != null ) {
             target = target.queryParam("version", path.getVersion());
@@ -100,8 +162,17 @@ class RestClient implements Closeable {
     
     InputStream newInputStream(RestPath path, OpenOption[] options) throws IOException {
         LOG.log(Level.FINE, "Reading {0} with options {1}", new Object[]{path, Arrays.toString(options)});
+        URI uri = getDownloadURI(path, path.isVersionedFile(), options);
+        if (downloadFlights != null) {
+            byte[] bytes = downloadFlights.execute(uri, () -> download(path, uri).readEntity(byte[].class));
+            return new ByteArrayInputStream(bytes);
+        }
+        return download(path, uri).readEntity(InputStream.class);
+    }
+
+    URI getDownloadURI(RestPath path, boolean isVersionedFile, OpenOption[] options) throws IOException {
         URI uri;
-        if (path.isVersionedFile()) {            
+        if (isVersionedFile) {            
             options = addOpenVersionOptionFromPathIfNeeded(path, options);            
             if (hasOption(options, VersionedOpenOption.DIFF)) {
                 UriBuilder builder = UriBuilder.fromUri(getRestURI("rest/version/diff/", path));
@@ -123,63 +194,222 @@ class RestClient implements Closeable {
         } else {
             uri = getRestURI("rest/download/", path);
         }
-        WebTarget target = client.target(uri);
-        Response response = target.request(MediaType.APPLICATION_OCTET_STREAM).get();
+        return uri;
+    }
+
+    private Response download(RestPath path, URI uri) throws IOException {
+        Response response = get(client.target(uri), MediaType.APPLICATION_OCTET_STREAM);
         LOG.log(Level.FINE, "Read {0} with uri {1} with response {2}", new Object[]{path, uri, response.getStatus()});
         if (response.getStatus() == 404) {
             throw new FileNotFoundException(path.toString());
         }
         checkResponse(response);
-        return response.readEntity(InputStream.class);
+        return response;
+    }
+
+    SeekableByteChannel newByteChannel(RestPath path, Set<? extends OpenOption> options, Cache cache) throws IOException {
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+            throw new UnsupportedOperationException("Only read-only byte channels are supported");
+        }
+        OpenOption[] openOptions = options.toArray(OpenOption[]::new);
+        URI uri = getDownloadURI(path, path.isVersionedFile(), openOptions);
+        if (cache != null && downloadFlights != null && cache.getEntry(uri) != null) {
+            // Cached whole, for example by newInputStream: read it the same way,
+            // so that it is revalidated, or served offline.
+            return new ByteArrayChannel(downloadFlights.execute(uri, () -> download(path, uri).readEntity(byte[].class)));
+        }
+        return new RestSeekableByteChannel(this, cache, uri, path.toString(), RestSeekableByteChannel.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Requests a byte range of a download, bypassing the response cache.
+     *
+     * @param uri the download URI
+     * @param first the offset of the first byte
+     * @param last the offset of the last byte, inclusive
+     * @return the 206 response, or the whole file (200) from a server that
+     * ignores ranges; the caller checks and closes it
+     */
+    Response getRange(URI uri, long first, long last) throws IOException {
+        return get(rangeRequest(uri, first, last), uri);
+    }
+
+    CompletableFuture<Response> getRangeAsync(URI uri, long first, long last) {
+        return invokeAsync(rangeRequest(uri, first, last).async(), "GET", null);
+    }
+
+    /**
+     * Requests the last bytes of a download, which also tells the size of
+     * the file.
+     */
+    Response getSuffix(URI uri, long count) throws IOException {
+        Invocation.Builder request = client.target(uri).request(MediaType.APPLICATION_OCTET_STREAM)
+                .header(RestSeekableByteChannel.RANGE, "bytes=-" + count)
+                .property(AdaptiveTimeouts.EXPECTED_SIZE, count);
+        return get(request, uri);
+    }
+
+    private Invocation.Builder rangeRequest(URI uri, long first, long last) {
+        return client.target(uri).request(MediaType.APPLICATION_OCTET_STREAM)
+                .header(RestSeekableByteChannel.RANGE, "bytes=" + first + "-" + last)
+                .property(AdaptiveTimeouts.EXPECTED_SIZE, last - first + 1);
+    }
+
+    OutputStream newOutputStream(RestPath path, OpenOption[] options, Cache cache) throws IOException {
+        if (hasOption(options, VersionedOpenOption.DELTA)) {
+            return new DeltaOutputStream(this, path, options, cache);
+        }
+        WebTarget target = client.target(getUploadURI(path, isVersionedUpload(path, options), options));
+        return new UploadOutputStream(this, ifMatch(target.request(MediaType.APPLICATION_JSON), options), uploadBufferSize, metrics, path.toString());
+    }
+
+    /**
+     * Uploads a new version written with {@link VersionedOpenOption#DELTA}.
+     * The delta is computed against the latest version, if the cache holds
+     * it, and sent only if it is smaller than the file. The server checks the
+     * content it rebuilds against a digest, so a cached copy which is not
+     * really the latest version only costs a second upload: any failure
+     * other than a version conflict falls back to sending the whole file.
+     *
+     * @param path the versioned file
+     * @param content the new version
+     * @param options the options the file was opened with
+     * @param cache the mount's cache, or {@code null}
+     * @throws IOException if the upload fails
+     */
+    void uploadDelta(RestPath path, byte[] content, OpenOption[] options, Cache cache) throws IOException {
+        OpenOption[] fullOptions = Arrays.stream(options).filter(o -> o != VersionedOpenOption.DELTA).toArray(OpenOption[]::new);
+        if (cache == null || !sendDelta(path, content, fullOptions, cache)) {
+            try (OutputStream out = newOutputStream(path, fullOptions, cache)) {
+                out.write(content);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the delta was stored, {@code false} if the
+     * whole file must be sent instead
+     */
+    private boolean sendDelta(RestPath path, byte[] content, OpenOption[] options, Cache cache) throws IOException {
+        long start = System.nanoTime();
+        VersionInfoV2 info;
+        try {
+            if (!path.isVersionedFile()) {
+                return false;
+            }
+            info = getVersionedRestFileInfo(path);
+        } catch (IOException x) {
+            LOG.log(Level.FINE, "No base version for delta upload of " + path, x);
+            return false;
+        }
+        int base = info.getLatest();
+        byte[] baseContent = getCachedVersion(path, base, info.getDefault() == base, cache);
+        if (baseContent == null) {
+            return false;
+        }
+        byte[] delta = Delta.encode(baseContent, content);
+        if (delta.length >= content.length) {
+            return false;
+        }
+        URI uri = UriBuilder.fromUri(getRestURI("rest/version/uploadDelta/", path))
+                .queryParam("base", base)
+                .queryParam("sha256", Delta.sha256(content))
+                .build();
+        Response response;
+        try {
+            response = ifMatch(client.target(uri).request(MediaType.APPLICATION_JSON), options)
+                    .post(Entity.entity(delta, MediaType.APPLICATION_OCTET_STREAM));
+        } catch (ProcessingException x) {
+            throw convertProcessingException(x);
+        }
+        try {
+            if (response.getStatus() == Response.Status.PRECONDITION_FAILED.getStatusCode()) {
+                checkResponse(response);
+            }
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                LOG.log(Level.FINE, "Delta upload of {0} failed with response {1}, sending the whole file", new Object[]{path, response.getStatus()});
+                return false;
+            }
+        } finally {
+            response.close();
+        }
+        metrics.uploaded(delta.length, System.nanoTime() - start, 0);
+        metrics.deltaUploaded(content.length, delta.length);
+        return true;
     }
 
-    OutputStream newOutputStream(RestPath path, OpenOption[] options) throws IOException {
+    /**
+     * Finds a version of a file in the cache, as downloaded by number or, if
+     * it was the latest (or default) version at the time, by name.
+     */
+    private byte[] getCachedVersion(RestPath path, int version, boolean isDefault, Cache cache) throws IOException {
+        List<VersionOpenOption> names = new ArrayList<>(List.of(VersionOpenOption.of(version), VersionOpenOption.LATEST));
+        if (isDefault) {
+            names.add(VersionOpenOption.DEFAULT);
+        }
+        for (VersionOpenOption name : names) {
+            CacheEntry entry = cache.getEntry(getDownloadURI(path, true, new OpenOption[]{name}));
+            if (entry != null) {
+                return entry.getContent();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Uploads a file written behind. The response is returned unchecked, for
+     * the {@link WriteBehindJournal} to tell a failure worth retrying from one
+     * that is not.
+     *
+     * @param path the file to write
+     * @param localFile the journal file holding the content
+     * @param isVersionedFile {@code true} to upload a new version
+     * @param options the options the file was written with
+     * @return the response, which the caller must close
+     * @throws IOException if the server cannot be reached
+     */
+    Response upload(RestPath path, Path localFile, boolean isVersionedFile, OpenOption[] options) throws IOException {
+        URI uri = getUploadURI(path, isVersionedFile, options);
+        try {
+            return client.target(uri).request(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.CONTENT_LENGTH, Files.size(localFile))
+                    .post(Entity.entity(localFile.toFile(), MediaType.APPLICATION_OCTET_STREAM));
+        } catch (ProcessingException x) {
+            throw convertProcessingException(x);
+        }
+    }
 
+    private boolean isVersionedUpload(RestPath path, OpenOption[] options) {
         VersionOpenOption voo = getOption(options, VersionOpenOption.class);
-        boolean isVersionedFile;
         try {
-            isVersionedFile = voo != null || path.isVersionedFile();
+            // A conditional write is only for versioned files; the server refuses it for others.
+            return voo != null || getOption(options, IfMatchOpenOption.class) != null || path.isVersionedFile();
         } catch (IOException x) {
-            isVersionedFile = false;
+            return false;
         }
+    }
+
+    /**
+     * Adds the {@code If-Match} header of an {@link IfMatchOpenOption} to an
+     * upload request.
+     */
+    private Invocation.Builder ifMatch(Invocation.Builder request, OpenOption[] options) {
+        IfMatchOpenOption ifMatch = getOption(options, IfMatchOpenOption.class);
+        return ifMatch == null ? request : request.header(HttpHeaders.IF_MATCH, ifMatch.value());
+    }
+
+    private URI getUploadURI(RestPath path, boolean isVersionedFile, OpenOption[] options) throws IOException {
         String restPath = isVersionedFile ? "rest/version/upload/" : "rest/upload/";
         UriBuilder builder = UriBuilder.fromUri(getRestURI(restPath, path));
         if (!isVersionedFile) {
             Arrays.stream(options).forEach(o -> builder.queryParam("openOption", o.toString()));
         }
-        WebTarget target = client.target(builder.build());
-        BlockingQueue<Future<Response>> queue = new ArrayBlockingQueue<>(1);
-        PipedOutputStream out = new PipedOutputStream() {
-            @Override
-            public void close() throws IOException {
-                super.close();
-                try {
-                    Response response = queue.take().get();
-                    checkResponse(response);
-                } catch (InterruptedException x) {
-                    throw new InterruptedIOException("Interrupt during file close");
-                } catch (ExecutionException x) {
-                    final Throwable cause = x.getCause();
-                    if (cause instanceof ProcessingException processingException) {
-                        throw convertProcessingException(processingException);
-                    } else if (cause instanceof IOException iOException) {
-                        throw iOException;
-                    } else {
-                        throw new IOException("Error during file close", cause);
-                    }
-                }
-            }
-        };
-        PipedInputStream in = new PipedInputStream(out);
-        Future<Response> futureResponse = target.request(MediaType.APPLICATION_JSON).async().post(Entity.entity(in, MediaType.APPLICATION_OCTET_STREAM));
-        queue.add(futureResponse);
-        return out;
+        return builder.build();
     }
 
     // TODO: Implement filter
     DirectoryStream<Path> newDirectoryStream(RestPath path, DirectoryStream.Filter<? super Path> filter) throws IOException {
-        Response response = getAndCheckResponse(getRestTarget("rest/list/", path).request(MediaType.APPLICATION_JSON));
-        RestFileInfo dirList = response.readEntity(RestFileInfo.class);
+        RestFileInfo dirList = getEntity(infoFlights, getRestTarget("rest/list/", path), RestFileInfo.class);
         final List<RestFileInfo> children = dirList.getChildren();
         if (children == null) {
             throw new NotDirectoryException(this.toString());
@@ -208,19 +438,38 @@ class RestClient implements Closeable {
 
     void move(RestPath source, RestPath target,
             CopyOption[] options) throws IOException {
-        URI uri = UriBuilder.fromUri(getRestURI("rest/move/", source)).queryParam("target", target.getRestPath()).build();
+        URI uri = UriBuilder.fromUri(getRestURI("rest/move/", source)).queryParam("target", getServerPath(target)).build();
         Response response = postAndCheckResponse(client.target(uri).request(MediaType.APPLICATION_JSON), null);
     }
 
+    /**
+     * Copies a file within the mount on the server, without transferring its
+     * content.
+     */
+    void copy(RestPath source, RestPath target, CopyOption[] options) throws IOException {
+        UriBuilder builder = UriBuilder.fromUri(getRestURI("rest/copy/", source))
+                .queryParam("target", getServerPath(target));
+        List<CopyOption> optionList = Arrays.asList(options);
+        if (optionList.contains(VersionedCopyOption.DEFAULT_VERSION_ONLY)) {
+            builder.queryParam("history", false);
+        }
+        if (optionList.contains(StandardCopyOption.REPLACE_EXISTING)) {
+            builder.queryParam("replace", true);
+        }
+        postAndCheckResponse(client.target(builder.build()).request(MediaType.APPLICATION_JSON), null).close();
+    }
+
     void checkAccess(RestPath path, AccessMode... modes) throws IOException {
-        Response response = getAndCheckResponse(getRestTarget("rest/list/", path).request(MediaType.APPLICATION_JSON));
-        response.readEntity(RestFileInfo.class);
+        getEntity(infoFlights, getRestTarget("rest/list/", path), RestFileInfo.class);
     }
 
     BasicFileAttributes getAttributes(RestPath path, LinkOption[] options) throws IOException {
         RestFileInfo info = getRestFileInfo(path);
-        if (info.isVersionedFile()) {
-            VersionInfoV2 vinfo = getVersionedRestFileInfo(path);
+        return toAttributes(path, info, info.isVersionedFile() ? getVersionedRestFileInfo(path) : null);
+    }
+
+    private static BasicFileAttributes toAttributes(RestPath path, RestFileInfo info, VersionInfoV2 vinfo) {
+        if (vinfo != null) {
             int version = vinfo.getDefault();
             String versionFromPath = path.getVersion();
             if ( versionFromPath != null ) {
@@ -240,9 +489,7 @@ class RestClient implements Closeable {
         if (!path.isVersionedFile()) {
             throw new IOException("Cannot read versioned attributes for non-versioned file");
         }
-        Response response = getAndCheckResponse(getRestTarget("rest/version/info/", path).request(MediaType.APPLICATION_JSON));
-        VersionInfoV2 info = response.readEntity(VersionInfoV2.class);
-        return new RestVersionedFileAttributes(info);
+        return new RestVersionedFileAttributes(getVersionedRestFileInfo(path));
     }
 
     BasicFileAttributeView getFileAttributeView(RestPath path, LinkOption[] options
@@ -317,25 +564,249 @@ class RestClient implements Closeable {
         return result;
     }
 
+    /**
+     * Gets the version info of a versioned file. If the complete info was
+     * read before, only the versions added since are asked for and merged
+     * into it; if that fails, for example because the server is older or
+     * offline, the complete info is read instead.
+     */
     private VersionInfoV2 getVersionedRestFileInfo(RestPath path) throws IOException {
-        Response response = getAndCheckResponse(getRestTarget("rest/version/info/", path).request(MediaType.APPLICATION_JSON));
-        VersionInfoV2 info = response.readEntity(VersionInfoV2.class);
+        WebTarget target = getRestTarget("rest/version/info/", path);
+        VersionInfoV2 known = knownVersionInfo.get(target.getUri());
+        if (known != null) {
+            try {
+                WebTarget since = target.queryParam("since", known.getLatest()).queryParam("generation", known.getGeneration());
+                VersionInfoV2 merged = RestVersionedFileAttributes.merge(known, getEntity(versionInfoFlights, since, VersionInfoV2.class));
+                if (merged != null) {
+                    return remember(target.getUri(), merged);
+                }
+            } catch (IOException x) {
+                LOG.log(Level.FINE, "Incremental version info of " + path + " failed, reading all versions", x);
+            }
+        }
+        return remember(target.getUri(), getEntity(versionInfoFlights, target, VersionInfoV2.class));
+    }
+
+    private VersionInfoV2 remember(URI uri, VersionInfoV2 info) {
+        // Info from an older server cannot be brought up to date
+        if (info.getGeneration() != null) {
+            knownVersionInfo.put(uri, info);
+        }
         return info;
     }
 
     RestFileInfo getRestFileInfo(RestPath path) throws IOException {
-        Response response = getAndCheckResponse(getRestTarget("rest/info/", path).request(MediaType.APPLICATION_JSON));
-        RestFileInfo info = response.readEntity(RestFileInfo.class);
-        return info;
+        return getEntity(infoFlights, getRestTarget("rest/info/", path), RestFileInfo.class);
+    }
+
+    /**
+     * Performs a JSON GET, sharing the result with any identical request
+     * already in flight.
+     */
+    private <T> T getEntity(SingleFlight<URI, T> flights, WebTarget target, Class<T> type) throws IOException {
+        return flights.execute(target.getUri(), () -> {
+            Response response = get(target, MediaType.APPLICATION_JSON);
+            checkResponse(response);
+            return response.readEntity(type);
+        });
+    }
+
+    /**
+     * Performs a GET, hedged if the mount hedges slow requests.
+     */
+    private Response get(WebTarget target, String mediaType) throws IOException {
+        return get(target.request(mediaType), target.getUri());
+    }
+
+    private Response get(Invocation.Builder request, URI uri) throws IOException {
+        if (!hedger.isEnabled()) {
+            try {
+                return request.get();
+            } catch (ProcessingException x) {
+                throw convertProcessingException(x);
+            }
+        }
+        CompletableFuture<Response> future = hedger.send(() -> sendAsync(request.async(), "GET", null));
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            // Nobody will read the response, so release its connection
+            future.whenComplete((response, failure) -> {
+                if (response != null) {
+                    response.close();
+                }
+            });
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + uri);
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException iOException) {
+                throw iOException;
+            } else if (cause instanceof ProcessingException processingException) {
+                throw convertProcessingException(processingException);
+            } else {
+                throw new IOException("Error talking to rest server", cause);
+            }
+        }
+    }
+
+    CompletableFuture<byte[]> readAllBytesAsync(RestPath path, OpenOption[] options) {
+        return isVersionedFileAsync(path).thenCompose(versioned -> {
+            URI uri = uncheck(() -> getDownloadURI(path, versioned, options));
+            return invokeAsync(client.target(uri).request(MediaType.APPLICATION_OCTET_STREAM).async(), "GET", null)
+                    .thenApply(response -> {
+                        if (response.getStatus() == 404) {
+                            response.close();
+                            throw new CompletionException(new FileNotFoundException(path.toString()));
+                        }
+                        return readEntity(response, byte[].class);
+                    });
+        });
+    }
+
+    CompletableFuture<BasicFileAttributes> readAttributesAsync(RestPath path) {
+        return getEntityAsync(uncheck(() -> getRestTarget("rest/info/", path)), RestFileInfo.class).thenCompose(info -> {
+            if (!info.isVersionedFile()) {
+                return CompletableFuture.completedFuture(toAttributes(path, info, null));
+            }
+            WebTarget target = uncheck(() -> getRestTarget("rest/version/info/", path));
+            return getEntityAsync(target, VersionInfoV2.class)
+                    .thenApply(vinfo -> toAttributes(path, info, remember(target.getUri(), vinfo)));
+        });
     }
 
-    private Response getAndCheckResponse(SyncInvoker invoker) throws IOException {
+    CompletableFuture<List<Path>> listAsync(RestPath path) {
+        return getEntityAsync(uncheck(() -> getRestTarget("rest/list/", path)), RestFileInfo.class).thenApply(dirList -> {
+            List<RestFileInfo> children = dirList.getChildren();
+            if (children == null) {
+                throw new CompletionException(new NotDirectoryException(path.toString()));
+            }
+            return children.stream().map(fileInfo -> path.resolve(fileInfo.getName())).collect(Collectors.toList());
+        });
+    }
+
+    CompletableFuture<Void> uploadAsync(RestPath path, byte[] content, OpenOption[] options) {
+        return uploadAsync(path, Entity.entity(content, MediaType.APPLICATION_OCTET_STREAM), content.length, options);
+    }
+
+    /**
+     * Uploads a local file. The file is streamed from disk with its length
+     * known in advance, rather than copied through an output stream.
+     */
+    CompletableFuture<Void> uploadAsync(RestPath path, Path localFile, OpenOption[] options) {
+        long size;
+        try {
+            size = Files.size(localFile);
+        } catch (IOException x) {
+            return CompletableFuture.failedFuture(x);
+        }
+        return uploadAsync(path, Entity.entity(localFile.toFile(), MediaType.APPLICATION_OCTET_STREAM), size, options);
+    }
+
+    private CompletableFuture<Void> uploadAsync(RestPath path, Entity<?> entity, long size, OpenOption[] options) {
+        CompletableFuture<Boolean> versioned = getOption(options, VersionOpenOption.class) != null
+                || getOption(options, IfMatchOpenOption.class) != null
+                ? CompletableFuture.completedFuture(true)
+                // As for newOutputStream, a file that cannot be looked up is not versioned.
+                : isVersionedFileAsync(path).exceptionally(x -> false);
+        return versioned.thenCompose(isVersionedFile -> {
+            URI uri = uncheck(() -> getUploadURI(path, isVersionedFile, options));
+            long start = System.nanoTime();
+            Invocation.Builder request = ifMatch(client.target(uri).request(MediaType.APPLICATION_JSON), options);
+            return invokeAsync(request.header(HttpHeaders.CONTENT_LENGTH, size).async(), "POST", entity)
+                    .thenAccept(response -> {
+                        checkResponseAsync(response);
+                        response.close();
+                        metrics.uploaded(size, System.nanoTime() - start, 0);
+                    });
+        });
+    }
+
+    private CompletableFuture<Boolean> isVersionedFileAsync(RestPath path) {
+        if (path.getVersion() != null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return getEntityAsync(uncheck(() -> getRestTarget("rest/info/", path)), RestFileInfo.class).thenApply(RestFileInfo::isVersionedFile);
+    }
+
+    CompletableFuture<PrefetchReport> prefetchAsync(Collection<RestPath> paths, boolean recursive, PrefetchReport.Listener listener) {
+        return new Prefetcher(this, recursive, listener).start(paths);
+    }
+
+    /**
+     * Sends an asynchronous GET, subject to the mount's concurrency limit.
+     * The caller is responsible for checking and closing the response.
+     */
+    CompletableFuture<Response> getAsync(URI uri, String mediaType) {
+        return invokeAsync(client.target(uri).request(mediaType).async(), "GET", null);
+    }
+
+    private <T> CompletableFuture<T> getEntityAsync(WebTarget target, Class<T> type) {
+        return invokeAsync(target.request(MediaType.APPLICATION_JSON).async(), "GET", null).thenApply(response -> readEntity(response, type));
+    }
+
+    /**
+     * Sends a request with the async invoker, once the mount's
+     * {@link AsyncLimiter} allows it. The request goes through the same
+     * filters, and so the same cache, as a synchronous one. A GET may be
+     * hedged; both attempts share the one slot.
+     */
+    private CompletableFuture<Response> invokeAsync(AsyncInvoker invoker, String method, Entity<?> entity) {
+        return asyncLimiter.submit(() -> "GET".equals(method)
+                ? hedger.send(() -> sendAsync(invoker, method, null))
+                : sendAsync(invoker, method, entity));
+    }
+
+    private static CompletableFuture<Response> sendAsync(AsyncInvoker invoker, String method, Entity<?> entity) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(Throwable x) {
+                result.completeExceptionally(x instanceof ProcessingException processingException ? convertProcessingException(processingException) : x);
+            }
+        };
+        if (entity == null) {
+            invoker.method(method, callback);
+        } else {
+            invoker.method(method, entity, callback);
+        }
+        return result;
+    }
+
+    <T> T readEntity(Response response, Class<T> type) {
+        checkResponseAsync(response);
+        return response.readEntity(type);
+    }
+
+    void checkResponseAsync(Response response) {
         try {
-            Response response = invoker.get();
             checkResponse(response);
-            return response;
-        } catch (ProcessingException x) {
-            throw convertProcessingException(x);
+        } catch (IOException x) {
+            throw new CompletionException(x);
+        }
+    }
+
+    @FunctionalInterface
+    interface IOSupplier<T> {
+
+        T get() throws IOException;
+    }
+
+    /**
+     * Runs a step of an asynchronous operation that may throw an
+     * {@link IOException}, rethrowing it as the cause of a
+     * {@link CompletionException} so that it fails the enclosing future.
+     */
+    static <T> T uncheck(IOSupplier<T> supplier) {
+        try {
+            return supplier.get();
+        } catch (IOException x) {
+            throw new CompletionException(x);
         }
     }
 
@@ -377,7 +848,7 @@ class RestClient implements Closeable {
         }
     }
 
-    private void checkResponse(Response response) throws IOException {
+    void checkResponse(Response response) throws IOException {
         if (response.getStatus() != Response.Status.OK.getStatusCode()) {
             if (response.getStatus() == IOExceptionResponse.RESPONSE_CODE) {
                 IOExceptionResponse ioError = response.readEntity(IOExceptionResponse.class);
@@ -389,6 +860,9 @@ class RestClient implements Closeable {
                 } catch (ReflectiveOperationException ex) {
                     throw new IOException("Remote Exception " + ioError.getExceptionClass() + " " + ioError.getMessage());
                 }
+            } else if (response.getStatus() == Response.Status.PRECONDITION_FAILED.getStatusCode()) {
+                String latest = response.getHeaderString("version");
+                throw new VersionConflictException(response.readEntity(String.class), latest == null ? 0 : Integer.parseInt(latest));
             } else {
                 throw new IOException("Response code " + response.getStatus() + " " + response.getStatusInfo());
             }
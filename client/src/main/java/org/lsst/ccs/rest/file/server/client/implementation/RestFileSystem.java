@@ -17,12 +17,17 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.ws.rs.Priorities;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+import org.lsst.ccs.rest.file.server.client.AsyncFileOperations;
 import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
 import org.lsst.ccs.rest.file.server.client.implementation.unixlike.AbstractPathBuilder;
 import org.lsst.ccs.rest.file.server.client.implementation.unixlike.AbstractFileSystem;
@@ -46,6 +51,9 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
     private final RestClient restClient;
     private final Cache cache;
     private final CacheRequestFilter cacheRequestFilter;
+    private final MountMetrics metrics;
+    private final RestAsyncOperations async;
+    private final WriteBehindJournal writeBehind;
     private boolean offline = false;
     private static final Logger LOG = Logger.getLogger(RestFileSystem.class.getName());
     private final URI mountPoint;
@@ -64,24 +72,52 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
         this.options = new RestFileSystemOptionsHelper(env);
         mountPoint = options.getMountPoint();
         this.uri = uri;
-        Client client = ClientBuilder.newBuilder().readTimeout(3, TimeUnit.SECONDS).connectTimeout(3, TimeUnit.SECONDS).build();
+        Client client = createClient();
         final URI restURI = computeRestURI(client);
         if (options.getCacheOptions() != RestFileSystemOptions.CacheOptions.NONE) {
-            cache = new Cache(options);
+            cache = new Cache(options, getFullURI().toString());
+            metrics = new MountMetrics(cache);
             RestFileSystemOptions.CacheFallback fallback = options.getCacheFallback();
-            cacheRequestFilter = new CacheRequestFilter(cache, isCacheOnly(fallback), doEntriesExpire(fallback));
+            cacheRequestFilter = new CacheRequestFilter(cache, metrics, isCacheOnly(fallback), doEntriesExpire(fallback),
+                    isStaleWhileRevalidate(fallback), options.getCacheMaxStaleness());
             client.register(cacheRequestFilter);
-            client.register(new CacheResponseFilter(cache));
+            client.register(new CacheResponseFilter(cache, metrics));
         } else {
             cache = null;
             cacheRequestFilter = null;
+            metrics = new MountMetrics(null);
         }
+        // Above the cache filters' priority: times only requests that reach the
+        // server, and sees response bodies before they are buffered.
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(options.getReadTimeout(), options.getHedgePercentile());
+        client.register(timeouts, Priorities.USER + 100);
+        metrics.setTimeouts(timeouts);
+        metrics.register(getFullURI().toString());
         client.register(new AddProtcolVersionRequestFilter());
         String jwt = options.getAuthToken();
         if (jwt != null) {
             client.register(new AddJWTTokenRequestFilter(jwt));
         }
-        restClient = new RestClient(client, restURI, mountPoint);
+        restClient = new RestClient(client, restURI, mountPoint, metrics, new Hedger(timeouts, metrics), cache != null,
+                options.getAsyncConcurrency(), options.getUploadBufferSize());
+        async = new RestAsyncOperations(this);
+        if (options.isWriteBehind()) {
+            writeBehind = new WriteBehindJournal(this, metrics, RestFileSystemOptionsHelper.getGlobalCacheLocation()
+                    .resolve("journal").resolve(SharedDiskCache.digest(getFullURI().toString())));
+            metrics.setWriteBehind(writeBehind);
+        } else {
+            writeBehind = null;
+        }
+    }
+
+    private Client createClient() {
+        ConnectorProvider connector = options.getTransport() == RestFileSystemOptions.Transport.HTTP2
+                ? new HttpClientConnectorProvider(options.getConnectionPoolSize(), options.getConnectionKeepAlive())
+                // Bodies of known length, such as uploaded files, are streamed rather than buffered.
+                : new HttpUrlConnectorProvider().useFixedLengthStreaming();
+        return ClientBuilder.newBuilder().withConfig(new ClientConfig().connectorProvider(connector))
+                .readTimeout(options.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .connectTimeout(options.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS).build();
     }
 
     private URI computeRestURI(Client client) throws IOException {
@@ -89,7 +125,9 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
         String schema = useSSL == RestFileSystemOptions.SSLOptions.TRUE ? "https" : "http";
         // Test if we can connect, handle redirects
         URI trialRestURI = UriBuilder.fromUri(uri).scheme(schema).build();
-        if (useSSL == RestFileSystemOptions.SSLOptions.AUTO || options.getCacheFallback() == RestFileSystemOptions.CacheFallback.OFFLINE) {
+        RestFileSystemOptions.CacheFallback fallback = options.getCacheFallback();
+        if (useSSL == RestFileSystemOptions.SSLOptions.AUTO || fallback == RestFileSystemOptions.CacheFallback.OFFLINE
+                || fallback == RestFileSystemOptions.CacheFallback.STALE_WHILE_REVALIDATE) {
                 URI testURI = trialRestURI.resolve("rest/list/");
                 try {
                     Response response = client.target(testURI).request(MediaType.APPLICATION_JSON).head();
@@ -123,6 +161,20 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
         return cache;
     }
 
+    MountMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the journal of files written behind.
+     *
+     * @return the journal, or {@code null} if this mount uploads files as
+     * their streams are closed
+     */
+    WriteBehindJournal getWriteBehind() {
+        return writeBehind;
+    }
+
     private boolean isCacheOnly(RestFileSystemOptions.CacheFallback fallback) {
         return offline || fallback == RestFileSystemOptions.CacheFallback.ALWAYS;
     }
@@ -131,6 +183,10 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
         return fallback != RestFileSystemOptions.CacheFallback.WHEN_POSSIBLE;
     }
 
+    private static boolean isStaleWhileRevalidate(RestFileSystemOptions.CacheFallback fallback) {
+        return fallback == RestFileSystemOptions.CacheFallback.STALE_WHILE_REVALIDATE;
+    }
+
     /**
      * Updates the cache freshness policy for this mount at runtime. Policy is
      * per-mount and lives in the request filter (see ADR 0003); this recomputes
@@ -140,14 +196,35 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
      */
     void setCacheFallbackOption(RestFileSystemOptions.CacheFallback fallback) {
         if (cacheRequestFilter != null) {
-            cacheRequestFilter.setPolicy(isCacheOnly(fallback), doEntriesExpire(fallback));
+            cacheRequestFilter.setPolicy(isCacheOnly(fallback), doEntriesExpire(fallback), isStaleWhileRevalidate(fallback));
+        }
+        if (writeBehind != null) {
+            writeBehind.offlineChanged();
         }
     }
+
+    /**
+     * @return {@code true} if this mount is offline, serving reads only from
+     * its cache and refusing every other request
+     */
+    boolean isOffline() {
+        return cacheRequestFilter != null && cacheRequestFilter.isCacheOnly();
+    }
     
     RestClient getClient() {
         return restClient;
     }
 
+    /**
+     * Returns non-blocking versions of the common file operations, sharing
+     * this file system's connection and cache.
+     *
+     * @return the asynchronous operations of this file system
+     */
+    public AsyncFileOperations async() {
+        return async;
+    }
+
     @Override
     public FileSystemProvider provider() {
         return provider;
@@ -156,7 +233,11 @@ public class RestFileSystem extends AbstractFileSystem implements AbstractPathBu
     @Override
     public void close() throws IOException {
         provider.dispose(getFullURI());
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
         restClient.close();
+        metrics.unregister();
         if (cache != null) {
             cache.close();
         }
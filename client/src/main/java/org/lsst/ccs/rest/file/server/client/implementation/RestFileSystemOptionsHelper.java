@@ -8,6 +8,7 @@ import java.lang.reflect.Method;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -99,6 +100,136 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         return getOption(RestFileSystemOptions.CACHE_LOGGING, Boolean.class, Boolean.FALSE);
     }
 
+    /**
+     * Returns the fraction of the JVM-wide memory cache budget this mount may
+     * use.
+     *
+     * @return the share, between 0 and 1
+     */
+    double getCacheMemoryShare() {
+        double share = getOption(RestFileSystemOptions.CACHE_MEMORY_SHARE, Double.class, 1.0);
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("Invalid value for option " + RestFileSystemOptions.CACHE_MEMORY_SHARE + ": " + share);
+        }
+        return share;
+    }
+
+    /**
+     * Returns the transport used to talk to the server.
+     *
+     * @return the transport, default {@code DEFAULT}
+     */
+    RestFileSystemOptions.Transport getTransport() {
+        return getOption(RestFileSystemOptions.TRANSPORT, RestFileSystemOptions.Transport.class, RestFileSystemOptions.Transport.DEFAULT);
+    }
+
+    /**
+     * Returns the connect timeout.
+     *
+     * @return the timeout, default 3 seconds
+     */
+    Duration getConnectTimeout() {
+        Object value = env.get(RestFileSystemOptions.CONNECT_TIMEOUT);
+        return value == null ? DEFAULT_TIMEOUT : toDuration(RestFileSystemOptions.CONNECT_TIMEOUT, value);
+    }
+
+    /**
+     * Returns the read timeout for responses of small or unknown size.
+     *
+     * @return the timeout, default 3 seconds
+     */
+    Duration getReadTimeout() {
+        Object value = env.get(RestFileSystemOptions.READ_TIMEOUT);
+        return value == null ? DEFAULT_TIMEOUT : toDuration(RestFileSystemOptions.READ_TIMEOUT, value);
+    }
+
+    /**
+     * Returns the latency percentile after which GETs are hedged.
+     *
+     * @return the percentile, or 0 if hedging is off
+     */
+    double getHedgePercentile() {
+        double percentile = getOption(RestFileSystemOptions.HEDGE_PERCENTILE, Double.class, 0.0);
+        if (percentile < 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Invalid value for option " + RestFileSystemOptions.HEDGE_PERCENTILE + ": " + percentile);
+        }
+        return percentile;
+    }
+
+    /**
+     * Returns the connection pool size for the HTTP/2 transport.
+     *
+     * @return the size, or {@code null} to leave the JDK default
+     */
+    Integer getConnectionPoolSize() {
+        if (env.get(RestFileSystemOptions.CONNECTION_POOL_SIZE) == null) {
+            return null;
+        }
+        int size = getOption(RestFileSystemOptions.CONNECTION_POOL_SIZE, Integer.class, 0);
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid value for option " + RestFileSystemOptions.CONNECTION_POOL_SIZE + ": " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the idle connection keep-alive for the HTTP/2 transport.
+     *
+     * @return the keep-alive, or {@code null} to leave the JDK default
+     */
+    Duration getConnectionKeepAlive() {
+        Object value = env.get(RestFileSystemOptions.CONNECTION_KEEP_ALIVE);
+        return value == null ? null : toDuration(RestFileSystemOptions.CONNECTION_KEEP_ALIVE, value);
+    }
+
+    /**
+     * Returns the size of the chunks in which uploads are sent.
+     *
+     * @return the size in bytes, default 1 MB
+     */
+    int getUploadBufferSize() {
+        int size = getOption(RestFileSystemOptions.UPLOAD_BUFFER_SIZE, Integer.class, 1024 * 1024);
+        if (size < 1024) {
+            throw new IllegalArgumentException("Invalid value for option " + RestFileSystemOptions.UPLOAD_BUFFER_SIZE + ": " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Indicates whether files are written behind.
+     *
+     * @return {@code true} if closed output streams are uploaded in the
+     * background
+     */
+    boolean isWriteBehind() {
+        return getOption(RestFileSystemOptions.WRITE_BEHIND, Boolean.class, Boolean.FALSE);
+    }
+
+    /**
+     * Returns the maximum number of asynchronous requests in flight for this
+     * mount.
+     *
+     * @return the limit, default 8
+     */
+    int getAsyncConcurrency() {
+        int limit = getOption(RestFileSystemOptions.ASYNC_CONCURRENCY, Integer.class, 8);
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid value for option " + RestFileSystemOptions.ASYNC_CONCURRENCY + ": " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Returns how long an entry may be served without waiting for the server
+     * in stale-while-revalidate mode.
+     *
+     * @return the maximum staleness, default 5 minutes
+     */
+    Duration getCacheMaxStaleness() {
+        Object value = env.get(RestFileSystemOptions.CACHE_MAX_STALENESS);
+        return value == null ? DEFAULT_CACHE_MAX_STALENESS : toDuration(RestFileSystemOptions.CACHE_MAX_STALENESS, value);
+    }
+
     /**
      * The on-disk cache location and the spill flag ({@code CacheFallbackLocation})
      * describe the single per-JVM cache (see ADR 0003), so they are resolved
@@ -111,18 +242,29 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
 
     /** Built-in default cache location when nothing else supplies one. */
     private static final String DEFAULT_CACHE_LOCATION = "~/ccs/cache/default";
+    /** Built-in default memory cache budget. */
+    private static final long DEFAULT_CACHE_MEMORY_BYTES = 64L * 1024 * 1024;
+    /** Built-in default disk cache cap. */
+    private static final long DEFAULT_CACHE_DISK_BYTES = 1024L * 1024 * 1024;
+    /** Built-in default maximum staleness for stale-while-revalidate. */
+    private static final Duration DEFAULT_CACHE_MAX_STALENESS = Duration.ofMinutes(5);
+    /** Built-in default connect and read timeouts. */
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(3);
 
     // The global cache config is resolved once (before the first file system)
     // and memoized. A test backdoor can seed/reset it; see
     // setGlobalCacheConfigForTest / resetGlobalCacheConfigForTest.
     private static Path globalCacheLocation;
     private static boolean globalAllowAlternate;
+    private static long globalCacheMemoryBytes = DEFAULT_CACHE_MEMORY_BYTES;
+    private static long globalCacheDiskBytes = DEFAULT_CACHE_DISK_BYTES;
     private static boolean globalResolved = false;
 
     // Programmatic location override (e.g. the CLI's --cacheDir), allowed only
     // before the cache is configured. Takes precedence over the property; the
     // spill flag still resolves normally.
     private static Path cacheLocationOverride;
+    private static Long cacheMemoryBytesOverride;
 
     /**
      * Resolves the JVM-global cache location, once. Resolution order, highest
@@ -143,6 +285,10 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
      * location. JVM-global; resolved from the {@code CacheFallbackLocation} key
      * of the {@link RestFileSystemOptions#DEFAULT_ENV_PROPERTY} map, default
      * {@code false}.
+     * <p>
+     * Since the disk cache became safe to share between processes (ADR 0004)
+     * no lock is taken and {@link Cache} no longer spills, so this flag is not
+     * consulted. It is still parsed so existing property values remain valid.
      *
      * @return {@code true} if alternate locations are allowed
      */
@@ -151,6 +297,31 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         return globalAllowAlternate;
     }
 
+    /**
+     * Returns the JVM-global memory cache budget in bytes, resolved like the
+     * cache location: programmatic override, then the {@code CacheMemoryBytes}
+     * key of the {@link RestFileSystemOptions#DEFAULT_ENV_PROPERTY} map, then a
+     * built-in default of 64 MB.
+     *
+     * @return the memory budget in bytes
+     */
+    static synchronized long getGlobalCacheMemoryBytes() {
+        resolveGlobalCacheConfig();
+        return globalCacheMemoryBytes;
+    }
+
+    /**
+     * Returns the JVM-global disk cache cap in bytes, from the
+     * {@code CacheDiskBytes} key of the
+     * {@link RestFileSystemOptions#DEFAULT_ENV_PROPERTY} map, default 1 GB.
+     *
+     * @return the disk cache cap in bytes
+     */
+    static synchronized long getGlobalCacheDiskBytes() {
+        resolveGlobalCacheConfig();
+        return globalCacheDiskBytes;
+    }
+
     private static void resolveGlobalCacheConfig() {
         if (globalResolved) {
             return;
@@ -163,6 +334,11 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         globalCacheLocation = toPath(location != null ? location : DEFAULT_CACHE_LOCATION);
         Object allow = defaults == null ? null : defaults.get(RestFileSystemOptions.ALLOW_ALTERNATE_CACHE_LOCATION);
         globalAllowAlternate = allow != null && Boolean.parseBoolean(allow.toString());
+        Object memoryBytes = cacheMemoryBytesOverride != null ? cacheMemoryBytesOverride
+                : (defaults == null ? null : defaults.get(RestFileSystemOptions.CACHE_MEMORY_BYTES));
+        globalCacheMemoryBytes = memoryBytes != null ? toBytes(RestFileSystemOptions.CACHE_MEMORY_BYTES, memoryBytes) : DEFAULT_CACHE_MEMORY_BYTES;
+        Object diskBytes = defaults == null ? null : defaults.get(RestFileSystemOptions.CACHE_DISK_BYTES);
+        globalCacheDiskBytes = diskBytes != null ? toBytes(RestFileSystemOptions.CACHE_DISK_BYTES, diskBytes) : DEFAULT_CACHE_DISK_BYTES;
         globalResolved = true;
     }
 
@@ -183,6 +359,21 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         cacheLocationOverride = location;
     }
 
+    /**
+     * Pins a programmatic memory budget override, with the same set-once rule
+     * as {@link #setCacheLocationOverride(Path)}.
+     *
+     * @param bytes the memory budget in bytes
+     * @throws IllegalStateException if the cache is already configured
+     */
+    static synchronized void setCacheMemoryBytesOverride(long bytes) {
+        toBytes(RestFileSystemOptions.CACHE_MEMORY_BYTES, bytes);
+        if (globalResolved) {
+            throw new IllegalStateException("Cache memory budget cannot be set: the cache is already configured");
+        }
+        cacheMemoryBytesOverride = bytes;
+    }
+
     /**
      * Seeds the JVM-global cache config directly, bypassing the system property.
      * For tests only, so they need not manipulate a global {@code -D} — set a
@@ -195,6 +386,8 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
     static synchronized void setGlobalCacheConfigForTest(Path location, boolean allowAlternate) {
         globalCacheLocation = location;
         globalAllowAlternate = allowAlternate;
+        globalCacheMemoryBytes = DEFAULT_CACHE_MEMORY_BYTES;
+        globalCacheDiskBytes = DEFAULT_CACHE_DISK_BYTES;
         globalResolved = true;
     }
 
@@ -202,8 +395,11 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
     static synchronized void resetGlobalCacheConfigForTest() {
         globalCacheLocation = null;
         globalAllowAlternate = false;
+        globalCacheMemoryBytes = DEFAULT_CACHE_MEMORY_BYTES;
+        globalCacheDiskBytes = DEFAULT_CACHE_DISK_BYTES;
         globalResolved = false;
         cacheLocationOverride = null;
+        cacheMemoryBytesOverride = null;
     }
 
     /**
@@ -226,6 +422,83 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         }
     }
 
+    /**
+     * Converts a size option value to bytes. Accepts a {@link Number} or a
+     * string with an optional {@code K}, {@code M} or {@code G} suffix (powers
+     * of 1024, an optional trailing {@code B} is ignored). The size must be
+     * positive: zero would silently turn the cache off, and a negative size
+     * would make nonsense of eviction.
+     */
+    static long toBytes(String optionName, Object value) {
+        long bytes;
+        if (value instanceof Number) {
+            bytes = ((Number) value).longValue();
+        } else {
+            bytes = parseBytes(optionName, value);
+        }
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Invalid value for option " + optionName + ": " + value);
+        }
+        return bytes;
+    }
+
+    private static long parseBytes(String optionName, Object value) {
+        String s = value.toString().trim().toUpperCase();
+        if (s.endsWith("B")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long multiplier = 1;
+        if (s.endsWith("K")) {
+            multiplier = 1024;
+        } else if (s.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        } else if (s.endsWith("G")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(s), multiplier);
+        } catch (NumberFormatException | ArithmeticException x) {
+            throw new IllegalArgumentException("Invalid value for option " + optionName + ": " + value);
+        }
+    }
+
+    /**
+     * Converts a duration option value. Accepts a {@link Duration}, a
+     * {@link Number} of seconds, or a string of digits with an optional
+     * {@code s}, {@code m}, {@code h} or {@code d} suffix (seconds if none).
+     */
+    static Duration toDuration(String optionName, Object value) {
+        if (value instanceof Duration) {
+            return (Duration) value;
+        } else if (value instanceof Number) {
+            return Duration.ofSeconds(((Number) value).longValue());
+        }
+        String s = value.toString().trim().toLowerCase();
+        long unitSeconds = 1;
+        if (s.endsWith("m")) {
+            unitSeconds = 60;
+        } else if (s.endsWith("h")) {
+            unitSeconds = 60 * 60;
+        } else if (s.endsWith("d")) {
+            unitSeconds = 24 * 60 * 60;
+        }
+        if (unitSeconds != 1 || s.endsWith("s")) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        try {
+            long amount = Long.parseLong(s);
+            if (amount < 0) {
+                throw new NumberFormatException();
+            }
+            return Duration.ofSeconds(amount * unitSeconds);
+        } catch (NumberFormatException x) {
+            throw new IllegalArgumentException("Invalid value for option " + optionName + ": " + value);
+        }
+    }
+
     private static String expandTilde(String path) {
         if (path.equals("~")) {
             return System.getProperty("user.home");
@@ -260,11 +533,13 @@ import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
         }
         if (type.isInstance(result)) {
             return type.cast(result);
-        } else if (result instanceof String) {
+        } else if (result instanceof String || result instanceof Number) {
+            // Numbers from the JSON property may not match the requested type
+            // (e.g. an Integer for a Double option), so go through the string form.
             try {
                 Method method = type.getMethod("valueOf", String.class);
                 if (type.isAssignableFrom(method.getReturnType())) {
-                    return type.cast(method.invoke(null, result));
+                    return type.cast(method.invoke(null, result.toString()));
                 } 
             } catch (ReflectiveOperationException x) {
                 // Just fall through to the IllegalArgumentException
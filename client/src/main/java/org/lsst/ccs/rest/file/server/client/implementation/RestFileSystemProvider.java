@@ -20,6 +20,8 @@ import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
@@ -84,6 +86,18 @@ public class RestFileSystemProvider extends FileSystemProvider {
         RestFileSystemOptionsHelper.setCacheLocationOverride(location);
     }
 
+    /**
+     * Pins the JVM-global memory cache budget, allowed only before the cache
+     * is configured (see {@link RestFileSystemOptions#setCacheMemoryBudget}).
+     *
+     * @param bytes the memory budget in bytes
+     * @throws IllegalArgumentException if {@code bytes} is not positive
+     * @throws IllegalStateException if the cache is already configured
+     */
+    public static void setCacheMemoryBudget(long bytes) {
+        RestFileSystemOptionsHelper.setCacheMemoryBytesOverride(bytes);
+    }
+
     @Override
     public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
         if (env == null) {
@@ -145,19 +159,40 @@ public class RestFileSystemProvider extends FileSystemProvider {
 
     @Override
     public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        final RestPath restPath = toRestPath(path);
+        final RestFileSystem fileSystem = (RestFileSystem) restPath.getFileSystem();
+        final WriteBehindJournal writeBehind = fileSystem.getWriteBehind();
+        if (writeBehind != null) {
+            SeekableByteChannel pending = writeBehind.newByteChannel(restPath, options.toArray(OpenOption[]::new));
+            if (pending != null) {
+                return pending;
+            }
+        }
+        return restPath.getClient().newByteChannel(restPath, options, fileSystem.getCache());
     }
 
     @Override
     public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
         final RestPath restPath = toRestPath(path);
+        final WriteBehindJournal writeBehind = ((RestFileSystem) restPath.getFileSystem()).getWriteBehind();
+        if (writeBehind != null) {
+            InputStream pending = writeBehind.newInputStream(restPath, options);
+            if (pending != null) {
+                return pending;
+            }
+        }
         return restPath.getClient().newInputStream(restPath, options);
     }
 
     @Override
     public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
         final RestPath restPath = toRestPath(path);
-        return restPath.getClient().newOutputStream(restPath, options);
+        final RestFileSystem fileSystem = (RestFileSystem) restPath.getFileSystem();
+        final WriteBehindJournal writeBehind = fileSystem.getWriteBehind();
+        if (writeBehind != null && WriteBehindJournal.canWriteBehind(options)) {
+            return writeBehind.newOutputStream(restPath, options);
+        }
+        return restPath.getClient().newOutputStream(restPath, options, fileSystem.getCache());
     }
 
     @Override
@@ -180,7 +215,19 @@ public class RestFileSystemProvider extends FileSystemProvider {
 
     @Override
     public void copy(Path source, Path target, CopyOption... options) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        final RestPath sourcePath = toRestPath(source);
+        final RestPath targetPath = toRestPath(target);
+        if (sourcePath.getFileSystem() == targetPath.getFileSystem()) {
+            sourcePath.getClient().copy(sourcePath, targetPath, options);
+        } else {
+            // Different mounts, possibly of different servers: through this client
+            OpenOption[] openOptions = Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)
+                    ? new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE}
+                    : new OpenOption[]{StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE};
+            try (InputStream in = newInputStream(sourcePath); OutputStream out = newOutputStream(targetPath, openOptions)) {
+                in.transferTo(out);
+            }
+        }
     }
 
     @Override
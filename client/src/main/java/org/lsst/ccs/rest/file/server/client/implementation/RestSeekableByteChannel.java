@@ -0,0 +1,352 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+
+/**
+ * A read-only channel on a remote file, which reads the file in fixed size
+ * blocks with HTTP range requests so that random access to a large file only
+ * transfers the blocks touched.
+ * <p>
+ * Opening the channel fetches the last block, which also gives the size and
+ * validator (entity tag, or else last modified time) of the file. For a file
+ * no bigger than a block that is the whole file, which is then cached as if
+ * it had been downloaded, so that later reads revalidate it or use it
+ * offline like any other download (see {@link RestClient#newByteChannel}).
+ * Every later block must come with the same validator, otherwise the file
+ * changed while it was being read and the read fails. The server's tag is weak, so it cannot be sent in
+ * {@code If-Range}; it is compared on each response instead.
+ * <p>
+ * Blocks are kept in the mount's cache, when it has one, keyed by the
+ * download URI, the validator and the block number, so they are shared with
+ * other channels on the same file and can never be mistaken for a whole
+ * response. When blocks are read in sequence the following ones are requested
+ * ahead of time.
+ */
+class RestSeekableByteChannel implements SeekableByteChannel {
+
+    private static final Logger LOG = Logger.getLogger(RestSeekableByteChannel.class.getName());
+
+    static final String RANGE = "Range";
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final Pattern UNSATISFIED_RANGE_PATTERN = Pattern.compile("bytes \\*/(\\d+)");
+    private static final int READ_AHEAD_BLOCKS = 4;
+    // Blocks held by the channel itself, the only copies when the mount does not cache.
+    private static final int LOCAL_BLOCKS = 8;
+
+    private final RestClient client;
+    private final Cache cache;
+    private final URI uri;
+    private final String name;
+    private final int blockSize;
+    private final long size;
+    private final String validator;
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > LOCAL_BLOCKS;
+        }
+    };
+    private final Map<Long, CompletableFuture<Block>> readAhead = new HashMap<>();
+    private long position;
+    private long lastBlock = -1;
+    private boolean open = true;
+
+    /**
+     * Opens a channel.
+     *
+     * @param client the client of the mount
+     * @param cache the mount's cache, or {@code null}
+     * @param uri the URI the file is downloaded from
+     * @param name the name of the file, for messages
+     * @param blockSize the number of bytes read by each request
+     * @throws IOException if the file does not exist or cannot be read
+     */
+    RestSeekableByteChannel(RestClient client, Cache cache, URI uri, String name, int blockSize) throws IOException {
+        this.client = client;
+        this.cache = cache;
+        this.uri = uri;
+        this.name = name;
+        this.blockSize = blockSize;
+        Block last = parse(client.getSuffix(uri, blockSize));
+        this.size = last.total;
+        this.validator = last.validator;
+        store(last, -1);
+        if (cache != null && last.first == 0 && last.bytes.length == size && validator != null) {
+            try {
+                cache.putEntry(uri, new CacheEntry(last.eTag, last.lastModified, MediaType.APPLICATION_OCTET_STREAM, last.bytes));
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "Could not cache " + name, x);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int count = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / blockSize;
+            byte[] block = getBlock(index);
+            int offset = (int) (position - index * blockSize);
+            int n = Math.min(block.length - offset, dst.remaining());
+            dst.put(block, offset, n);
+            position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        // Requests still being read ahead complete, and close their responses, on their own.
+        open = false;
+        readAhead.clear();
+        blocks.clear();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private byte[] getBlock(long index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            block = getCachedBlock(index);
+        }
+        if (block == null) {
+            CompletableFuture<Block> pending = readAhead.remove(index);
+            Block response = pending == null ? null : await(pending);
+            if (response == null) {
+                long start = index * blockSize;
+                response = parse(client.getRange(uri, start, blockEnd(index) - 1));
+            }
+            block = store(response, index);
+        }
+        if (index == lastBlock + 1) {
+            readAhead(index + 1);
+        }
+        lastBlock = index;
+        return block;
+    }
+
+    private byte[] getCachedBlock(long index) {
+        if (cache == null || validator == null) {
+            return null;
+        }
+        CacheEntry entry = cache.getEntry(blockKey(index));
+        if (entry == null) {
+            return null;
+        }
+        blocks.put(index, entry.getContent());
+        return entry.getContent();
+    }
+
+    /**
+     * Requests the blocks following one being read in sequence, unless they
+     * are already available or on their way. Read ahead for blocks the
+     * reader has moved away from is dropped.
+     */
+    private void readAhead(long from) {
+        long end = Math.min(from + READ_AHEAD_BLOCKS, (size + blockSize - 1) / blockSize);
+        readAhead.keySet().removeIf(index -> index < from || index >= end);
+        for (long index = from; index < end; index++) {
+            if (blocks.containsKey(index) || readAhead.containsKey(index)
+                    || (cache != null && validator != null && cache.getEntry(blockKey(index)) != null)) {
+                continue;
+            }
+            long start = index * blockSize;
+            readAhead.put(index, client.getRangeAsync(uri, start, blockEnd(index) - 1)
+                    .thenApply(response -> RestClient.uncheck(() -> parse(response))));
+        }
+    }
+
+    /**
+     * Waits for a block requested ahead of time.
+     *
+     * @return the response, or {@code null} if the request failed and the
+     * block should be requested again
+     */
+    private Block await(CompletableFuture<Block> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + name);
+        } catch (ExecutionException x) {
+            LOG.log(Level.FINE, "Read ahead of " + name + " failed", x.getCause());
+            return null;
+        }
+    }
+
+    private long blockEnd(long index) {
+        return Math.min((index + 1) * blockSize, size);
+    }
+
+    private URI blockKey(long index) {
+        return URI.create(uri + "#block=" + blockSize + "," + index + "," + URLEncoder.encode(validator, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a response to a range request, and closes it.
+     */
+    private Block parse(Response response) throws IOException {
+        try {
+            int status = response.getStatus();
+            String eTag = response.getHeaderString("ETag");
+            String responseValidator = eTag != null ? eTag : response.getHeaderString("Last-Modified");
+            Date lastModified = response.getLastModified();
+            if (status == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+                Matcher matcher = CONTENT_RANGE_PATTERN.matcher(String.valueOf(response.getHeaderString(CONTENT_RANGE)));
+                if (!matcher.matches()) {
+                    throw new IOException("Invalid " + CONTENT_RANGE + " reading " + name + ": " + response.getHeaderString(CONTENT_RANGE));
+                }
+                return new Block(Long.parseLong(matcher.group(1)), response.readEntity(byte[].class), Long.parseLong(matcher.group(3)),
+                        responseValidator, eTag, lastModified);
+            } else if (status == Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode()) {
+                // Only an empty file has no last block
+                Matcher matcher = UNSATISFIED_RANGE_PATTERN.matcher(String.valueOf(response.getHeaderString(CONTENT_RANGE)));
+                if (!matcher.matches()) {
+                    throw new IOException("Invalid " + CONTENT_RANGE + " reading " + name + ": " + response.getHeaderString(CONTENT_RANGE));
+                }
+                return new Block(0, new byte[0], Long.parseLong(matcher.group(1)), responseValidator, eTag, lastModified);
+            } else if (status == Response.Status.OK.getStatusCode()) {
+                // The server ignored the range and sent the whole file
+                byte[] bytes = response.readEntity(byte[].class);
+                return new Block(0, bytes, bytes.length, responseValidator, eTag, lastModified);
+            }
+            client.checkResponse(response);
+            throw new IOException("Response code " + status + " reading " + name);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Splits a response into the blocks it covers completely and keeps them.
+     *
+     * @param response the response
+     * @param wanted the block being read
+     * @return the wanted block
+     * @throws IOException if the response is from a different version of the
+     * file, or does not contain the wanted block
+     */
+    private byte[] store(Block response, long wanted) throws IOException {
+        if (response.total != size || !Objects.equals(response.validator, validator)) {
+            throw new IOException("File " + name + " changed while being read");
+        }
+        byte[] result = null;
+        long end = response.first + response.bytes.length;
+        for (long index = (response.first + blockSize - 1) / blockSize; index * blockSize < end; index++) {
+            long start = index * blockSize;
+            if (blockEnd(index) > end) {
+                break;
+            }
+            byte[] block = start == response.first && blockEnd(index) == end ? response.bytes
+                    : Arrays.copyOfRange(response.bytes, (int) (start - response.first), (int) (blockEnd(index) - response.first));
+            blocks.put(index, block);
+            if (cache != null && validator != null) {
+                try {
+                    cache.putEntry(blockKey(index), new CacheEntry(validator, null, MediaType.APPLICATION_OCTET_STREAM, block));
+                } catch (IOException x) {
+                    LOG.log(Level.WARNING, "Could not cache block " + index + " of " + name, x);
+                }
+            }
+            if (index == wanted) {
+                result = block;
+            }
+        }
+        if (result == null && wanted >= 0) {
+            throw new IOException("Response for " + name + " does not contain block " + wanted);
+        }
+        return result;
+    }
+
+    /**
+     * The content of a response to a range request.
+     */
+    private static class Block {
+
+        private final long first;
+        private final byte[] bytes;
+        private final long total;
+        private final String validator;
+        private final String eTag;
+        private final Date lastModified;
+
+        Block(long first, byte[] bytes, long total, String validator, String eTag, Date lastModified) {
+            this.first = first;
+            this.bytes = bytes;
+            this.total = total;
+            this.validator = validator;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.lsst.ccs.rest.file.server.client.implementation;
 
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import org.lsst.ccs.rest.file.server.client.VersionedFileAttributes;
 import org.lsst.ccs.web.rest.file.server.data.VersionInfoV2;
 
@@ -22,6 +24,39 @@ class RestVersionedFileAttributes extends RestFileAttributes implements Versione
         this.info = info;
     }
 
+    /**
+     * Brings complete version information up to date with an incremental
+     * response, which holds the versions added after
+     * {@link VersionInfoV2#getSince()}. Versions never change once written, so
+     * the known ones up to there are kept.
+     *
+     * @param known the complete version information read before
+     * @param update the response to a request for the versions since the
+     * latest known one
+     * @return the complete version information, or {@code null} if the
+     * update does not follow on from what is known, in which case it must be
+     * read again in full
+     */
+    static VersionInfoV2 merge(VersionInfoV2 known, VersionInfoV2 update) {
+        int since = update.getSince();
+        if (since == 0) {
+            return update;
+        }
+        // The server has compared the generation of the known versions, and
+        // would have sent every version if it differed
+        if (since != known.getLatest() || since > update.getLatest()) {
+            return null;
+        }
+        List<VersionInfoV2.Version> versions = new ArrayList<>(known.getLatest() + update.getVersions().size());
+        for (VersionInfoV2.Version version : known.getVersions()) {
+            if (version.getVersion() <= since) {
+                versions.add(version);
+            }
+        }
+        versions.addAll(update.getVersions());
+        return new VersionInfoV2(update.getDefault(), update.getLatest(), versions, update.getDefaultHistory(), update.isSensitive(), 0, update.getGeneration());
+    }
+
     /** {@inheritDoc} */
     @Override
     public int[] getVersions() {
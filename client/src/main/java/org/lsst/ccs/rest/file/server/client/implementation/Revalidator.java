@@ -0,0 +1,91 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Background revalidation of cached entries for the
+ * {@code STALE_WHILE_REVALIDATE} policy. Like the cache itself there is one
+ * per JVM, so however many mounts are open at most {@link #THREADS}
+ * conditional GETs are in flight at once. A URI already queued or in flight
+ * is not queued again, and when the queue is full further requests are
+ * dropped: the entry is simply revalidated on a later read, or synchronously
+ * once it exceeds the mount's maximum staleness.
+ * <p>
+ * The revalidation request goes through the mount's own client, marked with
+ * {@link CacheRequestFilter#REVALIDATE}, so the usual filters add the
+ * conditional headers and store the result.
+ */
+class Revalidator {
+
+    private static final Logger LOG = Logger.getLogger(Revalidator.class.getName());
+    static final int THREADS = 4;
+    private static final int QUEUE_SIZE = 256;
+    private static final Revalidator INSTANCE = new Revalidator();
+
+    private final Set<URI> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    private Revalidator() {
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread t = new Thread(r, "ccs-cache-revalidator");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static Revalidator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a conditional GET for a cached URI, unless one is already pending.
+     *
+     * @param client the client of the mount that served the entry
+     * @param uri the cached URI
+     * @param accept the media types accepted by the original request
+     * @return {@code true} if a revalidation was queued
+     */
+    boolean submit(Client client, URI uri, List<MediaType> accept) {
+        if (!pending.add(uri)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> revalidate(client, uri, accept));
+            return true;
+        } catch (RejectedExecutionException x) {
+            pending.remove(uri);
+            LOG.log(Level.FINE, "Revalidation queue full, skipping {0}", uri);
+            return false;
+        }
+    }
+
+    boolean isPending(URI uri) {
+        return pending.contains(uri);
+    }
+
+    private void revalidate(Client client, URI uri, List<MediaType> accept) {
+        try {
+            Response response = client.target(uri).request(accept.toArray(MediaType[]::new))
+                    .property(CacheRequestFilter.REVALIDATE, Boolean.TRUE).get();
+            response.close();
+        } catch (RuntimeException x) {
+            // Includes a closed client or an unreachable server; the stale entry stays.
+            LOG.log(Level.FINE, "Background revalidation of " + uri + " failed", x);
+        } finally {
+            pending.remove(uri);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for the JVM-wide cache: the shared {@link MemoryCache} and the
+ * {@link SharedDiskCache} it is backed by. There is one instance per JVM,
+ * registered over JMX the first time a caching mount is created.
+ */
+class SharedCacheMetrics implements SharedCacheMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(SharedCacheMetrics.class.getName());
+    private static final SharedCacheMetrics INSTANCE = new SharedCacheMetrics();
+
+    private final LongAdder memoryEvictions = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder diskWrites = new LongAdder();
+    private final LongAdder diskBytesWritten = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder entriesCompacted = new LongAdder();
+    private volatile long diskBytes;
+    private volatile int diskEntries;
+    private volatile long diskBudget;
+    private boolean registered;
+
+    static SharedCacheMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publishes the shared cache metrics, once per JVM.
+     */
+    synchronized void register() {
+        if (!registered) {
+            try {
+                MountMetrics.register(new ObjectName(MountMetrics.DOMAIN + ":type=SharedCache"), this, SharedCacheMetricsMBean.class);
+                registered = true;
+            } catch (JMException x) {
+                LOG.log(Level.WARNING, "Unable to register shared cache metrics", x);
+            }
+        }
+    }
+
+    void memoryEvicted() {
+        memoryEvictions.increment();
+    }
+
+    void diskRead() {
+        diskReads.increment();
+    }
+
+    void diskWritten(long bytes) {
+        diskWrites.increment();
+        diskBytesWritten.add(bytes);
+    }
+
+    void compacted(int deleted, int entriesRemaining, long bytesRemaining) {
+        compactions.increment();
+        entriesCompacted.add(deleted);
+        diskEntries = entriesRemaining;
+        diskBytes = bytesRemaining;
+    }
+
+    void setDiskBudget(long budget) {
+        diskBudget = budget;
+    }
+
+    @Override
+    public int getMemoryEntries() {
+        return MemoryCache.getInstance().size();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return MemoryCache.getInstance().getTotalBytes();
+    }
+
+    @Override
+    public long getMemoryBudget() {
+        return MemoryCache.getInstance().getMaxBytes();
+    }
+
+    @Override
+    public long getMemoryEvictions() {
+        return memoryEvictions.sum();
+    }
+
+    @Override
+    public long getDiskReads() {
+        return diskReads.sum();
+    }
+
+    @Override
+    public long getDiskWrites() {
+        return diskWrites.sum();
+    }
+
+    @Override
+    public long getDiskBytesWritten() {
+        return diskBytesWritten.sum();
+    }
+
+    @Override
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    @Override
+    public int getDiskEntries() {
+        return diskEntries;
+    }
+
+    @Override
+    public long getDiskBudget() {
+        return diskBudget;
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    @Override
+    public long getEntriesCompacted() {
+        return entriesCompacted.sum();
+    }
+}
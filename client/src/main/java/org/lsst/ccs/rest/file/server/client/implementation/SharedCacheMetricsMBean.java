@@ -0,0 +1,44 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+/**
+ * Management interface for the JVM-wide client cache, registered as
+ * {@code org.lsst.ccs.rest.file.client:type=SharedCache}.
+ */
+public interface SharedCacheMetricsMBean {
+
+    /** @return number of entries held in memory */
+    int getMemoryEntries();
+
+    /** @return bytes held in memory */
+    long getMemoryBytes();
+
+    /** @return the memory budget in bytes */
+    long getMemoryBudget();
+
+    /** @return entries evicted from memory to stay within the budget */
+    long getMemoryEvictions();
+
+    /** @return memory misses satisfied from the disk cache */
+    long getDiskReads();
+
+    /** @return entries written to the disk cache */
+    long getDiskWrites();
+
+    /** @return bytes written to the disk cache */
+    long getDiskBytesWritten();
+
+    /** @return bytes in the disk cache when it was last scanned by compaction */
+    long getDiskBytes();
+
+    /** @return entries in the disk cache when it was last scanned by compaction */
+    int getDiskEntries();
+
+    /** @return the disk cache cap in bytes */
+    long getDiskBudget();
+
+    /** @return completed compaction passes */
+    long getCompactions();
+
+    /** @return entries deleted by compaction */
+    long getEntriesCompacted();
+}
@@ -0,0 +1,494 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+
+/**
+ * Disk tier of the client cache, laid out so that several JVMs on one host can
+ * read and write the same location at the same time (see ADR 0004).
+ * <p>
+ * Each entry lives in its own file, named by a hash of its URI, under
+ * {@code <loc>/entries/<xx>/}. A writer serializes the entry to a temporary
+ * file in the same directory and publishes it with an atomic rename, so a
+ * reader sees either the previous complete entry or the new one, never a
+ * partial write. Readers therefore take no lock; concurrent writers of the
+ * same URI simply race and the last rename wins, which is harmless because
+ * both hold a response for the same URI.
+ * <p>
+ * The store is capped in size. A read refreshes the entry file's modification
+ * time (at most every few minutes), which serves as its last-access time. A
+ * background compaction pass, run by at most one process at a time, deletes
+ * the least recently used entries once the cap is exceeded. Each mount
+ * periodically records the keys it used most recently under
+ * {@code <loc>/mounts/}, and those entries are only deleted as a last resort,
+ * so a mount restarted offline still finds what it was using.
+ */
+class SharedDiskCache {
+
+    private static final Logger LOG = Logger.getLogger(SharedDiskCache.class.getName());
+
+    static final String ENTRIES_DIRECTORY = "entries";
+    static final String MOUNTS_DIRECTORY = "mounts";
+    static final String ENTRY_SUFFIX = ".entry";
+    static final String TEMP_PREFIX = ".tmp-";
+    private static final String RECENT_SUFFIX = ".recent";
+    private static final String COMPACTION_LOCK_FILE = "compaction.lock";
+    /** The lock file of the cache location before ADR 0004. */
+    static final String LEGACY_LOCK_FILE = "lockFile";
+    private static final int FORMAT_VERSION = 1;
+
+    /** Number of most recently used keys protected per mount. */
+    static final int RECENT_ENTRIES_PER_MOUNT = 200;
+    private static final long TOUCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long STALE_RECENT_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long COMPACTION_INTERVAL_MINUTES = 5;
+    /** Compaction deletes down to this fraction of the cap, so it does not run on every write. */
+    private static final double LOW_WATER_MARK = 0.9;
+
+    private static final Map<Path, SharedDiskCache> instances = new HashMap<>();
+    private static ScheduledExecutorService compactor;
+
+    private final Path location;
+    private final Path root;
+    private final Path mounts;
+    private final long maxBytes;
+    private final Map<String, Set<String>> recentByMount = new HashMap<>();
+    private final AtomicLong bytesWrittenSinceCompaction = new AtomicLong();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    SharedDiskCache(Path location, long maxBytes) throws IOException {
+        Files.createDirectories(location);
+        if (!Files.isDirectory(location) || !Files.isWritable(location)) {
+            throw new IOException("Invalid cache location: " + location);
+        }
+        this.location = location;
+        this.maxBytes = maxBytes;
+        root = location.resolve(ENTRIES_DIRECTORY);
+        mounts = location.resolve(MOUNTS_DIRECTORY);
+        Files.createDirectories(root);
+        Files.createDirectories(mounts);
+    }
+
+    /**
+     * Returns the store for a location, creating it on first use with the
+     * global disk budget and scheduling its periodic compaction. All mounts in
+     * the JVM that resolve the same location share one instance.
+     *
+     * @param location the cache location
+     * @return the shared store
+     * @throws IOException if the location cannot be used
+     */
+    static synchronized SharedDiskCache getInstance(Path location) throws IOException {
+        Path key = location.toAbsolutePath().normalize();
+        SharedDiskCache cache = instances.get(key);
+        if (cache == null) {
+            cache = new SharedDiskCache(location, RestFileSystemOptionsHelper.getGlobalCacheDiskBytes());
+            instances.put(key, cache);
+            SharedCacheMetrics.getInstance().setDiskBudget(cache.maxBytes);
+            if (compactor == null) {
+                compactor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+                    Thread thread = new Thread(r, "ccs-cache-compactor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            compactor.scheduleWithFixedDelay(cache::compactQuietly, 1, COMPACTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            compactor.execute(() -> removeSpillDirectories(key));
+        }
+        return cache;
+    }
+
+    /**
+     * Reads the entry stored for the given URI. An entry that is missing,
+     * written in an unknown format, or unreadable is treated as a cache miss.
+     *
+     * @param uri the cache key
+     * @return the cached entry, or {@code null}
+     */
+    CacheEntry get(URI uri) {
+        Path file = pathFor(uri);
+        CacheEntry entry;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            // The file name is a hash, so check for the (unlikely) collision.
+            if (!uri.toString().equals(in.readUTF())) {
+                return null;
+            }
+            entry = (CacheEntry) in.readObject();
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (IOException | ClassNotFoundException | ClassCastException x) {
+            LOG.log(Level.WARNING, "Ignoring unreadable cache entry " + file, x);
+            return null;
+        }
+        touch(file);
+        SharedCacheMetrics.getInstance().diskRead();
+        return entry;
+    }
+
+    /**
+     * Publishes the entry for the given URI, replacing any previous entry.
+     *
+     * @param uri the cache key
+     * @param entry the entry to store
+     * @throws IOException if the entry cannot be written
+     */
+    void put(URI uri, CacheEntry entry) throws IOException {
+        Path file = pathFor(uri);
+        Path dir = file.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, TEMP_PREFIX, null);
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(uri.toString());
+                out.writeObject(entry);
+            }
+            long size = Files.size(temp);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            SharedCacheMetrics.getInstance().diskWritten(size);
+            // Don't wait for the next periodic pass if a lot has been written.
+            if (bytesWrittenSinceCompaction.addAndGet(size) > maxBytes / 10) {
+                scheduleCompaction();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Notes that a mount used the entry for a URI, so that it is protected
+     * from compaction while it stays among the mount's most recent entries.
+     *
+     * @param mountKey a stable identifier for the mount
+     * @param uri the entry used
+     */
+    void recordAccess(String mountKey, URI uri) {
+        String key = digest(uri.toString());
+        synchronized (recentByMount) {
+            recentByMount.computeIfAbsent(mountKey, k -> Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > RECENT_ENTRIES_PER_MOUNT;
+                }
+            })).add(key);
+        }
+    }
+
+    /**
+     * Writes each mount's most recently used keys to {@code <loc>/mounts/},
+     * where the compaction pass of any process sharing the location can see
+     * them.
+     *
+     * @throws IOException if a list cannot be written
+     */
+    void flushRecent() throws IOException {
+        Map<String, List<String>> snapshot = new HashMap<>();
+        synchronized (recentByMount) {
+            recentByMount.forEach((mount, keys) -> snapshot.put(mount, new ArrayList<>(keys)));
+        }
+        for (Map.Entry<String, List<String>> e : snapshot.entrySet()) {
+            Path file = mounts.resolve(digest(e.getKey()) + RECENT_SUFFIX);
+            Path temp = Files.createTempFile(mounts, TEMP_PREFIX, null);
+            try {
+                Files.write(temp, e.getValue(), StandardCharsets.US_ASCII);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Runs one compaction pass: removes stale temporary files and, if the
+     * store is over its cap, deletes least recently used entries until it is
+     * back under the low-water mark. Entries recently used by some mount are
+     * deleted only if that is still not enough. Returns immediately if another
+     * thread or process is already compacting this location. Readers are never
+     * blocked; one that loses a race with a deletion sees a miss.
+     *
+     * @return the number of entries deleted
+     * @throws IOException if the store cannot be scanned
+     */
+    int compact() throws IOException {
+        flushRecent();
+        try (FileChannel channel = FileChannel.open(location.resolve(COMPACTION_LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return 0;
+            }
+            return compactLocked();
+        } catch (OverlappingFileLockException x) {
+            return 0;
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    private int compactLocked() throws IOException {
+        final long now = System.currentTimeMillis();
+        final List<EntryFile> files = new ArrayList<>();
+        bytesWrittenSinceCompaction.set(0);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                if (name.startsWith(TEMP_PREFIX)) {
+                    // Left behind by a writer that died mid-publish.
+                    if (now - attrs.lastModifiedTime().toMillis() > STALE_TEMP_MILLIS) {
+                        Files.deleteIfExists(file);
+                    }
+                } else if (name.endsWith(ENTRY_SUFFIX)) {
+                    String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+                    files.add(new EntryFile(file, key, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException x) {
+                // Most likely deleted or replaced while we were walking.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        long total = files.stream().mapToLong(f -> f.size).sum();
+        if (total <= maxBytes) {
+            SharedCacheMetrics.getInstance().compacted(0, files.size(), total);
+            return 0;
+        }
+        Set<String> recent = readRecent(now);
+        files.sort(Comparator.comparingLong(f -> f.lastAccess));
+        long target = (long) (maxBytes * LOW_WATER_MARK);
+        int deleted = 0;
+        for (int pass = 0; pass < 2 && total > target; pass++) {
+            boolean deleteRecent = pass == 1;
+            for (EntryFile f : files) {
+                if (total <= target) {
+                    break;
+                }
+                if (f.deleted || recent.contains(f.key) != deleteRecent) {
+                    continue;
+                }
+                Files.deleteIfExists(f.path);
+                f.deleted = true;
+                total -= f.size;
+                deleted++;
+            }
+        }
+        SharedCacheMetrics.getInstance().compacted(deleted, files.size() - deleted, total);
+        LOG.log(Level.FINE, "Compacted disk cache {0}: deleted {1} entries, {2} bytes remain", new Object[]{location, deleted, total});
+        return deleted;
+    }
+
+    private Set<String> readRecent(long now) throws IOException {
+        Set<String> result = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(mounts, "*" + RECENT_SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    // A mount not seen for a long time no longer protects anything.
+                    if (now - Files.getLastModifiedTime(file).toMillis() > STALE_RECENT_MILLIS) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        result.addAll(Files.readAllLines(file, StandardCharsets.US_ASCII));
+                    }
+                } catch (NoSuchFileException x) {
+                    // Replaced or removed concurrently; ignore.
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the {@code <loc>-N} directories that clients from before ADR
+     * 0004 spilled to when another process held the lock on the location.
+     * Nothing uses them any more, so they would otherwise stay forever.
+     * Current clients never take the legacy lock, so an unlocked lock only
+     * shows that no older client is using the directory: a {@code <loc>-N}
+     * directory configured as a cache location in its own right, which an
+     * older client once used, looks the same. So only a directory with the
+     * legacy lock and nothing written by a current client is deleted; one
+     * still locked by an older client, or holding current entries, is left
+     * alone.
+     *
+     * @param location the cache location
+     * @return the number of directories deleted
+     */
+    static int removeSpillDirectories(Path location) {
+        Path base = location.toAbsolutePath().normalize();
+        int removed = 0;
+        for (int n = 1; n < 100; n++) {
+            Path spill = base.resolveSibling(base.getFileName() + "-" + n);
+            Path lockFile = spill.resolve(LEGACY_LOCK_FILE);
+            if (!Files.isRegularFile(lockFile)) {
+                continue;
+            }
+            if (Files.exists(spill.resolve(ENTRIES_DIRECTORY)) || Files.exists(spill.resolve(MOUNTS_DIRECTORY))
+                    || Files.exists(spill.resolve(COMPACTION_LOCK_FILE))) {
+                LOG.log(Level.INFO, "Keeping {0}, which is used as a cache location by a current client", spill);
+                continue;
+            }
+            try {
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock == null) {
+                        continue;
+                    }
+                    lock.release();
+                } catch (OverlappingFileLockException x) {
+                    continue;
+                }
+                deleteTree(spill);
+                removed++;
+                LOG.log(Level.INFO, "Deleted unused cache spill directory {0}", spill);
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "Unable to delete cache spill directory " + spill, x);
+            }
+        }
+        return removed;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException x) throws IOException {
+                if (x != null) {
+                    throw x;
+                }
+                Files.deleteIfExists(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void scheduleCompaction() {
+        synchronized (SharedDiskCache.class) {
+            if (compactor != null && compactionScheduled.compareAndSet(false, true)) {
+                compactor.execute(this::compactQuietly);
+            }
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException x) {
+            LOG.log(Level.WARNING, "Disk cache compaction failed for " + location, x);
+        }
+    }
+
+    /**
+     * Refreshes the modification time of an entry file, which records its last
+     * access. Done at most every {@link #TOUCH_INTERVAL_MILLIS} per entry so
+     * that reads do not turn into a write each time.
+     */
+    private static void touch(Path file) {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - Files.getLastModifiedTime(file).toMillis() > TOUCH_INTERVAL_MILLIS) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            }
+        } catch (IOException x) {
+            // Deleted or replaced since it was read; nothing to record.
+        }
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private Path pathFor(URI uri) {
+        String hash = digest(uri.toString());
+        return root.resolve(hash.substring(0, 2)).resolve(hash + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Computes the hex-encoded SHA-256 digest of a string. Used to derive
+     * file names from URIs and other keys.
+     *
+     * @param key the string to digest
+     * @return the lowercase hex digest
+     */
+    static String digest(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16));
+                result.append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException("SHA-256 not available", x);
+        }
+    }
+
+    private static class EntryFile {
+
+        private final Path path;
+        private final String key;
+        private final long size;
+        private final long lastAccess;
+        private boolean deleted;
+
+        EntryFile(Path path, String key, long size, long lastAccess) {
+            this.path = path;
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
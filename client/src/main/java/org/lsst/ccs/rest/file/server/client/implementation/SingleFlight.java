@@ -0,0 +1,80 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent identical calls. The first caller for a key performs
+ * the call; callers arriving while it is in flight wait for and share its
+ * result, or its exception. Once the call completes the key is forgotten, so
+ * a later call goes to the server again (and normally finds the cache filled).
+ * <p>
+ * Results are shared between threads as is, so they must not be modified by
+ * the callers.
+ *
+ * @param <K> the key identifying identical calls, typically the request URI
+ * @param <V> the result type
+ */
+class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    interface Call<V> {
+
+        V call() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final MountMetrics metrics;
+
+    SingleFlight(MountMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    V execute(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            V result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error x) {
+            flight.completeExceptionally(x);
+            throw x;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V await(CompletableFuture<V> flight) throws IOException {
+        metrics.joinedFlight();
+        try {
+            return flight.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a concurrent request");
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException iOException) {
+                throw iOException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (cause instanceof Error error) {
+                throw error;
+            } else {
+                throw new IOException("Error in concurrent request", cause);
+            }
+        } finally {
+            metrics.leftFlight();
+        }
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,218 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+/**
+ * The stream returned by {@code Files.newOutputStream} for a file on the
+ * server. Bytes written are collected into chunks of the mount's upload
+ * buffer size, which are handed to the body of an upload already under way
+ * and sent with chunked transfer encoding, so the server receives the file as
+ * it is written. Up to {@value #QUEUED_CHUNKS} chunks may wait for the
+ * network; beyond that the writer waits, and the time it spends waiting is
+ * counted in the mount's metrics as backpressure.
+ * <p>
+ * {@link #flush()} does nothing: chunks are sent when full, and the last one
+ * on {@link #close()}, which waits for the server to store the file.
+ */
+class UploadOutputStream extends OutputStream {
+
+    private static final int QUEUED_CHUNKS = 4;
+    private static final byte[] END = new byte[0];
+    // How often a blocked writer checks whether the server has given up.
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    // Chunks the request body has finished with, reused by the writer.
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_CHUNKS + 1);
+    private final RestClient client;
+    private final MountMetrics metrics;
+    private final String name;
+    private final int bufferSize;
+    private final long startTime = System.nanoTime();
+    private final Future<Response> response;
+    private byte[] buffer;
+    private int count;
+    private long bytes;
+    private long blockedNanos;
+    private boolean closed;
+
+    /**
+     * Starts the upload.
+     *
+     * @param client the client, which checks the response
+     * @param request the upload request
+     * @param bufferSize the chunk size
+     * @param metrics the mount's metrics
+     * @param name the file being written, for messages
+     */
+    UploadOutputStream(RestClient client, Invocation.Builder request, int bufferSize, MountMetrics metrics, String name) {
+        this.client = client;
+        this.metrics = metrics;
+        this.name = name;
+        this.bufferSize = bufferSize;
+        this.buffer = new byte[bufferSize];
+        this.response = request.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED)
+                .property(ClientProperties.CHUNKED_ENCODING_SIZE, bufferSize)
+                .async().post(Entity.entity(new ChunkInputStream(), MediaType.APPLICATION_OCTET_STREAM));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[count++] = (byte) b;
+        bytes++;
+        if (count == bufferSize) {
+            sendBuffer();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, bufferSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            bytes += n;
+            off += n;
+            len -= n;
+            if (count == bufferSize) {
+                sendBuffer();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            send(Arrays.copyOf(buffer, count));
+        }
+        send(END);
+        buffer = null;
+        Response result = getResponse();
+        try {
+            client.checkResponse(result);
+        } finally {
+            result.close();
+        }
+        metrics.uploaded(bytes, System.nanoTime() - startTime, blockedNanos);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void sendBuffer() throws IOException {
+        send(buffer);
+        byte[] next = free.poll();
+        buffer = next != null ? next : new byte[bufferSize];
+        count = 0;
+    }
+
+    private void send(byte[] chunk) throws IOException {
+        long start = System.nanoTime();
+        try {
+            while (!chunks.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (response.isDone()) {
+                    // The server answered before reading the whole body
+                    closed = true;
+                    Response result = getResponse();
+                    try {
+                        client.checkResponse(result);
+                    } finally {
+                        result.close();
+                    }
+                    throw new IOException("Upload of " + name + " ended early");
+                }
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing " + name);
+        } finally {
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private Response getResponse() throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupt during file close");
+        } catch (ExecutionException x) {
+            final Throwable cause = x.getCause();
+            if (cause instanceof ProcessingException processingException) {
+                throw RestClient.convertProcessingException(processingException);
+            } else if (cause instanceof IOException iOException) {
+                throw iOException;
+            } else {
+                throw new IOException("Error during file close", cause);
+            }
+        }
+    }
+
+    /**
+     * The request body, read by the thread sending the request.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private byte[] current = END;
+        private int position;
+        private boolean finished;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (position == current.length) {
+                if (current.length == bufferSize) {
+                    free.offer(current);
+                }
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted sending " + name);
+                }
+                position = 0;
+                if (current == END) {
+                    finished = true;
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.ws.rs.core.Response;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+
+/**
+ * The journal of a mount that writes files behind (see
+ * {@link org.lsst.ccs.rest.file.server.client.RestFileSystemOptions#WRITE_BEHIND}).
+ * An output stream writes to a data file in the journal directory. Closing
+ * the stream forces the file to disk and commits it, by moving a small
+ * properties file naming the path and open options into place beside it; a
+ * crash before then leaves a data file that is discarded.
+ * <p>
+ * A single daemon thread uploads committed files in the order they were
+ * closed, back to back while there is a backlog, and deletes each once the
+ * server has stored it. When the server cannot be reached, or answers with a
+ * server error, the thread tries again after a delay which doubles up to
+ * {@value #MAX_BACKOFF_MILLIS} ms, and later files wait too so that they
+ * reach the server in order. A file the server refuses, for example because
+ * its directory does not exist, is moved to the {@code failed} subdirectory
+ * and logged. Uploads are at least once: a file whose upload was cut off
+ * may be sent again.
+ * <p>
+ * The server has no request which stores several files, so each file is a
+ * request of its own. A file written again before its earlier write was
+ * uploaded is sent once, with its last content, unless it is a versioned
+ * file on the server, where each write is a version.
+ * <p>
+ * While the mount is offline every request but a read from the cache fails,
+ * so the thread does not try: files stay in the journal until the mount goes
+ * online, or until a file system opened online on the same mount uploads
+ * them.
+ * <p>
+ * The journal directory is locked, so that only one file system at a time
+ * uses it. Opening it resumes the uploads an earlier file system left.
+ * <p>
+ * Until a file is uploaded, reads of it that name no version return the
+ * content last written. Other operations, such as deletes, go to the server
+ * at once, possibly ahead of earlier writes, unless the caller first waits
+ * for {@link #flush()}.
+ */
+class WriteBehindJournal implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindJournal.class.getName());
+
+    private static final String DATA = ".data";
+    private static final String META = ".meta";
+    private static final String TMP = ".tmp";
+    private static final long MIN_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RestFileSystem fileSystem;
+    private final MountMetrics metrics;
+    private final Path directory;
+    private final Path failedDirectory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    // The last write of each unversioned path, which reads see until it is uploaded.
+    private final Map<String, Entry> latest = new HashMap<>();
+    private final Thread worker;
+    private long nextSequence;
+    private boolean retryNow;
+    private boolean closed;
+
+    /**
+     * Opens the journal, and starts uploading any files it already holds.
+     *
+     * @param fileSystem the file system whose files are written behind
+     * @param metrics the mount's metrics, which count the uploads
+     * @param directory the journal directory, created if necessary
+     * @throws IOException if the directory cannot be used, or is in use by
+     * another file system
+     */
+    WriteBehindJournal(RestFileSystem fileSystem, MountMetrics metrics, Path directory) throws IOException {
+        this.fileSystem = fileSystem;
+        this.metrics = metrics;
+        this.directory = directory;
+        this.failedDirectory = directory.resolve("failed");
+        Files.createDirectories(failedDirectory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException x) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Write-behind journal " + directory + " is in use by another file system");
+        }
+        lock = acquired;
+        try {
+            replay();
+        } catch (IOException x) {
+            lock.release();
+            lockChannel.close();
+            throw x;
+        }
+        worker = new Thread(this::run, "WriteBehind " + fileSystem.getFullURI());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Checks whether a file opened with the given options can be written
+     * behind. The journal records standard options other than {@code APPEND},
+     * whose result depends on the file on the server, and
+     * {@link VersionOpenOption}.
+     *
+     * @param options the options of {@code newOutputStream}
+     * @return {@code true} if the file can be written behind
+     */
+    static boolean canWriteBehind(OpenOption[] options) {
+        return Arrays.stream(options).allMatch(option -> option instanceof VersionOpenOption
+                || (option instanceof StandardOpenOption && option != StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Opens a stream writing a file to the journal.
+     *
+     * @param path the file to write
+     * @param options options accepted by {@link #canWriteBehind}
+     * @return the stream, which commits the file when closed
+     * @throws IOException if the journal is closed, or the data file cannot
+     * be created
+     */
+    OutputStream newOutputStream(RestPath path, OpenOption[] options) throws IOException {
+        synchronized (this) {
+            ensureOpen();
+        }
+        boolean versioned = path.getVersion() != null;
+        List<OpenOption> recorded = new ArrayList<>();
+        for (OpenOption option : options) {
+            if (option instanceof VersionOpenOption) {
+                versioned = true;
+            } else {
+                recorded.add(option);
+            }
+        }
+        return new JournalOutputStream(path.toAbsolutePath().toString(), versioned, recorded.toArray(OpenOption[]::new));
+    }
+
+    /**
+     * Opens a file for reading from the journal, if it has a write pending.
+     *
+     * @param path the file to read
+     * @param options the read options
+     * @return the stream, or {@code null} to read from the server
+     * @throws IOException if the journal file cannot be read
+     */
+    InputStream newInputStream(RestPath path, OpenOption[] options) throws IOException {
+        Path data = getPendingContent(path, options);
+        try {
+            return data == null ? null : Files.newInputStream(data);
+        } catch (NoSuchFileException x) {
+            // Uploaded since
+            return null;
+        }
+    }
+
+    /**
+     * Opens a file as a channel from the journal, if it has a write pending.
+     *
+     * @param path the file to read
+     * @param options the read options
+     * @return the channel, or {@code null} to read from the server
+     * @throws IOException if the journal file cannot be read
+     */
+    SeekableByteChannel newByteChannel(RestPath path, OpenOption[] options) throws IOException {
+        Path data = getPendingContent(path, options);
+        try {
+            return data == null ? null : Files.newByteChannel(data);
+        } catch (NoSuchFileException x) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a file from the journal, if it has a write pending.
+     *
+     * @param path the file to read
+     * @param options the read options
+     * @return the content, or {@code null} to read from the server
+     * @throws IOException if the journal file cannot be read
+     */
+    byte[] readAllBytes(RestPath path, OpenOption[] options) throws IOException {
+        Path data = getPendingContent(path, options);
+        try {
+            return data == null ? null : Files.readAllBytes(data);
+        } catch (NoSuchFileException x) {
+            return null;
+        }
+    }
+
+    private synchronized Path getPendingContent(RestPath path, OpenOption[] options) {
+        if (latest.isEmpty() || path.getVersion() != null
+                || Arrays.stream(options).anyMatch(option -> option != StandardOpenOption.READ)) {
+            return null;
+        }
+        Entry entry = latest.get(path.toAbsolutePath().toString());
+        return entry == null ? null : entry.data;
+    }
+
+    /**
+     * Returns the files waiting to be uploaded.
+     *
+     * @return the paths, in the order they will be uploaded
+     */
+    synchronized List<Path> getPendingWrites() {
+        return pending.stream().map(entry -> fileSystem.getPath(entry.path)).collect(Collectors.toList());
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized long getPendingBytes() {
+        return pending.stream().mapToLong(entry -> entry.size).sum();
+    }
+
+    /**
+     * Asks for the files waiting to be uploaded to be sent now, without
+     * waiting out a retry delay.
+     *
+     * @return a future completed once every file pending when called has been
+     * uploaded, or failed with the exception of a file the server refused
+     */
+    synchronized CompletableFuture<Void> flush() {
+        if (!pending.isEmpty() && fileSystem.isOffline()) {
+            return CompletableFuture.failedFuture(new CacheRequestFilter.OfflineException(
+                    pending.size() + " files written behind are kept until the mount is online"));
+        }
+        retryNow = true;
+        notifyAll();
+        return CompletableFuture.allOf(pending.stream().map(entry -> entry.done).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Stops uploading, after an upload in progress finishes. Files not yet
+     * uploaded stay in the journal for the next file system on the mount.
+     *
+     * @throws IOException if the journal lock cannot be released
+     */
+    @Override
+    public void close() throws IOException {
+        List<Entry> remaining;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for upload of files written behind");
+        } finally {
+            synchronized (this) {
+                remaining = new ArrayList<>(pending);
+            }
+            for (Entry entry : remaining) {
+                entry.done.completeExceptionally(new IOException("File system closed before " + entry.path + " was uploaded"));
+            }
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Wakes the upload thread after the mount went online or offline.
+     */
+    synchronized void offlineChanged() {
+        notifyAll();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Write-behind journal closed");
+        }
+    }
+
+    /**
+     * Reads the files committed to the journal by an earlier file system,
+     * and deletes those whose streams were never closed.
+     */
+    private void replay() throws IOException {
+        TreeSet<Long> committed = new TreeSet<>();
+        List<Path> data = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP)) {
+                    Files.delete(file);
+                } else if (name.endsWith(META)) {
+                    committed.add(sequence(name));
+                } else if (name.endsWith(DATA)) {
+                    data.add(file);
+                }
+            }
+        }
+        for (Path file : data) {
+            if (!committed.contains(sequence(file.getFileName().toString()))) {
+                LOG.log(Level.WARNING, "Discarding {0}, which was not committed", file);
+                Files.delete(file);
+            }
+        }
+        long last = committed.isEmpty() ? 0 : committed.last();
+        // Files moved aside keep their names, which must not be reused.
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(failedDirectory, "*" + META)) {
+            for (Path file : files) {
+                last = Math.max(last, sequence(file.getFileName().toString()));
+            }
+        }
+        nextSequence = last + 1;
+        for (long sequence : committed) {
+            Path meta = directory.resolve(sequence + META);
+            Path file = directory.resolve(sequence + DATA);
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(meta)) {
+                properties.load(in);
+                String path = properties.getProperty("path");
+                if (path == null) {
+                    throw new IOException("No path in journal entry");
+                }
+                String options = properties.getProperty("options", "");
+                OpenOption[] recorded = options.isEmpty() ? new OpenOption[0]
+                        : Arrays.stream(options.split(",")).map(StandardOpenOption::valueOf).toArray(OpenOption[]::new);
+                add(new Entry(path, Boolean.parseBoolean(properties.getProperty("versioned")),
+                        recorded, file, meta, Files.size(file)));
+            } catch (IOException | IllegalArgumentException x) {
+                LOG.log(Level.WARNING, "Unreadable journal entry " + meta + ", moved to " + failedDirectory, x);
+                Files.move(meta, failedDirectory.resolve(meta.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                if (Files.exists(file)) {
+                    Files.move(file, failedDirectory.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            LOG.log(Level.INFO, "Resuming upload of {0} files written behind to {1}", new Object[]{pending.size(), fileSystem.getFullURI()});
+        }
+    }
+
+    private static long sequence(String name) throws IOException {
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('.')));
+        } catch (NumberFormatException | IndexOutOfBoundsException x) {
+            throw new IOException("Unexpected file in write-behind journal: " + name, x);
+        }
+    }
+
+    /**
+     * Commits a closed stream's data file to the journal.
+     */
+    private synchronized void commit(String path, boolean versioned, OpenOption[] options, Path written) throws IOException {
+        ensureOpen();
+        long sequence = nextSequence++;
+        Path data = Files.move(written, directory.resolve(sequence + DATA), StandardCopyOption.ATOMIC_MOVE);
+        Properties properties = new Properties();
+        properties.setProperty("path", path);
+        properties.setProperty("versioned", Boolean.toString(versioned));
+        properties.setProperty("options", Arrays.stream(options).map(OpenOption::toString).collect(Collectors.joining(",")));
+        Path meta = directory.resolve(sequence + META);
+        Path tmp = directory.resolve(sequence + META + TMP);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            properties.store(Channels.newOutputStream(channel), null);
+            channel.force(true);
+        }
+        Files.move(tmp, meta, StandardCopyOption.ATOMIC_MOVE);
+        add(new Entry(path, versioned, options, data, meta, Files.size(data)));
+    }
+
+    private synchronized void add(Entry entry) {
+        pending.addLast(entry);
+        if (!entry.versioned) {
+            latest.put(entry.path, entry);
+        }
+        notifyAll();
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        try {
+            while (true) {
+                Entry entry;
+                boolean superseded;
+                synchronized (this) {
+                    boolean parked = false;
+                    while (!closed && (pending.isEmpty() || fileSystem.isOffline())) {
+                        if (!parked && !pending.isEmpty()) {
+                            LOG.log(Level.INFO, "Mount {0} is offline, keeping {1} files written behind", new Object[]{fileSystem.getFullURI(), pending.size()});
+                            parked = true;
+                        }
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    entry = pending.peekFirst();
+                    retryNow = false;
+                    superseded = isSuperseded(entry);
+                }
+                if (superseded && skipSuperseded(entry)) {
+                    continue;
+                }
+                if (upload(entry)) {
+                    backoff = MIN_BACKOFF_MILLIS;
+                    continue;
+                }
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + backoff;
+                    for (long wait = backoff; !closed && !retryNow && wait > 0; wait = deadline - System.currentTimeMillis()) {
+                        wait(wait);
+                    }
+                }
+                backoff = Math.min(2 * backoff, MAX_BACKOFF_MILLIS);
+            }
+        } catch (InterruptedException x) {
+            LOG.log(Level.FINE, "Write-behind upload interrupted", x);
+        }
+    }
+
+    /**
+     * Checks whether a later write of the same path, with the same options,
+     * is waiting too, so that this one need not be sent.
+     */
+    private boolean isSuperseded(Entry entry) {
+        Entry last = latest.get(entry.path);
+        return !entry.versioned && last != entry && last != null && Arrays.equals(last.options, entry.options);
+    }
+
+    /**
+     * Drops a write which a later one replaces, unless the file is versioned
+     * on the server. Its future completes with that of the later write.
+     *
+     * @return {@code true} if the write was dropped
+     */
+    private boolean skipSuperseded(Entry entry) {
+        RestPath path = (RestPath) fileSystem.getPath(entry.path);
+        Entry last;
+        try {
+            if (isVersionedFile(path)) {
+                return false;
+            }
+        } catch (IOException x) {
+            return false;
+        }
+        synchronized (this) {
+            last = latest.get(entry.path);
+            pending.remove(entry);
+        }
+        try {
+            Files.deleteIfExists(entry.meta);
+            Files.deleteIfExists(entry.data);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Could not delete journal entry for " + entry.path, x);
+        }
+        LOG.log(Level.FINE, "Skipping upload of {0}, written again since", entry.path);
+        last.done.whenComplete((result, x) -> {
+            if (x == null) {
+                entry.done.complete(null);
+            } else {
+                entry.done.completeExceptionally(x);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Tries to upload a file.
+     *
+     * @return {@code false} if it should be tried again later
+     */
+    private boolean upload(Entry entry) {
+        RestPath path = (RestPath) fileSystem.getPath(entry.path);
+        long start = System.nanoTime();
+        Response response;
+        try {
+            boolean versioned = entry.versioned || isVersionedFile(path);
+            response = fileSystem.getClient().upload(path, entry.data, versioned, entry.options);
+        } catch (IOException x) {
+            LOG.log(Level.FINE, "Upload of " + entry.path + " failed, will retry", x);
+            return false;
+        }
+        try {
+            if (response.getStatus() / 100 == 5) {
+                LOG.log(Level.FINE, "Upload of {0} failed with response code {1}, will retry", new Object[]{entry.path, response.getStatus()});
+                return false;
+            }
+            fileSystem.getClient().checkResponse(response);
+            uploaded(entry, System.nanoTime() - start);
+        } catch (IOException x) {
+            failed(entry, x);
+        } finally {
+            response.close();
+        }
+        return true;
+    }
+
+    private static boolean isVersionedFile(RestPath path) throws IOException {
+        try {
+            return path.isVersionedFile();
+        } catch (NoSuchFileException | FileNotFoundException x) {
+            return false;
+        }
+    }
+
+    private void uploaded(Entry entry, long nanos) {
+        synchronized (this) {
+            pending.remove(entry);
+            latest.remove(entry.path, entry);
+        }
+        try {
+            // The metadata first, so that a crash in between cannot upload the file again
+            Files.deleteIfExists(entry.meta);
+            Files.deleteIfExists(entry.data);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Could not delete journal entry for " + entry.path, x);
+        }
+        metrics.uploaded(entry.size, nanos, 0);
+        entry.done.complete(null);
+    }
+
+    private void failed(Entry entry, IOException cause) {
+        LOG.log(Level.WARNING, "Server refused " + entry.path + ", written behind; moved to " + failedDirectory, cause);
+        synchronized (this) {
+            pending.remove(entry);
+            latest.remove(entry.path, entry);
+        }
+        try {
+            Files.move(entry.data, failedDirectory.resolve(entry.data.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(entry.meta, failedDirectory.resolve(entry.meta.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Could not move journal entry for " + entry.path, x);
+        }
+        metrics.writeBehindFailed();
+        entry.done.completeExceptionally(cause);
+    }
+
+    /**
+     * A file committed to the journal.
+     */
+    private static class Entry {
+
+        private final String path;
+        private final boolean versioned;
+        private final OpenOption[] options;
+        private final Path data;
+        private final Path meta;
+        private final long size;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(String path, boolean versioned, OpenOption[] options, Path data, Path meta, long size) {
+            this.path = path;
+            this.versioned = versioned;
+            this.options = options;
+            this.data = data;
+            this.meta = meta;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Writes a file to a temporary data file, committed on close.
+     */
+    private class JournalOutputStream extends OutputStream {
+
+        private final String path;
+        private final boolean versioned;
+        private final OpenOption[] options;
+        private final Path data;
+        private final FileChannel channel;
+        private final OutputStream out;
+        private boolean closed;
+
+        JournalOutputStream(String path, boolean versioned, OpenOption[] options) throws IOException {
+            this.path = path;
+            this.versioned = versioned;
+            this.options = options;
+            this.data = Files.createTempFile(directory, "write", DATA + TMP);
+            this.channel = FileChannel.open(data, StandardOpenOption.WRITE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                try {
+                    out.flush();
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+                commit(path, versioned, options, data);
+            } catch (IOException x) {
+                Files.deleteIfExists(data);
+                throw x;
+            }
+        }
+    }
+}
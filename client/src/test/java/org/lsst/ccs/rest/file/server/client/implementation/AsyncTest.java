@@ -0,0 +1,188 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.ws.rs.core.UriBuilder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.AsyncFileOperations;
+import org.lsst.ccs.rest.file.server.client.PrefetchReport;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.web.rest.file.server.TestServer;
+
+/**
+ * Tests for the asynchronous file operations.
+ */
+public class AsyncTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void resetGlobalCacheConfig() {
+        RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+    }
+
+    @Test
+    public void readManyFilesAsync() throws Exception {
+        TestServer testServer = new TestServer(9992);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .asyncConcurrency(4)
+                .build();
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            AsyncFileOperations async = ((RestFileSystem) restfs).async();
+            List<CompletableFuture<Void>> uploads = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                uploads.add(async.uploadAsync(restfs.getPath("file" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+
+            List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                reads.add(async.readAllBytesAsync(restfs.getPath("file" + i + ".txt")));
+            }
+            for (int i = 0; i < 30; i++) {
+                assertArrayEquals(("content " + i).getBytes(StandardCharsets.UTF_8), reads.get(i).get(30, TimeUnit.SECONDS));
+            }
+            // Async reads fill the same cache as synchronous ones.
+            assertTrue(((RestFileSystem) restfs).getMetrics().getMemoryEntries() >= 30);
+
+            List<Path> list = async.listAsync(restfs.getPath("/")).get(30, TimeUnit.SECONDS);
+            assertEquals(30, list.size());
+            BasicFileAttributes attributes = async.readAttributesAsync(restfs.getPath("file7.txt")).get(30, TimeUnit.SECONDS);
+            assertEquals("content 7".length(), attributes.size());
+            assertEquals(Files.size(restfs.getPath("file7.txt")), attributes.size());
+
+            ExecutionException x = assertThrows(ExecutionException.class,
+                    () -> async.readAllBytesAsync(restfs.getPath("missing.txt")).get(30, TimeUnit.SECONDS));
+            assertTrue(x.getCause() instanceof IOException, x.getCause().toString());
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    @Test
+    public void prefetchForOfflineUse() throws Exception {
+        TestServer testServer = new TestServer(9991);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.OFFLINE)
+                .build();
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            Path dir = Files.createDirectory(restfs.getPath("config"));
+            Files.createDirectory(dir.resolve("sub"));
+            for (int i = 0; i < 5; i++) {
+                Files.write(dir.resolve("file" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            Files.write(dir.resolve("sub/deep.txt"), "deep".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("versioned.txt"), "v1".getBytes(StandardCharsets.UTF_8), VersionOpenOption.of(1));
+
+            AsyncFileOperations async = ((RestFileSystem) restfs).async();
+            AtomicInteger progress = new AtomicInteger();
+            PrefetchReport report = async.prefetchAsync(List.of(dir), true, (path, outcome, completed, total) -> {
+                progress.incrementAndGet();
+                assertTrue(completed <= total);
+            }).get(30, TimeUnit.SECONDS);
+            assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+            // The directory, its subdirectory and seven files.
+            assertEquals(9, report.getOutcomes().size());
+            assertEquals(9, progress.get());
+            assertEquals(9, report.getCount(PrefetchReport.Outcome.FETCHED));
+
+            // A second prefetch finds everything already cached.
+            report = async.prefetchAsync(List.of(dir), true, null).get(30, TimeUnit.SECONDS);
+            assertEquals(9, report.getFreshPaths().size(), report.toString());
+
+            report = async.prefetchAsync(List.of(restfs.getPath("missing.txt")), false, null).get(30, TimeUnit.SECONDS);
+            assertEquals(1, report.getCount(PrefetchReport.Outcome.FAILED));
+            assertTrue(report.getFailures().values().iterator().next() instanceof FileNotFoundException);
+        } finally {
+            testServer.shutdown();
+        }
+
+        // Everything prefetched can now be read without the server.
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            Path dir = restfs.getPath("config");
+            try (Stream<Path> list = Files.list(dir)) {
+                assertEquals(7, list.count());
+            }
+            assertEquals("content 3", Files.readString(dir.resolve("file3.txt")));
+            assertEquals("deep", Files.readString(dir.resolve("sub/deep.txt")));
+            assertEquals("v1", Files.readString(dir.resolve("versioned.txt")));
+        }
+    }
+
+    @Test
+    public void limiterBoundsConcurrency() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            results.add(limiter.submit(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                CompletableFuture<Integer> work = new CompletableFuture<>();
+                synchronized (pending) {
+                    pending.add(work);
+                }
+                return work.thenApply(v -> {
+                    running.decrementAndGet();
+                    return n;
+                });
+            }));
+        }
+        assertEquals(3, limiter.getRunning());
+        assertEquals(7, limiter.getQueued());
+        // Complete the work in the order it was started; each completion starts a queued task.
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<Integer> work;
+            synchronized (pending) {
+                work = pending.get(i);
+            }
+            work.complete(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, results.get(i).get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(3, peak.get());
+        assertEquals(0, limiter.getRunning());
+    }
+
+    @Test
+    public void failuresAreReported() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Object> failed = limiter.submit(() -> CompletableFuture.failedFuture(new FileNotFoundException("gone")));
+        ExecutionException x = assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.SECONDS));
+        assertTrue(x.getCause() instanceof FileNotFoundException);
+        // The slot was released.
+        assertEquals("ok", limiter.submit(() -> CompletableFuture.completedFuture("ok")).get(1, TimeUnit.SECONDS));
+    }
+}
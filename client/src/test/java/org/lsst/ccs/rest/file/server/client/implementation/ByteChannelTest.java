@@ -0,0 +1,138 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import javax.ws.rs.core.UriBuilder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.web.rest.file.server.TestServer;
+
+/**
+ * Tests random access to remote files with {@link Files#newByteChannel}.
+ */
+public class ByteChannelTest {
+
+    private static final int BLOCK_SIZE = RestSeekableByteChannel.DEFAULT_BLOCK_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void resetGlobalCacheConfig() {
+        RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+    }
+
+    @Test
+    public void randomAccess() throws Exception {
+        TestServer testServer = new TestServer(9988);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .build();
+        byte[] content = new byte[4 * BLOCK_SIZE + 1000];
+        new Random(36).nextBytes(content);
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            Path file = restfs.getPath("large.bin");
+            Files.write(file, content);
+            Cache cache = ((RestFileSystem) restfs).getCache();
+            int entries = cache.getMemoryEntries();
+
+            try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                assertEquals(content.length, channel.size());
+                // Opening fetched the last block
+                assertEquals(entries + 1, cache.getMemoryEntries());
+                assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length), read(channel, content.length - 10, 10));
+                // Crosses from the second block into the third
+                assertArrayEquals(Arrays.copyOfRange(content, 2 * BLOCK_SIZE - 50, 2 * BLOCK_SIZE + 50), read(channel, 2 * BLOCK_SIZE - 50, 100));
+                assertEquals(entries + 3, cache.getMemoryEntries());
+                assertEquals(-1, channel.position(content.length).read(ByteBuffer.allocate(1)));
+                assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+            }
+            // A second channel reads the whole file, from the cache where it can
+            try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                assertArrayEquals(content, read(channel, 0, content.length));
+            }
+            assertEquals(entries + 5, cache.getMemoryEntries());
+
+            // A new version is a different file, whose blocks are cached separately
+            Path versioned = restfs.getPath("versioned.bin");
+            Files.write(versioned, content, VersionOpenOption.of(1));
+            byte[] smaller = Arrays.copyOf(content, 1000);
+            Files.write(versioned, smaller, VersionOpenOption.of(2));
+            try (SeekableByteChannel channel = Files.newByteChannel(versioned)) {
+                assertEquals(content.length, channel.size());
+            }
+            try (SeekableByteChannel channel = Files.newByteChannel(restfs.getPath("versioned(2).bin"))) {
+                assertArrayEquals(smaller, read(channel, 0, smaller.length));
+            }
+
+            // A file read whole through a channel is cached like a download, and revalidated
+            Path small = restfs.getPath("small.txt");
+            Files.writeString(small, "small");
+            assertEquals("small", Files.readString(small));
+            MountMetrics metrics = ((RestFileSystem) restfs).getMetrics();
+            long revalidations = metrics.getRevalidations();
+            assertEquals("small", Files.readString(small));
+            assertEquals(revalidations + 1, metrics.getRevalidations());
+
+            Path empty = restfs.getPath("empty.bin");
+            Files.write(empty, new byte[0]);
+            try (SeekableByteChannel channel = Files.newByteChannel(empty)) {
+                assertEquals(0, channel.size());
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+
+            assertThrows(IOException.class, () -> Files.newByteChannel(restfs.getPath("missing.bin")));
+            assertThrows(UnsupportedOperationException.class, () -> Files.newByteChannel(file, StandardOpenOption.WRITE));
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    @Test
+    public void withoutCache() throws Exception {
+        TestServer testServer = new TestServer(9988);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.NONE)
+                .build();
+        byte[] content = new byte[3 * BLOCK_SIZE];
+        new Random(37).nextBytes(content);
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            Path file = restfs.getPath("large.bin");
+            Files.write(file, content);
+            try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                assertArrayEquals(content, read(channel, 0, content.length));
+                assertArrayEquals(Arrays.copyOfRange(content, 100, 200), read(channel, 100, 100));
+            }
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    private static byte[] read(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return buffer.array();
+    }
+}
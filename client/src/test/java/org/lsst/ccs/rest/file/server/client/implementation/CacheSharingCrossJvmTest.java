@@ -0,0 +1,116 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+
+/**
+ * Cross-JVM cache sharing (ADR 0004). Launches a real second JVM
+ * ({@link CacheWriterProcess}) that keeps a cache open on a location and writes
+ * an entry to it, then asserts this JVM opens the <em>same</em> location (no
+ * spill, whatever the spill flag says) and reads the other process's entry.
+ * Linux-only; revisit if it proves flaky in CI.
+ */
+public class CacheSharingCrossJvmTest {
+
+    private final List<Process> writers = new ArrayList<>();
+
+    /**
+     * JUnit creates this per test and deletes the tree afterwards. Deletion runs
+     * after {@link #tearDown()} force-kills the writer JVMs, so no process still
+     * holds files under it when it is removed.
+     */
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void tearDown() {
+        for (Process writer : writers) {
+            writer.destroyForcibly();
+        }
+        writers.clear();
+        RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+    }
+
+    @Test
+    public void sharesLocationWithAnotherProcess() throws Exception {
+        final Path primary = tempDir.resolve("cache");
+        final URI uri = new URI("http://localhost/rest/download/shared.txt");
+        startWriter(primary, uri, "written by another process");
+
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(primary, false);
+        RestFileSystemOptionsHelper options = new RestFileSystemOptionsHelper(
+                RestFileSystemOptions.builder().set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK).build());
+        try (Cache cache = new Cache(options)) {
+            assertEquals(primary.toAbsolutePath(), cache.getDiskCacheLocation().toAbsolutePath(),
+                    "must share the location, not spill or fail");
+            Cache.CacheEntry entry = cache.getEntry(uri);
+            assertNotNull(entry, "entry written by the other process should be visible");
+            assertEquals("written by another process", new String(entry.getContent(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * An entry published by another process after this JVM opened the cache is
+     * picked up on the next lookup: readers go to disk on a memory miss and
+     * need no lock to do so.
+     */
+    @Test
+    public void seesEntriesPublishedWhileOpen() throws Exception {
+        final Path primary = tempDir.resolve("cache");
+        final URI uri = new URI("http://localhost/rest/download/later.txt");
+
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(primary, true);
+        RestFileSystemOptionsHelper options = new RestFileSystemOptionsHelper(
+                RestFileSystemOptions.builder().set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK).build());
+        try (Cache cache = new Cache(options)) {
+            assertNull(cache.getEntry(uri));
+            startWriter(primary, uri, "published later");
+            Cache.CacheEntry entry = cache.getEntry(uri);
+            assertNotNull(entry);
+            assertEquals("published later", new String(entry.getContent(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Launches the writer JVM on {@code location} and blocks until it prints its
+     * readiness marker (or fails/ times out).
+     */
+    private void startWriter(Path location, URI uri, String content) throws IOException, InterruptedException {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(
+                javaBin, "-cp", System.getProperty("java.class.path"),
+                CacheWriterProcess.class.getName(), location.toAbsolutePath().toString(), uri.toString(), content);
+        pb.redirectErrorStream(true);
+        Process writer = pb.start();
+        writers.add(writer);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.contains(CacheWriterProcess.READY_MARKER)) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        fail("cache writer process did not become ready");
+    }
+}
@@ -2,6 +2,7 @@ package org.lsst.ccs.rest.file.server.client.implementation;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
@@ -10,9 +11,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.ws.rs.core.UriBuilder;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -185,7 +189,7 @@ public class CachingTest {
     /**
      * Two different servers in one JVM share the single per-JVM cache: each
      * resolves the same disk directory, and an entry cached through one mount is
-     * visible through the other (they back onto the same JCS region). This
+     * visible through the other (they back onto the same per-JVM memory cache). This
      * inverts ADR 0001's isolation assertion.
      */
     @Test
@@ -220,7 +224,7 @@ public class CachingTest {
                 }
                 listAndRead(pathInServer1, content, 1);
 
-                // The entry is visible through both caches: they share one JCS region.
+                // The entry is visible through both caches: they share one memory cache.
                 URI fileUri = new URI(client.getURI("rest/download/" + fileName).toString().replace("ccs:", "http:"));
                 assertNotNull(cache.getEntry(fileUri));
                 assertNotNull(cache2.getEntry(fileUri));
@@ -232,11 +236,116 @@ public class CachingTest {
     }
 
     /**
-     * Two caches for the same location in one JVM must both succeed: the second
-     * gets an {@code OverlappingFileLockException}, recognises the location is
-     * already held by this JVM, and shares it (no lock, same directory). Genuine
-     * cross-process contention (a foreign {@code tryLock()} returning null) is
-     * covered by {@link CacheLockCrossJvmTest}.
+     * In stale-while-revalidate mode a changed file is first served from the
+     * cache while it is checked in the background; the next read sees the
+     * new content. With a maximum staleness of zero every read waits for the
+     * check, as in {@code OFFLINE} mode.
+     */
+    @Test
+    public void staleWhileRevalidateTest() throws Exception {
+        TestServer testServer = new TestServer(9994);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.STALE_WHILE_REVALIDATE)
+                .build();
+        Map<String, Object> strictEnv = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.STALE_WHILE_REVALIDATE)
+                .cacheMaxStaleness(Duration.ZERO)
+                .build();
+        try {
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+                RestFileSystem client = (RestFileSystem) restfs;
+                Path path = restfs.getPath("swr.txt");
+                try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                    writer.append("old");
+                }
+                assertEquals(List.of("old"), Files.readAllLines(path));
+
+                // lastModified has a resolution of one second, and entries checked
+                // within the last second are not checked again.
+                Thread.sleep(1500);
+                try (BufferedWriter writer = Files.newBufferedWriter(path, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    writer.append("new");
+                }
+                assertEquals(List.of("old"), Files.readAllLines(path));
+
+                URI fileUri = new URI(client.getURI("rest/download/swr.txt").toString().replace("ccs:", "http:"));
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (Revalidator.getInstance().isPending(fileUri) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(List.of("new"), Files.readAllLines(path));
+                assertTrue(client.getMetrics().getBackgroundUpdates() > 0);
+            }
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, strictEnv)) {
+                Path path = restfs.getPath("strict.txt");
+                try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                    writer.append("old");
+                }
+                assertEquals(List.of("old"), Files.readAllLines(path));
+                Thread.sleep(1500);
+                try (BufferedWriter writer = Files.newBufferedWriter(path, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    writer.append("new");
+                }
+                assertEquals(List.of("new"), Files.readAllLines(path));
+            }
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    /**
+     * A mount publishes its cache counters over JMX while it is open. A hit is
+     * served from the cache without being written back to it.
+     */
+    @Test
+    public void metricsTest() throws Exception {
+        TestServer testServer = new TestServer(9995);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.WHEN_POSSIBLE)
+                .build();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name;
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            RestFileSystem client = (RestFileSystem) restfs;
+            name = new ObjectName(MountMetrics.DOMAIN + ":type=Mount,name=" + ObjectName.quote(client.getFullURI().toString()));
+            assertTrue(server.isRegistered(name));
+
+            final String content = "counted";
+            Path path = restfs.getPath("metrics.txt");
+            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                writer.append(content);
+            }
+            List<String> lines = Files.readAllLines(path);
+            long misses = (Long) server.getAttribute(name, "Misses");
+            long hits = (Long) server.getAttribute(name, "Hits");
+            assertTrue(misses > 0);
+
+            URI fileUri = new URI(client.getURI("rest/download/metrics.txt").toString().replace("ccs:", "http:"));
+            CacheEntry e = client.getCache().getEntry(fileUri);
+            assertEquals(lines, Files.readAllLines(path));
+            assertEquals(hits + 1, (Long) server.getAttribute(name, "Hits"));
+            assertEquals(misses, (Long) server.getAttribute(name, "Misses"));
+            // Served from the cache, so the entry was not replaced.
+            assertTrue(e == client.getCache().getEntry(fileUri));
+            assertTrue((Integer) server.getAttribute(name, "MemoryEntries") > 0);
+            assertTrue(server.isRegistered(new ObjectName(MountMetrics.DOMAIN + ":type=SharedCache")));
+        } finally {
+            testServer.shutdown();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Two caches for the same location in one JVM must both succeed and share
+     * the directory. Sharing with another process is covered by
+     * {@link CacheSharingCrossJvmTest}.
      */
     @Test
     public void sameJvmCacheShareTest() throws URISyntaxException, IOException {
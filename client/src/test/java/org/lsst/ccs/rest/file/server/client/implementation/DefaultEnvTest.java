@@ -3,10 +3,13 @@ package org.lsst.ccs.rest.file.server.client.implementation;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.File;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -195,4 +198,72 @@ public class DefaultEnvTest {
             assertTrue(x.getMessage().contains("already configured"), x.getMessage());
         }
     }
+
+    /**
+     * The memory budget is global and accepts a size suffix; the per-mount
+     * share goes through the ordinary cascade, and a JSON integer is accepted
+     * for the {@code Double} option.
+     */
+    @Test
+    public void memoryBudgetAndShare() {
+        System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY,
+                "{\"CacheMemoryBytes\":\"16M\",\"CacheMemoryShare\":1}");
+        assertEquals(16L * 1024 * 1024, RestFileSystemOptionsHelper.getGlobalCacheMemoryBytes());
+        assertEquals(1.0, new RestFileSystemOptionsHelper(null).getCacheMemoryShare());
+
+        Map<String, Object> env = RestFileSystemOptions.builder().cacheMemoryShare(0.25).build();
+        assertEquals(0.25, new RestFileSystemOptionsHelper(env).getCacheMemoryShare());
+    }
+
+    /**
+     * Cache sizes must be positive, and are rejected rather than turning the
+     * cache off or overflowing.
+     */
+    @Test
+    public void badCacheSizes() {
+        // As JSON values
+        for (String size : new String[]{"-1", "0", "\"0M\"", "\"-1\"", "\"9000000000G\""}) {
+            System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY, "{\"CacheMemoryBytes\":" + size + "}");
+            assertThrows(IllegalArgumentException.class, RestFileSystemOptionsHelper::getGlobalCacheMemoryBytes, size);
+            RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+        }
+        System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY, "{\"CacheDiskBytes\":0}");
+        assertThrows(IllegalArgumentException.class, RestFileSystemOptionsHelper::getGlobalCacheDiskBytes);
+        assertThrows(IllegalArgumentException.class, () -> RestFileSystemOptions.setCacheMemoryBudget(-1));
+    }
+
+    /**
+     * The maximum staleness is per mount and accepts a duration, a number of
+     * seconds, or a string with a unit suffix.
+     */
+    @Test
+    public void maxStaleness() {
+        assertEquals(Duration.ofMinutes(5), new RestFileSystemOptionsHelper(null).getCacheMaxStaleness());
+        System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY, "{\"CacheMaxStaleness\":\"2h\"}");
+        assertEquals(Duration.ofHours(2), new RestFileSystemOptionsHelper(null).getCacheMaxStaleness());
+        System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY, "{\"CacheMaxStaleness\":90}");
+        assertEquals(Duration.ofSeconds(90), new RestFileSystemOptionsHelper(null).getCacheMaxStaleness());
+
+        Map<String, Object> env = RestFileSystemOptions.builder().cacheMaxStaleness(Duration.ofSeconds(30)).build();
+        assertEquals(Duration.ofSeconds(30), new RestFileSystemOptionsHelper(env).getCacheMaxStaleness());
+    }
+
+    /**
+     * The transport and its pool settings can come from the default
+     * environment property as strings and numbers.
+     */
+    @Test
+    public void transport() {
+        RestFileSystemOptionsHelper helper = new RestFileSystemOptionsHelper(null);
+        assertEquals(RestFileSystemOptions.Transport.DEFAULT, helper.getTransport());
+        assertNull(helper.getConnectionPoolSize());
+        assertNull(helper.getConnectionKeepAlive());
+
+        System.setProperty(RestFileSystemOptions.DEFAULT_ENV_PROPERTY,
+                "{\"Transport\":\"HTTP2\",\"ConnectionPoolSize\":4,\"ConnectionKeepAlive\":\"5m\"}");
+        helper = new RestFileSystemOptionsHelper(null);
+        assertEquals(RestFileSystemOptions.Transport.HTTP2, helper.getTransport());
+        assertEquals(4, helper.getConnectionPoolSize());
+        assertEquals(Duration.ofMinutes(5), helper.getConnectionKeepAlive());
+    }
 }
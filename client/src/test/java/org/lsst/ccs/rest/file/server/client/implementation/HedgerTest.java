@@ -0,0 +1,96 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the adaptive read timeouts and hedged requests.
+ */
+public class HedgerTest {
+
+    private static AdaptiveTimeouts timeoutsWithLatency(double percentile, long latencyMillis) {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(Duration.ofSeconds(3), percentile);
+        for (int i = 0; i < 100; i++) {
+            timeouts.recordLatency(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+        return timeouts;
+    }
+
+    @Test
+    public void readTimeoutScalesWithSize() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(Duration.ofSeconds(3), 0);
+        assertEquals(3000, timeouts.getReadTimeoutMillis(0));
+        // 10 MB at the assumed 1 MB/s, with a safety factor of 3.
+        assertEquals(3000 + 30_000, timeouts.getReadTimeoutMillis(10 * 1024 * 1024));
+
+        // Measured at 10 MB/s.
+        timeouts.recordTransfer(10 * 1024 * 1024, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(3000 + 3000, timeouts.getReadTimeoutMillis(10 * 1024 * 1024));
+        // Small responses say nothing about throughput.
+        timeouts.recordTransfer(100, TimeUnit.SECONDS.toNanos(10));
+        assertEquals(3000 + 3000, timeouts.getReadTimeoutMillis(10 * 1024 * 1024));
+        // Capped.
+        assertEquals(Duration.ofMinutes(10).toMillis(), timeouts.getReadTimeoutMillis(Long.MAX_VALUE / 1000));
+    }
+
+    @Test
+    public void hedgeDelayFollowsPercentile() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(Duration.ofSeconds(3), 90);
+        assertEquals(-1, timeouts.getHedgeDelayMillis());
+        for (int i = 1; i <= 100; i++) {
+            timeouts.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(90, timeouts.getHedgeDelayMillis());
+        assertEquals(-1, timeoutsWithLatency(0, 10).getHedgeDelayMillis());
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        MountMetrics metrics = new MountMetrics(null);
+        Hedger hedger = new Hedger(timeoutsWithLatency(50, 10), metrics);
+        List<CompletableFuture<Response>> attempts = new ArrayList<>();
+        CompletableFuture<Response> result = hedger.send(() -> {
+            CompletableFuture<Response> attempt = new CompletableFuture<>();
+            synchronized (attempts) {
+                attempts.add(attempt);
+            }
+            return attempt;
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getHedgedRequests() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, metrics.getHedgedRequests());
+        Response fast = Response.ok("second").build();
+        synchronized (attempts) {
+            assertEquals(2, attempts.size());
+            attempts.get(1).complete(fast);
+            attempts.get(0).complete(Response.ok("first").build());
+        }
+        assertSame(fast, result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, metrics.getHedgeWins());
+    }
+
+    @Test
+    public void failsOnlyWhenEveryAttemptFails() throws Exception {
+        MountMetrics metrics = new MountMetrics(null);
+        Hedger hedger = new Hedger(timeoutsWithLatency(50, 10), metrics);
+        CompletableFuture<Response> result = hedger.send(() -> CompletableFuture.failedFuture(new ConnectException("refused")));
+        ExecutionException x = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(x.getCause() instanceof IOException);
+        // A fast failure is not hedged.
+        assertEquals(0, metrics.getHedgedRequests());
+    }
+}
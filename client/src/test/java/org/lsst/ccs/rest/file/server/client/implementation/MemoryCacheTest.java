@@ -0,0 +1,86 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.net.URI;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+
+/**
+ * Tests for the byte-weighted memory tier.
+ */
+public class MemoryCacheTest {
+
+    private static CacheEntry entry(int size) {
+        return new CacheEntry(null, null, "application/octet-stream", new byte[size]);
+    }
+
+    private static URI uri(String name) {
+        return URI.create("http://localhost/rest/download/" + name);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        long weight = entry(1000).getWeight();
+        MemoryCache cache = new MemoryCache(3 * weight);
+        Object owner = new Object();
+        cache.put(uri("a"), entry(1000), owner, Long.MAX_VALUE);
+        cache.put(uri("b"), entry(1000), owner, Long.MAX_VALUE);
+        cache.put(uri("c"), entry(1000), owner, Long.MAX_VALUE);
+        // Touch a, so b is now the least recently used.
+        assertNotNull(cache.get(uri("a")));
+        cache.put(uri("d"), entry(1000), owner, Long.MAX_VALUE);
+
+        assertNull(cache.get(uri("b")));
+        assertNotNull(cache.get(uri("a")));
+        assertNotNull(cache.get(uri("c")));
+        assertNotNull(cache.get(uri("d")));
+        assertEquals(3 * weight, cache.getTotalBytes());
+    }
+
+    @Test
+    public void manySmallEntriesFitWhereOneLargeOneDoesNot() {
+        MemoryCache cache = new MemoryCache(100_000);
+        Object owner = new Object();
+        for (int i = 0; i < 100; i++) {
+            cache.put(uri("info" + i), entry(100), owner, Long.MAX_VALUE);
+        }
+        assertEquals(100, cache.size());
+        // Too big to keep at all; must not flush the small entries.
+        cache.put(uri("huge"), entry(200_000), owner, Long.MAX_VALUE);
+        assertNull(cache.get(uri("huge")));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void mountShareProtectsOtherMounts() {
+        long weight = entry(1000).getWeight();
+        MemoryCache cache = new MemoryCache(10 * weight);
+        Object config = new Object();
+        Object dictionaries = new Object();
+        cache.put(uri("config"), entry(1000), config, 5 * weight);
+        // The dictionaries mount may use half the budget; filling it only
+        // evicts its own entries, never config's.
+        for (int i = 0; i < 20; i++) {
+            cache.put(uri("dict" + i), entry(1000), dictionaries, 5 * weight);
+        }
+        assertNotNull(cache.get(uri("config")));
+        assertTrue(cache.getBytes(dictionaries) <= 5 * weight);
+        assertNotNull(cache.get(uri("dict19")));
+        assertNull(cache.get(uri("dict0")));
+    }
+
+    @Test
+    public void replacingAnEntryKeepsAccountingStraight() {
+        MemoryCache cache = new MemoryCache(1_000_000);
+        Object owner = new Object();
+        cache.put(uri("a"), entry(1000), owner, Long.MAX_VALUE);
+        cache.put(uri("a"), entry(2000), owner, Long.MAX_VALUE);
+        assertEquals(entry(2000).getWeight(), cache.getTotalBytes());
+        cache.remove(uri("a"));
+        assertEquals(0, cache.getTotalBytes());
+        assertEquals(0, cache.getBytes(owner));
+    }
+}
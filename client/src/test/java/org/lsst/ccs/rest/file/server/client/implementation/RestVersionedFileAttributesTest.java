@@ -0,0 +1,56 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.lsst.ccs.web.rest.file.server.data.VersionInfoV2;
+
+/**
+ * Tests merging incremental version info into what the client already knows.
+ */
+public class RestVersionedFileAttributesTest {
+
+    @Test
+    public void mergeTest() {
+        VersionInfoV2 known = info(2, 3, 0, "g1", 1, 2, 3);
+        VersionInfoV2 update = info(5, 5, 3, "g2", 4, 5);
+        VersionInfoV2 merged = RestVersionedFileAttributes.merge(known, update);
+        assertNotNull(merged);
+        assertEquals(0, merged.getSince());
+        assertEquals(5, merged.getLatest());
+        assertEquals(5, merged.getDefault());
+        // The generation now covers versions 4 and 5 too
+        assertEquals("g2", merged.getGeneration());
+        RestVersionedFileAttributes attributes = new RestVersionedFileAttributes(merged);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, attributes.getVersions());
+        assertEquals("comment 4", attributes.getComment(4));
+        assertEquals(5, attributes.size());
+    }
+
+    @Test
+    public void completeUpdateTest() {
+        VersionInfoV2 known = info(1, 3, 0, "g1", 1, 2, 3);
+        VersionInfoV2 update = info(1, 3, 0, "g2", 1, 2, 3);
+        assertSame(update, RestVersionedFileAttributes.merge(known, update));
+    }
+
+    @Test
+    public void gapTest() {
+        // Versions 4 and 5 left out by a limit cannot be filled in
+        VersionInfoV2 known = info(1, 3, 0, "g1", 1, 2, 3);
+        assertNull(RestVersionedFileAttributes.merge(known, info(7, 7, 5, "g1", 6, 7)));
+        // Nor can an update which follows on from other versions
+        assertNull(RestVersionedFileAttributes.merge(known, info(4, 4, 2, "g1", 3, 4)));
+    }
+
+    private static VersionInfoV2 info(int defaultVersion, int latest, int since, String generation, int... versions) {
+        List<VersionInfoV2.Version> list = new ArrayList<>();
+        for (int version : versions) {
+            list.add(new VersionInfoV2.Version(version, version, version, version, "text/plain", String.valueOf(version), "key" + version,
+                    false, false, true, false, false, null, version, false, "comment " + version, "creator"));
+        }
+        return new VersionInfoV2(defaultVersion, latest, list, Collections.emptyList(), false, since, generation);
+    }
+}
@@ -0,0 +1,168 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
+
+/**
+ * Tests for the size cap and compaction of the shared disk cache.
+ */
+public class SharedDiskCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static URI uri(int i) {
+        return URI.create("http://localhost/rest/download/file" + i);
+    }
+
+    private static CacheEntry entry(int size) {
+        return new CacheEntry(null, null, "application/octet-stream", new byte[size]);
+    }
+
+    private static Path entryFile(SharedDiskCache cache, URI uri) {
+        String hash = SharedDiskCache.digest(uri.toString());
+        return cache.getRoot().resolve(hash.substring(0, 2)).resolve(hash + SharedDiskCache.ENTRY_SUFFIX);
+    }
+
+    /**
+     * Sets the last-access time of an entry to {@code minutesAgo} in the past.
+     */
+    private static void age(SharedDiskCache cache, URI uri, int minutesAgo) throws IOException {
+        long time = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutesAgo);
+        Files.setLastModifiedTime(entryFile(cache, uri), FileTime.fromMillis(time));
+    }
+
+    private static long size(SharedDiskCache cache) throws IOException {
+        try (Stream<Path> files = Files.walk(cache.getRoot())) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    public void spillDirectoriesAreRemoved() throws IOException {
+        Path location = tempDir.resolve("default");
+        Files.createDirectories(location);
+        for (int n = 1; n <= 3; n++) {
+            Path spill = tempDir.resolve("default-" + n);
+            Files.createDirectories(spill);
+            Files.write(spill.resolve(SharedDiskCache.LEGACY_LOCK_FILE), new byte[0]);
+            Files.write(spill.resolve("default.data"), new byte[100]);
+        }
+        Path unrelated = Files.createDirectories(tempDir.resolve("default-4"));
+        // A client from before ADR 0004 still using its spill directory
+        try (FileChannel channel = FileChannel.open(tempDir.resolve("default-2").resolve(SharedDiskCache.LEGACY_LOCK_FILE), StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            assertEquals(2, SharedDiskCache.removeSpillDirectories(location));
+        }
+        assertFalse(Files.exists(tempDir.resolve("default-1")));
+        assertTrue(Files.exists(tempDir.resolve("default-2")));
+        assertFalse(Files.exists(tempDir.resolve("default-3")));
+        assertTrue(Files.exists(unrelated));
+        assertTrue(Files.exists(location));
+    }
+
+    @Test
+    public void activeCacheNamedLikeSpillDirectoryIsKept() throws IOException {
+        Path location = tempDir.resolve("default");
+        Files.createDirectories(location);
+        // A location of its own, used once by an older client and now by a current one
+        Path other = tempDir.resolve("default-1");
+        Files.createDirectories(other);
+        Files.write(other.resolve(SharedDiskCache.LEGACY_LOCK_FILE), new byte[0]);
+        SharedDiskCache cache = new SharedDiskCache(other, 1_000_000);
+        cache.put(uri(0), entry(100));
+
+        assertEquals(0, SharedDiskCache.removeSpillDirectories(location));
+        assertNotNull(cache.get(uri(0)));
+    }
+
+    @Test
+    public void compactionRemovesLeastRecentlyUsedEntries() throws IOException {
+        SharedDiskCache cache = new SharedDiskCache(tempDir, 1_000_000);
+        cache.put(uri(0), entry(10_000));
+        long entrySize = Files.size(entryFile(cache, uri(0)));
+        cache = new SharedDiskCache(tempDir, 5 * entrySize);
+        for (int i = 0; i < 10; i++) {
+            cache.put(uri(i), entry(10_000));
+            age(cache, uri(i), 100 - i);
+        }
+        int deleted = cache.compact();
+
+        assertTrue(deleted > 0);
+        assertTrue(size(cache) <= 5 * entrySize, "store must be back under its cap");
+        // The oldest went first, the newest survive.
+        assertNull(cache.get(uri(0)));
+        assertNotNull(cache.get(uri(9)));
+    }
+
+    @Test
+    public void recentlyUsedEntriesOfAMountSurvive() throws IOException {
+        SharedDiskCache probe = new SharedDiskCache(tempDir, 1_000_000);
+        probe.put(uri(0), entry(10_000));
+        long entrySize = Files.size(entryFile(probe, uri(0)));
+
+        SharedDiskCache cache = new SharedDiskCache(tempDir, 5 * entrySize);
+        for (int i = 0; i < 10; i++) {
+            cache.put(uri(i), entry(10_000));
+            age(cache, uri(i), 100 - i);
+        }
+        // The config mount used the oldest entry; it must not be collected.
+        cache.recordAccess("ccs://server/config/", uri(0));
+        cache.compact();
+
+        assertTrue(Files.exists(entryFile(cache, uri(0))));
+        assertFalse(Files.exists(entryFile(cache, uri(1))));
+    }
+
+    @Test
+    public void underTheCapNothingIsDeleted() throws IOException {
+        SharedDiskCache cache = new SharedDiskCache(tempDir, 1_000_000);
+        for (int i = 0; i < 5; i++) {
+            cache.put(uri(i), entry(1000));
+            age(cache, uri(i), 1000);
+        }
+        assertEquals(0, cache.compact());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get(uri(i)));
+        }
+    }
+
+    @Test
+    public void readRefreshesLastAccess() throws IOException {
+        SharedDiskCache cache = new SharedDiskCache(tempDir, 1_000_000);
+        cache.put(uri(1), entry(1000));
+        age(cache, uri(1), 60);
+        long before = Files.getLastModifiedTime(entryFile(cache, uri(1))).toMillis();
+        assertNotNull(cache.get(uri(1)));
+        long after = Files.getLastModifiedTime(entryFile(cache, uri(1))).toMillis();
+        assertTrue(after > before + TimeUnit.MINUTES.toMillis(30));
+    }
+
+    @Test
+    public void staleTempFilesAreRemoved() throws IOException {
+        SharedDiskCache cache = new SharedDiskCache(tempDir, 1_000_000);
+        Path dir = Files.createDirectories(cache.getRoot().resolve("ab"));
+        Path stale = Files.createTempFile(dir, SharedDiskCache.TEMP_PREFIX, null);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        Path fresh = Files.createTempFile(dir, SharedDiskCache.TEMP_PREFIX, null);
+        cache.compact();
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(fresh), "a temp file may belong to a writer that is still running");
+    }
+}
@@ -0,0 +1,98 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for coalescing of concurrent identical requests.
+ */
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts {@code n} callers for the same key while the first call is held
+     * open, then lets it complete.
+     */
+    private List<Future<String>> concurrentCalls(SingleFlight<String, String> flight, MountMetrics metrics, int n,
+            SingleFlight.Call<String> call, CountDownLatch release) throws InterruptedException {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            results.add(executor.submit(() -> flight.execute("key", call)));
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (metrics.getCoalescedWaiters() < n - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        return results;
+    }
+
+    @Test
+    public void concurrentCallsShareOneResult() throws Exception {
+        MountMetrics metrics = new MountMetrics(null);
+        SingleFlight<String, String> flight = new SingleFlight<>(metrics);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = concurrentCalls(flight, metrics, 8, () -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                throw new IOException(x);
+            }
+            return "result";
+        }, release);
+
+        for (Future<String> result : results) {
+            assertEquals("result", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(7, metrics.getCoalescedRequests());
+        assertEquals(7, metrics.getPeakCoalescedWaiters());
+        assertEquals(0, metrics.getCoalescedWaiters());
+        assertEquals(0, flight.size());
+
+        // Once complete, the next call goes through again.
+        assertEquals("again", flight.execute("key", () -> "again"));
+    }
+
+    @Test
+    public void waitersSeeTheException() throws Exception {
+        MountMetrics metrics = new MountMetrics(null);
+        SingleFlight<String, String> flight = new SingleFlight<>(metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = concurrentCalls(flight, metrics, 4, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                throw new IOException(x);
+            }
+            throw new FileNotFoundException("missing");
+        }, release);
+
+        for (Future<String> result : results) {
+            Exception x = assertThrows(Exception.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertTrue(x.getCause() instanceof FileNotFoundException);
+        }
+        assertEquals(0, flight.size());
+    }
+}
@@ -0,0 +1,98 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.ws.rs.core.UriBuilder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.AsyncFileOperations;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.web.rest.file.server.TestServer;
+
+/**
+ * Tests the file system over the {@code HTTP2} transport. The test server only
+ * speaks HTTP/1.1, so this also covers the fallback from HTTP/2.
+ */
+public class TransportTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void resetGlobalCacheConfig() {
+        RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+    }
+
+    @Test
+    public void http2RoundTrip() throws Exception {
+        TestServer testServer = new TestServer(9990);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.Transport.HTTP2)
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.OFFLINE)
+                .build();
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            Path file = restfs.getPath("plain.txt");
+            assertFalse(Files.exists(file));
+            Files.writeString(file, "over http/2");
+            assertEquals("over http/2", Files.readString(file));
+            // The second read is revalidated with a conditional request.
+            assertEquals("over http/2", Files.readString(file));
+            assertTrue(((RestFileSystem) restfs).getMetrics().getRevalidations() > 0);
+
+            Path versioned = restfs.getPath("versioned.txt");
+            Files.writeString(versioned, "v1", VersionOpenOption.of(1));
+            Files.writeString(versioned, "v2", VersionOpenOption.of(2));
+            assertEquals("v1", Files.readString(versioned));
+            assertEquals("v2", Files.readString(restfs.getPath("versioned(latest).txt")));
+
+            try (Stream<Path> list = Files.list(restfs.getPath("/"))) {
+                assertEquals(2, list.count());
+            }
+            assertThrows(IOException.class, () -> Files.readAllBytes(restfs.getPath("missing.txt")));
+
+            AsyncFileOperations async = ((RestFileSystem) restfs).async();
+            List<CompletableFuture<Void>> uploads = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                uploads.add(async.uploadAsync(restfs.getPath("file" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+            for (int i = 0; i < 20; i++) {
+                assertArrayEquals(("content " + i).getBytes(StandardCharsets.UTF_8),
+                        async.readAllBytesAsync(restfs.getPath("file" + i + ".txt")).get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    @Test
+    public void unreachableServer() {
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.Transport.HTTP2)
+                .set(RestFileSystemOptions.CacheOptions.NONE)
+                .set(RestFileSystemOptions.SSLOptions.AUTO)
+                .build();
+        assertThrows(IOException.class, () -> FileSystems.newFileSystem(URI.create("ccs://localhost:9989/"), env));
+    }
+}
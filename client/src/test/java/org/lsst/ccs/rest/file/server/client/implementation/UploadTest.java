@@ -0,0 +1,87 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.UriBuilder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.web.rest.file.server.TestServer;
+
+/**
+ * Tests uploading large files through output streams and from local files.
+ */
+public class UploadTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void streamingAndLocalFileUploads() throws Exception {
+        TestServer testServer = new TestServer(9987);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.NONE)
+                .uploadBufferSize(64 * 1024)
+                .build();
+        byte[] content = new byte[5 * 1024 * 1024 + 123];
+        new Random(37).nextBytes(content);
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            MountMetrics metrics = ((RestFileSystem) restfs).getMetrics();
+            Path file = restfs.getPath("streamed.bin");
+            try (OutputStream out = Files.newOutputStream(file)) {
+                // Writes of assorted sizes, some larger than a chunk
+                Random random = new Random(38);
+                int offset = 0;
+                while (offset < content.length) {
+                    int n = Math.min(content.length - offset, random.nextInt(200 * 1024));
+                    if (n % 7 == 0) {
+                        out.write(content[offset]);
+                        n = 1;
+                    } else {
+                        out.write(content, offset, n);
+                    }
+                    offset += n;
+                }
+            }
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertEquals(1, metrics.getUploads());
+            assertEquals(content.length, metrics.getBytesUploaded());
+            assertTrue(metrics.getUploadThroughput() > 0);
+
+            Path local = tempDir.resolve("local.bin");
+            Files.write(local, content);
+            Path copy = restfs.getPath("copy.bin");
+            ((RestFileSystem) restfs).async().uploadAsync(copy, local).get(30, TimeUnit.SECONDS);
+            assertArrayEquals(content, Files.readAllBytes(copy));
+            assertEquals(2, metrics.getUploads());
+
+            Path versioned = restfs.getPath("versioned.bin");
+            Files.write(versioned, new byte[]{1, 2, 3}, VersionOpenOption.of(1));
+            ((RestFileSystem) restfs).async().uploadAsync(versioned, local).get(30, TimeUnit.SECONDS);
+            assertEquals(2, Files.getAttribute(versioned, "latestVersion"));
+            assertArrayEquals(content, Files.readAllBytes(restfs.getPath("versioned(2).bin")));
+
+            assertThrows(IOException.class, () -> {
+                try (OutputStream out = Files.newOutputStream(restfs.getPath("missing/file.bin"))) {
+                    out.write(content);
+                }
+            });
+        } finally {
+            testServer.shutdown();
+        }
+    }
+}
@@ -4,10 +4,14 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.Map;
@@ -17,12 +21,18 @@ import org.junit.Assert;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.IfMatchOpenOption;
 import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.rest.file.server.client.VersionConflictException;
 import org.lsst.ccs.rest.file.server.client.VersionOpenOption;
+import org.lsst.ccs.rest.file.server.client.VersionedCopyOption;
+import org.lsst.ccs.rest.file.server.client.VersionedFileAttributeView;
 import org.lsst.ccs.rest.file.server.client.VersionedFileAttributes;
+import org.lsst.ccs.rest.file.server.client.VersionedOpenOption;
 import org.lsst.ccs.rest.file.server.client.implementation.Cache.CacheEntry;
 import org.lsst.ccs.web.rest.file.server.TestServer;
 
@@ -96,6 +106,133 @@ public class VersionedFileTest {
         testServer.shutdown();
     }
 
+    @Test
+    public void conditionalWriteTest() throws URISyntaxException, IOException {
+        TestServer testServer = new TestServer(9984);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, RestFileSystemOptions.builder().build())) {
+            Path versioned = restfs.getPath("edited.txt");
+            Files.writeString(versioned, "v1", VersionOpenOption.of(1));
+            Files.writeString(versioned, "v2", IfMatchOpenOption.latestVersion(1));
+            VersionConflictException x = assertThrows(VersionConflictException.class,
+                    () -> Files.writeString(versioned, "lost", IfMatchOpenOption.latestVersion(1)));
+            assertEquals(2, x.getLatestVersion());
+            assertEquals(2, Files.readAttributes(versioned, VersionedFileAttributes.class).getLatestVersion());
+            ((RestFileSystem) restfs).async().uploadAsync(versioned, "v3".getBytes(), IfMatchOpenOption.latestVersion(2)).join();
+            assertEquals("v3", Files.readString(restfs.getPath("edited(3).txt")));
+            assertThrows(VersionConflictException.class, () -> Files.writeString(restfs.getPath("plain.txt"), "plain", IfMatchOpenOption.latestVersion(1)));
+        }
+        testServer.shutdown();
+    }
+
+    @Test
+    public void deltaWriteTest() throws URISyntaxException, IOException {
+        TestServer testServer = new TestServer(9983);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .build();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            lines.append("line ").append(i).append('\n');
+        }
+        String v1 = lines.toString();
+        String v2 = v1.replace("line 500\n", "line 500 changed\n");
+        String v3 = v2 + "line 1000\n";
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+            MountMetrics metrics = ((RestFileSystem) restfs).getMetrics();
+            Path versioned = restfs.getPath("delta.txt");
+            Files.writeString(versioned, v1, VersionOpenOption.of(1));
+            assertEquals(v1, Files.readString(restfs.getPath("delta(1).txt")));
+
+            // The latest version is cached, so only the change is sent
+            long uploaded = metrics.getBytesUploaded();
+            Files.writeString(versioned, v2, VersionedOpenOption.DELTA);
+            assertEquals(1, metrics.getDeltaUploads());
+            assertTrue(metrics.getBytesUploaded() - uploaded < 100);
+
+            // Version 3 is written whole, since version 2 was never downloaded
+            Files.writeString(versioned, v3, VersionedOpenOption.DELTA);
+            assertEquals(1, metrics.getDeltaUploads());
+            assertEquals(v2, Files.readString(restfs.getPath("delta(2).txt")));
+            assertEquals(v3, Files.readString(restfs.getPath("delta(3).txt")));
+
+            VersionConflictException x = assertThrows(VersionConflictException.class,
+                    () -> Files.writeString(versioned, v1, VersionedOpenOption.DELTA, IfMatchOpenOption.latestVersion(2)));
+            assertEquals(3, x.getLatestVersion());
+            Files.writeString(versioned, v1, VersionedOpenOption.DELTA, IfMatchOpenOption.latestVersion(3));
+            assertEquals(2, metrics.getDeltaUploads());
+            assertEquals(v1, Files.readString(restfs.getPath("delta(4).txt")));
+        }
+        testServer.shutdown();
+    }
+
+    @Test
+    public void copyTest() throws URISyntaxException, IOException {
+        TestServer testServer = new TestServer(9986);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, RestFileSystemOptions.builder().build())) {
+            Path versioned = restfs.getPath("original.txt");
+            Files.writeString(versioned, "v1", VersionOpenOption.of(1));
+            Files.writeString(versioned, "v2", VersionOpenOption.of(2));
+            Files.writeString(versioned, "v3", VersionOpenOption.of(3));
+            VersionedFileAttributeView view = Files.getFileAttributeView(versioned, VersionedFileAttributeView.class);
+            view.setDefaultVersion(2);
+            view.setComment(2, "second");
+
+            Path copy = restfs.getPath("copy.txt");
+            Files.copy(versioned, copy);
+            VersionedFileAttributes attributes = Files.readAttributes(copy, VersionedFileAttributes.class);
+            assertEquals(3, attributes.getVersions().length);
+            assertEquals(2, attributes.getDefaultVersion());
+            assertEquals("second", attributes.getComment(2));
+            assertEquals("v2", Files.readString(copy));
+            assertEquals("v3", Files.readString(restfs.getPath("copy(3).txt")));
+            assertThrows(FileAlreadyExistsException.class, () -> Files.copy(versioned, copy));
+
+            Path defaultOnly = restfs.getPath("defaultOnly.txt");
+            Files.copy(versioned, defaultOnly, VersionedCopyOption.DEFAULT_VERSION_ONLY);
+            attributes = Files.readAttributes(defaultOnly, VersionedFileAttributes.class);
+            assertEquals(1, attributes.getVersions().length);
+            assertEquals("second", attributes.getComment(1));
+            assertEquals("v2", Files.readString(defaultOnly));
+
+            Path plain = restfs.getPath("plain.txt");
+            Files.writeString(plain, "plain");
+            Path plainCopy = restfs.getPath("plainCopy.txt");
+            Files.copy(plain, plainCopy);
+            assertEquals("plain", Files.readString(plainCopy));
+            Files.writeString(plain, "changed", StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            Files.copy(plain, plainCopy, StandardCopyOption.REPLACE_EXISTING);
+            assertEquals("changed", Files.readString(plainCopy));
+            assertThrows(NoSuchFileException.class, () -> Files.copy(restfs.getPath("missing.txt"), restfs.getPath("other.txt")));
+        }
+        testServer.shutdown();
+    }
+
+    @Test
+    public void copyOnMountPointTest() throws URISyntaxException, IOException {
+        TestServer testServer = new TestServer(9978);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        try (FileSystem rootfs = FileSystems.newFileSystem(restRootURI, RestFileSystemOptions.builder().build())) {
+            Files.createDirectory(rootfs.getPath("misc"));
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, RestFileSystemOptions.builder().mountPoint(URI.create("misc/")).build())) {
+                Path versioned = restfs.getPath("original.txt");
+                Files.writeString(versioned, "v1", VersionOpenOption.of(1));
+                Files.copy(versioned, restfs.getPath("copy.txt"));
+                assertEquals("v1", Files.readString(restfs.getPath("copy.txt")));
+                Files.move(restfs.getPath("copy.txt"), restfs.getPath("moved.txt"));
+                assertEquals("v1", Files.readString(restfs.getPath("moved.txt")));
+            }
+            // Both targets are within the mount, as the sources are
+            assertTrue(Files.exists(rootfs.getPath("misc/moved.txt")));
+            assertFalse(Files.exists(rootfs.getPath("copy.txt")));
+            assertFalse(Files.exists(rootfs.getPath("moved.txt")));
+        }
+        testServer.shutdown();
+    }
+
     public void cacheTest(int port, RestFileSystemOptions.CacheFallback cacheMode) throws URISyntaxException, IOException, InterruptedException {
         TestServer testServer = new TestServer(port);
         URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
@@ -0,0 +1,146 @@
+package org.lsst.ccs.rest.file.server.client.implementation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.ws.rs.core.UriBuilder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lsst.ccs.rest.file.server.client.AsyncFileOperations;
+import org.lsst.ccs.rest.file.server.client.RestFileSystemOptions;
+import org.lsst.ccs.web.rest.file.server.TestServer;
+
+/**
+ * Tests writing files behind, through the journal.
+ */
+public class WriteBehindTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void resetGlobalCacheConfig() {
+        RestFileSystemOptionsHelper.resetGlobalCacheConfigForTest();
+    }
+
+    @Test
+    public void writeBehind() throws Exception {
+        TestServer testServer = new TestServer(9985);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.NONE)
+                .writeBehind(true)
+                .build();
+        try {
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+                AsyncFileOperations async = ((RestFileSystem) restfs).async();
+                MountMetrics metrics = ((RestFileSystem) restfs).getMetrics();
+                Path file = restfs.getPath("behind.txt");
+                Files.writeString(file, "first");
+                // Read back whether or not it has been uploaded yet
+                assertEquals("first", Files.readString(file));
+                async.flushWritesAsync().get(30, TimeUnit.SECONDS);
+                assertTrue(async.getPendingWrites().isEmpty());
+                assertEquals("first", Files.readString(file));
+                assertEquals(1, metrics.getUploads());
+
+                // While the server is down, writes wait in the journal
+                testServer.shutdown();
+                Path offline = restfs.getPath("offline.txt");
+                Files.writeString(offline, "offline");
+                assertEquals(List.of("/offline.txt"), names(async.getPendingWrites()));
+                assertEquals(1, metrics.getPendingWrites());
+                assertEquals("offline", Files.readString(offline));
+                assertEquals("offline", new String(async.readAllBytesAsync(offline).get(30, TimeUnit.SECONDS)));
+                testServer = new TestServer(9985);
+                async.flushWritesAsync().get(30, TimeUnit.SECONDS);
+                assertEquals(0, metrics.getPendingWrites());
+                assertEquals("offline", Files.readString(offline));
+
+                // A file the server refuses is set aside
+                Files.writeString(restfs.getPath("missing/file.txt"), "refused");
+                ExecutionException x = assertThrows(ExecutionException.class, () -> async.flushWritesAsync().get(30, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, x.getCause());
+                assertEquals(1, metrics.getFailedWrites());
+                assertTrue(async.getPendingWrites().isEmpty());
+
+                // Writes still pending when the file system is closed are kept
+                testServer.shutdown();
+                Files.writeString(restfs.getPath("later.txt"), "later");
+            }
+            testServer = new TestServer(9985);
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+                AsyncFileOperations async = ((RestFileSystem) restfs).async();
+                async.flushWritesAsync().get(30, TimeUnit.SECONDS);
+                assertEquals("later", Files.readString(restfs.getPath("later.txt")));
+            }
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    @Test
+    public void offlineAndRewrites() throws Exception {
+        TestServer testServer = new TestServer(9981);
+        URI restRootURI = UriBuilder.fromUri(testServer.getServerURI()).scheme("ccs").build();
+        RestFileSystemOptionsHelper.setGlobalCacheConfigForTest(tempDir, false);
+        Map<String, Object> offlineEnv = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.MEMORY_AND_DISK)
+                .set(RestFileSystemOptions.CacheFallback.ALWAYS)
+                .writeBehind(true)
+                .build();
+        Map<String, Object> env = RestFileSystemOptions.builder()
+                .set(RestFileSystemOptions.CacheOptions.NONE)
+                .writeBehind(true)
+                .build();
+        try {
+            // An offline mount keeps its writes rather than trying to send them
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, offlineEnv)) {
+                AsyncFileOperations async = ((RestFileSystem) restfs).async();
+                Files.writeString(restfs.getPath("parked.txt"), "parked");
+                ExecutionException x = assertThrows(ExecutionException.class, () -> async.flushWritesAsync().get(30, TimeUnit.SECONDS));
+                assertInstanceOf(CacheRequestFilter.OfflineException.class, x.getCause());
+                assertEquals(List.of("/parked.txt"), names(async.getPendingWrites()));
+                assertEquals(0, ((RestFileSystem) restfs).getMetrics().getUploads());
+            }
+            try (FileSystem restfs = FileSystems.newFileSystem(restRootURI, env)) {
+                AsyncFileOperations async = ((RestFileSystem) restfs).async();
+                MountMetrics metrics = ((RestFileSystem) restfs).getMetrics();
+                async.flushWritesAsync().get(30, TimeUnit.SECONDS);
+                assertEquals("parked", Files.readString(restfs.getPath("parked.txt")));
+
+                // Writes of the same file made while the server is down are sent once
+                testServer.shutdown();
+                Path file = restfs.getPath("rewritten.txt");
+                for (int i = 1; i <= 3; i++) {
+                    Files.writeString(file, "write " + i);
+                }
+                long uploads = metrics.getUploads();
+                testServer = new TestServer(9981);
+                async.flushWritesAsync().get(30, TimeUnit.SECONDS);
+                assertEquals(uploads + 1, metrics.getUploads());
+                assertEquals("write 3", Files.readString(file));
+            }
+        } finally {
+            testServer.shutdown();
+        }
+    }
+
+    private static List<String> names(List<Path> paths) {
+        return paths.stream().map(Path::toString).collect(Collectors.toList());
+    }
+}
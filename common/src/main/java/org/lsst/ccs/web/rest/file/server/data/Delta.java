@@ -0,0 +1,225 @@
+package org.lsst.ccs.web.rest.file.server.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary delta between two versions of a file, used to upload a new version
+ * as the changes from a version the server already has.
+ * <p>
+ * A delta is a sequence of instructions which rebuild the new content: copy
+ * a run of bytes from the base, or insert bytes carried in the delta. The
+ * encoder finds runs by looking up each {@value #BLOCK_SIZE} byte window of
+ * the new content among the aligned blocks of the base, then extends every
+ * match in both directions, so an edit anywhere costs little more than the
+ * changed bytes. The format is:
+ * <pre>
+ * "CD" 1 &lt;varint new length&gt; { 1 &lt;varint offset&gt; &lt;varint length&gt; | 2 &lt;varint length&gt; &lt;bytes&gt; }
+ * </pre>
+ * where 1 is a copy from the base and 2 an insert, and varints are unsigned
+ * LEB128.
+ */
+public final class Delta {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final long PRIME = 1_000_003;
+    private static final byte[] MAGIC = {'C', 'D', 1};
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+
+    private Delta() {
+    }
+
+    /**
+     * Computes the delta from a base to new content.
+     *
+     * @param base the content the server has
+     * @param target the new content
+     * @return the delta, which may be larger than the new content if the two
+     * have little in common
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        writeVarint(out, target.length);
+        Map<Long, Integer> blocks = new HashMap<>();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, offset), offset);
+        }
+        long power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            power *= PRIME;
+        }
+        int literal = 0;
+        int position = 0;
+        long hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (position + BLOCK_SIZE <= target.length) {
+            Integer match = blocks.get(hash);
+            if (match != null && regionMatches(base, match, target, position)) {
+                int from = match;
+                int start = position;
+                while (start > literal && from > 0 && base[from - 1] == target[start - 1]) {
+                    from--;
+                    start--;
+                }
+                int end = position + BLOCK_SIZE;
+                int baseEnd = match + BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, literal, start);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, baseEnd - from);
+                literal = position = end;
+                if (position + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, position);
+                }
+            } else {
+                if (position + BLOCK_SIZE < target.length) {
+                    hash = (hash - (target[position] & 0xff) * power) * PRIME + (target[position + BLOCK_SIZE] & 0xff);
+                }
+                position++;
+            }
+        }
+        writeInsert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds new content from its base and a delta.
+     *
+     * @param base the content the delta was computed against
+     * @param delta the delta
+     * @return the new content
+     * @throws IOException if the delta is malformed, or does not fit the base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        return apply(base, delta, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Rebuilds new content from its base and a delta which may not be
+     * trusted. The length the delta declares is only checked against the
+     * limit, and the content grows as the instructions are applied, so a
+     * short delta cannot make it allocate a large buffer.
+     *
+     * @param base the content the delta was computed against
+     * @param delta the delta
+     * @param maxLength the largest content accepted
+     * @return the new content
+     * @throws IOException if the delta is malformed, does not fit the base,
+     * or rebuilds more than {@code maxLength} bytes
+     */
+    public static byte[] apply(byte[] base, byte[] delta, int maxLength) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (delta.length <= i || delta[i] != MAGIC[i]) {
+                throw new IOException("Not a delta");
+            }
+        }
+        int[] position = {MAGIC.length};
+        long length = readVarint(delta, position);
+        if (length > maxLength) {
+            throw new IOException("Invalid delta: content of " + length + " bytes is too large");
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream((int) Math.min(length, (long) base.length + delta.length));
+        while (position[0] < delta.length) {
+            int op = delta[position[0]++];
+            long remaining = length - result.size();
+            if (op == COPY) {
+                long from = readVarint(delta, position);
+                long count = readVarint(delta, position);
+                if (count > base.length || from > base.length - count || count > remaining) {
+                    throw new IOException("Invalid delta: copy outside the content");
+                }
+                result.write(base, (int) from, (int) count);
+            } else if (op == INSERT) {
+                long count = readVarint(delta, position);
+                if (count > delta.length - position[0] || count > remaining) {
+                    throw new IOException("Invalid delta: insert outside the content");
+                }
+                result.write(delta, position[0], (int) count);
+                position[0] += count;
+            } else {
+                throw new IOException("Invalid delta: unknown instruction " + op);
+            }
+        }
+        if (result.size() != length) {
+            throw new IOException("Invalid delta: " + result.size() + " bytes rebuilt, expected " + length);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Computes the digest sent with a delta, to check the content rebuilt.
+     *
+     * @param content the content
+     * @return the SHA-256 digest of the content, in lower case hex
+     */
+    public static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16));
+                result.append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException("SHA-256 not available", x);
+        }
+    }
+
+    private static long hash(byte[] data, int offset) {
+        long hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+            hash = hash * PRIME + (data[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static boolean regionMatches(byte[] base, int from, byte[] target, int position) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (base[from + i] != target[position + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Invalid delta: truncated");
+            }
+            int b = data[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid delta: bad number");
+    }
+}
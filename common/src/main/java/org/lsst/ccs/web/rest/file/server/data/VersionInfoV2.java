@@ -26,14 +26,36 @@ public class VersionInfoV2 implements Serializable {
     private final List<VersionInfoV2.Version> versions;
     private final List<DefaultChangeRecord> defaultHistory;
     private final boolean sensitive;
+    private final int since;
+    private final String generation;
 
+    /**
+     * Creates version information.
+     *
+     * @param defaultVersion the default version
+     * @param latestVersion the latest version
+     * @param versions the versions included, in increasing order
+     * @param defaultHistory the changes of the default version
+     * @param sensitive {@code true} if the file is sensitive
+     * @param since {@code 0} if every version is included, otherwise the
+     * version after which they are
+     * @param generation identifies the metadata of the versions up to the
+     * latest, or {@code null} if not known
+     */
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
-    public VersionInfoV2(@JsonProperty("default") int defaultVersion, @JsonProperty("latest") int latestVersion, @JsonProperty("versions") List<Version> versions, @JsonProperty("defaultHistory") List<DefaultChangeRecord> defaultHistory, @JsonProperty("sensitive") boolean sensitive) {
+    public VersionInfoV2(@JsonProperty("default") int defaultVersion, @JsonProperty("latest") int latestVersion, @JsonProperty("versions") List<Version> versions, @JsonProperty("defaultHistory") List<DefaultChangeRecord> defaultHistory, @JsonProperty("sensitive") boolean sensitive,
+            @JsonProperty("since") int since, @JsonProperty("generation") String generation) {
         this.defaultVersion = defaultVersion;
         this.latestVersion = latestVersion;
         this.versions = versions;
         this.defaultHistory = defaultHistory == null ? Collections.emptyList() : defaultHistory;
         this.sensitive = sensitive;
+        this.since = since;
+        this.generation = generation;
+    }
+
+    public VersionInfoV2(int defaultVersion, int latestVersion, List<Version> versions, List<DefaultChangeRecord> defaultHistory, boolean sensitive) {
+        this(defaultVersion, latestVersion, versions, defaultHistory, sensitive, 0, null);
     }
 
     public VersionInfoV2(int defaultVersion, int latestVersion, List<Version> versions) {
@@ -80,6 +102,29 @@ public class VersionInfoV2 implements Serializable {
         return sensitive;
     }
 
+    /**
+     * Gets the version after which the versions are included. An incremental
+     * response, asked for with {@code since}, only includes the versions added
+     * after that, the default and latest versions are always current.
+     *
+     * @return the version, or {@code 0} if every version is included
+     */
+    public int getSince() {
+        return since;
+    }
+
+    /**
+     * Gets the generation of the metadata of the versions up to the latest.
+     * Sent back with {@code since} set to the latest version, it lets the
+     * server tell whether any of those versions have changed, in which case
+     * the response includes every version again.
+     *
+     * @return the generation, or {@code null} for an older server
+     */
+    public String getGeneration() {
+        return generation;
+    }
+
     /**
      * Downgrades this object to an older protocol version if necessary.
      *
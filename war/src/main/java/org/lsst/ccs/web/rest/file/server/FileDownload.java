@@ -0,0 +1,165 @@
+package org.lsst.ccs.web.rest.file.server;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Builds the response for a file download, shared by the plain and versioned
+ * download endpoints. Responses carry the file's last modified time and a
+ * weak entity tag derived from its size and modification time, so they can be
+ * revalidated, and a single byte range ({@code Range: bytes=start-end}) is
+ * answered with 206 Partial Content. Requests for several ranges get the whole
+ * file.
+ * <p>
+ * The body is copied from the file as it is sent, never held in memory, and
+ * its length is given up front so the connection can be reused without
+ * chunked encoding.
+ */
+class FileDownload {
+
+    static final String ACCEPT_RANGES = "Accept-Ranges";
+    static final String CONTENT_RANGE = "Content-Range";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private FileDownload() {
+    }
+
+    /**
+     * Computes the weak entity tag of a file.
+     *
+     * @param attributes the file's attributes
+     * @return the tag
+     */
+    static EntityTag entityTag(BasicFileAttributes attributes) {
+        return new EntityTag(Long.toHexString(attributes.lastModifiedTime().toMillis()) + "-" + Long.toHexString(attributes.size()), true);
+    }
+
+    /**
+     * Creates the response for a download of a file.
+     *
+     * @param file the file to send
+     * @param request the request, for its preconditions
+     * @param range the {@code Range} header, or {@code null}
+     * @param ifRange the {@code If-Range} header, or {@code null}
+     * @return a builder for the 200, 206, 304 or 416 response, to which the
+     * caller may add headers
+     * @throws IOException if the file cannot be read
+     */
+    static ResponseBuilder response(java.nio.file.Path file, Request request, String range, String ifRange) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attributes.size();
+        Date lastModified = new Date(attributes.lastModifiedTime().toMillis());
+        EntityTag eTag = entityTag(attributes);
+        ResponseBuilder builder = request.evaluatePreconditions(lastModified, eTag);
+        if (builder != null) {
+            return builder.lastModified(lastModified).tag(eTag);
+        }
+        if (range != null && isCurrent(ifRange, eTag, lastModified)) {
+            Matcher matcher = RANGE.matcher(range.trim());
+            if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                long start;
+                long end;
+                if (matcher.group(1).isEmpty()) {
+                    // Suffix range: the last n bytes
+                    start = Math.max(0, length - parse(matcher.group(2)));
+                    end = length - 1;
+                } else {
+                    start = parse(matcher.group(1));
+                    end = matcher.group(2).isEmpty() ? length - 1 : Math.min(parse(matcher.group(2)), length - 1);
+                }
+                if (start >= length || start > end) {
+                    return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(CONTENT_RANGE, "bytes */" + length)
+                            .lastModified(lastModified)
+                            .tag(eTag);
+                }
+                return Response.status(Response.Status.PARTIAL_CONTENT)
+                        .entity(slice(file, start, end - start + 1))
+                        .type(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length)
+                        .header(HttpHeaders.CONTENT_LENGTH, end - start + 1)
+                        .header(ACCEPT_RANGES, "bytes")
+                        .lastModified(lastModified)
+                        .tag(eTag);
+            }
+        }
+        return Response.ok(slice(file, 0, length), MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_LENGTH, length)
+                .header(ACCEPT_RANGES, "bytes")
+                .lastModified(lastModified)
+                .tag(eTag);
+    }
+
+    private static long parse(String number) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException x) {
+            // Too large: beyond the end of any file
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Checks an {@code If-Range} precondition, which holds the entity tag or
+     * last modified time the client's partial copy came from. When it does not
+     * match the range is ignored and the whole file is sent.
+     */
+    private static boolean isCurrent(String ifRange, EntityTag eTag, Date lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag.toString());
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toEpochSecond() == lastModified.getTime() / 1000;
+        } catch (DateTimeParseException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends part of a file. Exactly {@code count} bytes are sent, as promised
+     * by the {@code Content-Length} header, even if the file grows meanwhile.
+     * The container only hands us an {@code OutputStream}, so this is a copy
+     * through user space; {@link FileChannel#transferTo} merely saves a read
+     * loop and seeks straight to the requested range.
+     */
+    private static StreamingOutput slice(java.nio.file.Path file, long start, long count) {
+        return (java.io.OutputStream output) -> {
+            try (FileChannel in = FileChannel.open(file)) {
+                WritableByteChannel out = Channels.newChannel(output);
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long n = in.transferTo(position, remaining, out);
+                    if (n <= 0) {
+                        break;
+                    }
+                    position += n;
+                    remaining -= n;
+                }
+            }
+            output.flush();
+        };
+    }
+}
@@ -11,7 +11,6 @@ import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -21,7 +20,9 @@ import javax.inject.Inject;
 import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -35,7 +36,6 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
-import javax.ws.rs.core.StreamingOutput;
 import org.jvnet.hk2.annotations.Optional;
 import org.lsst.ccs.web.rest.file.server.data.RestFileInfo;
 import org.lsst.ccs.web.rest.file.server.data.ServerInfo;
@@ -57,13 +57,21 @@ public class FileServer {
             "versionComments",
             "versionCreator",
             "defaultHistory",
-            "sensitive"
+            "sensitive",
+            "byteRanges",
+            "copy",
+            "ifMatch",
+            "deltaUpload",
+            "versionInfoSince"
     );
 
     @Inject
     @Optional
     private java.nio.file.Path baseDir;
 
+    @Inject
+    private VersionedFileLocks locks;
+
     /**
      * Initializes the base directory from the servlet context if provided.
      *
@@ -207,9 +215,12 @@ public class FileServer {
     }
 
     /**
-     * Streams the specified file to the client.
+     * Streams the specified file, or the requested byte range of it, to the
+     * client.
      *
      * @param filePath relative path of the file to download
+     * @param range the optional {@code Range} header
+     * @param ifRange the optional {@code If-Range} header
      * @param request the HTTP precondition request
      * @return the file content as an octet-stream
      * @throws IOException if the file cannot be read
@@ -217,21 +228,11 @@ public class FileServer {
     @GET
     @Path("download/{filePath: .*}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response file(@PathParam("filePath") String filePath, @Context Request request) throws IOException {
+    public Response file(@PathParam("filePath") String filePath, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange,
+            @Context Request request) throws IOException {
         java.nio.file.Path file = baseDir.resolve(filePath);
         if (Files.isReadable(file)) {
-            Date lastModified = new Date(Files.getLastModifiedTime(file).toMillis());
-            ResponseBuilder builder = request.evaluatePreconditions(lastModified);
-            if (builder != null) {
-                return builder.lastModified(lastModified).build();
-            }
-            StreamingOutput fileStream = (java.io.OutputStream output) -> {
-                byte[] data = Files.readAllBytes(file);
-                output.write(data);
-                output.flush();
-            };
-            return Response.ok(fileStream, MediaType.APPLICATION_OCTET_STREAM)
-                    .lastModified(lastModified)
+            return FileDownload.response(file, request, range, ifRange)
                     .header("content-disposition", "attachment; filename = " + file.getFileName())
                     .build();
         } else {
@@ -286,6 +287,44 @@ public class FileServer {
         return Response.ok().build();
     }
 
+    /**
+     * Copies a file or versioned file. A versioned file is copied with all of
+     * its versions, or only its default version, see
+     * {@link VersionedFile#copy}.
+     *
+     * @param source source path relative to the base directory
+     * @param target destination path relative to the base directory
+     * @param history for a versioned file, {@code false} to copy only the
+     * default version
+     * @param replace {@code true} to replace an existing file; a versioned
+     * file is never replaced
+     * @return an empty success response, or a 400 response if the source is
+     * a plain directory, which would otherwise be copied without its content
+     * @throws IOException if the copy fails
+     */
+    @POST
+    @Path("copy/{filePath: .*}")
+    public Response copy(@PathParam("filePath") String source, @QueryParam("target") String target,
+            @QueryParam("history") @DefaultValue("true") boolean history, @QueryParam("replace") boolean replace) throws IOException {
+        java.nio.file.Path sourcePath = baseDir.resolve(source);
+        java.nio.file.Path targetPath = baseDir.resolve(target);
+        if (Files.isDirectory(sourcePath) && !VersionedFile.isVersionedFile(sourcePath)) {
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN)
+                    .entity("Cannot copy directory " + source).build();
+        }
+        if (VersionedFile.isVersionedFile(sourcePath)) {
+            // Locked so that the copy does not catch an upload half done
+            try (VersionedFileLocks.Lock lock = locks.lock(sourcePath)) {
+                new VersionedFile(sourcePath).copy(targetPath, history);
+            }
+        } else if (replace) {
+            Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.copy(sourcePath, targetPath);
+        }
+        return Response.ok().build();
+    }
+
     /**
      * Deletes the specified file or directory.
      *
@@ -0,0 +1,77 @@
+package org.lsst.ccs.web.rest.file.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+/**
+ * Compacts the journals of versioned files on a background thread, so that
+ * the request which makes a journal grow past
+ * {@link VersionedFile#COMPACT_JOURNAL_BYTES} does not pay for rewriting the
+ * snapshot. Compaction takes the file's {@link VersionedFileLocks} lock, like
+ * any other change, and a file waiting to be compacted is only queued once.
+ */
+public class JournalCompactor implements ContainerLifecycleListener {
+
+    private static final Logger LOG = Logger.getLogger(JournalCompactor.class.getName());
+
+    private final VersionedFileLocks locks;
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "version-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    JournalCompactor(VersionedFileLocks locks) {
+        this.locks = locks;
+    }
+
+    /**
+     * Queues a versioned file for compaction if its journals have grown
+     * large enough. Called after changing the file; the compaction waits for
+     * the change to release the lock.
+     *
+     * @param path the directory of the versioned file
+     */
+    void compactIfNeeded(Path path) {
+        try {
+            if (VersionedFile.needsCompaction(path) && pending.add(path)) {
+                executor.execute(() -> compact(path));
+            }
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Unable to check journals of " + path, x);
+        }
+    }
+
+    private void compact(Path path) {
+        pending.remove(path);
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            if (VersionedFile.isVersionedFile(path)) {
+                new VersionedFile(path).compact();
+            }
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Unable to compact journals of " + path, x);
+        }
+    }
+
+    @Override
+    public void onStartup(Container container) {
+    }
+
+    @Override
+    public void onReload(Container container) {
+    }
+
+    @Override
+    public void onShutdown(Container container) {
+        executor.shutdown();
+    }
+}
@@ -1,18 +1,33 @@
 package org.lsst.ccs.web.rest.file.server;
 
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.FirebaseOptions;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import javax.ws.rs.ApplicationPath;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.lsst.ccs.web.rest.file.server.jwt.CachingTokenVerifier;
+import org.lsst.ccs.web.rest.file.server.jwt.FirebaseTokenVerifier;
 import org.lsst.ccs.web.rest.file.server.jwt.JWTTokenNeededFilter;
+import org.lsst.ccs.web.rest.file.server.jwt.LocalTokenVerifier;
+import org.lsst.ccs.web.rest.file.server.jwt.TokenVerifier;
+import org.lsst.ccs.web.rest.file.server.metrics.MetricsServer;
+import org.lsst.ccs.web.rest.file.server.metrics.RequestMetrics;
+import org.lsst.ccs.web.rest.file.server.metrics.RequestMetricsFilter;
 
 /**
  * Jersey {@link ResourceConfig} for the REST file server. The configuration
- * registers all resource classes and optionally enables JWT based
- * authentication.
+ * registers all resource classes and the request metrics, and optionally
+ * enables JWT based authentication.
+ * <p>
+ * By default tokens are verified with Firebase. Setting
+ * {@code CCS_REST_JWKS} to the path or URL of a JSON Web Key Set, or
+ * {@code CCS_REST_JWT_SECRET} to an HS256 secret, verifies them locally
+ * instead. Either way accepted tokens are cached until they expire.
+ * Setting {@code CCS_REST_FILE_LOCKS} to {@code true} locks versioned files
+ * across processes, for servers sharing a base directory.
  *
  * @author tonyj
  */
@@ -22,7 +37,7 @@ public final class MyConfiguration extends ResourceConfig {
     /**
      * Creates a configuration that includes authentication.
      *
-     * @throws IOException if Firebase credentials cannot be obtained
+     * @throws IOException if the key set cannot be read
      */
     public MyConfiguration() throws IOException {
         this(false);
@@ -32,16 +47,27 @@ public final class MyConfiguration extends ResourceConfig {
      * Creates a configuration optionally skipping authentication setup.
      *
      * @param skipAuthentication {@code true} to omit JWT authentication filters
-     * @throws IOException if Firebase credentials cannot be obtained
+     * @throws IOException if the key set cannot be read
      */
     public MyConfiguration(boolean skipAuthentication) throws IOException {
+        this(skipAuthentication ? null : defaultTokenVerifier());
+    }
 
-        if (!skipAuthentication) {
-            FirebaseOptions options = FirebaseOptions.builder()
-                    .setCredentials(GoogleCredentials.getApplicationDefault())
-                    .build();
+    /**
+     * Creates a configuration which checks tokens with the given verifier.
+     *
+     * @param tokenVerifier the verifier, or {@code null} to omit JWT
+     * authentication filters
+     */
+    public MyConfiguration(TokenVerifier tokenVerifier) {
 
-            FirebaseApp.initializeApp(options);
+        if (tokenVerifier != null) {
+            register(new AbstractBinder() {
+                @Override
+                protected void configure() {
+                    bind(tokenVerifier).to(TokenVerifier.class);
+                }
+            });
             register(JWTTokenNeededFilter.class);
         }
 
@@ -50,5 +76,42 @@ public final class MyConfiguration extends ResourceConfig {
         register(FileServer.class);
         register(VersionedFileServer.class);
         register(IOExceptionMapper.class);
+        VersionedFileLocks locks = new VersionedFileLocks();
+        JournalCompactor compactor = new JournalCompactor(locks);
+        register(compactor);
+        register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(locks).to(VersionedFileLocks.class);
+                bind(compactor).to(JournalCompactor.class);
+            }
+        });
+
+        RequestMetrics metrics = new RequestMetrics();
+        register(metrics);
+        register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(metrics).to(RequestMetrics.class);
+            }
+        });
+        register(RequestMetricsFilter.class);
+        register(RequestMetricsFilter.Listener.class);
+        register(MetricsServer.class);
+    }
+
+    private static TokenVerifier defaultTokenVerifier() throws IOException {
+        String jwks = System.getenv("CCS_REST_JWKS");
+        String secret = System.getenv("CCS_REST_JWT_SECRET");
+        TokenVerifier verifier;
+        if (jwks != null) {
+            URI location = jwks.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:.*") ? URI.create(jwks) : Paths.get(jwks).toUri();
+            verifier = LocalTokenVerifier.jwks(location);
+        } else if (secret != null) {
+            verifier = LocalTokenVerifier.hmac(secret.getBytes(StandardCharsets.UTF_8));
+        } else {
+            verifier = new FirebaseTokenVerifier();
+        }
+        return new CachingTokenVerifier(verifier);
     }
 }
@@ -0,0 +1,316 @@
+package org.lsst.ccs.web.rest.file.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary index of the versions of a {@link VersionedFile}, kept in a
+ * {@value #INDEX_FILE_NAME} file inside it, so that listing the versions
+ * takes one small read instead of listing the directory and reading the
+ * attributes and content type of every version. The format is
+ * <pre>
+ * "CVI" 1 { &lt;int version&gt; &lt;long size&gt; &lt;long lastModified&gt; &lt;long creationTime&gt;
+ *          &lt;long lastAccessTime&gt; &lt;32 byte SHA-256&gt; &lt;UTF fileKey&gt; &lt;UTF mimeType&gt; }
+ * </pre>
+ * with one record per version in increasing order, in the encoding of
+ * {@link DataOutputStream}. Versions never change once written, so a record
+ * is appended when a version is added and never updated; the access time is
+ * the one when the version was indexed. The hidden flag, comment and creator
+ * of a version are changed after it is written, so they stay in the
+ * metadata.
+ * <p>
+ * The index is treated as stale, and rebuilt from the version files, if it
+ * is missing, cannot be parsed (for example after a crash during an append),
+ * or does not list exactly the versions of the file. Versions are numbered
+ * from one without gaps, so normally an index holding every version up to
+ * the latest can be trusted without listing the directory. An index with a
+ * gap, for example one which missed versions added by a server which did
+ * not keep the index and was then appended to, is checked against the
+ * directory.
+ */
+class VersionIndex {
+
+    static final String INDEX_FILE_NAME = "version-index.bin";
+    private static final byte[] MAGIC = {'C', 'V', 'I', 1};
+    private static final Logger LOG = Logger.getLogger(VersionIndex.class.getName());
+
+    private final Path dir;
+
+    VersionIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * What the index records about one version.
+     */
+    static final class Entry {
+
+        private final int version;
+        private final long size;
+        private final long lastModified;
+        private final long creationTime;
+        private final long lastAccessTime;
+        private final byte[] sha256;
+        private final String fileKey;
+        private final String mimeType;
+
+        private Entry(int version, long size, long lastModified, long creationTime, long lastAccessTime, byte[] sha256, String fileKey, String mimeType) {
+            this.version = version;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+            this.sha256 = sha256;
+            this.fileKey = fileKey;
+            this.mimeType = mimeType;
+        }
+
+        int getVersion() {
+            return version;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getCreationTime() {
+            return creationTime;
+        }
+
+        long getLastAccessTime() {
+            return lastAccessTime;
+        }
+
+        byte[] getSha256() {
+            return sha256.clone();
+        }
+
+        String getFileKey() {
+            return fileKey;
+        }
+
+        /**
+         * @return the content type, or {@code null} if it is not known
+         */
+        String getMimeType() {
+            return mimeType;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(version);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(creationTime);
+            out.writeLong(lastAccessTime);
+            out.write(sha256);
+            out.writeUTF(fileKey);
+            out.writeUTF(mimeType == null ? "" : mimeType);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            int version = in.readInt();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            long creationTime = in.readLong();
+            long lastAccessTime = in.readLong();
+            byte[] sha256 = new byte[32];
+            in.readFully(sha256);
+            String fileKey = in.readUTF();
+            String mimeType = in.readUTF();
+            return new Entry(version, size, lastModified, creationTime, lastAccessTime, sha256, fileKey, mimeType.isEmpty() ? null : mimeType);
+        }
+    }
+
+    /**
+     * Reads the index, if it holds every version from one to the latest.
+     *
+     * @param latest the latest version of the file
+     * @return the entries, or {@code null} if the index has gaps or is stale
+     * @throws IOException if the index exists but cannot be read
+     */
+    List<Entry> read(int latest) throws IOException {
+        List<Entry> entries = parse();
+        if (entries == null || entries.size() != latest) {
+            return null;
+        }
+        // Versions are increasing, so this means they are 1 to latest
+        return entries.get(0).version == 1 && entries.get(latest - 1).version == latest ? entries : null;
+    }
+
+    /**
+     * Reads the index, if it holds exactly the given versions.
+     *
+     * @param versions the versions of the file, in increasing order
+     * @return the entries, or {@code null} if the index is stale
+     * @throws IOException if the index exists but cannot be read
+     */
+    List<Entry> read(int[] versions) throws IOException {
+        List<Entry> entries = parse();
+        if (entries == null || entries.size() != versions.length) {
+            return null;
+        }
+        for (int i = 0; i < versions.length; i++) {
+            if (entries.get(i).version != versions[i]) {
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    private List<Entry> parse() throws IOException {
+        try {
+            return parse(Files.readAllBytes(dir.resolve(INDEX_FILE_NAME)));
+        } catch (NoSuchFileException x) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the index.
+     *
+     * @param data the content of the index file
+     * @return the entries, in increasing version order, or {@code null} if
+     * the index is empty or cannot be parsed
+     */
+    private static List<Entry> parse(byte[] data) {
+        if (data.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MAGIC.length, data.length - MAGIC.length));
+        try {
+            while (in.available() > 0) {
+                Entry entry = Entry.read(in);
+                if (!entries.isEmpty() && entry.version <= entries.get(entries.size() - 1).version) {
+                    return null;
+                }
+                entries.add(entry);
+            }
+        } catch (IOException x) {
+            // Cut short
+            return null;
+        }
+        return entries.isEmpty() ? null : entries;
+    }
+
+    /**
+     * Rebuilds the index from the version files.
+     *
+     * @param versions the versions of the file
+     * @return the entries
+     * @throws IOException if a version file cannot be read or the index
+     * cannot be written
+     */
+    List<Entry> rebuild(int[] versions) throws IOException {
+        List<Entry> entries = new ArrayList<>(versions.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(MAGIC);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int version : versions) {
+            Path file = dir.resolve(String.valueOf(version));
+            Entry entry = entry(version, file, Files.readAllBytes(file));
+            entry.write(out);
+            entries.add(entry);
+        }
+        out.flush();
+        // Another thread may be rebuilding the index too, so use a temporary
+        // file of our own
+        Path temp = Files.createTempFile(dir, INDEX_FILE_NAME, ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, dir.resolve(INDEX_FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOG.log(Level.FINE, "Rebuilt version index of {0} with {1} versions", new Object[]{dir, versions.length});
+        return entries;
+    }
+
+    /**
+     * Adds a new version to the index. A missing index is left to be rebuilt
+     * when it is next read, since it would otherwise hold only this version.
+     * Readers rebuild the index without taking the lock of the file, so one
+     * may have done so after the version was written, in which case the
+     * index already ends with it and is left as it is; appending it again
+     * would make every later read rebuild the index.
+     *
+     * @param version the version
+     * @param content its content
+     * @throws IOException if the version or the index cannot be read
+     */
+    void append(int version, byte[] content) throws IOException {
+        Path file = dir.resolve(String.valueOf(version));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entry(version, file, content).write(new DataOutputStream(bytes));
+        // Checked and written through one channel, so that an index renamed
+        // into place meanwhile is not appended to unchecked
+        try (FileChannel channel = FileChannel.open(dir.resolve(INDEX_FILE_NAME), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+                // Read it all
+            }
+            List<Entry> entries = parse(data.array());
+            if (entries != null && entries.get(entries.size() - 1).version >= version) {
+                return;
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            long position = size;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        } catch (NoSuchFileException x) {
+            // Rebuilt when next read
+        }
+    }
+
+    /**
+     * Writes the index of a new file which has only its first version.
+     *
+     * @param content the content of version 1
+     * @throws IOException if the index cannot be written
+     */
+    void create(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(MAGIC);
+        entry(1, dir.resolve("1"), content).write(new DataOutputStream(bytes));
+        Files.write(dir.resolve(INDEX_FILE_NAME), bytes.toByteArray());
+    }
+
+    private static Entry entry(int version, Path file, byte[] content) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        return new Entry(version, attributes.size(), attributes.lastModifiedTime().toMillis(), attributes.creationTime().toMillis(),
+                attributes.lastAccessTime().toMillis(), sha256(content), fileKey == null ? "" : fileKey.toString(), Files.probeContentType(file));
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException("SHA-256 not available", x);
+        }
+    }
+}
@@ -2,31 +2,61 @@ package org.lsst.ccs.web.rest.file.server;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.lsst.ccs.web.rest.file.server.data.DefaultChangeRecord;
+import org.lsst.ccs.web.rest.file.server.data.Delta;
 
 /**
  * Encapsulation of a versioned file. The current implementation stores the file
  * as a directory, containing files named 1,2,3....n, with symbolic links for
  * the latest and default version of the file.
+ * <p>
+ * Instances read the metadata when they are created, so a change should
+ * create its instance, and make all of its changes, while holding the file's
+ * {@link VersionedFileLocks} lock.
+ * <p>
+ * The metadata and the history of default changes are each kept as a
+ * snapshot, {@value #META_FILE_NAME} and {@value #DEFAULT_HISTORY_FILE_NAME},
+ * followed by a journal of later changes with one JSON object per line, so a
+ * change appends a line rather than rewriting the whole history. A line cut
+ * short by a crash is ignored. {@link #compact} folds the journals back into
+ * the snapshots, see {@link JournalCompactor}. Files written before the
+ * journals were introduced have only the snapshots, and read as before.
+ * The versions themselves are listed by a {@link VersionIndex}.
  *
  * @author tonyj
  */
@@ -37,12 +67,18 @@ public class VersionedFile {
     private static final String DEFAULT = "default";
     private static final String META_FILE_NAME = "version-meta.properties";
     private static final String DEFAULT_HISTORY_FILE_NAME = "default-history.json";
+    private static final String META_JOURNAL_FILE_NAME = "version-meta.journal";
+    private static final String DEFAULT_HISTORY_JOURNAL_FILE_NAME = "default-history.journal";
+    // Journal size beyond which it is worth compacting
+    static final long COMPACT_JOURNAL_BYTES = 16 * 1024;
     private static final String HIDDEN_VERSIONS_PROPERTY = "hidden-versions";
     private static final String SENSITIVE_PROPERTY = "sensitive";
     private static final String COMMENT_PROPERTY = "comment.";
     private static final String CREATOR_PROPERTY = "creator.";
+    // Random, set when the file is created, converted or copied
+    private static final String IDENTITY_PROPERTY = "identity";
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-
+    private static final Logger LOG = Logger.getLogger(VersionedFile.class.getName());
 
     private final Properties meta;
     private final Path path;
@@ -178,7 +214,7 @@ public class VersionedFile {
         return path.resolve(LATEST);
     }
 
-    private Set<Integer> getHiddenVersions() {
+    private static Set<Integer> getHiddenVersions(Properties meta) {
         String hiddenVersionsString = meta.getProperty(HIDDEN_VERSIONS_PROPERTY, "");
         if (hiddenVersionsString.isEmpty()) {
             return new TreeSet<>();
@@ -194,7 +230,7 @@ public class VersionedFile {
      * @return {@code true} if the version is hidden
      */
     boolean isHidden(int version) {
-        return getHiddenVersions().contains(version);
+        return getHiddenVersions(meta).contains(version);
     }
     
 
@@ -206,23 +242,7 @@ public class VersionedFile {
      * @throws IOException if the version cannot be updated
      */
     void setHidden(int version, boolean isHidden) throws IOException {
-        Set<Integer> hiddenVersions = getHiddenVersions();
-        boolean modified;
-        if (isHidden) {
-            if (version == getLatestVersion()) {
-                throw new RuntimeException("Latest version cannot be hidden");
-            }
-            if (version == getDefaultVersion()) {
-                throw new RuntimeException("Default version cannot be hidden");
-            }
-            modified = hiddenVersions.add(version);
-        } else {
-            modified = hiddenVersions.remove(version);
-        }
-        if (modified) {
-            meta.setProperty(HIDDEN_VERSIONS_PROPERTY, hiddenVersions.stream().map(String::valueOf).collect(Collectors.joining(",")));
-            updateMetaFile(path, meta);
-        }
+        editMeta().setHidden(version, isHidden).commit();
     }
     
     /**
@@ -243,8 +263,7 @@ public class VersionedFile {
      * @throws IOException if the metadata file cannot be updated
      */
     void setSensitive(boolean sensitive) throws IOException {
-        meta.setProperty(SENSITIVE_PROPERTY, String.valueOf(sensitive));
-        updateMetaFile(path, meta);
+        editMeta().setSensitive(sensitive).commit();
     }
 
     /**
@@ -265,8 +284,7 @@ public class VersionedFile {
      * @throws IOException if the metadata file cannot be updated
      */
     void setComment(int version, String comment) throws IOException {
-        meta.setProperty(COMMENT_PROPERTY + version, comment);
-        updateMetaFile(path, meta);
+        editMeta().setComment(version, comment).commit();
     }
 
     String getCreator(int version) {
@@ -274,22 +292,109 @@ public class VersionedFile {
     }
 
     void setCreator(int version, String creator) throws IOException {
-        meta.setProperty(CREATOR_PROPERTY + version, creator);
-        updateMetaFile(path, meta);
+        editMeta().setCreator(version, creator).commit();
+    }
+
+    /**
+     * Starts a set of changes to the metadata. The changes are made to a copy
+     * in memory, and appended to the journal as a single entry when
+     * committed, so several changes cost one write and a crash never leaves
+     * only some of them.
+     *
+     * @return the changes, initially none
+     */
+    MetaTransaction editMeta() {
+        return new MetaTransaction();
     }
 
+    /**
+     * Reads the default history, the snapshot followed by the journal. If
+     * compaction was cut short after the snapshot was written but before the
+     * journal was deleted, the snapshot ends with the first records of the
+     * journal, and these are not added a second time.
+     *
+     * @return the changes of default version, oldest first
+     * @throws IOException if the history cannot be read
+     */
     List<DefaultChangeRecord> getDefaultHistory() throws IOException {
+        List<DefaultChangeRecord> history = new ArrayList<>();
         Path historyFile = path.resolve(DEFAULT_HISTORY_FILE_NAME);
-        if (!Files.exists(historyFile)) {
-            return Collections.emptyList();
+        if (Files.exists(historyFile)) {
+            history.addAll(OBJECT_MAPPER.readValue(historyFile.toFile(), new TypeReference<List<DefaultChangeRecord>>() {}));
         }
-        return OBJECT_MAPPER.readValue(historyFile.toFile(), new TypeReference<List<DefaultChangeRecord>>() {});
+        List<DefaultChangeRecord> journal = new ArrayList<>();
+        for (String line : readJournal(path.resolve(DEFAULT_HISTORY_JOURNAL_FILE_NAME))) {
+            journal.add(OBJECT_MAPPER.readValue(line, DefaultChangeRecord.class));
+        }
+        history.addAll(journal.subList(foldedRecords(history, journal), journal.size()));
+        return history;
+    }
+
+    /**
+     * Finds how many leading journal records are already at the end of the
+     * snapshot. Records carry a time in milliseconds along with the version
+     * and user, so a chance match is not a concern.
+     */
+    private static int foldedRecords(List<DefaultChangeRecord> snapshot, List<DefaultChangeRecord> journal) {
+        for (int n = Math.min(snapshot.size(), journal.size()); n > 0; n--) {
+            int offset = snapshot.size() - n;
+            int i = 0;
+            while (i < n && sameRecord(snapshot.get(offset + i), journal.get(i))) {
+                i++;
+            }
+            if (i == n) {
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean sameRecord(DefaultChangeRecord a, DefaultChangeRecord b) {
+        return a.getVersion() == b.getVersion() && a.getTimestamp() == b.getTimestamp() && a.getChangedBy().equals(b.getChangedBy());
     }
 
     void recordDefaultChange(int version, String changedBy) throws IOException {
-        List<DefaultChangeRecord> history = new ArrayList<>(getDefaultHistory());
-        history.add(new DefaultChangeRecord(version, System.currentTimeMillis(), changedBy));
-        OBJECT_MAPPER.writeValue(path.resolve(DEFAULT_HISTORY_FILE_NAME).toFile(), history);
+        DefaultChangeRecord record = new DefaultChangeRecord(version, System.currentTimeMillis(), changedBy);
+        appendJournal(path.resolve(DEFAULT_HISTORY_JOURNAL_FILE_NAME), OBJECT_MAPPER.writeValueAsString(record));
+    }
+
+    /**
+     * Tests whether either journal has grown enough to be worth compacting.
+     *
+     * @param dir the directory of a versioned file
+     * @return {@code true} if {@link #compact} should be called
+     * @throws IOException if the journals cannot be examined
+     */
+    static boolean needsCompaction(Path dir) throws IOException {
+        for (String name : new String[]{META_JOURNAL_FILE_NAME, DEFAULT_HISTORY_JOURNAL_FILE_NAME}) {
+            Path journal = dir.resolve(name);
+            if (Files.exists(journal) && Files.size(journal) > COMPACT_JOURNAL_BYTES) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds the journals into the snapshots and deletes them. Each snapshot
+     * is replaced before its journal is deleted, so a crash part way through
+     * loses nothing. Replaying the metadata journal over a snapshot which
+     * already includes it changes nothing, and {@link #getDefaultHistory}
+     * skips history records which the snapshot already ends with.
+     *
+     * @throws IOException if a snapshot cannot be written
+     */
+    void compact() throws IOException {
+        Path metaJournal = path.resolve(META_JOURNAL_FILE_NAME);
+        if (Files.exists(metaJournal)) {
+            updateMetaFile(path, meta);
+            Files.delete(metaJournal);
+        }
+        Path historyJournal = path.resolve(DEFAULT_HISTORY_JOURNAL_FILE_NAME);
+        if (Files.exists(historyJournal)) {
+            replaceFile(path.resolve(DEFAULT_HISTORY_FILE_NAME), OBJECT_MAPPER.writeValueAsBytes(getDefaultHistory()));
+            Files.delete(historyJournal);
+        }
     }
 
     /**
@@ -301,21 +406,115 @@ public class VersionedFile {
      * @throws IOException if the version cannot be written
      */
     int addVersion(byte[] content, boolean onlyIfChanged) throws IOException {
-        int version = getLatestVersion() + 1;
-        if (version > 1 && onlyIfChanged) {
+        return addVersion(content, onlyIfChanged, 0);
+    }
+
+    /**
+     * Adds a new version of the file, provided the latest version is still
+     * the one expected. Each version file is created exclusively, so of two
+     * uploads expecting the same latest version only one succeeds; without an
+     * expected version an upload that loses the race takes the next number.
+     *
+     * @param content file bytes for the new version
+     * @param onlyIfChanged if {@code true}, identical content will not create a new version
+     * @param expectedLatest the version that must still be the latest, or 0
+     * to accept any
+     * @return the version written, or -1 if the latest version is no longer
+     * {@code expectedLatest}, in which case nothing is written
+     * @throws IOException if the version cannot be written
+     */
+    int addVersion(byte[] content, boolean onlyIfChanged, int expectedLatest) throws IOException {
+        int latest = getLatestVersion();
+        if (expectedLatest > 0 && latest != expectedLatest) {
+            return -1;
+        }
+        if (onlyIfChanged) {
             byte[] previousData = Files.readAllBytes(getLatest());
             if (Arrays.equals(previousData, content)) {
-                return getLatestVersion();
+                return latest;
+            }
+        }
+        int version = latest + 1;
+        Path file;
+        for (;; version++) {
+            file = path.resolve(String.valueOf(version));
+            try {
+                Files.write(file, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException x) {
+                // Taken by a concurrent upload
+                if (expectedLatest > 0) {
+                    return -1;
+                }
             }
         }
-        Path file = path.resolve(String.valueOf(version));
-        Files.write(file, content);
         Files.setPosixFilePermissions(file, READ_ONLY);
-        Files.deleteIfExists(path.resolve(LATEST));
-        Files.createSymbolicLink(path.resolve(LATEST), path.relativize(file));
+        // Replace the link in one step, so that readers always find one
+        Path link = path.resolve(LATEST + "." + version + ".tmp");
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, path.relativize(file));
+        Files.move(link, path.resolve(LATEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        new VersionIndex(path).append(version, content);
         return version;
     }
 
+    /**
+     * Lists the versions of this file, including hidden ones, from its
+     * {@link VersionIndex}, rebuilding the index first if it is stale.
+     *
+     * @return the index entries, in increasing version order
+     * @throws IOException if the index cannot be read or rebuilt
+     */
+    List<VersionIndex.Entry> getIndex() throws IOException {
+        VersionIndex index = new VersionIndex(path);
+        List<VersionIndex.Entry> entries = index.read(getLatestVersion());
+        if (entries == null) {
+            int[] versions = getVersions();
+            entries = index.read(versions);
+            if (entries == null) {
+                entries = index.rebuild(versions);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Identifies the metadata of the versions up to {@code upTo}, together
+     * with the file holding them. A client which knows those versions with
+     * the same generation only needs the versions added since, because
+     * versions never change. Adding a version leaves the generation of the
+     * earlier ones alone; it changes when a hidden flag, comment or creator
+     * of one of them does, or the file is deleted and created again. The
+     * file is recognised by the random identity written when it was created.
+     * Files from before the identity was kept are recognised by their first
+     * version instead, which is never written again; a file created in their
+     * place always has an identity, so it cannot be mistaken for them.
+     *
+     * @param upTo the latest version covered
+     * @return the generation, a short hex string
+     * @throws IOException if the directory cannot be read
+     */
+    String getGeneration(int upTo) throws IOException {
+        String identity = meta.getProperty(IDENTITY_PROPERTY);
+        if (identity == null) {
+            BasicFileAttributes attributes = Files.readAttributes(path.resolve("1"), BasicFileAttributes.class);
+            identity = attributes.fileKey() + " " + attributes.lastModifiedTime().toMillis();
+        }
+        Map<String, String> state = new TreeMap<>();
+        for (String key : meta.stringPropertyNames()) {
+            if (key.startsWith(COMMENT_PROPERTY) || key.startsWith(CREATOR_PROPERTY)) {
+                String version = key.substring(key.indexOf('.') + 1);
+                if (version.matches("\\d{1,9}") && Integer.parseInt(version) <= upTo) {
+                    state.put(key, meta.getProperty(key));
+                }
+            }
+        }
+        Set<Integer> hidden = getHiddenVersions(meta);
+        hidden.removeIf(version -> version > upTo);
+        String generation = identity + " " + upTo + "\n" + hidden + "\n" + state;
+        return Delta.sha256(generation.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+
     /**
      * Creates a new versioned file at the given path with initial content.
      *
@@ -325,6 +524,22 @@ public class VersionedFile {
      * @throws IOException if the file already exists or cannot be created
      */
     static VersionedFile create(Path path, byte[] content) throws IOException {
+        return create(path, content, null, null);
+    }
+
+    /**
+     * Creates a new versioned file at the given path with initial content,
+     * writing the comment and creator of version 1 with the rest of the
+     * initial metadata.
+     *
+     * @param path directory to create for the versioned file
+     * @param content initial file bytes
+     * @param comment the comment for version 1, or {@code null}
+     * @param creator the creator of version 1, or {@code null}
+     * @return a {@code VersionedFile} representing the created file
+     * @throws IOException if the file already exists or cannot be created
+     */
+    static VersionedFile create(Path path, byte[] content, String comment, String creator) throws IOException {
         if (Files.exists(path)) {
             throw new IOException("File already exists: " + path);
         }
@@ -334,34 +549,122 @@ public class VersionedFile {
         Files.setPosixFilePermissions(file, READ_ONLY);
         Files.createSymbolicLink(dir.resolve(LATEST), dir.relativize(file));
         Files.createSymbolicLink(dir.resolve(DEFAULT), dir.relativize(file));
-        createMetaFile(dir);
+        Properties meta = new Properties();
+        meta.setProperty(IDENTITY_PROPERTY, UUID.randomUUID().toString());
+        if (comment != null) {
+            meta.setProperty(COMMENT_PROPERTY + 1, comment);
+        }
+        if (creator != null) {
+            meta.setProperty(CREATOR_PROPERTY + 1, creator);
+        }
+        updateMetaFile(dir, meta);
+        new VersionIndex(dir).create(content);
         return new VersionedFile(dir);
     }
 
     private static void createMetaFile(Path dir) throws IOException {
         Properties meta = new Properties();
+        meta.setProperty(IDENTITY_PROPERTY, UUID.randomUUID().toString());
         updateMetaFile(dir, meta);
     }
 
     private static void updateMetaFile(Path dir, Properties props) throws IOException {
-        try (OutputStream out = Files.newOutputStream(dir.resolve(META_FILE_NAME))) {
-            props.store(out, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.store(out, null);
+        replaceFile(dir.resolve(META_FILE_NAME), out.toByteArray());
+    }
+
+    /**
+     * Replaces a file. The new content is written and synced to a temporary
+     * file which is then renamed over the old one, so readers, and the server
+     * after a crash, find either the old or the new content.
+     */
+    private static void replaceFile(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
         }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
     /**
-     * Loads the version metadata file from the specified directory.
+     * Appends an entry to a journal in a single write, and syncs it. If the
+     * journal does not end with a newline, because an earlier append was cut
+     * short, the entry starts a new line so that it is not lost with the
+     * broken one.
+     */
+    private static void appendJournal(Path journal, String entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            String line = entry + "\n";
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, size - 1);
+                if (last.get(0) != '\n') {
+                    line = "\n" + line;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads the complete lines of a journal, skipping any which are not
+     * valid JSON objects, such as one cut short by a crash.
+     *
+     * @return the lines, empty if there is no journal
+     */
+    private static List<String> readJournal(Path journal) throws IOException {
+        if (!Files.exists(journal)) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null;) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (OBJECT_MAPPER.readTree(line).isObject()) {
+                        lines.add(line);
+                        continue;
+                    }
+                } catch (IOException x) {
+                    // Reported below
+                }
+                LOG.log(Level.WARNING, "Ignoring broken entry in {0}", journal);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Loads the version metadata from the specified directory, applying the
+     * journal to the snapshot.
      *
      * @param dir directory containing the metadata file
      * @return loaded properties
      * @throws IOException if the metadata cannot be read
      */
     static Properties loadMetaFile(Path dir) throws IOException {
+        Properties meta = new Properties();
         try (final InputStream in = Files.newInputStream(dir.resolve(META_FILE_NAME))) {
-            Properties meta = new Properties();
             meta.load(in);
-            return meta;
         }
+        for (String line : readJournal(dir.resolve(META_JOURNAL_FILE_NAME))) {
+            Map<String, String> changes = OBJECT_MAPPER.readValue(line, new TypeReference<Map<String, String>>() {});
+            meta.putAll(changes);
+        }
+        return meta;
     }
 
     /**
@@ -390,6 +693,87 @@ public class VersionedFile {
         return new VersionedFile(unversionedFile);
     }
 
+    /**
+     * Copies this versioned file. Version files are never modified, so they
+     * are hard linked into the copy rather than duplicated, unless the target
+     * is on a different file system. The copy is assembled under a temporary
+     * name and then moved into place, so it never appears incomplete.
+     *
+     * @param target the path of the copy, which must not exist
+     * @param history {@code true} to copy every version, with the metadata
+     * and default history; {@code false} to copy only the default version,
+     * with its comment and creator, as version 1
+     * @return the copy
+     * @throws IOException if the target exists or the copy fails
+     */
+    VersionedFile copy(Path target, boolean history) throws IOException {
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        // A unique name, so that one left by a crash does not block later
+        // copies; it gets the permissions of this file rather than the owner
+        // only ones of a temporary directory
+        Path dir = Files.createTempDirectory(target.toAbsolutePath().getParent(), target.getFileName() + "$$TMP$$");
+        try {
+            Files.setPosixFilePermissions(dir, Files.getPosixFilePermissions(path));
+            if (history) {
+                for (int version : getVersions()) {
+                    linkOrCopy(path.resolve(String.valueOf(version)), dir.resolve(String.valueOf(version)));
+                }
+                Files.createSymbolicLink(dir.resolve(LATEST), Files.readSymbolicLink(getLatest()));
+                Files.createSymbolicLink(dir.resolve(DEFAULT), Files.readSymbolicLink(getDefault()));
+                for (String name : new String[]{META_FILE_NAME, META_JOURNAL_FILE_NAME, DEFAULT_HISTORY_FILE_NAME, DEFAULT_HISTORY_JOURNAL_FILE_NAME}) {
+                    if (Files.exists(path.resolve(name))) {
+                        Files.copy(path.resolve(name), dir.resolve(name));
+                    }
+                }
+                // The versions are the same files, so the copy needs an
+                // identity of its own to tell it from this file
+                Properties snapshot = new Properties();
+                try (InputStream in = Files.newInputStream(dir.resolve(META_FILE_NAME))) {
+                    snapshot.load(in);
+                }
+                snapshot.setProperty(IDENTITY_PROPERTY, UUID.randomUUID().toString());
+                updateMetaFile(dir, snapshot);
+            } else {
+                int version = getDefaultVersion();
+                Path file = dir.resolve("1");
+                linkOrCopy(path.resolve(String.valueOf(version)), file);
+                Files.createSymbolicLink(dir.resolve(LATEST), dir.relativize(file));
+                Files.createSymbolicLink(dir.resolve(DEFAULT), dir.relativize(file));
+                Properties copyMeta = new Properties();
+                copyMeta.setProperty(IDENTITY_PROPERTY, UUID.randomUUID().toString());
+                if (isSensitive()) {
+                    copyMeta.setProperty(SENSITIVE_PROPERTY, "true");
+                }
+                if (!getComment(version).isEmpty()) {
+                    copyMeta.setProperty(COMMENT_PROPERTY + 1, getComment(version));
+                }
+                if (!getCreator(version).isEmpty()) {
+                    copyMeta.setProperty(CREATOR_PROPERTY + 1, getCreator(version));
+                }
+                updateMetaFile(dir, copyMeta);
+            }
+            Files.move(dir, target);
+        } catch (IOException x) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+            throw x;
+        }
+        return new VersionedFile(target);
+    }
+
+    private static void linkOrCopy(Path version, Path target) throws IOException {
+        try {
+            Files.createLink(target, version);
+        } catch (UnsupportedOperationException | FileSystemException x) {
+            // Hard links not supported, or across file systems
+            Files.copy(version, target);
+            Files.setPosixFilePermissions(target, READ_ONLY);
+        }
+    }
+
     /**
      * Returns the base file name of the versioned file directory.
      *
@@ -399,6 +783,86 @@ public class VersionedFile {
         return path.getFileName().toString();
     }
 
+    /**
+     * A set of changes to the metadata of this file, see {@link #editMeta}.
+     * Nothing is written until {@link #commit}; an abandoned transaction
+     * leaves the metadata as it was.
+     */
+    final class MetaTransaction {
+
+        private final Properties changed = new Properties();
+        private final Map<String, String> changes = new LinkedHashMap<>();
+
+        private MetaTransaction() {
+            changed.putAll(meta);
+        }
+
+        MetaTransaction setComment(int version, String comment) {
+            return set(COMMENT_PROPERTY + version, comment);
+        }
+
+        MetaTransaction setCreator(int version, String creator) {
+            return set(CREATOR_PROPERTY + version, creator);
+        }
+
+        MetaTransaction setSensitive(boolean sensitive) {
+            return set(SENSITIVE_PROPERTY, String.valueOf(sensitive));
+        }
+
+        /**
+         * Marks a version as hidden or visible.
+         *
+         * @param version the version to modify
+         * @param isHidden {@code true} to hide the version; {@code false} to
+         * unhide
+         * @return this transaction
+         * @throws IOException if the latest or default version cannot be read
+         * @throws RuntimeException if asked to hide the latest or default
+         * version
+         */
+        MetaTransaction setHidden(int version, boolean isHidden) throws IOException {
+            Set<Integer> hiddenVersions = getHiddenVersions(changed);
+            boolean hiddenModified;
+            if (isHidden) {
+                if (version == getLatestVersion()) {
+                    throw new RuntimeException("Latest version cannot be hidden");
+                }
+                if (version == getDefaultVersion()) {
+                    throw new RuntimeException("Default version cannot be hidden");
+                }
+                hiddenModified = hiddenVersions.add(version);
+            } else {
+                hiddenModified = hiddenVersions.remove(version);
+            }
+            if (hiddenModified) {
+                set(HIDDEN_VERSIONS_PROPERTY, hiddenVersions.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            }
+            return this;
+        }
+
+        private MetaTransaction set(String key, String value) {
+            if (!value.equals(changed.getProperty(key))) {
+                changed.setProperty(key, value);
+                changes.put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * Writes the changes, if there are any, as one journal entry.
+         *
+         * @throws IOException if the journal cannot be written, in which case
+         * the metadata is unchanged
+         */
+        void commit() throws IOException {
+            if (!changes.isEmpty()) {
+                appendJournal(path.resolve(META_JOURNAL_FILE_NAME), OBJECT_MAPPER.writeValueAsString(changes));
+                meta.putAll(changes);
+                changes.clear();
+            }
+        }
+    }
+
     /**
      * Deletes the versioned file and all of its versions from disk.
      *
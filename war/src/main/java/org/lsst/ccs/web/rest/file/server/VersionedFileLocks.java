@@ -0,0 +1,120 @@
+package org.lsst.ccs.web.rest.file.server;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes changes to a {@link VersionedFile}: allocating a version number,
+ * writing it and swapping the {@code latest} link, and the read-modify-write
+ * of its metadata. Changes to different files are not coordinated.
+ * <p>
+ * Within the server a file is locked by one of a fixed set of striped locks,
+ * chosen by the hash of its absolute path, so that memory does not grow with
+ * the number of files; two files which share a stripe wait for each other,
+ * which is rare and brief. When several servers share the same base
+ * directory the lock can also take a {@link FileLock} on a
+ * {@value #LOCK_FILE_NAME} file inside the versioned file, once the file
+ * exists.
+ */
+public class VersionedFileLocks {
+
+    static final String LOCK_FILE_NAME = "version.lock";
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] stripes;
+    private final boolean fileLocks;
+
+    /**
+     * Creates the locks, taking file locks if the environment variable
+     * {@code CCS_REST_FILE_LOCKS} is {@code true}.
+     */
+    VersionedFileLocks() {
+        this(DEFAULT_STRIPES, Boolean.parseBoolean(System.getenv("CCS_REST_FILE_LOCKS")));
+    }
+
+    /**
+     * Creates the locks.
+     *
+     * @param stripes the number of in-process locks, rounded up to a power
+     * of two
+     * @param fileLocks {@code true} to also lock across processes
+     */
+    VersionedFileLocks(int stripes, boolean fileLocks) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.fileLocks = fileLocks;
+    }
+
+    /**
+     * Locks a versioned file, which need not exist yet. The lock is not
+     * reentrant across processes, so a thread must not lock the same file
+     * twice.
+     *
+     * @param path the directory of the versioned file
+     * @return the lock, to be closed once the change is complete
+     * @throws IOException if the file lock cannot be taken
+     */
+    Lock lock(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        int hash = key.hashCode();
+        ReentrantLock stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+        stripe.lock();
+        try {
+            FileChannel channel = null;
+            FileLock fileLock = null;
+            if (fileLocks && Files.isDirectory(key)) {
+                channel = FileChannel.open(key.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                try {
+                    fileLock = channel.lock();
+                } catch (IOException | RuntimeException x) {
+                    channel.close();
+                    throw x;
+                }
+            }
+            return new Lock(stripe, channel, fileLock);
+        } catch (IOException | RuntimeException x) {
+            stripe.unlock();
+            throw x;
+        }
+    }
+
+    /**
+     * A held lock on a versioned file.
+     */
+    static final class Lock implements AutoCloseable {
+
+        private final ReentrantLock stripe;
+        private final FileChannel channel;
+        private final FileLock fileLock;
+
+        private Lock(ReentrantLock stripe, FileChannel channel, FileLock fileLock) {
+            this.stripe = stripe;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (fileLock != null) {
+                    // Closing the channel releases the lock, even if the
+                    // versioned file has been deleted meanwhile
+                    channel.close();
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+}
@@ -8,11 +8,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import javax.inject.Inject;
 import javax.servlet.ServletContext;
@@ -29,12 +27,14 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import org.jvnet.hk2.annotations.Optional;
 import static org.lsst.ccs.web.rest.file.server.data.Constants.PROTOCOL_VERSION_HEADER;
+import org.lsst.ccs.web.rest.file.server.data.Delta;
 import org.lsst.ccs.web.rest.file.server.data.VersionOptions;
 import org.lsst.ccs.web.rest.file.server.data.VersionInfoV2;
 import org.lsst.ccs.web.rest.file.server.jwt.JWTTokenNeeded;
@@ -51,10 +51,19 @@ import org.lsst.ccs.web.rest.file.server.jwt.JWTTokenNeededFilter;
 @Produces(MediaType.APPLICATION_JSON)
 public class VersionedFileServer {
 
+    // The most a delta upload may rebuild; a larger file is sent whole
+    private static final int MAX_DELTA_CONTENT_BYTES = 256 * 1024 * 1024;
+
     @Inject
     @Optional
     private java.nio.file.Path baseDir;
 
+    @Inject
+    private VersionedFileLocks locks;
+
+    @Inject
+    private JournalCompactor compactor;
+
     /**
      * Initializes the base directory for versioned files from the servlet
      * context configuration if present.
@@ -84,20 +93,60 @@ public class VersionedFileServer {
      * @return version information for the file
      * @throws IOException if the file cannot be read
      */
+    public Response info(String filePath, Request request, Integer protocolVersion) throws IOException {
+        return info(filePath, null, null, null, request, protocolVersion);
+    }
+
+    /**
+     * Returns metadata about the versions of the specified file. A client
+     * which already has the versions up to {@code since} is sent only the
+     * newer ones. If it also sends the generation it read those versions
+     * with, and the hidden flag, comment or creator of one of them has
+     * changed since, every version is sent again instead. The default and
+     * latest versions, the default history and the sensitive flag are always
+     * current, and {@link VersionInfoV2#getSince()} tells which versions were
+     * left out.
+     *
+     * @param filePath relative path to the versioned file
+     * @param since the latest version the client has, or {@code null}
+     * @param limit the most versions to send, the newest ones, or
+     * {@code null} for no limit
+     * @param generation the generation the client's versions were read
+     * with, or {@code null} to trust that they are still current
+     * @param request the HTTP precondition request
+     * @param protocolVersion optional protocol version to downgrade responses
+     * @return version information for the file
+     * @throws IOException if the file cannot be read
+     */
     @GET
     @Path("info/{filePath: .*}")
-    public Response info(@PathParam("filePath") String filePath, @Context Request request, @HeaderParam(PROTOCOL_VERSION_HEADER) Integer protocolVersion) throws IOException {
+    public Response info(@PathParam("filePath") String filePath, @QueryParam("since") Integer since, @QueryParam("limit") Integer limit,
+            @QueryParam("generation") String generation, @Context Request request, @HeaderParam(PROTOCOL_VERSION_HEADER) Integer protocolVersion) throws IOException {
         java.nio.file.Path path = baseDir.resolve(filePath);
         VersionedFile cf = new VersionedFile(path);
+        int latest = cf.getLatestVersion();
+        List<VersionIndex.Entry> entries = cf.getIndex();
+        int from = 0;
+        if (since != null && since > 0 && since <= latest && (generation == null || generation.equals(cf.getGeneration(since)))) {
+            from = since;
+        }
+        int first = 0;
+        while (first < entries.size() && entries.get(first).getVersion() <= from) {
+            first++;
+        }
+        if (limit != null && limit > 0 && entries.size() - first > limit) {
+            first = entries.size() - limit;
+            from = entries.get(first - 1).getVersion();
+        }
         List<VersionInfoV2.Version> fileVersions = new ArrayList<>();
-        int[] versions = cf.getVersions();
-        for (int version : versions) {
-            java.nio.file.Path child = cf.getPathForVersion(version);
-            BasicFileAttributes fileAttributes = Files.getFileAttributeView(child, BasicFileAttributeView.class).readAttributes();
-            VersionInfoV2.Version info = new VersionInfoV2.Version(child, fileAttributes, version, cf.isHidden(version), cf.getComment(version), cf.getCreator(version));
+        for (VersionIndex.Entry entry : entries.subList(first, entries.size())) {
+            int version = entry.getVersion();
+            VersionInfoV2.Version info = new VersionInfoV2.Version(entry.getLastModified(), entry.getCreationTime(), entry.getLastAccessTime(),
+                    entry.getSize(), entry.getMimeType(), String.valueOf(version), entry.getFileKey(), false, false, true, false, false, null,
+                    version, cf.isHidden(version), cf.getComment(version), cf.getCreator(version));
             fileVersions.add(info);
         }
-        VersionInfoV2 result = new VersionInfoV2(cf.getDefaultVersion(), cf.getLatestVersion(), fileVersions, cf.getDefaultHistory(), cf.isSensitive());
+        VersionInfoV2 result = new VersionInfoV2(cf.getDefaultVersion(), latest, fileVersions, cf.getDefaultHistory(), cf.isSensitive(), from, cf.getGeneration(latest));
         Serializable finalResult = result.downgrade(protocolVersion);
         EntityTag eTag = new EntityTag(ETagHelper.computeEtag(finalResult));
         Response.ResponseBuilder builder = request.evaluatePreconditions(eTag);
@@ -110,10 +159,13 @@ public class VersionedFileServer {
     }
 
     /**
-     * Streams the content of a specific version of a file to the client.
+     * Streams the content of a specific version of a file, or the requested
+     * byte range of it, to the client.
      *
      * @param filePath path to the versioned file
      * @param version version identifier such as "latest" or an explicit number
+     * @param range the optional {@code Range} header
+     * @param ifRange the optional {@code If-Range} header
      * @param request the HTTP precondition request
      * @return the file content as an octet-stream
      * @throws IOException if the version cannot be resolved
@@ -121,25 +173,15 @@ public class VersionedFileServer {
     @GET
     @Path("download/{filePath: .*}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response file(@PathParam("filePath") String filePath, @QueryParam("version") String version, @Context Request request) throws IOException {
+    public Response file(@PathParam("filePath") String filePath, @QueryParam("version") String version,
+            @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange, @Context Request request) throws IOException {
         java.nio.file.Path path = baseDir.resolve(filePath);
         VersionedFile vf = new VersionedFile(path);
         int versionNumber = computeVersion(vf, version);
         java.nio.file.Path fileToReturn = vf.getPathForVersion(versionNumber);
-        Date lastModified = new Date(Files.getLastModifiedTime(fileToReturn).toMillis());
-        Response.ResponseBuilder builder = request.evaluatePreconditions(lastModified);
-        if (builder != null) {
-            return builder.lastModified(lastModified).build();
-        }
-        StreamingOutput fileStream = (java.io.OutputStream output) -> {
-            byte[] data = Files.readAllBytes(fileToReturn);
-            output.write(data);
-            output.flush();
-        };
-        return Response.ok(fileStream, MediaType.APPLICATION_OCTET_STREAM)
+        return FileDownload.response(fileToReturn, request, range, ifRange)
                 .header("content-disposition", "attachment; filename = " + path.getFileName())
                 .header("version", versionNumber)
-                .lastModified(lastModified)
                 .build();
     }
 
@@ -230,10 +272,13 @@ public class VersionedFileServer {
     @Consumes(MediaType.APPLICATION_JSON)
     public Object set(@PathParam("filePath") String filePath, int defaultVersion, @Context Request request, @Context ContainerRequestContext requestContext, @HeaderParam(PROTOCOL_VERSION_HEADER) Integer protocolVersion) throws IOException {
         java.nio.file.Path path = baseDir.resolve(filePath);
-        VersionedFile vf = new VersionedFile(path);
-        vf.setDefaultVersion(defaultVersion);
-        String changedBy = (String) requestContext.getProperty(JWTTokenNeededFilter.JWT_UID_PROPERTY);
-        vf.recordDefaultChange(defaultVersion, changedBy);
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            VersionedFile vf = new VersionedFile(path);
+            vf.setDefaultVersion(defaultVersion);
+            String changedBy = (String) requestContext.getProperty(JWTTokenNeededFilter.JWT_UID_PROPERTY);
+            vf.recordDefaultChange(defaultVersion, changedBy);
+        }
+        compactor.compactIfNeeded(path);
         return info(filePath, request, protocolVersion);
     }
 
@@ -253,65 +298,173 @@ public class VersionedFileServer {
     @Consumes(MediaType.APPLICATION_JSON)
     public Object setOptions(@PathParam("filePath") String filePath, VersionOptions options, @Context Request request, @Context ContainerRequestContext requestContext, @HeaderParam(PROTOCOL_VERSION_HEADER) Integer protocolVersion) throws IOException {
         java.nio.file.Path path = baseDir.resolve(filePath);
-        VersionedFile vf = new VersionedFile(path);
-        int version = options.getVersion();
-        if (options.getHidden() != null) {
-            vf.setHidden(version, options.getHidden());
-        }
-        if (options.getComment() != null) {
-            vf.setComment(version, options.getComment());
-        }
-        if (options.getMakeDefault() != null && options.getMakeDefault()) {
-            vf.setDefaultVersion(version);
-            String changedBy = (String) requestContext.getProperty(JWTTokenNeededFilter.JWT_UID_PROPERTY);
-            vf.recordDefaultChange(version, changedBy);
-        }
-        if (options.getSensitive() != null) {
-            // "sensitive" is a whole-file property; the version field is not consulted here.
-            vf.setSensitive(options.getSensitive());
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            VersionedFile vf = new VersionedFile(path);
+            int version = options.getVersion();
+            VersionedFile.MetaTransaction changes = vf.editMeta();
+            if (options.getHidden() != null) {
+                changes.setHidden(version, options.getHidden());
+            }
+            if (options.getComment() != null) {
+                changes.setComment(version, options.getComment());
+            }
+            if (options.getSensitive() != null) {
+                // "sensitive" is a whole-file property; the version field is not consulted here.
+                changes.setSensitive(options.getSensitive());
+            }
+            changes.commit();
+            if (options.getMakeDefault() != null && options.getMakeDefault()) {
+                vf.setDefaultVersion(version);
+                String changedBy = (String) requestContext.getProperty(JWTTokenNeededFilter.JWT_UID_PROPERTY);
+                vf.recordDefaultChange(version, changedBy);
+            }
         }
+        compactor.compactIfNeeded(path);
         return info(filePath, request, protocolVersion);
     }
 
     /**
      * Uploads content as a new version of the specified file or creates a new
      * versioned file if it does not yet exist.
+     * <p>
+     * With an {@code If-Match} header the upload is a compare-and-swap: the
+     * new version is only stored if the header matches the current latest
+     * version, by its number (for example {@code "3"}) or by the entity tag
+     * its download was sent with, otherwise the response is 412 Precondition
+     * Failed, carrying the latest version number and entity tag. The check
+     * and the write are atomic. {@code If-Match: *} only requires the
+     * versioned file to exist.
+     * <p>
+     * The file is locked from allocating the version until its comment and
+     * creator are stored, so concurrent uploads to the same file take turns,
+     * while uploads to other files carry on.
      *
      * @param filePath path to the versioned file
      * @param comment
+     * @param ifMatch the optional {@code If-Match} header
      * @param requestContext
      * @param content file bytes to store
-     * @return a map containing the new version number
+     * @return a map containing the new version number, or the 412 response
      * @throws IOException if the upload fails
      */
     @POST
     @Path("upload/{filePath: .*}")
     @JWTTokenNeeded
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
-    public Object upload(@PathParam("filePath") String filePath, @QueryParam("comment") String comment, @Context ContainerRequestContext requestContext, byte[] content) throws IOException {
+    public Object upload(@PathParam("filePath") String filePath, @QueryParam("comment") String comment,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch, @Context ContainerRequestContext requestContext, byte[] content) throws IOException {
         String creator = (String) requestContext.getProperty(JWTTokenNeededFilter.JWT_UID_PROPERTY);
         java.nio.file.Path path = baseDir.resolve(filePath);
-        if (VersionedFile.isVersionedFile(path)) {
-            VersionedFile vf = new VersionedFile(path);
-            int newVersion = vf.addVersion(content, true);
-            if (comment != null) {
-                vf.setComment(newVersion, comment);
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            if (VersionedFile.isVersionedFile(path)) {
+                VersionedFile vf = new VersionedFile(path);
+                int expectedLatest = ifMatch == null ? 0 : expectedLatest(vf, ifMatch);
+                int newVersion = expectedLatest < 0 ? -1 : vf.addVersion(content, true, expectedLatest);
+                if (newVersion < 0) {
+                    return versionConflict(filePath, vf);
+                }
+                VersionedFile.MetaTransaction changes = vf.editMeta();
+                if (comment != null) {
+                    changes.setComment(newVersion, comment);
+                }
+                if (creator != null) {
+                    changes.setCreator(newVersion, creator);
+                }
+                changes.commit();
+                compactor.compactIfNeeded(path);
+                return Collections.singletonMap("version", newVersion);
+            } else {
+                if (ifMatch != null) {
+                    return versionConflict(filePath, null);
+                }
+                VersionedFile vf = VersionedFile.create(path, content, comment, creator);
+                return Collections.singletonMap("version", vf.getLatestVersion());
             }
-            if (creator != null) {
-                vf.setCreator(newVersion, creator);
+        }
+    }
+
+    /**
+     * Uploads a new version as a {@link Delta} against an existing version,
+     * so that a small change to a large file costs little more than the
+     * change on a slow link. The content rebuilt must match the digest of
+     * the new content computed by the client, otherwise the upload fails and
+     * the client is expected to send the whole file instead. Once rebuilt the
+     * content is stored exactly as by {@link #upload}, including the
+     * {@code If-Match} check.
+     *
+     * @param filePath path to the versioned file
+     * @param base the version the delta was computed against
+     * @param sha256 the SHA-256 digest of the new content, in hex
+     * @param comment
+     * @param ifMatch the optional {@code If-Match} header
+     * @param requestContext
+     * @param delta the delta
+     * @return a map containing the new version number, or the 412 response
+     * @throws IOException if the delta cannot be applied to the base version
+     */
+    @POST
+    @Path("uploadDelta/{filePath: .*}")
+    @JWTTokenNeeded
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Object uploadDelta(@PathParam("filePath") String filePath, @QueryParam("base") int base, @QueryParam("sha256") String sha256,
+            @QueryParam("comment") String comment, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+            @Context ContainerRequestContext requestContext, byte[] delta) throws IOException {
+        java.nio.file.Path path = baseDir.resolve(filePath);
+        if (!VersionedFile.isVersionedFile(path)) {
+            throw new IOException("Not a versioned file: " + filePath);
+        }
+        if (sha256 == null) {
+            throw new IOException("Missing digest for delta upload of " + filePath);
+        }
+        VersionedFile vf = new VersionedFile(path);
+        byte[] content = Delta.apply(Files.readAllBytes(vf.getPathForVersion(base)), delta, MAX_DELTA_CONTENT_BYTES);
+        if (!sha256.equalsIgnoreCase(Delta.sha256(content))) {
+            throw new IOException("Delta for " + filePath + " does not match version " + base);
+        }
+        return upload(filePath, comment, ifMatch, requestContext, content);
+    }
+
+    /**
+     * Works out which version an {@code If-Match} header expects to be the
+     * latest. Version files never change, so the weak entity tag of a
+     * download identifies the version as well as a strong one would.
+     *
+     * @return the current latest version if a tag matches it, 0 for
+     * {@code *}, or -1 if no tag matches
+     */
+    private static int expectedLatest(VersionedFile vf, String ifMatch) throws IOException {
+        if ("*".equals(ifMatch.trim())) {
+            return 0;
+        }
+        int latest = vf.getLatestVersion();
+        BasicFileAttributes attributes = Files.readAttributes(vf.getPathForVersion(latest), BasicFileAttributes.class);
+        String eTag = FileDownload.entityTag(attributes).getValue();
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
             }
-            return Collections.singletonMap("version", newVersion);
-        } else {
-            VersionedFile vf = VersionedFile.create(path, content);
-            int newVersion = vf.getLatestVersion();
-            if (comment != null) {
-                vf.setComment(newVersion, comment);
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                tag = tag.substring(1, tag.length() - 1);
             }
-            if (creator != null) {
-                vf.setCreator(newVersion, creator);
+            if (tag.equals(String.valueOf(latest)) || tag.equals(eTag)) {
+                return latest;
             }
-            return Collections.singletonMap("version", newVersion);
         }
+        return -1;
+    }
+
+    private static Response versionConflict(String filePath, VersionedFile vf) throws IOException {
+        Response.ResponseBuilder builder = Response.status(Response.Status.PRECONDITION_FAILED).type(MediaType.TEXT_PLAIN);
+        if (vf == null) {
+            return builder.entity("Not a versioned file: " + filePath).build();
+        }
+        int latest = vf.getLatestVersion();
+        BasicFileAttributes attributes = Files.readAttributes(vf.getPathForVersion(latest), BasicFileAttributes.class);
+        return builder.entity(filePath + " has changed, its latest version is " + latest)
+                .header("version", latest)
+                .tag(FileDownload.entityTag(attributes))
+                .build();
     }
 
     /**
@@ -326,8 +479,9 @@ public class VersionedFileServer {
     @Path("deleteFile/{filePath: .*}")
     public Response deleteFile(@PathParam("filePath") String filePath) throws IOException {
         java.nio.file.Path path = baseDir.resolve(filePath);
-        VersionedFile vf = new VersionedFile(path);
-        vf.delete();
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            new VersionedFile(path).delete();
+        }
         return Response.ok().build();
     }
 
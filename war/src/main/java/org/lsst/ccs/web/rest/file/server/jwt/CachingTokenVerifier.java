@@ -0,0 +1,102 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the tokens another verifier has accepted, so that a client which
+ * makes many changes with the same token has it checked once. Entries are
+ * kept by the SHA-256 of the token rather than the token itself, until the
+ * token expires or for at most the maximum age, whichever comes first. The
+ * least recently used entry is dropped when the cache is full. Rejected
+ * tokens are not remembered.
+ */
+public class CachingTokenVerifier implements TokenVerifier {
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+    private final TokenVerifier delegate;
+    private final Duration maxAge;
+    private final Clock clock;
+    private final Map<String, Entry> cache;
+
+    /**
+     * Creates a cache with the default size and maximum age.
+     *
+     * @param delegate the verifier which checks tokens not in the cache
+     */
+    public CachingTokenVerifier(TokenVerifier delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE, Clock.systemUTC());
+    }
+
+    CachingTokenVerifier(TokenVerifier delegate, int maxEntries, Duration maxAge, Clock clock) {
+        this.delegate = delegate;
+        this.maxAge = maxAge;
+        this.clock = clock;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public VerifiedToken verify(String token) throws IOException {
+        String key = hash(token);
+        Instant now = clock.instant();
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                if (now.isBefore(entry.validUntil)) {
+                    return entry.token;
+                }
+                cache.remove(key);
+            }
+        }
+        VerifiedToken verified = delegate.verify(token);
+        Instant validUntil = now.plus(maxAge);
+        if (verified.getExpiry() != null && verified.getExpiry().isBefore(validUntil)) {
+            validUntil = verified.getExpiry();
+        }
+        synchronized (cache) {
+            cache.put(key, new Entry(verified, validUntil));
+        }
+        return verified;
+    }
+
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException("SHA-256 not available", x);
+        }
+    }
+
+    private static class Entry {
+
+        private final VerifiedToken token;
+        private final Instant validUntil;
+
+        Entry(VerifiedToken token, Instant validUntil) {
+            this.token = token;
+            this.validUntil = validUntil;
+        }
+    }
+}
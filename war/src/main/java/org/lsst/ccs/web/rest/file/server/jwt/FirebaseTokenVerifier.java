@@ -0,0 +1,51 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Verifies Firebase ID tokens. Firebase is initialized with the application
+ * default Google credentials on the first token, rather than when the server
+ * starts, so a server which is never written to does not need them.
+ */
+public class FirebaseTokenVerifier implements TokenVerifier {
+
+    private volatile FirebaseAuth auth;
+
+    @Override
+    public VerifiedToken verify(String token) throws IOException {
+        try {
+            FirebaseToken decoded = auth().verifyIdToken(token);
+            Object exp = decoded.getClaims().get("exp");
+            Instant expiry = exp instanceof Number ? Instant.ofEpochSecond(((Number) exp).longValue()) : null;
+            return new VerifiedToken(decoded.getUid(), decoded.getEmail(), decoded.getName(), expiry);
+        } catch (FirebaseAuthException | IllegalArgumentException x) {
+            throw new InvalidTokenException("Invalid token: " + x.getMessage(), x);
+        }
+    }
+
+    private FirebaseAuth auth() throws IOException {
+        FirebaseAuth result = auth;
+        if (result == null) {
+            synchronized (this) {
+                if (auth == null) {
+                    if (FirebaseApp.getApps().isEmpty()) {
+                        FirebaseOptions options = FirebaseOptions.builder()
+                                .setCredentials(GoogleCredentials.getApplicationDefault())
+                                .build();
+                        FirebaseApp.initializeApp(options);
+                    }
+                    auth = FirebaseAuth.getInstance();
+                }
+                result = auth;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link TokenVerifier} when a token is malformed, has a bad
+ * signature or has expired, as opposed to when it could not be checked.
+ */
+public class InvalidTokenException extends IOException {
+
+    public InvalidTokenException(String message) {
+        super(message);
+    }
+
+    public InvalidTokenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,13 +1,11 @@
 package org.lsst.ccs.web.rest.file.server.jwt;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import javax.annotation.Priority;
+import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Priorities;
 import javax.ws.rs.container.ContainerRequestContext;
@@ -21,7 +19,8 @@ import javax.ws.rs.ext.Provider;
  * {@link ContainerRequestFilter} that enforces JWT authentication for
  * resources annotated with {@link JWTTokenNeeded}. The filter optionally
  * restricts access to a set of allowed IP addresses supplied via the
- * {@code CCS_REST_ALLOWED_IPS} environment variable.
+ * {@code CCS_REST_ALLOWED_IPS} environment variable. Tokens are checked by
+ * the {@link TokenVerifier} bound by the application.
  *
  * @author tonyj
  */
@@ -32,6 +31,9 @@ public class JWTTokenNeededFilter implements ContainerRequestFilter {
     
     @Context
     private HttpServletRequest httpServletRequest;
+
+    @Inject
+    private TokenVerifier verifier;
     
     public static final String JWT_UID_PROPERTY = "jwt.uid";
 
@@ -41,7 +43,9 @@ public class JWTTokenNeededFilter implements ContainerRequestFilter {
     /**
      * Validates the JWT token and optional client IP address present in the
      * current request. If validation fails the request is aborted with
-     * {@link Response.Status#UNAUTHORIZED}.
+     * {@link Response.Status#UNAUTHORIZED}, or with
+     * {@link Response.Status#SERVICE_UNAVAILABLE} if the token could not be
+     * checked.
      *
      * @param requestContext context for the incoming request
      * @throws IOException if an error occurs during verification
@@ -67,25 +71,22 @@ public class JWTTokenNeededFilter implements ContainerRequestFilter {
 
         // Get the HTTP Authorization header from the request
         String authorizationHeader = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
-        if (authorizationHeader == null) {
+        if (authorizationHeader == null || !authorizationHeader.regionMatches(true, 0, "Bearer ", 0, 7)) {
             requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
         } else {
             // Extract the token from the HTTP Authorization header
             String token = authorizationHeader.substring("Bearer".length()).trim();
 
             try {
-                // Validate the token
-                System.out.println("Got token " + token);
-                System.out.println(" from "+httpServletRequest.getRemoteAddr());
-                FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(token);
-                String uid = decodedToken.getUid();
-                System.out.println("Got uid " + uid);
-                String email = decodedToken.getEmail();
-                String name = decodedToken.getName();
-                String creator = email != null ? email : (name != null ? name : uid);
-                requestContext.setProperty(JWT_UID_PROPERTY, creator);
-            } catch (FirebaseAuthException e) {
+                VerifiedToken verified = verifier.verify(token);
+                LOG.log(Level.FINE, "Accepted token for {0}", verified.getCreator());
+                requestContext.setProperty(JWT_UID_PROPERTY, verified.getCreator());
+            } catch (InvalidTokenException x) {
+                LOG.log(Level.FINE, "Rejected token: {0}", x.getMessage());
                 requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "Unable to verify token", x);
+                requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
             }
         }
     }
@@ -0,0 +1,192 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies signed JWTs without calling out to an identity provider, for tests
+ * and for networks which cannot reach Firebase. Tokens signed with HS256 are
+ * checked against a shared secret, and tokens signed with RS256 against the
+ * RSA keys of a JSON Web Key Set, chosen by the {@code kid} of the token.
+ * <p>
+ * A token must carry a {@code sub} and an {@code exp} claim, and is accepted
+ * up to {@value #CLOCK_SKEW_SECONDS} seconds either side of its {@code nbf}
+ * and {@code exp}.
+ */
+public class LocalTokenVerifier implements TokenVerifier {
+
+    static final long CLOCK_SKEW_SECONDS = 60;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final byte[] secret;
+    private final Map<String, PublicKey> keys;
+    private final Clock clock;
+
+    LocalTokenVerifier(byte[] secret, Map<String, PublicKey> keys, Clock clock) {
+        this.secret = secret == null ? null : secret.clone();
+        this.keys = Collections.unmodifiableMap(new HashMap<>(keys));
+        this.clock = clock;
+    }
+
+    /**
+     * Creates a verifier for tokens signed with HS256.
+     *
+     * @param secret the shared secret
+     * @return the verifier
+     */
+    public static LocalTokenVerifier hmac(byte[] secret) {
+        return new LocalTokenVerifier(secret, Collections.emptyMap(), Clock.systemUTC());
+    }
+
+    /**
+     * Creates a verifier for the keys of a JSON Web Key Set. Keys of type
+     * {@code RSA} verify RS256 tokens, and a key of type {@code oct} HS256
+     * tokens. Keys of other types are ignored.
+     *
+     * @param location the key set, as a file or http(s) URI
+     * @return the verifier
+     * @throws IOException if the key set cannot be read or holds no usable
+     * key
+     */
+    public static LocalTokenVerifier jwks(URI location) throws IOException {
+        try (InputStream in = location.toURL().openStream()) {
+            return jwks(in);
+        }
+    }
+
+    /**
+     * Creates a verifier for the keys of a JSON Web Key Set.
+     *
+     * @param in the key set
+     * @return the verifier
+     * @throws IOException if the key set cannot be read or holds no usable
+     * key
+     * @see #jwks(java.net.URI)
+     */
+    public static LocalTokenVerifier jwks(InputStream in) throws IOException {
+        JsonNode set = MAPPER.readTree(in);
+        byte[] secret = null;
+        Map<String, PublicKey> keys = new HashMap<>();
+        try {
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            for (JsonNode key : set.path("keys")) {
+                String type = key.path("kty").asText();
+                if ("RSA".equals(type)) {
+                    BigInteger modulus = new BigInteger(1, decode(key.path("n").asText()));
+                    BigInteger exponent = new BigInteger(1, decode(key.path("e").asText()));
+                    keys.put(key.path("kid").asText(""), factory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+                } else if ("oct".equals(type)) {
+                    secret = decode(key.path("k").asText());
+                }
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException x) {
+            throw new IOException("Invalid key set", x);
+        }
+        if (secret == null && keys.isEmpty()) {
+            throw new IOException("Key set has no RSA or oct keys");
+        }
+        return new LocalTokenVerifier(secret, keys, Clock.systemUTC());
+    }
+
+    @Override
+    public VerifiedToken verify(String token) throws IOException {
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 3) {
+            throw new InvalidTokenException("Malformed token");
+        }
+        JsonNode header = parse(parts[0]);
+        JsonNode claims = parse(parts[1]);
+        byte[] signature = decodeToken(parts[2]);
+        byte[] signed = (parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII);
+        String algorithm = header.path("alg").asText();
+        try {
+            boolean valid;
+            if ("HS256".equals(algorithm) && secret != null) {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+                valid = MessageDigest.isEqual(mac.doFinal(signed), signature);
+            } else if ("RS256".equals(algorithm) && !keys.isEmpty()) {
+                PublicKey key = keys.size() == 1 && !header.has("kid")
+                        ? keys.values().iterator().next() : keys.get(header.path("kid").asText());
+                if (key == null) {
+                    throw new InvalidTokenException("Unknown key " + header.path("kid").asText());
+                }
+                Signature verifier = Signature.getInstance("SHA256withRSA");
+                verifier.initVerify(key);
+                verifier.update(signed);
+                valid = verifier.verify(signature);
+            } else {
+                throw new InvalidTokenException("Unsupported algorithm " + algorithm);
+            }
+            if (!valid) {
+                throw new InvalidTokenException("Invalid signature");
+            }
+        } catch (GeneralSecurityException x) {
+            throw new InvalidTokenException("Unable to check signature", x);
+        }
+        long now = clock.instant().getEpochSecond();
+        if (!claims.path("exp").canConvertToLong()) {
+            throw new InvalidTokenException("Token has no expiry");
+        }
+        long expiry = claims.get("exp").asLong();
+        if (now > expiry + CLOCK_SKEW_SECONDS) {
+            throw new InvalidTokenException("Token expired");
+        }
+        if (claims.has("nbf") && now + CLOCK_SKEW_SECONDS < claims.get("nbf").asLong()) {
+            throw new InvalidTokenException("Token not yet valid");
+        }
+        String subject = text(claims, "sub");
+        if (subject == null) {
+            throw new InvalidTokenException("Token has no subject");
+        }
+        return new VerifiedToken(subject, text(claims, "email"), text(claims, "name"), Instant.ofEpochSecond(expiry));
+    }
+
+    private static JsonNode parse(String part) throws InvalidTokenException {
+        try {
+            JsonNode node = MAPPER.readTree(decodeToken(part));
+            if (node == null || !node.isObject()) {
+                throw new InvalidTokenException("Malformed token");
+            }
+            return node;
+        } catch (IOException x) {
+            throw new InvalidTokenException("Malformed token", x);
+        }
+    }
+
+    private static byte[] decodeToken(String part) throws InvalidTokenException {
+        try {
+            return decode(part);
+        } catch (IllegalArgumentException x) {
+            throw new InvalidTokenException("Malformed token", x);
+        }
+    }
+
+    private static byte[] decode(String base64url) {
+        return Base64.getUrlDecoder().decode(base64url);
+    }
+
+    private static String text(JsonNode claims, String name) {
+        JsonNode value = claims.get(name);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+}
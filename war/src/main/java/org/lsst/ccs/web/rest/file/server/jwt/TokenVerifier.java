@@ -0,0 +1,24 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import java.io.IOException;
+
+/**
+ * Checks the bearer tokens of requests to resources marked
+ * {@link JWTTokenNeeded}. Implementations must be thread safe.
+ *
+ * @see FirebaseTokenVerifier
+ * @see LocalTokenVerifier
+ * @see CachingTokenVerifier
+ */
+public interface TokenVerifier {
+
+    /**
+     * Verifies a token.
+     *
+     * @param token the token, without the {@code Bearer} prefix
+     * @return the identity it carries
+     * @throws InvalidTokenException if the token is not valid
+     * @throws IOException if the token could not be checked
+     */
+    VerifiedToken verify(String token) throws IOException;
+}
@@ -0,0 +1,53 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import java.time.Instant;
+
+/**
+ * The identity carried by a token which a {@link TokenVerifier} accepted.
+ */
+public final class VerifiedToken {
+
+    private final String subject;
+    private final String email;
+    private final String name;
+    private final Instant expiry;
+
+    /**
+     * @param subject the user id
+     * @param email the user's email address, or {@code null}
+     * @param name the user's name, or {@code null}
+     * @param expiry when the token expires, or {@code null} if it does not
+     */
+    public VerifiedToken(String subject, String email, String name, Instant expiry) {
+        this.subject = subject;
+        this.email = email;
+        this.name = name;
+        this.expiry = expiry;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Instant getExpiry() {
+        return expiry;
+    }
+
+    /**
+     * The name recorded as the creator of versions uploaded with this token:
+     * the email address, or else the name, or else the user id.
+     *
+     * @return the creator
+     */
+    public String getCreator() {
+        return email != null ? email : (name != null ? name : subject);
+    }
+}
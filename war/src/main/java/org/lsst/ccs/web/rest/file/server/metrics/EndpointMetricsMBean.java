@@ -0,0 +1,32 @@
+package org.lsst.ccs.web.rest.file.server.metrics;
+
+/**
+ * Management interface for the metrics of one resource method, registered as
+ * {@code org.lsst.ccs.rest.file.server:type=Endpoint,name="<HTTP method> <path>"}.
+ */
+public interface EndpointMetricsMBean {
+
+    /** @return requests completed */
+    long getRequests();
+
+    /** @return requests being handled now */
+    int getInFlight();
+
+    /** @return requests answered with a status of 400 or more */
+    long getErrors();
+
+    /** @return request body bytes received */
+    long getBytesIn();
+
+    /** @return response body bytes sent */
+    long getBytesOut();
+
+    /** @return mean time to handle a request and send its response, in milliseconds */
+    double getMeanMillis();
+
+    /** @return upper bound of the histogram bucket holding the 99th percentile, in milliseconds */
+    double getPercentile99Millis();
+
+    /** Clears the counters, except for requests in flight. */
+    void reset();
+}
@@ -0,0 +1,30 @@
+package org.lsst.ccs.web.rest.file.server.metrics;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * REST resource publishing the server's {@link RequestMetrics} for
+ * Prometheus to scrape.
+ */
+@Path("metrics")
+public class MetricsServer {
+
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Inject
+    private RequestMetrics metrics;
+
+    /**
+     * Returns the request metrics.
+     *
+     * @return the metrics in Prometheus text format
+     */
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public String metrics() {
+        return metrics.toPrometheus();
+    }
+}
@@ -0,0 +1,277 @@
+package org.lsst.ccs.web.rest.file.server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+/**
+ * Request metrics for the server, kept per resource method by
+ * {@link RequestMetricsFilter}: a latency histogram, counts of each response
+ * status, bytes received and sent, and requests in flight. Every counter is a
+ * {@link LongAdder} or atomic, so recording a request takes no lock.
+ * <p>
+ * The metrics are published by {@link MetricsServer} at {@code rest/metrics}
+ * and as one MBean per resource method, from the first request for it until
+ * the application is shut down. Not every container tells the application
+ * it has started, so publishing does not wait for that.
+ */
+public class RequestMetrics implements ContainerLifecycleListener {
+
+    private static final Logger LOG = Logger.getLogger(RequestMetrics.class.getName());
+    static final String DOMAIN = "org.lsst.ccs.rest.file.server";
+    static final String PREFIX = "rest_file_server_";
+    // Upper bounds of the latency buckets, in seconds
+    static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private volatile boolean publishing = true;
+
+    /**
+     * Gets the metrics of a resource method, creating them the first time it
+     * is called.
+     *
+     * @param name the name of the resource method, for example
+     * {@code GET download}
+     * @return the metrics
+     */
+    Endpoint endpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            endpoint = endpoints.computeIfAbsent(name, Endpoint::new);
+            if (publishing) {
+                endpoint.register();
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics
+     */
+    public String toPrometheus() {
+        Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+        StringBuilder out = new StringBuilder();
+        header(out, "request_duration_seconds", "histogram", "Time to handle a request and send its response.");
+        for (Endpoint endpoint : sorted.values()) {
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                cumulative += endpoint.buckets[i].sum();
+                String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+                out.append(PREFIX).append("request_duration_seconds_bucket{endpoint=\"").append(endpoint.name)
+                        .append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sample(out, "request_duration_seconds_sum", endpoint, endpoint.nanos.sum() / 1e9);
+            sample(out, "request_duration_seconds_count", endpoint, cumulative);
+        }
+        header(out, "responses_total", "counter", "Responses sent, by status.");
+        for (Endpoint endpoint : sorted.values()) {
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(endpoint.statuses).entrySet()) {
+                out.append(PREFIX).append("responses_total{endpoint=\"").append(endpoint.name)
+                        .append("\",status=\"").append(status.getKey()).append("\"} ").append(status.getValue().sum()).append('\n');
+            }
+        }
+        header(out, "received_bytes_total", "counter", "Request body bytes received.");
+        for (Endpoint endpoint : sorted.values()) {
+            sample(out, "received_bytes_total", endpoint, endpoint.bytesIn.sum());
+        }
+        header(out, "sent_bytes_total", "counter", "Response body bytes sent.");
+        for (Endpoint endpoint : sorted.values()) {
+            sample(out, "sent_bytes_total", endpoint, endpoint.bytesOut.sum());
+        }
+        header(out, "requests_in_flight", "gauge", "Requests being handled.");
+        for (Endpoint endpoint : sorted.values()) {
+            sample(out, "requests_in_flight", endpoint, endpoint.inFlight.get());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, Endpoint endpoint, Number value) {
+        out.append(PREFIX).append(name).append("{endpoint=\"").append(endpoint.name).append("\"} ").append(value).append('\n');
+    }
+
+    @Override
+    public void onStartup(Container container) {
+        publishing = true;
+        endpoints.values().forEach(Endpoint::register);
+    }
+
+    @Override
+    public void onReload(Container container) {
+    }
+
+    @Override
+    public void onShutdown(Container container) {
+        publishing = false;
+        endpoints.values().forEach(Endpoint::unregister);
+    }
+
+    /**
+     * The metrics of one resource method.
+     */
+    static class Endpoint implements EndpointMetricsMBean {
+
+        private final String name;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private ObjectName objectName;
+
+        Endpoint(String name) {
+            this.name = name;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void started() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * Records a request which has been answered.
+         *
+         * @param status the response status
+         * @param elapsedNanos the time from the start of the request to the
+         * end of its response
+         * @param received the request body bytes read
+         * @param sent the response body bytes written
+         */
+        void finished(int status, long elapsedNanos, long received, long sent) {
+            inFlight.decrementAndGet();
+            double seconds = elapsedNanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            nanos.add(elapsedNanos);
+            bytesIn.add(received);
+            bytesOut.add(sent);
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            if (status >= 400) {
+                errors.increment();
+            }
+        }
+
+        @Override
+        public long getRequests() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long count = getRequests();
+            return count == 0 ? 0 : nanos.sum() / 1e6 / count;
+        }
+
+        @Override
+        public double getPercentile99Millis() {
+            long count = getRequests();
+            if (count == 0) {
+                return 0;
+            }
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                if (cumulative >= 0.99 * count) {
+                    return BUCKETS[i] * 1000;
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public void reset() {
+            for (LongAdder adder : buckets) {
+                adder.reset();
+            }
+            for (LongAdder adder : new LongAdder[]{nanos, bytesIn, bytesOut, errors}) {
+                adder.reset();
+            }
+            statuses.clear();
+        }
+
+        /**
+         * Publishes these metrics over JMX. A registration left by another
+         * server in the same JVM is replaced.
+         */
+        synchronized void register() {
+            if (objectName != null) {
+                return;
+            }
+            try {
+                ObjectName candidate = new ObjectName(DOMAIN + ":type=Endpoint,name=" + ObjectName.quote(name));
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                StandardMBean mbean = new StandardMBean(this, EndpointMetricsMBean.class);
+                try {
+                    server.registerMBean(mbean, candidate);
+                } catch (InstanceAlreadyExistsException x) {
+                    server.unregisterMBean(candidate);
+                    server.registerMBean(mbean, candidate);
+                }
+                objectName = candidate;
+            } catch (JMException x) {
+                LOG.log(Level.WARNING, "Unable to register metrics for " + name, x);
+            }
+        }
+
+        synchronized void unregister() {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException x) {
+                    LOG.log(Level.FINE, "Unable to unregister metrics for " + name, x);
+                }
+                objectName = null;
+            }
+        }
+    }
+}
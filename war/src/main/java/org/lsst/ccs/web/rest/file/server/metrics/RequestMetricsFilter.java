@@ -0,0 +1,220 @@
+package org.lsst.ccs.web.rest.file.server.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * Records every request matched to a resource method in
+ * {@link RequestMetrics}, under the HTTP method and the fixed part of the
+ * resource path, such as {@code GET version/download}. The request filter
+ * runs before authentication, so requests refused by it are counted too. A
+ * response with a body is recorded when the container closes the body after
+ * writing it, so that the time and bytes of a streamed download are
+ * included. A request whose response filter never runs or whose body is never
+ * closed, for example because the resource method throws an exception no
+ * mapper handles or the client goes away, is recorded by {@link Listener} when
+ * Jersey finishes with it, so it does not stay in flight.
+ */
+@Provider
+@Priority(1)
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String RECORDER = RequestMetricsFilter.class.getName() + ".recorder";
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    private final ConcurrentMap<Method, String> paths = new ConcurrentHashMap<>();
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (resourceInfo.getResourceMethod() == null) {
+            return;
+        }
+        String path = paths.computeIfAbsent(resourceInfo.getResourceMethod(), method -> path(resourceInfo.getResourceClass(), method));
+        RequestMetrics.Endpoint endpoint = metrics.endpoint(requestContext.getMethod() + " " + path);
+        CountingInputStream received = null;
+        if (requestContext.hasEntity()) {
+            received = new CountingInputStream(requestContext.getEntityStream());
+            requestContext.setEntityStream(received);
+        }
+        endpoint.started();
+        requestContext.setProperty(RECORDER, new Recorder(endpoint, System.nanoTime(), received));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        Object recorder = requestContext.getProperty(RECORDER);
+        if (!(recorder instanceof Recorder)) {
+            return;
+        }
+        Recorder requestRecorder = (Recorder) recorder;
+        requestRecorder.status = responseContext.getStatus();
+        if (responseContext.hasEntity()) {
+            responseContext.setEntityStream(new CountingOutputStream(responseContext.getEntityStream(), requestRecorder));
+        } else {
+            requestRecorder.record();
+        }
+    }
+
+    /**
+     * Records a request when Jersey has finished with it, unless it has
+     * already been recorded. Its status is taken to be 500 if the response
+     * filter never ran.
+     */
+    public static class Listener implements ApplicationEventListener {
+
+        private static final RequestEventListener FINISHED = event -> {
+            if (event.getType() == RequestEvent.Type.FINISHED) {
+                Object recorder = event.getContainerRequest().getProperty(RECORDER);
+                if (recorder instanceof Recorder) {
+                    ((Recorder) recorder).record();
+                }
+            }
+        };
+
+        @Override
+        public void onEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return FINISHED;
+        }
+    }
+
+    /**
+     * Works out the path of a resource method up to its first parameter,
+     * for example {@code version/download} for
+     * {@code version/download/{filePath: .*}}.
+     */
+    static String path(Class<?> resourceClass, Method method) {
+        StringBuilder result = new StringBuilder();
+        for (Path path : new Path[]{resourceClass.getAnnotation(Path.class), method.getAnnotation(Path.class)}) {
+            if (path != null) {
+                result.append('/').append(path.value());
+            }
+        }
+        int parameter = result.indexOf("{");
+        if (parameter >= 0) {
+            result.setLength(parameter);
+        }
+        String fixed = result.toString().replaceAll("/+", "/").replaceAll("^/|/$", "");
+        return fixed.isEmpty() ? method.getName() : fixed;
+    }
+
+    /**
+     * Records a request once, however often its body is closed and whether
+     * or not Jersey has already finished with it.
+     */
+    private static class Recorder {
+
+        private final RequestMetrics.Endpoint endpoint;
+        private final long start;
+        private final CountingInputStream received;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private volatile int status = 500;
+        private volatile long sent;
+
+        Recorder(RequestMetrics.Endpoint endpoint, long start, CountingInputStream received) {
+            this.endpoint = endpoint;
+            this.start = start;
+            this.received = received;
+        }
+
+        void record() {
+            if (recorded.compareAndSet(false, true)) {
+                endpoint.finished(status, System.nanoTime() - start, received == null ? 0 : received.count, sent);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final Recorder recorder;
+
+        CountingOutputStream(OutputStream out, Recorder recorder) {
+            super(out);
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            recorder.sent++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            recorder.sent += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                recorder.record();
+            }
+        }
+    }
+}
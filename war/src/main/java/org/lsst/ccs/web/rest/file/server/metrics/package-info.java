@@ -0,0 +1,5 @@
+/**
+ * Per endpoint request metrics, published in Prometheus text format and
+ * over JMX.
+ */
+package org.lsst.ccs.web.rest.file.server.metrics;
@@ -2,66 +2,374 @@ package org.lsst.ccs.web.rest.file.server.standalone;
 
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
-import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.jdkhttp.JdkHttpHandlerContainer;
+import org.glassfish.jersey.server.ContainerFactory;
 import org.lsst.ccs.web.rest.file.server.MyConfiguration;
 
 /**
- * Standalone launcher for the REST file server using the JDK HTTP server.
- * It bootstraps {@link MyConfiguration} and exposes the application on a
- * local port for development or testing purposes.
+ * Standalone launcher for the REST file server, used for development and for
+ * lab deployments which do not run the war. It bootstraps
+ * {@link MyConfiguration} and exposes the application on a local port, in
+ * either the JDK HTTP server or Grizzly.
+ * <p>
+ * Left to itself the JDK server handles every request on its dispatcher
+ * thread, so one slow download stalls all other clients. The launcher
+ * therefore always gives it an executor: a fixed pool of platform threads,
+ * or a virtual thread per request. Grizzly reads and writes connections
+ * with non-blocking selectors and only hands complete requests to the same
+ * executor, and keeps connections alive for any number of requests, so it
+ * is the better choice for hundreds of concurrent clients.
  *
  * @author tonyj
  */
 public class Main {
 
+    private static final Logger LOG = Logger.getLogger(Main.class.getName());
+
     private final URI serverURI;
-    private final HttpServer httpServer;
+    private final EmbeddedServer server;
+    private final ExecutorService executor;
 
     /**
      * Starts the server from the command line.
      *
-     * @param args command line arguments (ignored)
+     * @param args command line arguments, see {@link Settings#USAGE}
      * @throws IOException if the server cannot be started
      * @throws URISyntaxException if the server URI is invalid
      */
     public static void main(String[] args) throws IOException, URISyntaxException {
-        Main main = new Main();
+        Settings settings;
+        try {
+            settings = Settings.parse(args);
+        } catch (IllegalArgumentException x) {
+            System.err.println(x.getMessage());
+            System.err.println(Settings.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (settings.help) {
+            System.out.println(Settings.USAGE);
+            return;
+        }
+        Main main = new Main(settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(main::stop));
         main.run();
     }
 
     /**
-     * Creates a new instance configured to serve files from a temporary
-     * directory on a fixed local port.
+     * Creates a new instance serving files from the given base directory,
+     * which is created if needed.
      *
-     * @throws IOException if the file system cannot be prepared
+     * @param settings the port, base directory, container and threading to
+     * use
+     * @throws IOException if the file system cannot be prepared or the port
+     * cannot be bound
      * @throws URISyntaxException if the base URI is invalid
      */
-    Main() throws IOException, URISyntaxException {
-        Path root = Paths.get("configFiles");
-        Files.createDirectory(root);
-        int port = 8899;
-        serverURI = new URI("http://localhost:" + port + "/");
-        MyConfiguration rc = new MyConfiguration();
+    Main(Settings settings) throws IOException, URISyntaxException {
+        Path root = settings.baseDir;
+        Files.createDirectories(root);
+        serverURI = new URI("http://localhost:" + settings.port + "/");
+        MyConfiguration rc = new MyConfiguration(settings.skipAuthentication);
         rc.register(new AbstractBinder() {
             @Override
             protected void configure() {
                 bind(root).to(Path.class);
             }
         });
-        httpServer = JdkHttpServerFactory.createHttpServer(serverURI.resolve("rest"), rc, false);
+        executor = settings.newExecutor();
+        URI restURI = serverURI.resolve("rest");
+        server = settings.container == ContainerType.GRIZZLY
+                ? new GrizzlyServer(restURI, rc, executor, settings.backlog)
+                : new JdkServer(restURI, rc, executor, settings.backlog);
     }
 
     /**
      * Starts the underlying HTTP server.
+     *
+     * @throws IOException if the server cannot listen on its port
+     */
+    void run() throws IOException {
+        server.start();
+        System.out.println("Config file server running at " + serverURI + " in " + server);
+    }
+
+    /**
+     * Stops the server. The server lets exchanges under way finish for up to
+     * a second, and requests still running on the executor are then given up
+     * to five seconds before they are interrupted.
+     */
+    void stop() {
+        server.stop();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    URI getServerURI() {
+        return serverURI;
+    }
+
+    /**
+     * The embedded HTTP server the application runs in.
      */
-    private void run() {
-        httpServer.start();
-        System.out.println("Config file server running at " + serverURI);
+    enum ContainerType {
+        /** The HTTP server built into the JDK. */
+        JDK,
+        /** Grizzly, through Jersey's Grizzly container. */
+        GRIZZLY
+    }
+
+    /**
+     * How requests are run.
+     */
+    enum ExecutorType {
+        /** A fixed pool of platform threads. */
+        PLATFORM,
+        /** A new virtual thread for each request, Java 21 and later. */
+        VIRTUAL
+    }
+
+    /**
+     * Settings taken from the command line.
+     */
+    static class Settings {
+
+        static final String USAGE = "Usage: Main [--port <port>] [--baseDir <directory>] [--backlog <connections>]"
+                + " [--threads <count>] [--executor platform|virtual] [--container jdk|grizzly] [--skipAuthentication]\n"
+                + "  --port      port to listen on (default 8899)\n"
+                + "  --baseDir   directory holding the files served (default configFiles)\n"
+                + "  --backlog   connections waiting to be accepted, 0 for the system default (default 0)\n"
+                + "  --threads   size of the platform thread pool (default twice the number of processors)\n"
+                + "  --executor  platform for a thread pool, virtual for a virtual thread per request (default platform)\n"
+                + "  --container jdk for the JDK HTTP server, grizzly for Grizzly (default jdk)\n"
+                + "  --skipAuthentication  do not require tokens for changes, for local testing";
+
+        int port = 8899;
+        Path baseDir = Paths.get("configFiles");
+        int backlog = 0;
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        ExecutorType executor = ExecutorType.PLATFORM;
+        ContainerType container = ContainerType.JDK;
+        boolean skipAuthentication;
+        boolean help;
+
+        /**
+         * Parses command line arguments, given as {@code --name value} or
+         * {@code --name=value}.
+         *
+         * @param args the arguments
+         * @return the settings
+         * @throws IllegalArgumentException if an argument is not recognized or
+         * its value is invalid
+         */
+        static Settings parse(String[] args) {
+            Settings settings = new Settings();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                String value = null;
+                int equals = name.indexOf('=');
+                if (equals > 0) {
+                    value = name.substring(equals + 1);
+                    name = name.substring(0, equals);
+                }
+                if ("--help".equals(name) || "-h".equals(name)) {
+                    settings.help = true;
+                    continue;
+                }
+                if ("--skipAuthentication".equals(name)) {
+                    settings.skipAuthentication = true;
+                    continue;
+                }
+                if (value == null) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Missing value for " + name);
+                    }
+                    value = args[++i];
+                }
+                switch (name) {
+                    case "--port":
+                        settings.port = parseInt(name, value, 0);
+                        break;
+                    case "--baseDir":
+                        settings.baseDir = Paths.get(value);
+                        break;
+                    case "--backlog":
+                        settings.backlog = parseInt(name, value, 0);
+                        break;
+                    case "--threads":
+                        settings.threads = parseInt(name, value, 1);
+                        break;
+                    case "--executor":
+                        try {
+                            settings.executor = ExecutorType.valueOf(value.toUpperCase());
+                        } catch (IllegalArgumentException x) {
+                            throw new IllegalArgumentException("Invalid value for --executor: " + value);
+                        }
+                        break;
+                    case "--container":
+                        try {
+                            settings.container = ContainerType.valueOf(value.toUpperCase());
+                        } catch (IllegalArgumentException x) {
+                            throw new IllegalArgumentException("Invalid value for --container: " + value);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            return settings;
+        }
+
+        private static int parseInt(String name, String value, int min) {
+            try {
+                int result = Integer.parseInt(value);
+                if (result >= min) {
+                    return result;
+                }
+            } catch (NumberFormatException x) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+
+        /**
+         * Creates the executor requests are run on.
+         *
+         * @return the executor
+         * @throws IllegalStateException if virtual threads are asked for but
+         * the JVM does not have them
+         */
+        ExecutorService newExecutor() {
+            if (executor == ExecutorType.VIRTUAL) {
+                // Looked up at run time, so that the server still builds for
+                // and runs on Java 17.
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException x) {
+                    throw new IllegalStateException("Virtual threads need Java 21 or later", x);
+                }
+            }
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(runnable, "rest-file-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            LOG.log(Level.FINE, "Running requests on {0} platform threads", threads);
+            return Executors.newFixedThreadPool(threads, factory);
+        }
+    }
+
+    private interface EmbeddedServer {
+
+        void start() throws IOException;
+
+        void stop();
+    }
+
+    /**
+     * The JDK HTTP server. {@code JdkHttpServerFactory} always binds with the
+     * default backlog, so the server is put together here instead, and the
+     * container is told when the server starts and stops as the factory
+     * would, so that the application's lifecycle listeners run.
+     */
+    private static class JdkServer implements EmbeddedServer {
+
+        private final HttpServer httpServer;
+        private final JdkHttpHandlerContainer container;
+
+        JdkServer(URI uri, MyConfiguration rc, ExecutorService executor, int backlog) throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress(uri.getPort()), backlog);
+            httpServer.setExecutor(executor);
+            container = ContainerFactory.createContainer(JdkHttpHandlerContainer.class, rc);
+            httpServer.createContext(uri.getPath(), container);
+        }
+
+        @Override
+        public void start() {
+            httpServer.start();
+            container.onServerStart();
+        }
+
+        @Override
+        public void stop() {
+            httpServer.stop(1);
+            container.onServerStop();
+        }
+
+        @Override
+        public String toString() {
+            return "JDK HTTP server";
+        }
+    }
+
+    /**
+     * Grizzly, with requests run on the launcher's executor rather than
+     * Grizzly's own worker pool.
+     */
+    private static class GrizzlyServer implements EmbeddedServer {
+
+        private final org.glassfish.grizzly.http.server.HttpServer httpServer;
+
+        GrizzlyServer(URI uri, MyConfiguration rc, ExecutorService executor, int backlog) {
+            httpServer = GrizzlyHttpServerFactory.createHttpServer(uri, rc, false);
+            for (NetworkListener listener : httpServer.getListeners()) {
+                TCPNIOTransport transport = listener.getTransport();
+                transport.setWorkerThreadPool(executor);
+                if (backlog > 0) {
+                    transport.setServerConnectionBackLog(backlog);
+                }
+                // Agents poll the server; let them keep their connections.
+                listener.getKeepAlive().setMaxRequestsCount(-1);
+            }
+        }
+
+        @Override
+        public void start() throws IOException {
+            httpServer.start();
+        }
+
+        @Override
+        public void stop() {
+            // Wait for the grace period to end, as the JDK server's stop does,
+            // so that requests under way are not cut off by the executor shutting down.
+            try {
+                httpServer.shutdown(1, TimeUnit.SECONDS).get();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                httpServer.shutdownNow();
+            } catch (ExecutionException x) {
+                LOG.log(Level.WARNING, "Grizzly did not shut down cleanly", x.getCause());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Grizzly";
+        }
     }
 }
@@ -10,8 +10,14 @@ import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.junit.jupiter.api.AfterAll;
@@ -19,6 +25,7 @@ import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -85,6 +92,122 @@ public class FileServerTest {
         }
     }
     
+    @Test
+    public void testByteRanges() throws IOException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "range.file";
+            upload(testFile, "0123456789");
+            URI downloadURI = testServer.getServerURI().resolve("rest/download/" + testFile);
+
+            Response response = client.target(downloadURI).request().header("Range", "bytes=2-5").get();
+            assertEquals(206, response.getStatus());
+            assertEquals("bytes 2-5/10", response.getHeaderString("Content-Range"));
+            assertEquals("2345", response.readEntity(String.class));
+            EntityTag eTag = response.getEntityTag();
+            assertNotNull(eTag);
+            assertTrue(eTag.isWeak());
+
+            response = client.target(downloadURI).request().header("Range", "bytes=-3").get();
+            assertEquals(206, response.getStatus());
+            assertEquals("789", response.readEntity(String.class));
+
+            response = client.target(downloadURI).request().header("Range", "bytes=8-100").get();
+            assertEquals(206, response.getStatus());
+            assertEquals("89", response.readEntity(String.class));
+
+            response = client.target(downloadURI).request().header("Range", "bytes=20-").get();
+            assertEquals(416, response.getStatus());
+            assertEquals("bytes */10", response.getHeaderString("Content-Range"));
+            response.close();
+
+            // Several ranges, or an If-Range for an older copy, get the whole file
+            response = client.target(downloadURI).request().header("Range", "bytes=0-1,4-5").get();
+            assertEquals(200, response.getStatus());
+            assertEquals("0123456789", response.readEntity(String.class));
+            response = client.target(downloadURI).request().header("Range", "bytes=0-1").header("If-Range", "W/\"other\"").get();
+            assertEquals(200, response.getStatus());
+            assertEquals("0123456789", response.readEntity(String.class));
+
+            response = client.target(downloadURI).request().header("If-None-Match", eTag.toString()).get();
+            assertEquals(304, response.getStatus());
+            response.close();
+
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException, MalformedObjectNameException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "metrics.file";
+            upload(testFile, "0123456789");
+            download(testFile, "0123456789");
+            // A move without a target fails with an exception no mapper handles
+            Response response = client.target(testServer.getServerURI().resolve("rest/move/" + testFile)).request().post(null);
+            assertEquals(500, response.getStatus());
+            response.close();
+            response = client.target(testServer.getServerURI().resolve("rest/metrics")).request().get();
+            assertEquals(200, response.getStatus());
+            assertTrue(response.getMediaType().toString().startsWith("text/plain"));
+            Map<String, Double> samples = new HashMap<>();
+            for (String line : response.readEntity(String.class).split("\n")) {
+                if (!line.startsWith("#")) {
+                    int space = line.lastIndexOf(' ');
+                    samples.put(line.substring(0, space), Double.valueOf(line.substring(space + 1)));
+                }
+            }
+            assertTrue(samples.get("rest_file_server_received_bytes_total{endpoint=\"POST upload\"}") >= 10);
+            assertTrue(samples.get("rest_file_server_sent_bytes_total{endpoint=\"GET download\"}") >= 10);
+            assertTrue(samples.get("rest_file_server_responses_total{endpoint=\"GET download\",status=\"200\"}") >= 1);
+            assertTrue(samples.get("rest_file_server_request_duration_seconds_count{endpoint=\"GET download\"}") >= 1);
+            assertEquals(samples.get("rest_file_server_request_duration_seconds_count{endpoint=\"GET download\"}"),
+                    samples.get("rest_file_server_request_duration_seconds_bucket{endpoint=\"GET download\",le=\"+Inf\"}"));
+            // Only the metrics request itself is under way
+            assertEquals(1.0, samples.get("rest_file_server_requests_in_flight{endpoint=\"GET metrics\"}"));
+            assertEquals(0.0, samples.get("rest_file_server_requests_in_flight{endpoint=\"GET download\"}"));
+            assertEquals(0.0, samples.get("rest_file_server_requests_in_flight{endpoint=\"POST move\"}"));
+            assertEquals(1.0, samples.get("rest_file_server_responses_total{endpoint=\"POST move\",status=\"500\"}"));
+
+            ObjectName name = new ObjectName("org.lsst.ccs.rest.file.server:type=Endpoint,name=" + ObjectName.quote("GET download"));
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            upload("copySource.file", "content");
+            assertEquals(200, copy(client, "copySource.file", "copyTarget.file").getStatus());
+            download("copyTarget.file", "content");
+
+            // A plain directory would be copied empty, so it is refused
+            Response response = client.target(testServer.getServerURI().resolve("rest/createDirectory/copyDir"))
+                    .request(MediaType.APPLICATION_JSON).post(null);
+            assertEquals(200, response.getStatus());
+            assertEquals(400, copy(client, "copyDir", "copyDirTarget").getStatus());
+            assertEquals(1, list(client).getChildren().stream().filter(child -> child.getName().startsWith("copyDir")).count());
+
+            delete(client, "copyDir");
+            delete(client, "copySource.file");
+            delete(client, "copyTarget.file");
+        } finally {
+            client.close();
+        }
+    }
+
+    private Response copy(Client client, String source, String target) {
+        URI copyURI = testServer.getServerURI().resolve("rest/copy/" + source);
+        return client.target(copyURI).queryParam("target", target).request(MediaType.APPLICATION_JSON).post(null);
+    }
+
     private void download(final String testFile, final String content) throws IOException {
         // Get the file back
         URI downloadURI = testServer.getServerURI().resolve("rest/download/" + testFile);
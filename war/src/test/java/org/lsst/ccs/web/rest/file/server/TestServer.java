@@ -10,6 +10,7 @@ import java.nio.file.Path;
 import java.util.Comparator;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import org.lsst.ccs.web.rest.file.server.jwt.TokenVerifier;
 
 /**
  *
@@ -26,8 +27,19 @@ public class TestServer {
     }
     
     public TestServer(int port) throws URISyntaxException, IOException {
+        this(port, null);
+    }
+
+    /**
+     * Creates a server which checks tokens with the given verifier.
+     *
+     * @param port the port
+     * @param tokenVerifier the verifier, or {@code null} to skip
+     * authentication
+     */
+    public TestServer(int port, TokenVerifier tokenVerifier) throws URISyntaxException, IOException {
         tempDir = Files.createTempDirectory("RestServer");
-        MyConfiguration rc = new MyConfiguration(true);
+        MyConfiguration rc = new MyConfiguration(tokenVerifier);
         rc.register(new AbstractBinder() {
             @Override
             protected void configure() {
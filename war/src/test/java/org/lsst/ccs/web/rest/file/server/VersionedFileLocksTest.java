@@ -0,0 +1,207 @@
+package org.lsst.ccs.web.rest.file.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link VersionedFileLocks} with many writers. The throughput
+ * benchmark only runs with {@code -Dbenchmark=true}.
+ */
+public class VersionedFileLocksTest {
+
+    private static final int WRITERS = 8;
+    private static final int UPLOADS_PER_WRITER = 25;
+
+    private Path tempDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("locks");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.walk(tempDir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void concurrentWritersTest(boolean fileLocks) throws Exception {
+        VersionedFileLocks locks = new VersionedFileLocks(64, fileLocks);
+        Path path = tempDir.resolve("shared.file");
+        VersionedFile.create(path, "initial".getBytes(StandardCharsets.UTF_8));
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                int writer = i;
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < UPLOADS_PER_WRITER; j++) {
+                        upload(locks, path, "writer " + writer + " upload " + j);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        VersionedFile vf = new VersionedFile(path);
+        int expected = 1 + WRITERS * UPLOADS_PER_WRITER;
+        assertEquals(expected, vf.getLatestVersion());
+        assertEquals(expected, vf.getVersions().length);
+        // Every comment survives, so no metadata update was lost
+        for (int version = 2; version <= expected; version++) {
+            String content = new String(Files.readAllBytes(vf.getPathForVersion(version)), StandardCharsets.UTF_8);
+            assertEquals(content, vf.getComment(version));
+        }
+    }
+
+    @Test
+    public void concurrentReadersTest() throws Exception {
+        VersionedFileLocks locks = new VersionedFileLocks(64, false);
+        Path path = tempDir.resolve("read.file");
+        VersionedFile.create(path, "initial".getBytes(StandardCharsets.UTF_8));
+        int uploads = WRITERS * UPLOADS_PER_WRITER;
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int j = 0; j < uploads; j++) {
+                    upload(locks, path, "upload " + j);
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 1; i < WRITERS; i++) {
+                readers.add(executor.submit(() -> {
+                    // Readers take no lock, and rebuild a stale index as they find it
+                    while (!writer.isDone()) {
+                        List<VersionIndex.Entry> index = new VersionedFile(path).getIndex();
+                        for (int k = 1; k < index.size(); k++) {
+                            assertTrue(index.get(k).getVersion() > index.get(k - 1).getVersion());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            writer.get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // The index left behind is whole, so later reads need not rebuild it
+        assertNotNull(new VersionIndex(path).read(1 + uploads));
+
+        // The interleaving the readers race for, which is rarely hit: a
+        // reader rebuilds the index after a version is written but before
+        // the writer appends it
+        VersionedFile vf = new VersionedFile(path);
+        byte[] content = "late".getBytes(StandardCharsets.UTF_8);
+        int version = vf.addVersion(content, false);
+        VersionIndex index = new VersionIndex(path);
+        index.rebuild(vf.getVersions());
+        index.append(version, content);
+        assertNotNull(index.read(version));
+    }
+
+    @Test
+    public void sameFileWaitsTest() throws Exception {
+        VersionedFileLocks locks = new VersionedFileLocks(64, false);
+        Path path = tempDir.resolve("waiting.file");
+        CountDownLatch acquired = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> other;
+            try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+                other = executor.submit(() -> {
+                    try (VersionedFileLocks.Lock second = locks.lock(path)) {
+                        acquired.countDown();
+                    }
+                    return null;
+                });
+                assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+            }
+            assertTrue(acquired.await(5, TimeUnit.SECONDS));
+            other.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares upload throughput of writers sharing one file with writers
+     * each using their own file.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark() throws Exception {
+        for (boolean fileLocks : new boolean[]{false, true}) {
+            VersionedFileLocks locks = new VersionedFileLocks(64, fileLocks);
+            benchmark("one file" + (fileLocks ? " + file locks" : ""), locks, false);
+            benchmark("own files" + (fileLocks ? " + file locks" : ""), locks, true);
+        }
+    }
+
+    private void benchmark(String mode, VersionedFileLocks locks, boolean ownFiles) throws Exception {
+        Path shared = tempDir.resolve(mode.replace(' ', '_'));
+        VersionedFile.create(shared, new byte[0]);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                Path path = ownFiles ? shared.resolveSibling(shared.getFileName() + "." + i) : shared;
+                if (ownFiles) {
+                    VersionedFile.create(path, new byte[0]);
+                }
+                int writer = i;
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < UPLOADS_PER_WRITER * 4; j++) {
+                        upload(locks, path, "writer " + writer + " upload " + j);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-24s %8.1f uploads/s%n", mode, WRITERS * UPLOADS_PER_WRITER * 4 / seconds);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stores a version and its comment, as the upload resource does.
+     */
+    private static void upload(VersionedFileLocks locks, Path path, String content) throws IOException {
+        try (VersionedFileLocks.Lock lock = locks.lock(path)) {
+            VersionedFile vf = new VersionedFile(path);
+            int version = vf.addVersion(content.getBytes(StandardCharsets.UTF_8), false);
+            vf.setComment(version, content);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.lsst.ccs.web.rest.file.server;
 
 import org.lsst.ccs.web.rest.file.server.data.RestFileInfo;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -10,12 +11,20 @@ import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.junit.jupiter.api.AfterAll;
@@ -23,15 +32,19 @@ import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.lsst.ccs.web.rest.file.server.data.Constants.PROTOCOL_VERSION_HEADER;
+import org.lsst.ccs.web.rest.file.server.data.Delta;
+import org.lsst.ccs.web.rest.file.server.data.IOExceptionResponse;
 import org.lsst.ccs.web.rest.file.server.data.ServerInfo;
 import org.lsst.ccs.web.rest.file.server.data.VersionInfo;
 import org.lsst.ccs.web.rest.file.server.data.VersionInfoV2;
 import org.lsst.ccs.web.rest.file.server.data.VersionOptions;
+import org.lsst.ccs.web.rest.file.server.jwt.LocalTokenVerifier;
 
 /**
  *
@@ -136,6 +149,218 @@ public class VersionedFileServerTest {
         }
     }
 
+    @Test
+    public void testIfMatch() throws IOException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "ifMatch.file";
+            upload(testFile, "v1");
+            URI uploadURI = testServer.getServerURI().resolve("rest/version/upload/" + testFile);
+            Response response = client.target(uploadURI).request(MediaType.APPLICATION_JSON)
+                    .header("If-Match", "\"1\"")
+                    .post(Entity.entity("v2", MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(200, response.getStatus());
+
+            // Expecting version 1 again: someone else's edit must not be overwritten
+            response = client.target(uploadURI).request(MediaType.APPLICATION_JSON)
+                    .header("If-Match", "\"1\"")
+                    .post(Entity.entity("v3", MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(412, response.getStatus());
+            assertEquals("2", response.getHeaderString("version"));
+            String eTag = response.getHeaderString("ETag");
+            assertNotNull(eTag);
+            assertEquals(2, info2(client, testFile).getLatest());
+
+            // The entity tag of the latest version matches it
+            response = client.target(uploadURI).request(MediaType.APPLICATION_JSON)
+                    .header("If-Match", eTag)
+                    .post(Entity.entity("v3", MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(200, response.getStatus());
+            assertEquals(3, info2(client, testFile).getLatest());
+
+            // A file that does not exist matches nothing
+            response = client.target(testServer.getServerURI().resolve("rest/version/upload/missing.file")).request(MediaType.APPLICATION_JSON)
+                    .header("If-Match", "*")
+                    .post(Entity.entity("v1", MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(412, response.getStatus());
+
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testUploadDelta() throws IOException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "delta.file";
+            final String v1 = "The quick brown fox jumps over the lazy dog, then sleeps";
+            final String v2 = "The quick brown fox jumps over the lazy cat, then sleeps";
+            upload(testFile, v1);
+            byte[] delta = Delta.encode(v1.getBytes(), v2.getBytes());
+            URI deltaURI = testServer.getServerURI().resolve("rest/version/uploadDelta/" + testFile);
+            Response response = client.target(deltaURI).queryParam("base", 1).queryParam("sha256", Delta.sha256(v2.getBytes()))
+                    .request(MediaType.APPLICATION_JSON)
+                    .post(Entity.entity(delta, MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(200, response.getStatus());
+            assertEquals(2, info2(client, testFile).getLatest());
+            URI downloadURI = testServer.getServerURI().resolve("rest/version/download/" + testFile);
+            assertEquals(v2, client.target(downloadURI).queryParam("version", 2).request(MediaType.APPLICATION_OCTET_STREAM).get(String.class));
+
+            // Content which does not rebuild to the digest is refused
+            response = client.target(deltaURI).queryParam("base", 2).queryParam("sha256", Delta.sha256(v2.getBytes()))
+                    .request(MediaType.APPLICATION_JSON)
+                    .post(Entity.entity(delta, MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(IOExceptionResponse.RESPONSE_CODE, response.getStatus());
+            assertEquals(2, info2(client, testFile).getLatest());
+
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMalformedDelta() throws IOException {
+        byte[] base = "base content".getBytes();
+        byte[] maxLong = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f};
+        // Declares 2 GB of content in a few bytes
+        byte[] huge = {'C', 'D', 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+        assertThrows(IOException.class, () -> Delta.apply(base, huge, 1024));
+        // A copy whose end overflows
+        byte[] copy = concat(new byte[]{'C', 'D', 1, 1, 1}, maxLong, new byte[]{1});
+        assertThrows(IOException.class, () -> Delta.apply(base, copy));
+        // An insert longer than the delta
+        byte[] insert = concat(new byte[]{'C', 'D', 1, 5, 2}, maxLong, "abcde".getBytes());
+        assertThrows(IOException.class, () -> Delta.apply(base, insert));
+
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "malformedDelta.file";
+            upload(testFile, "base content");
+            URI deltaURI = testServer.getServerURI().resolve("rest/version/uploadDelta/" + testFile);
+            for (byte[] delta : new byte[][]{huge, copy, insert}) {
+                Response response = client.target(deltaURI).queryParam("base", 1).queryParam("sha256", Delta.sha256(base))
+                        .request(MediaType.APPLICATION_JSON)
+                        .post(Entity.entity(delta, MediaType.APPLICATION_OCTET_STREAM));
+                assertEquals(IOExceptionResponse.RESPONSE_CODE, response.getStatus());
+            }
+            assertEquals(1, info2(client, testFile).getLatest());
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testIncrementalInfo() throws IOException {
+        final Client client = ClientBuilder.newClient();
+        try {
+            final String testFile = "incremental.file";
+            for (int i = 1; i <= 5; i++) {
+                upload(testFile, "v" + i);
+            }
+            VersionInfoV2 all = info2(client, testFile);
+            assertEquals(0, all.getSince());
+            assertEquals(5, all.getVersions().size());
+            assertNotNull(all.getGeneration());
+
+            // Without a generation the client is trusted to have current versions
+            VersionInfoV2 newer = info2(client, testFile, 3, null, null);
+            assertEquals(3, newer.getSince());
+            assertEquals(2, newer.getVersions().size());
+            assertEquals(4, newer.getVersions().get(0).getVersion());
+            assertEquals(5, newer.getLatest());
+            assertEquals(all.getDefault(), newer.getDefault());
+
+            VersionInfoV2 limited = info2(client, testFile, null, 2, null);
+            assertEquals(3, limited.getSince());
+            assertEquals(2, limited.getVersions().size());
+
+            // Changing a comment changes the generation, so every version is sent again
+            VersionOptions options = new VersionOptions.Builder(2).setComment("changed").build();
+            Response response = client.target(testServer.getServerURI().resolve("rest/version/setOptions/" + testFile)).request(MediaType.APPLICATION_JSON)
+                    .header(PROTOCOL_VERSION_HEADER, "2")
+                    .put(Entity.entity(options, MediaType.APPLICATION_JSON));
+            assertEquals(200, response.getStatus());
+            VersionInfoV2 changed = info2(client, testFile, 5, null, all.getGeneration());
+            assertEquals(0, changed.getSince());
+            assertEquals(5, changed.getVersions().size());
+            assertEquals("changed", changed.getVersions().get(1).getComment());
+            assertFalse(all.getGeneration().equals(changed.getGeneration()));
+
+            // Nothing new
+            VersionInfoV2 none = info2(client, testFile, 5, null, changed.getGeneration());
+            assertEquals(5, none.getSince());
+            assertEquals(0, none.getVersions().size());
+
+            // A generation which does not go with since is not trusted
+            VersionInfoV2 mismatched = info2(client, testFile, 3, null, changed.getGeneration());
+            assertEquals(0, mismatched.getSince());
+            assertEquals(5, mismatched.getVersions().size());
+
+            delete(client, testFile);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalInfoAfterAuthenticatedUpload() throws Exception {
+        byte[] secret = "not a very good secret".getBytes(StandardCharsets.UTF_8);
+        TestServer authenticatedServer = new TestServer(9979, LocalTokenVerifier.hmac(secret));
+        final Client client = ClientBuilder.newClient();
+        try {
+            String claims = "{\"sub\":\"uid1\",\"email\":\"someone@example.com\",\"exp\":" + (Instant.now().getEpochSecond() + 3600) + "}";
+            String token = hmac(claims, secret);
+            WebTarget info = client.target(authenticatedServer.getServerURI().resolve("rest/version/info/authenticated.file"));
+            WebTarget upload = client.target(authenticatedServer.getServerURI().resolve("rest/version/upload/authenticated.file"));
+            for (int i = 1; i <= 3; i++) {
+                Response response = upload.queryParam("comment", "comment " + i).request(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .post(Entity.entity("v" + i, MediaType.APPLICATION_OCTET_STREAM));
+                assertEquals(200, response.getStatus());
+            }
+            VersionInfoV2 all = info.request(MediaType.APPLICATION_JSON).header(PROTOCOL_VERSION_HEADER, "2").get(VersionInfoV2.class);
+            assertEquals(3, all.getVersions().size());
+            assertEquals("someone@example.com", all.getVersions().get(2).getCreator());
+
+            // A new version with its own comment and creator leaves the
+            // generation of the versions before it alone
+            Response response = upload.queryParam("comment", "comment 4").request(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .post(Entity.entity("v4", MediaType.APPLICATION_OCTET_STREAM));
+            assertEquals(200, response.getStatus());
+            VersionInfoV2 newer = info.queryParam("since", 3).queryParam("generation", all.getGeneration())
+                    .request(MediaType.APPLICATION_JSON).header(PROTOCOL_VERSION_HEADER, "2").get(VersionInfoV2.class);
+            assertEquals(3, newer.getSince());
+            assertEquals(1, newer.getVersions().size());
+            assertEquals("comment 4", newer.getVersions().get(0).getComment());
+            assertEquals("someone@example.com", newer.getVersions().get(0).getCreator());
+        } finally {
+            client.close();
+            authenticatedServer.shutdown();
+        }
+    }
+
+    private static String hmac(String claims, byte[] secret) throws GeneralSecurityException {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String signed = encoder.encodeToString("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        return signed + "." + encoder.encodeToString(mac.doFinal(signed.getBytes(StandardCharsets.US_ASCII)));
+    }
+
     @Test
     public void testServerAdvertisesSensitiveCapability() {
         final Client client = ClientBuilder.newClient();
@@ -208,6 +433,21 @@ public class VersionedFileServerTest {
         return fileInfo;
     }
     
+    private VersionInfoV2 info2(Client client, String file, Integer since, Integer limit, String generation) {
+        WebTarget target = client.target(testServer.getServerURI().resolve("rest/version/info/" + file));
+        if (since != null) {
+            target = target.queryParam("since", since).queryParam("generation", generation);
+        }
+        if (limit != null) {
+            target = target.queryParam("limit", limit);
+        }
+        Response response = target.request(MediaType.APPLICATION_JSON)
+                .header(PROTOCOL_VERSION_HEADER, "2")
+                .get();
+        assertEquals(200, response.getStatus());
+        return response.readEntity(VersionInfoV2.class);
+    }
+
     private static class AddProtcolVersionRequestFilter implements ClientRequestFilter {
         public static final String FILTER_HEADER_VALUE = "2";
         public static final String FILTER_HEADER_KEY = PROTOCOL_VERSION_HEADER;
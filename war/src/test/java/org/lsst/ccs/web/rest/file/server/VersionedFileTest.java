@@ -8,10 +8,18 @@ import com.github.difflib.patch.Patch;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.lsst.ccs.web.rest.file.server.data.DefaultChangeRecord;
+import org.lsst.ccs.web.rest.file.server.data.Delta;
 import org.junit.Assert;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
@@ -125,6 +133,221 @@ public class VersionedFileTest {
         assertFalse(new VersionedFile(filePath).isSensitive());
     }
 
+    @Test
+    public void testMetaTransaction() throws IOException {
+        Path filePath = tempDir.resolve("transaction.file");
+        VersionedFile vf = VersionedFile.create(filePath, "v1".getBytes(), "first", "someone");
+        assertEquals("first", vf.getComment(1));
+        assertEquals("someone", vf.getCreator(1));
+        vf.addVersion("v2".getBytes(), false);
+        vf.addVersion("v3".getBytes(), false);
+
+        VersionedFile.MetaTransaction changes = vf.editMeta()
+                .setComment(3, "third")
+                .setCreator(3, "someone else")
+                .setHidden(2, true)
+                .setSensitive(true);
+        // Nothing is visible until the changes are committed
+        assertEquals("", vf.getComment(3));
+        assertFalse(new VersionedFile(filePath).isSensitive());
+        changes.commit();
+
+        VersionedFile reopened = new VersionedFile(filePath);
+        assertEquals("third", reopened.getComment(3));
+        assertEquals("someone else", reopened.getCreator(3));
+        assertTrue(reopened.isHidden(2));
+        assertTrue(reopened.isSensitive());
+        assertEquals("first", reopened.getComment(1));
+        assertTrue(vf.isHidden(2));
+        assertFalse(Files.exists(filePath.resolve("version-meta.properties.tmp")));
+
+        // A failed change leaves the metadata as it was
+        assertThrows(RuntimeException.class, () -> vf.editMeta().setComment(1, "changed").setHidden(3, true).commit());
+        assertEquals("first", new VersionedFile(filePath).getComment(1));
+    }
+
+    @Test
+    public void testJournal() throws IOException {
+        Path filePath = tempDir.resolve("journal.file");
+        VersionedFile vf = VersionedFile.create(filePath, "v1".getBytes());
+        vf.addVersion("v2".getBytes(), false);
+        // A file written before journals, with a default history snapshot
+        Files.write(filePath.resolve("default-history.json"), "[{\"version\":1,\"timestamp\":1,\"changedBy\":\"legacy\"}]".getBytes());
+        long snapshotSize = Files.size(filePath.resolve("version-meta.properties"));
+        for (int i = 0; i < 50; i++) {
+            vf.setComment(2, "comment " + i);
+        }
+        vf.setDefaultVersion(2);
+        vf.recordDefaultChange(2, "someone");
+        assertEquals(snapshotSize, Files.size(filePath.resolve("version-meta.properties")));
+
+        VersionedFile reopened = new VersionedFile(filePath);
+        assertEquals("comment 49", reopened.getComment(2));
+        List<DefaultChangeRecord> history = reopened.getDefaultHistory();
+        assertEquals(2, history.size());
+        assertEquals("legacy", history.get(0).getChangedBy());
+        assertEquals("someone", history.get(1).getChangedBy());
+
+        // An entry cut short by a crash is skipped, and later entries kept
+        Files.write(filePath.resolve("version-meta.journal"), "{\"comment.1\":\"brok".getBytes(), StandardOpenOption.APPEND);
+        reopened.setComment(1, "first");
+        reopened = new VersionedFile(filePath);
+        assertEquals("first", reopened.getComment(1));
+        assertEquals("comment 49", reopened.getComment(2));
+
+        reopened.compact();
+        assertFalse(Files.exists(filePath.resolve("version-meta.journal")));
+        assertFalse(Files.exists(filePath.resolve("default-history.journal")));
+        VersionedFile compacted = new VersionedFile(filePath);
+        assertEquals("first", compacted.getComment(1));
+        assertEquals("comment 49", compacted.getComment(2));
+        assertEquals(2, compacted.getDefaultHistory().size());
+    }
+
+    @Test
+    public void testCompactionCrash() throws IOException {
+        Path filePath = tempDir.resolve("compactionCrash.file");
+        Path journal = filePath.resolve("default-history.journal");
+        VersionedFile vf = VersionedFile.create(filePath, "v1".getBytes());
+        vf.addVersion("v2".getBytes(), false);
+        vf.recordDefaultChange(2, "first");
+        vf.recordDefaultChange(1, "second");
+        // A crash after the snapshot is replaced but before the journal is deleted
+        byte[] journalBytes = Files.readAllBytes(journal);
+        vf.compact();
+        Files.write(journal, journalBytes);
+        List<DefaultChangeRecord> history = vf.getDefaultHistory();
+        assertEquals(2, history.size());
+        assertEquals("first", history.get(0).getChangedBy());
+        assertEquals("second", history.get(1).getChangedBy());
+
+        // Records added after the crash are still read
+        vf.recordDefaultChange(2, "third");
+        history = vf.getDefaultHistory();
+        assertEquals(3, history.size());
+        assertEquals("third", history.get(2).getChangedBy());
+
+        // and the next compaction leaves each record once
+        vf.compact();
+        assertFalse(Files.exists(journal));
+        history = vf.getDefaultHistory();
+        assertEquals(Arrays.asList("first", "second", "third"), history.stream().map(DefaultChangeRecord::getChangedBy).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        Path filePath = tempDir.resolve("index.file");
+        Path indexFile = filePath.resolve(VersionIndex.INDEX_FILE_NAME);
+        VersionedFile vf = VersionedFile.create(filePath, "v1".getBytes());
+        vf.addVersion("version 2".getBytes(), false);
+        vf.addVersion("v3".getBytes(), false);
+        List<VersionIndex.Entry> index = vf.getIndex();
+        assertEquals(3, index.size());
+        VersionIndex.Entry entry = index.get(1);
+        assertEquals(2, entry.getVersion());
+        assertEquals(9, entry.getSize());
+        assertEquals(Files.getLastModifiedTime(vf.getPathForVersion(2)).toMillis(), entry.getLastModified());
+        assertEquals(Delta.sha256("version 2".getBytes()), toHex(entry.getSha256()));
+
+        // Missing, cut short or stale indexes are rebuilt
+        long size = Files.size(indexFile);
+        Files.delete(indexFile);
+        assertEquals(3, vf.getIndex().size());
+        assertEquals(size, Files.size(indexFile));
+        Files.write(indexFile, Arrays.copyOf(Files.readAllBytes(indexFile), (int) size - 5));
+        assertEquals(3, vf.getIndex().size());
+        assertEquals(size, Files.size(indexFile));
+        Files.delete(indexFile);
+        vf.addVersion("v4".getBytes(), false);
+        assertFalse(Files.exists(indexFile));
+        assertEquals(4, vf.getIndex().size());
+        vf.addVersion("v5".getBytes(), false);
+        assertEquals(5, vf.getIndex().get(4).getVersion());
+
+        // Versions added by a server which did not keep the index leave a gap
+        // once a later version is appended
+        byte[] upToFive = Files.readAllBytes(indexFile);
+        vf.addVersion("v6".getBytes(), false);
+        Files.write(indexFile, upToFive);
+        vf.addVersion("v7".getBytes(), false);
+        index = vf.getIndex();
+        assertEquals(7, index.size());
+        assertEquals(6, index.get(5).getVersion());
+        assertEquals(7, vf.getIndex().get(6).getVersion());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testConditionalAddVersion() throws IOException {
+        VersionedFile vf = VersionedFile.create(tempDir.resolve("conditional.file"), "v1".getBytes());
+        assertEquals(2, vf.addVersion("v2".getBytes(), true, 1));
+        assertEquals(-1, vf.addVersion("v3".getBytes(), true, 1));
+        assertEquals(2, vf.getLatestVersion());
+        // A version number already taken, as by a concurrent upload
+        Files.write(tempDir.resolve("conditional.file").resolve("3"), "other".getBytes());
+        assertEquals(-1, vf.addVersion("v3".getBytes(), true, 2));
+        assertEquals(4, vf.addVersion("v4".getBytes(), true, 0));
+        assertEquals(4, vf.getLatestVersion());
+        assertEquals("v4", new String(Files.readAllBytes(vf.getLatest())));
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        VersionedFile vf = VersionedFile.create(tempDir.resolve("copySource.file"), "v1".getBytes());
+        vf.addVersion("v2".getBytes(), false);
+        vf.addVersion("v3".getBytes(), false);
+        vf.setDefaultVersion(2);
+        vf.setComment(2, "second");
+        vf.setHidden(1, true);
+
+        VersionedFile copy = vf.copy(tempDir.resolve("copy.file"), true);
+        assertArrayEquals(vf.getVersions(), copy.getVersions());
+        assertEquals(2, copy.getDefaultVersion());
+        assertEquals(3, copy.getLatestVersion());
+        assertEquals("second", copy.getComment(2));
+        assertTrue(copy.isHidden(1));
+        assertEquals("v3", new String(Files.readAllBytes(copy.getLatest())));
+        // Versions are shared, not duplicated
+        assertTrue(Files.isSameFile(vf.getPathForVersion(3), copy.getPathForVersion(3)));
+        assertThrows(FileAlreadyExistsException.class, () -> vf.copy(tempDir.resolve("copy.file"), true));
+
+        // A temporary directory left by a crashed copy does not get in the way
+        Path stale = Files.createDirectory(tempDir.resolve("defaultOnly.file$$TMP$$"));
+        VersionedFile defaultOnly = vf.copy(tempDir.resolve("defaultOnly.file"), false);
+        assertArrayEquals(new int[]{1}, defaultOnly.getVersions());
+        assertEquals("second", defaultOnly.getComment(1));
+        assertEquals("v2", new String(Files.readAllBytes(defaultOnly.getDefault())));
+        assertEquals(Files.getPosixFilePermissions(tempDir.resolve("copySource.file")), Files.getPosixFilePermissions(tempDir.resolve("defaultOnly.file")));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(Collections.singletonList(stale), files.filter(f -> f.getFileName().toString().contains("$$TMP$$")).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testGenerationOfRecreatedCopy() throws IOException {
+        VersionedFile vf = VersionedFile.create(tempDir.resolve("generationSource.file"), "v1".getBytes());
+        vf.addVersion("v2".getBytes(), false);
+        Path target = tempDir.resolve("generationCopy.file");
+        VersionedFile copy = vf.copy(target, true);
+        String generation = copy.getGeneration(2);
+        assertEquals(generation, new VersionedFile(target).getGeneration(2));
+        assertNotEquals(vf.getGeneration(2), generation);
+
+        // Deleted and copied again from the same source, it shares the same
+        // version files, but is still a different file
+        try (Stream<Path> files = Files.walk(target)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        assertNotEquals(generation, vf.copy(target, true).getGeneration(2));
+    }
+
     @Test
     public void testConvert() throws IOException {
         String content = "Unversioned Content";
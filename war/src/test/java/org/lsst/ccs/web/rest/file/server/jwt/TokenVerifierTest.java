@@ -0,0 +1,144 @@
+package org.lsst.ccs.web.rest.file.server.jwt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the local and caching token verifiers.
+ */
+public class TokenVerifierTest {
+
+    private static final byte[] SECRET = "not a very good secret".getBytes(StandardCharsets.UTF_8);
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    public void hmacTest() throws IOException, GeneralSecurityException {
+        LocalTokenVerifier verifier = new LocalTokenVerifier(SECRET, Collections.emptyMap(), Clock.fixed(NOW, ZoneOffset.UTC));
+        String claims = "{\"sub\":\"uid1\",\"email\":\"someone@example.com\",\"exp\":" + (NOW.getEpochSecond() + 3600) + "}";
+        VerifiedToken token = verifier.verify(hmac(claims, SECRET));
+        assertEquals("uid1", token.getSubject());
+        assertEquals("someone@example.com", token.getCreator());
+        assertEquals(NOW.plusSeconds(3600), token.getExpiry());
+
+        assertEquals("uid2", verifier.verify(hmac("{\"sub\":\"uid2\",\"exp\":" + (NOW.getEpochSecond() + 10) + "}", SECRET)).getCreator());
+
+        byte[] wrongSecret = "another secret".getBytes(StandardCharsets.UTF_8);
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac(claims, wrongSecret)));
+        String expired = "{\"sub\":\"uid1\",\"exp\":" + (NOW.getEpochSecond() - 2 * LocalTokenVerifier.CLOCK_SKEW_SECONDS) + "}";
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac(expired, SECRET)));
+        String notYetValid = "{\"sub\":\"uid1\",\"nbf\":" + (NOW.getEpochSecond() + 3600) + ",\"exp\":" + (NOW.getEpochSecond() + 7200) + "}";
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac(notYetValid, SECRET)));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac("{\"sub\":\"uid1\"}", SECRET)));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac("{\"exp\":" + (NOW.getEpochSecond() + 10) + "}", SECRET)));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify("not.a.token"));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify("garbage"));
+        String unsigned = encode("{\"alg\":\"none\"}") + "." + encode(claims) + ".";
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(unsigned));
+    }
+
+    @Test
+    public void jwksTest() throws IOException, GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        KeyPair other = generator.generateKeyPair();
+        RSAPublicKey publicKey = (RSAPublicKey) pair.getPublic();
+        String jwks = "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"key1\",\"n\":\"" + encode(publicKey.getModulus().toByteArray())
+                + "\",\"e\":\"" + encode(publicKey.getPublicExponent().toByteArray()) + "\"},{\"kty\":\"EC\",\"kid\":\"ignored\"}]}";
+        LocalTokenVerifier verifier = LocalTokenVerifier.jwks(new ByteArrayInputStream(jwks.getBytes(StandardCharsets.UTF_8)));
+
+        String claims = "{\"sub\":\"uid1\",\"name\":\"Someone\",\"exp\":" + (Instant.now().getEpochSecond() + 3600) + "}";
+        assertEquals("Someone", verifier.verify(rsa(claims, "key1", pair.getPrivate())).getCreator());
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(rsa(claims, "key1", other.getPrivate())));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(rsa(claims, "key2", pair.getPrivate())));
+        // No shared secret in the key set, so HS256 tokens are refused
+        assertThrows(InvalidTokenException.class, () -> verifier.verify(hmac(claims, SECRET)));
+
+        assertThrows(IOException.class, () -> LocalTokenVerifier.jwks(new ByteArrayInputStream("{\"keys\":[]}".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void cachingTest() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        TokenVerifier delegate = token -> {
+            calls.incrementAndGet();
+            if (token.startsWith("bad")) {
+                throw new InvalidTokenException("Bad token");
+            }
+            return new VerifiedToken(token, null, null, token.startsWith("short") ? Instant.now().minusSeconds(1) : null);
+        };
+        CachingTokenVerifier verifier = new CachingTokenVerifier(delegate, 2, Duration.ofMinutes(10), Clock.systemUTC());
+
+        VerifiedToken first = verifier.verify("token1");
+        assertSame(first, verifier.verify("token1"));
+        assertEquals(1, calls.get());
+
+        // Rejected tokens are checked every time
+        assertThrows(InvalidTokenException.class, () -> verifier.verify("bad"));
+        assertThrows(InvalidTokenException.class, () -> verifier.verify("bad"));
+        assertEquals(3, calls.get());
+
+        // Expired tokens are checked again
+        verifier.verify("short");
+        verifier.verify("short");
+        assertEquals(5, calls.get());
+
+        // The least recently used token is dropped
+        verifier.verify("token2");
+        verifier.verify("token3");
+        assertEquals(2, verifier.size());
+        calls.set(0);
+        verifier.verify("token1");
+        assertEquals(1, calls.get());
+
+        // Entries are dropped after the maximum age
+        CachingTokenVerifier shortLived = new CachingTokenVerifier(delegate, 10, Duration.ZERO, Clock.systemUTC());
+        calls.set(0);
+        shortLived.verify("token1");
+        shortLived.verify("token1");
+        assertEquals(2, calls.get());
+    }
+
+    private static String hmac(String claims, byte[] secret) throws GeneralSecurityException {
+        String signed = encode("{\"alg\":\"HS256\",\"typ\":\"JWT\"}") + "." + encode(claims);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        return signed + "." + encode(mac.doFinal(signed.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String rsa(String claims, String kid, PrivateKey key) throws GeneralSecurityException {
+        String signed = encode("{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"" + kid + "\"}") + "." + encode(claims);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(signed.getBytes(StandardCharsets.US_ASCII));
+        return signed + "." + encode(signature.sign());
+    }
+
+    private static String encode(String json) {
+        return encode(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(byte[] data) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+    }
+}
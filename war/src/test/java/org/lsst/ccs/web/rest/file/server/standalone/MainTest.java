@@ -0,0 +1,151 @@
+package org.lsst.ccs.web.rest.file.server.standalone;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Tests the standalone launcher. The throughput benchmark only runs with
+ * {@code -Dbenchmark=true}.
+ */
+public class MainTest {
+
+    private static final int PORT = 9982;
+    private static final int CLIENTS = 32;
+    private static final int REQUESTS_PER_CLIENT = 50;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void parseSettings() {
+        Main.Settings settings = Main.Settings.parse(new String[0]);
+        assertEquals(8899, settings.port);
+        assertEquals(Main.ExecutorType.PLATFORM, settings.executor);
+        assertEquals(Main.ContainerType.JDK, settings.container);
+        assertFalse(settings.help);
+
+        settings = Main.Settings.parse(new String[]{"--port", "9000", "--baseDir=/tmp/files", "--backlog", "100",
+            "--threads", "8", "--executor", "virtual", "--container", "grizzly"});
+        assertEquals(9000, settings.port);
+        assertEquals(Paths.get("/tmp/files"), settings.baseDir);
+        assertEquals(100, settings.backlog);
+        assertEquals(8, settings.threads);
+        assertEquals(Main.ExecutorType.VIRTUAL, settings.executor);
+        assertEquals(Main.ContainerType.GRIZZLY, settings.container);
+        assertTrue(Main.Settings.parse(new String[]{"--help"}).help);
+        assertTrue(Main.Settings.parse(new String[]{"--skipAuthentication"}).skipAuthentication);
+
+        assertThrows(IllegalArgumentException.class, () -> Main.Settings.parse(new String[]{"--port"}));
+        assertThrows(IllegalArgumentException.class, () -> Main.Settings.parse(new String[]{"--threads", "0"}));
+        assertThrows(IllegalArgumentException.class, () -> Main.Settings.parse(new String[]{"--executor", "green"}));
+        assertThrows(IllegalArgumentException.class, () -> Main.Settings.parse(new String[]{"--verbose", "true"}));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Main.ContainerType.class)
+    public void serves(Main.ContainerType container) throws Exception {
+        Files.writeString(tempDir.resolve("hello.txt"), "hello");
+        Main.Settings settings = settings(Main.ExecutorType.PLATFORM, 4);
+        settings.container = container;
+        Main main = new Main(settings);
+        try {
+            main.run();
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = main.getServerURI().resolve("rest/download/hello.txt");
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("hello", response.body());
+            assertEquals("5", response.headers().firstValue("Content-Length").orElse(null));
+            response = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=1-3").build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(206, response.statusCode());
+            assertEquals("ell", response.body());
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Compares request throughput with a single thread (how the server ran
+     * before it was given an executor), a pool of platform threads and, on
+     * Java 21 and later, virtual threads, then the same pool in Grizzly.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark() throws Exception {
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        Files.write(tempDir.resolve("large.bin"), content);
+        benchmark("single thread", settings(Main.ExecutorType.PLATFORM, 1));
+        benchmark("platform pool", settings(Main.ExecutorType.PLATFORM, 2 * Runtime.getRuntime().availableProcessors()));
+        if (Runtime.version().feature() >= 21) {
+            benchmark("virtual threads", settings(Main.ExecutorType.VIRTUAL, 1));
+        }
+        Main.Settings grizzly = settings(Main.ExecutorType.PLATFORM, 2 * Runtime.getRuntime().availableProcessors());
+        grizzly.container = Main.ContainerType.GRIZZLY;
+        benchmark("grizzly pool", grizzly);
+    }
+
+    private void benchmark(String mode, Main.Settings settings) throws Exception {
+        Main main = new Main(settings);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            main.run();
+            URI uri = main.getServerURI().resolve("rest/download/large.bin");
+            HttpClient client = HttpClient.newBuilder().executor(clients).build();
+            // Warm up
+            client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+            long start = System.nanoTime();
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                results.add(clients.submit(() -> {
+                    long bytes = 0;
+                    for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+                        assertEquals(200, response.statusCode());
+                        bytes += response.body().length;
+                    }
+                    return bytes;
+                }));
+            }
+            long bytes = 0;
+            for (Future<Long> result : results) {
+                bytes += result.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-16s %8.1f requests/s %8.1f MB/s%n", mode, CLIENTS * REQUESTS_PER_CLIENT / seconds, bytes / seconds / 1e6);
+        } finally {
+            clients.shutdownNow();
+            main.stop();
+        }
+    }
+
+    private Main.Settings settings(Main.ExecutorType executor, int threads) {
+        Main.Settings settings = new Main.Settings();
+        settings.port = PORT;
+        settings.baseDir = tempDir;
+        settings.executor = executor;
+        settings.threads = threads;
+        settings.skipAuthentication = true;
+        return settings;
+    }
+}